@@ -0,0 +1,27 @@
+package webapp.runner.benchmarks;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Dynamic content of the sample web application.
+ */
+public class HelloServlet extends HttpServlet {
+
+  private static final long serialVersionUID = 1L;
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    response.setContentType("text/plain");
+    response.setCharacterEncoding("UTF-8");
+    PrintWriter writer = response.getWriter();
+    writer.print("Hello from ");
+    writer.print(request.getRequestURI());
+    writer.print(" at ");
+    writer.println(System.currentTimeMillis());
+  }
+}
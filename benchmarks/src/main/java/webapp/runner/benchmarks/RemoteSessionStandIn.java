@@ -0,0 +1,142 @@
+package webapp.runner.benchmarks;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stands in for a Redis backed session: every attribute is Java serialized when it is set
+ * and deserialized when it is read, as the redis session manager does for each access.
+ */
+@SuppressWarnings("deprecation")
+class RemoteSessionStandIn implements HttpSession {
+
+  private final String id;
+  private final long creationTime = System.currentTimeMillis();
+  private final Map<String, byte[]> attributes = new ConcurrentHashMap<String, byte[]>();
+  private int maxInactiveInterval = 1800;
+
+  RemoteSessionStandIn(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    byte[] data = attributes.get(name);
+    if (data == null) {
+      return null;
+    }
+    try {
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+      try {
+        return in.readObject();
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void setAttribute(String name, Object value) {
+    if (value == null) {
+      removeAttribute(name);
+      return;
+    }
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(value);
+      out.close();
+      attributes.put(name, bytes.toByteArray());
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  @Override
+  public void removeAttribute(String name) {
+    attributes.remove(name);
+  }
+
+  @Override
+  public Enumeration<String> getAttributeNames() {
+    return Collections.enumeration(attributes.keySet());
+  }
+
+  @Override
+  public String[] getValueNames() {
+    return attributes.keySet().toArray(new String[0]);
+  }
+
+  @Override
+  public Object getValue(String name) {
+    return getAttribute(name);
+  }
+
+  @Override
+  public void putValue(String name, Object value) {
+    setAttribute(name, value);
+  }
+
+  @Override
+  public void removeValue(String name) {
+    removeAttribute(name);
+  }
+
+  @Override
+  public void invalidate() {
+    attributes.clear();
+  }
+
+  @Override
+  public long getCreationTime() {
+    return creationTime;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public long getLastAccessedTime() {
+    return System.currentTimeMillis();
+  }
+
+  @Override
+  public ServletContext getServletContext() {
+    return null;
+  }
+
+  @Override
+  public void setMaxInactiveInterval(int interval) {
+    maxInactiveInterval = interval;
+  }
+
+  @Override
+  public int getMaxInactiveInterval() {
+    return maxInactiveInterval;
+  }
+
+  @Override
+  public javax.servlet.http.HttpSessionContext getSessionContext() {
+    return null;
+  }
+
+  @Override
+  public boolean isNew() {
+    return false;
+  }
+}
@@ -0,0 +1,98 @@
+package webapp.runner.benchmarks;
+
+import org.apache.catalina.startup.Tomcat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second through the connector built by {@code ConnectorFactory}, for a
+ * static page served by the default servlet and for a small servlet response. Clients use
+ * keep-alive connections on the loopback interface.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class RequestThroughputBenchmark {
+
+  @Param({"nio", "bio"})
+  public String protocol;
+
+  private File workDir;
+  private Tomcat tomcat;
+  private URL staticUrl;
+  private URL dynamicUrl;
+
+  @State(Scope.Thread)
+  public static class Client {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream(8192);
+  }
+
+  @Setup(Level.Trial)
+  public void start() throws Exception {
+    workDir = SampleWebapp.createTempDir("throughput-benchmark");
+    File webapp = SampleWebapp.createExploded(new File(workDir, "exploded"));
+    tomcat = SampleWebapp.start(webapp, new File(workDir, "base"), "--protocol", protocol);
+    String base = "http://127.0.0.1:" + tomcat.getConnector().getLocalPort();
+    staticUrl = new URL(base + "/index.html");
+    dynamicUrl = new URL(base + "/hello");
+  }
+
+  @TearDown(Level.Trial)
+  public void stop() throws Exception {
+    SampleWebapp.stop(tomcat);
+    SampleWebapp.delete(workDir);
+  }
+
+  @Benchmark
+  public int staticContent(Client client) throws IOException {
+    return get(staticUrl, client);
+  }
+
+  @Benchmark
+  public int dynamicContent(Client client) throws IOException {
+    return get(dynamicUrl, client);
+  }
+
+  /**
+   * Reads the whole response, so the connection is returned to the keep-alive cache.
+   */
+  private static int get(URL url, Client client) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    int status = connection.getResponseCode();
+    if (status != HttpURLConnection.HTTP_OK) {
+      throw new IOException("Unexpected status " + status + " for " + url);
+    }
+    client.body.reset();
+    InputStream in = connection.getInputStream();
+    try {
+      SampleWebapp.copy(in, client.body);
+    } finally {
+      in.close();
+    }
+    return client.body.size();
+  }
+}
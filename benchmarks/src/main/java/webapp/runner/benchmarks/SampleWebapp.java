@@ -0,0 +1,166 @@
+package webapp.runner.benchmarks;
+
+import com.beust.jcommander.JCommander;
+import org.apache.catalina.startup.Tomcat;
+import webapp.runner.launch.CommandLineParams;
+import webapp.runner.launch.factory.TomcatFactory;
+import webapp.runner.launch.helper.ContextDefinition;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a small web application to disk and starts webapp-runner with it.
+ */
+final class SampleWebapp {
+
+  /**
+   * Keeps the logger configuration from being garbage collected.
+   */
+  private static final Logger TOMCAT_LOGGER = Logger.getLogger("org.apache");
+
+  static {
+    TOMCAT_LOGGER.setLevel(Level.WARNING);
+  }
+
+  private SampleWebapp() {
+  }
+
+  /**
+   * Creates an exploded web application with a static page at /index.html and a servlet
+   * at /hello.
+   */
+  static File createExploded(File dir) throws IOException {
+    File webInf = new File(dir, "WEB-INF");
+    if (!webInf.isDirectory() && !webInf.mkdirs()) {
+      throw new IOException("Could not create " + webInf);
+    }
+    StringBuilder page = new StringBuilder("<html><head><title>Static</title></head><body>\n");
+    for (int i = 0; i < 100; i++) {
+      page.append("<p>Static benchmark content, paragraph ").append(i).append(".</p>\n");
+    }
+    page.append("</body></html>\n");
+    write(new File(dir, "index.html"), page.toString());
+    write(new File(webInf, "web.xml"),
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"3.0\">\n" +
+            "  <servlet>\n" +
+            "    <servlet-name>hello</servlet-name>\n" +
+            "    <servlet-class>" + HelloServlet.class.getName() + "</servlet-class>\n" +
+            "  </servlet>\n" +
+            "  <servlet-mapping>\n" +
+            "    <servlet-name>hello</servlet-name>\n" +
+            "    <url-pattern>/hello</url-pattern>\n" +
+            "  </servlet-mapping>\n" +
+            "</web-app>\n");
+    return dir;
+  }
+
+  /**
+   * Packs an exploded web application into a WAR file.
+   */
+  static File createWar(File exploded, File war) throws IOException {
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(war));
+    try {
+      addToWar(out, exploded, "");
+    } finally {
+      out.close();
+    }
+    return war;
+  }
+
+  private static void addToWar(ZipOutputStream out, File dir, String prefix) throws IOException {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    byte[] buffer = new byte[8192];
+    for (File file : files) {
+      if (file.isDirectory()) {
+        out.putNextEntry(new ZipEntry(prefix + file.getName() + "/"));
+        out.closeEntry();
+        addToWar(out, file, prefix + file.getName() + "/");
+        continue;
+      }
+      out.putNextEntry(new ZipEntry(prefix + file.getName()));
+      InputStream in = new FileInputStream(file);
+      try {
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+          out.write(buffer, 0, count);
+        }
+      } finally {
+        in.close();
+      }
+      out.closeEntry();
+    }
+  }
+
+  /**
+   * Starts webapp-runner on an ephemeral port.
+   *
+   * @param arguments additional command line arguments
+   */
+  static Tomcat start(File webapp, File baseDir, String... arguments) throws Exception {
+    List<String> args = new ArrayList<String>(Arrays.asList("--port", "0", "--baseDir", baseDir.getAbsolutePath()));
+    args.addAll(Arrays.asList(arguments));
+    CommandLineParams params = new CommandLineParams();
+    new JCommander(params, args.toArray(new String[args.size()]));
+    return new TomcatFactory().createTomcatServer(params, null, new ContextDefinition(webapp, ""));
+  }
+
+  static void stop(Tomcat tomcat) throws Exception {
+    if (tomcat != null) {
+      tomcat.stop();
+      tomcat.destroy();
+    }
+  }
+
+  static File createTempDir(String prefix) throws IOException {
+    File dir = File.createTempFile(prefix, "");
+    if (!dir.delete() || !dir.mkdirs()) {
+      throw new IOException("Could not create " + dir);
+    }
+    return dir;
+  }
+
+  static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static void write(File file, String content) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write(content);
+    } finally {
+      writer.close();
+    }
+  }
+
+  static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[8192];
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      out.write(buffer, 0, count);
+    }
+  }
+}
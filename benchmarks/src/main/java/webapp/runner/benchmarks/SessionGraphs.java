@@ -0,0 +1,79 @@
+package webapp.runner.benchmarks;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session attribute maps resembling what applications keep in their sessions.
+ */
+final class SessionGraphs {
+
+  private SessionGraphs() {
+  }
+
+  static class CartItem implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String sku;
+    final int quantity;
+    final long priceCents;
+
+    CartItem(String sku, int quantity, long priceCents) {
+      this.sku = sku;
+      this.quantity = quantity;
+      this.priceCents = priceCents;
+    }
+  }
+
+  /**
+   * @param shape small (login state only), typical (user profile and preferences) or large
+   *              (typical plus a shopping cart of application objects and a navigation history)
+   */
+  static HashMap<String, Object> create(String shape) {
+    HashMap<String, Object> attributes = new HashMap<String, Object>();
+    attributes.put("userId", 48151623L);
+    attributes.put("authenticated", Boolean.TRUE);
+    attributes.put("csrfToken", "8f14e45fceea167a5a36dedd4bea2543");
+    if ("small".equals(shape)) {
+      return attributes;
+    }
+
+    Map<String, Object> profile = new LinkedHashMap<String, Object>();
+    profile.put("name", "Jane Doe");
+    profile.put("email", "jane.doe@example.com");
+    profile.put("locale", "en_US");
+    profile.put("timeZone", "Europe/Berlin");
+    profile.put("lastLogin", new Date(1400000000000L));
+    List<Object> roles = new ArrayList<Object>();
+    roles.add("user");
+    roles.add("editor");
+    profile.put("roles", roles);
+    attributes.put("profile", profile);
+
+    Map<String, Object> preferences = new HashMap<String, Object>();
+    for (int i = 0; i < 20; i++) {
+      preferences.put("preference." + i, i % 3 == 0 ? (Object) Boolean.valueOf(i % 2 == 0) : "value-" + i);
+    }
+    attributes.put("preferences", preferences);
+    if ("typical".equals(shape)) {
+      return attributes;
+    }
+
+    List<Object> cart = new ArrayList<Object>();
+    for (int i = 0; i < 25; i++) {
+      cart.add(new CartItem("SKU-" + (100000 + i), 1 + i % 4, 1999L + i * 100));
+    }
+    attributes.put("cart", cart);
+    List<Object> history = new ArrayList<Object>();
+    for (int i = 0; i < 200; i++) {
+      history.add("/catalog/category-" + (i % 12) + "/product-" + i + "?ref=search");
+    }
+    attributes.put("history", history);
+    return attributes;
+  }
+}
@@ -0,0 +1,65 @@
+package webapp.runner.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import webapp.runner.launch.session.SessionSerializer;
+import webapp.runner.launch.session.SessionSerializers;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization and deserialization cost of the session serializers on representative
+ * session graphs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SessionSerializerBenchmark {
+
+  /**
+   * Serializer name, optionally followed by "+deflate" for compression above 512 bytes.
+   */
+  @Param({"java", "compact", "java+deflate", "compact+deflate"})
+  public String serializer;
+
+  @Param({"small", "typical", "large"})
+  public String graph;
+
+  private SessionSerializer sessionSerializer;
+  private HashMap<String, Object> attributes;
+  private byte[] serialized;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    String[] parts = serializer.split("\\+");
+    sessionSerializer = SessionSerializers.create(parts[0], parts.length > 1 ? 512 : 0);
+    attributes = SessionGraphs.create(graph);
+    serialized = sessionSerializer.serialize(attributes);
+    System.out.println();
+    System.out.println("Serialized size of " + graph + " session with " + serializer + ": " + serialized.length + " bytes");
+  }
+
+  @Benchmark
+  public byte[] serialize() throws Exception {
+    return sessionSerializer.serialize(attributes);
+  }
+
+  @Benchmark
+  public Object deserialize() throws Exception {
+    return sessionSerializer.deserialize(serialized, getClass().getClassLoader());
+  }
+}
@@ -0,0 +1,207 @@
+package webapp.runner.benchmarks;
+
+import de.javakaffee.web.msm.MemcachedBackupSession;
+import de.javakaffee.web.msm.SessionAttributesTranscoder;
+import org.apache.catalina.Context;
+import org.apache.catalina.Loader;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.session.PersistentManager;
+import org.apache.catalina.session.StandardSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import webapp.runner.launch.session.OffHeapBlockStore;
+import webapp.runner.launch.session.OffHeapStore;
+import webapp.runner.launch.session.RemoteSessionFilter;
+import webapp.runner.launch.session.SerializerTranscoderFactory;
+import webapp.runner.launch.session.SerializingMemcachedSessionManager;
+import webapp.runner.launch.session.SessionNearCache;
+import webapp.runner.launch.session.SessionSerializer;
+import webapp.runner.launch.session.SessionSerializers;
+import webapp.runner.launch.session.SessionWriteBehindQueue;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session cost of a typical request, which reads three attributes and writes one, for each
+ * session store. Remote backends are replaced by in-process stand-ins that keep the
+ * serialized data, so the numbers show the CPU cost of the store without network latency:
+ * <ul>
+ * <li>default: Tomcat's in-memory sessions</li>
+ * <li>memcache: the session attributes are deserialized when the request starts and
+ * serialized for the backup when it ends, by the transcoder the memcache session store
+ * configures for the memcached session manager</li>
+ * <li>redis: every attribute access serializes or deserializes that attribute, through the
+ * same request filter the redis session store installs for its options</li>
+ * <li>offheap: the session is loaded from and saved to the {@link OffHeapStore} the offheap
+ * session store gives its persistent manager, as when it is swapped in and out</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SessionStoreBenchmark {
+
+  @Param({"default", "memcache", "memcache-compact", "redis", "redis-compact", "redis-near-cache",
+          "redis-write-behind", "offheap"})
+  public String store;
+
+  private final Map<String, Object> memory = new ConcurrentHashMap<String, Object>();
+  private SessionSerializer serializer;
+  private SessionAttributesTranscoder transcoder;
+  private MemcachedBackupSession memcacheSession;
+  private byte[] backup;
+  private OffHeapStore offHeap;
+  private RemoteSessionFilter filter;
+  private HttpServletRequest request;
+  private final FilterChain chain = new FilterChain() {
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+      handleSession(((HttpServletRequest) request).getSession());
+    }
+  };
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    HashMap<String, Object> attributes = SessionGraphs.create("typical");
+    boolean compact = store.endsWith("-compact");
+    serializer = SessionSerializers.create(compact ? SessionSerializers.COMPACT : SessionSerializers.JAVA, 0);
+
+    if (store.startsWith("memcache")) {
+      // as configured by MemcacheSessionStore, which leaves plain Java serialization to the manager
+      SerializingMemcachedSessionManager manager = new SerializingMemcachedSessionManager();
+      manager.setSessionSerializer(compact ? serializer : null);
+      manager.setContainer(createContext());
+      transcoder = new SerializerTranscoderFactory().createTranscoder(manager);
+      memcacheSession = new MemcachedBackupSession(manager);
+      backup = transcoder.serializeAttributes(memcacheSession, attributes);
+    } else if (store.equals("offheap")) {
+      PersistentManager manager = new PersistentManager();
+      manager.setContainer(createContext());
+      offHeap = new OffHeapStore(new OffHeapBlockStore(16 * 1024 * 1024, OffHeapBlockStore.DEFAULT_BLOCK_SIZE, null));
+      offHeap.setManager(manager);
+      StandardSession session = (StandardSession) manager.createEmptySession();
+      session.setValid(true);
+      session.setCreationTime(System.currentTimeMillis());
+      session.setMaxInactiveInterval(1800);
+      session.setId("session", false);
+      for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+        session.setAttribute(attribute.getKey(), attribute.getValue());
+      }
+      offHeap.save(session);
+    } else if (store.startsWith("redis")) {
+      final RemoteSessionStandIn session = new RemoteSessionStandIn("session");
+      for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+        session.setAttribute(attribute.getKey(), attribute.getValue());
+      }
+      request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+              new Class<?>[]{HttpServletRequest.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                  return method.getName().equals("getSession") ? session : null;
+                }
+              });
+      SessionNearCache cache = store.equals("redis-near-cache") ? new SessionNearCache(1000, 30000) : null;
+      SessionWriteBehindQueue writeBehind = store.equals("redis-write-behind")
+              ? new SessionWriteBehindQueue(500, 10000, null) : null;
+      filter = new RemoteSessionFilter(cache, null, writeBehind, compact ? serializer : null);
+      filter.init(null);
+    } else {
+      memory.putAll(attributes);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    if (filter != null) {
+      filter.destroy();
+    }
+    if (offHeap != null) {
+      offHeap.getBlocks().close();
+    }
+  }
+
+  @Benchmark
+  public Object request() throws Exception {
+    if (transcoder != null) {
+      Map<String, Object> attributes = transcoder.deserializeAttributes(backup);
+      Object result = handleAttributes(attributes);
+      backup = transcoder.serializeAttributes(memcacheSession, attributes);
+      return result;
+    }
+    if (offHeap != null) {
+      StandardSession session = (StandardSession) offHeap.load("session");
+      Object result = handleSession(session);
+      offHeap.save(session);
+      return result;
+    }
+    if (filter != null) {
+      filter.doFilter(request, null, chain);
+      return request;
+    }
+    return handleAttributes(memory);
+  }
+
+  /**
+   * @return an unstarted context whose loader hands out the class loader of the benchmarks,
+   * enough for the session managers to deserialize attributes
+   */
+  private static Context createContext() {
+    final ClassLoader classLoader = SessionStoreBenchmark.class.getClassLoader();
+    Loader loader = (Loader) Proxy.newProxyInstance(classLoader, new Class<?>[]{Loader.class},
+            new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getClassLoader")) {
+                  return classLoader;
+                }
+                return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+              }
+            });
+    StandardContext context = new StandardContext();
+    context.setLoader(loader);
+    return context;
+  }
+
+  private static Object handleAttributes(Map<String, Object> attributes) {
+    Object userId = attributes.get("userId");
+    Object profile = attributes.get("profile");
+    Object preferences = attributes.get("preferences");
+    attributes.put("lastPage", "/catalog/category-3/product-42");
+    return userId != null && profile != null ? preferences : null;
+  }
+
+  private static Object handleSession(HttpSession session) {
+    Object userId = session.getAttribute("userId");
+    Object profile = session.getAttribute("profile");
+    Object preferences = session.getAttribute("preferences");
+    session.setAttribute("lastPage", "/catalog/category-3/product-42");
+    return userId != null && profile != null ? preferences : null;
+  }
+}
@@ -0,0 +1,74 @@
+package webapp.runner.benchmarks;
+
+import org.apache.catalina.startup.Tomcat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of {@code TomcatFactory.createTomcatServer} until the application is started, for
+ * an exploded directory and for a WAR. Every fork measures a cold JVM first; later
+ * iterations show the warm start time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 10)
+@Fork(5)
+public class StartupBenchmark {
+
+  @Param({"exploded", "war"})
+  public String layout;
+
+  private File workDir;
+  private File webapp;
+  private File baseDir;
+  private Tomcat tomcat;
+
+  @Setup(Level.Trial)
+  public void createWebapp() throws Exception {
+    workDir = SampleWebapp.createTempDir("startup-benchmark");
+    webapp = SampleWebapp.createExploded(new File(workDir, "exploded"));
+    if ("war".equals(layout)) {
+      webapp = SampleWebapp.createWar(webapp, new File(workDir, "sample.war"));
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void createBaseDir() throws Exception {
+    // a fresh base directory, so WARs are expanded and JSP work files created every time
+    baseDir = SampleWebapp.createTempDir("startup-benchmark-base");
+  }
+
+  @Benchmark
+  public Tomcat start() throws Exception {
+    tomcat = SampleWebapp.start(webapp, baseDir);
+    return tomcat;
+  }
+
+  @TearDown(Level.Invocation)
+  public void stop() throws Exception {
+    SampleWebapp.stop(tomcat);
+    tomcat = null;
+    SampleWebapp.delete(baseDir);
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteWebapp() {
+    SampleWebapp.delete(workDir);
+  }
+}
@@ -32,7 +32,7 @@ public class CommandLineParams {
     @Parameter(names = "--shutdown-override", description = "Overrides the default behavior and casues Tomcat to ignore lifecycle failure events rather than shutting down when they occur.")
     public boolean shutdownOverride = false;
     
-    @Parameter(names = "--session-store", description = "Session store to use (valid options are 'memcache' or 'redis')")
+    @Parameter(names = "--session-store", description = "Session store to use (valid options are 'memcache', 'redis' or 'offheap')")
     public String sessionStore;
     
     @Parameter(names = "--session-store-operation-timeout", description = "Operation timeout for the memcache session store. (default is 5000ms)")
@@ -44,6 +44,42 @@ public class CommandLineParams {
     @Parameter(names = "--session-store-ignore-pattern", description = "Request pattern to not track sessions for. Valid only with memcache session store. (default is '.*\\.(png|gif|jpg|css|js)$'")
     public String sessionStoreIgnorePattern = ".*\\.(png|gif|jpg|css|js)$";
 
+    @Parameter(names = "--session-store-near-cache", description = "Cache session attributes read from the redis session store in the JVM. Changes are announced to the other nodes through Redis pub/sub.")
+    public boolean sessionStoreNearCache = false;
+
+    @Parameter(names = "--session-store-near-cache-size", description = "Maximum number of sessions held by the near cache. (default is 10000)")
+    public Integer sessionStoreNearCacheSize = 10000;
+
+    @Parameter(names = "--session-store-near-cache-ttl", description = "Seconds after which a cached session is read from Redis again. (default is 30)")
+    public Integer sessionStoreNearCacheTtl = 30;
+
+    @Parameter(names = "--session-store-write-behind", description = "Write session changes to the memcache or redis session store asynchronously instead of within the request.")
+    public boolean sessionStoreWriteBehind = false;
+
+    @Parameter(names = "--session-store-flush-delay", description = "Milliseconds after its first change that a session is written to the redis session store with write behind, plus the time to write it. The memcache session store backs up right after the request instead. (default is 500)")
+    public Integer sessionStoreFlushDelay = 500;
+
+    @Parameter(names = "--session-store-max-pending", description = "Sessions with unwritten changes above which requests write to the redis session store synchronously. Not used by the memcache session store, see --session-store-backup-threads. (default is 10000)")
+    public Integer sessionStoreMaxPending = 10000;
+
+    @Parameter(names = "--session-store-backup-threads", description = "Threads writing sessions to the memcache session store with write behind. (default is the number of processors)")
+    public Integer sessionStoreBackupThreads;
+
+    @Parameter(names = "--session-serializer", description = "Serialization of session attributes for the memcache and redis session stores (valid options are 'java' or 'compact'). (default is java)")
+    public String sessionSerializer = "java";
+
+    @Parameter(names = "--session-compression-threshold", description = "Serialized session data of at least this many bytes is compressed for the memcache and redis session stores, 0 disables compression. (default is 0)")
+    public Integer sessionCompressionThreshold = 0;
+
+    @Parameter(names = "--session-store-offheap-size", description = "Maximum memory in MB used by the offheap session store. Least recently used sessions are evicted beyond it. (default is 256)")
+    public Integer sessionStoreOffHeapSize = 256;
+
+    @Parameter(names = "--session-store-offheap-idle", description = "Seconds of inactivity after which the offheap session store moves a session out of the heap. (default is 60)")
+    public Integer sessionStoreOffHeapIdleSwap = 60;
+
+    @Parameter(names = "--session-store-offheap-dir", description = "Directory for memory mapped session files of the offheap session store. Direct buffers are used if not set.")
+    public String sessionStoreOffHeapDir;
+
     @Parameter(names = "--help", help = true)
     public boolean help;
     
@@ -53,6 +89,15 @@ public class CommandLineParams {
     @Parameter(names = "--compressable-mime-types", description = "Comma delimited list of mime types that will be compressed when using GZIP compression.")
     public String compressableMimeTypes = "text/html,text/xml,text/plain,text/css,application/json,application/xml,text/javascript,application/javascript";
 
+    @Parameter(names = "--precompress-static", description = "Serve static resources compressed: precompressed .br and .gz siblings are used when present, other resources matching --compressable-mime-types are gzipped once and cached.")
+    public boolean precompressStatic;
+
+    @Parameter(names = "--static-cache-size", description = "Maximum size in KB of the cache of compressed static resources, per context. (default is 10240)")
+    public Integer staticCacheSize = 10240;
+
+    @Parameter(names = "--static-compression-min-size", description = "Static resources smaller than this number of bytes are not compressed. (default is 1024)")
+    public Integer staticCompressionMinSize = 1024;
+
     @Parameter(names = "--enable-ssl", description = "Specify -Djavax.net.ssl.trustStore and -Djavax.net.ssl.trustStorePassword in JAVA_OPTS. Note: should not be used if a reverse proxy is terminating SSL for you (such as on Heroku)")
     public boolean enableSSL;
 
@@ -74,12 +119,183 @@ public class CommandLineParams {
     @Parameter(names = "--expand-war", description = "Expand the war file and set it as source")
     public boolean expandWar = false;
 
+    @Parameter(names = "--lazy-init", description = "Initialize servlets and filters on their first request instead of at startup, ignoring load-on-startup")
+    public boolean lazyInit = false;
+
+    @Parameter(names = "--jsp-precompile", description = "Compile all JSPs in the background once the application has started")
+    public boolean jspPrecompile = false;
+
+    @Parameter(names = "--jsp-precompile-threads", description = "Number of JSPs compiled at the same time in the background (default is 2)")
+    public Integer jspPrecompileThreads = 2;
+
+    @Parameter(names = "--jsp-cache", description = "Keep the classes of compiled JSPs in the base directory and reuse them for JSPs with the same content after a restart or redeploy. Implies --jsp-precompile")
+    public boolean jspCache = false;
+
+    @Parameter(names = "--warmup-urls", description = "Comma separated paths, including the context path, requested before the connector accepts connections")
+    public String warmUpUrls;
+
+    @Parameter(names = "--warmup-access-log", description = "Access log in common or combined log format whose GET requests are replayed before the connector accepts connections")
+    public String warmUpAccessLog;
+
+    @Parameter(names = "--warmup-max-requests", description = "Maximum number of requests read from the warm-up access log (default is 10000)")
+    public Integer warmUpMaxRequests = 10000;
+
+    @Parameter(names = "--warmup-threads", description = "Threads sending the warm-up requests (default is 4)")
+    public Integer warmUpThreads = 4;
+
+    @Parameter(names = "--warmup-passes", description = "Number of times the warm-up requests are sent (default is 10)")
+    public Integer warmUpPasses = 10;
+
+    @Parameter(names = "--warmup-latency", description = "Ends the warm-up once the 99th percentile latency of a pass is at most this many milliseconds, 0 to always send all passes (default is 0)")
+    public Long warmUpLatency = 0L;
+
+    @Parameter(names = "--warmup-timeout", description = "Seconds after which no further warm-up pass is started (default is 120)")
+    public Integer warmUpTimeout = 120;
+
+    @Parameter(names = "--cds-dump", description = "Start the application in a second JVM, send the warm-up requests and write a class data sharing archive to this file when it exits. Requires Java 13 or newer")
+    public String cdsDump;
+
+    @Parameter(names = "--cds-warmup", description = "Comma separated paths requested before the class data sharing archive is written (default is /)")
+    public String cdsWarmUp = "/";
+
+    @Parameter(names = "--cds-archive", description = "Class data sharing archive the JVM is expected to be started with, using -XX:SharedArchiveFile")
+    public String cdsArchive;
+
+    @Parameter(names = "--metrics-port", description = "Record request latencies by context, URL pattern and status class and serve them with thread pool and session statistics on this management port, at /metrics for Prometheus and at /metrics.json")
+    public Integer metricsPort;
+
+    @Parameter(names = "--metrics-address", description = "Address the management port listens on (default is all addresses)")
+    public String metricsAddress;
+
+    @Parameter(names = "--access-log", description = "Write an access log to this directory, one file per day. Records are written asynchronously and dropped if the writer cannot keep up")
+    public String accessLog;
+
+    @Parameter(names = "--access-log-pattern", description = "Format of the access log (valid options are 'common' or 'combined') (default is common)")
+    public String accessLogPattern = "common";
+
+    @Parameter(names = "--access-log-buffer", description = "Number of access log records buffered before new ones are dropped (default is 8192)")
+    public Integer accessLogBuffer = 8192;
+
+    @Parameter(names = "--slow-request-threshold", description = "Milliseconds after which a request still processed by a thread is logged with its stack and counted as slow; the stacks of its thread are then sampled until it completes")
+    public Long slowRequestThreshold;
+
+    @Parameter(names = "--slow-request-sample-interval", description = "Milliseconds between two samples of the stacks of slow requests (default is 200)")
+    public Long slowRequestSampleInterval = 200L;
+
+    @Parameter(names = "--slow-request-report", description = "File the sampled stacks of slow requests are written to in the folded format of flame graph tools (default is slow-requests.folded in the base directory)")
+    public String slowRequestReport;
+
+    @Parameter(names = "--jfr-events", description = "Emit Java Flight Recorder events for requests, session store loads and saves and startup phases while a recording is running. Requires a JVM with Flight Recorder")
+    public boolean jfrEvents = false;
+
+    @Parameter(names = "--concurrency-limit", description = "Limit the requests each context processes at the same time, adapting the limit to the observed latency, and answer requests over the limit right away with 503 and Retry-After")
+    public boolean concurrencyLimit = false;
+
+    @Parameter(names = "--concurrency-limit-initial", description = "Concurrency limit of a context before latencies were observed (default is 20)")
+    public Integer concurrencyLimitInitial = 20;
+
+    @Parameter(names = "--concurrency-limit-min", description = "Lowest concurrency limit of a context (default is 4)")
+    public Integer concurrencyLimitMin = 4;
+
+    @Parameter(names = "--concurrency-limit-max", description = "Highest concurrency limit of a context (default is --max-threads, or 200)")
+    public Integer concurrencyLimitMax;
+
+    @Parameter(names = "--concurrency-limit-retry-after", description = "Seconds sent in the Retry-After header of rejected requests (default is 1)")
+    public Integer concurrencyLimitRetryAfter = 1;
+
+    @Parameter(names = "--checkpoint-after-warmup", description = "Checkpoint the JVM once the server has started and the warm-up is done, to restore it from there later. Requires a JVM with CRaC started with -XX:CRaCCheckpointTo")
+    public boolean checkpointAfterWarmUp = false;
+
+    @Parameter(names = "--startup-report", description = "Print how long each phase of the startup, each context and each component took once the server has started")
+    public boolean startupReport = false;
+
+    @Parameter(names = "--startup-report-json", description = "Write the startup timings as JSON to this file once the server has started")
+    public String startupReportJson;
+
+    @Parameter(names = "--mmap-war", description = "Serve the resources of a WAR that is not expanded from a memory mapping of the archive")
+    public boolean mmapWar = false;
+
     @Parameter(names = "--auto-deploy", description = "Automatically discover WARs and deploy them")
     public boolean autoDeploy = false;
 
+    @Parameter(names = "--protocol", description = "Connector implementation to use (valid options are 'nio', 'nio2', 'apr' or 'bio'). Unavailable implementations fall back to nio. (default is nio)")
+    public String protocol = "nio";
+
+    @Parameter(names = "--sendfile-threshold", description = "Size in KB from which static files are written with sendfile instead of being copied through the heap, 0 disables sendfile. Requires an exploded webapp or --expand-war. (default is 48)")
+    public Integer sendfileThreshold;
+
+    @Parameter(names = "--max-threads", description = "Maximum number of request processing threads of the connector. (default is 200)")
+    public Integer maxThreads;
+
+    @Parameter(names = "--min-spare-threads", description = "Number of request processing threads kept alive while idle. (default is 10)")
+    public Integer minSpareThreads;
+
+    @Parameter(names = "--accept-count", description = "Length of the accept queue used when all request processing threads are busy. (default is 100)")
+    public Integer acceptCount;
+
+    @Parameter(names = "--max-connections", description = "Maximum number of connections the connector accepts and processes at the same time. (default is 10000)")
+    public Integer maxConnections;
+
+    @Parameter(names = "--poller-threads", description = "Number of NIO poller threads. (default is one per core, at most 2)")
+    public Integer pollerThreadCount;
+
+    @Parameter(names = "--connection-timeout", description = "Milliseconds to wait for the request line after a connection was accepted. (default is 20000ms)")
+    public Integer connectionTimeout;
+
+    @Parameter(names = "--keep-alive-timeout", description = "Milliseconds to wait for the next request on a keep-alive connection. (defaults to the connection timeout)")
+    public Integer keepAliveTimeout;
+
+    @Parameter(names = "--max-keep-alive-requests", description = "Maximum number of requests served on one keep-alive connection, -1 for unlimited. (default is 100)")
+    public Integer maxKeepAliveRequests;
+
+    @Parameter(names = "--socket-receive-buffer", description = "Socket receive buffer size (SO_RCVBUF) in bytes. (default is 25188)")
+    public Integer socketReceiveBuffer;
+
+    @Parameter(names = "--socket-send-buffer", description = "Socket send buffer size (SO_SNDBUF) in bytes. (default is 43800)")
+    public Integer socketSendBuffer;
+
+    @Parameter(names = "--auto-tune-connector", description = "Size threads, accept queue and connection limit of the connector from the available cores and heap. Explicitly given values take precedence.")
+    public boolean autoTuneConnector = false;
+
+    @Parameter(names = "--shared-executor", description = "Process requests of all connectors on a shared, bounded executor registered with the service")
+    public boolean sharedExecutor = false;
+
+    @Parameter(names = "--executor-name", description = "Name of the shared executor. (default is tomcatThreadPool)")
+    public String executorName = "tomcatThreadPool";
+
+    @Parameter(names = "--executor-min-threads", description = "Number of threads the shared executor keeps alive while idle. (default is 25)")
+    public Integer executorMinThreads = 25;
+
+    @Parameter(names = "--executor-max-threads", description = "Maximum number of threads of the shared executor. (default is 200)")
+    public Integer executorMaxThreads = 200;
+
+    @Parameter(names = "--executor-queue-size", description = "Maximum number of requests queued by the shared executor before they are rejected. (default is unbounded)")
+    public Integer executorQueueSize = Integer.MAX_VALUE;
+
+    @Parameter(names = "--executor-max-idle-time", description = "Milliseconds an idle thread above the minimum is kept before it is stopped. (default is 60000ms)")
+    public Integer executorMaxIdleTime = 60000;
+
+    @Parameter(names = "--executor-statistics-interval", description = "Seconds between log entries with active threads, queue depth and rejected tasks of the shared executor, 0 to disable. (default is 0)")
+    public Integer executorStatisticsInterval = 0;
+
+    @Parameter(names = "--virtual-threads", description = "Process each request on its own virtual thread. Falls back to the platform thread pool if the JVM does not support virtual threads.")
+    public boolean virtualThreads = false;
+
     @Parameter(names = "--uri-encoding", description = "Specify URIEncoding for connector")
     public String uriEncoding;
 
+    @Parameter(names = "--start-stop-threads", description = "Threads used to configure and start the web applications in parallel, 0 or less for the number of processors plus this value. (default is 1)")
+    public Integer startStopThreads = 1;
+
+    @Parameter(names = "--scan-include", description = "Comma separated file name patterns of the JARs scanned for annotations, web fragments and TLDs at startup, e.g. 'myapp-*.jar,spring-web*.jar'. All JARs are scanned if not set.")
+    public String scanInclude;
+
+    @Parameter(names = "--scan-exclude", description = "Comma separated file name patterns of JARs that are not scanned for annotations, web fragments and TLDs at startup.")
+    public String scanExclude;
+
+    @Parameter(names = "--scan-cache", description = "Remember which JARs contain no annotations or TLDs and skip them on the next start. The cache is kept in the base directory. Requires an exploded webapp or --expand-war.")
+    public boolean scanCache = false;
+
     @Parameter(names = "--baseDir", description = "Specifies the Tomcat Base Directory.")
     public String baseDir;
 
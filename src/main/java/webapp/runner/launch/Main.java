@@ -29,7 +29,12 @@ import com.beust.jcommander.JCommander;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.startup.Tomcat;
 import webapp.runner.launch.factory.TomcatFactory;
+import webapp.runner.launch.helper.Checkpoint;
+import webapp.runner.launch.helper.ClassDataSharing;
 import webapp.runner.launch.helper.ContextDefinition;
+import webapp.runner.launch.jfr.FlightRecorderEvents;
+import webapp.runner.launch.monitor.SlowRequestMonitor;
+import webapp.runner.launch.profile.StartupProfiler;
 
 import java.io.File;
 
@@ -43,8 +48,11 @@ public class Main {
 
   public static void main(String[] args) throws Exception {
 
+    StartupProfiler profiler = StartupProfiler.getInstance();
+    StartupProfiler.Timer timer = profiler.start(StartupProfiler.PHASES, "parse arguments");
     CommandLineParams commandLineParams = new CommandLineParams();
     JCommander jCommander = new JCommander(commandLineParams, args);
+    timer.stop();
 
     if (commandLineParams.help) {
       jCommander.usage();
@@ -77,8 +85,55 @@ public class Main {
     }
 
 
+    // the archive is written by a second JVM, which runs the code below
+    if (commandLineParams.cdsDump != null && !ClassDataSharing.isTraining()) {
+      System.exit(ClassDataSharing.dump(commandLineParams.cdsDump, args));
+    }
+    if (commandLineParams.cdsArchive != null) {
+      ClassDataSharing.checkArchive(commandLineParams.cdsArchive);
+    }
+
+    if (commandLineParams.jfrEvents && !FlightRecorderEvents.enable()) {
+      System.out.println("WARNING: --jfr-events requires a JVM with Java Flight Recorder, no events are emitted.");
+    }
+
+    if (commandLineParams.checkpointAfterWarmUp && !Checkpoint.isSupported()) {
+      System.err.println("--checkpoint-after-warmup requires a JVM with CRaC, started with -XX:CRaCCheckpointTo");
+      System.exit(1);
+    }
+
     ContextDefinition context = new ContextDefinition(war, commandLineParams.contextPath);
-    Tomcat tomcat = new TomcatFactory().createTomcatServer(commandLineParams, null, context);
+    timer = profiler.start(StartupProfiler.PHASES, "create server");
+    TomcatConfigurator configurator = null;
+    if (commandLineParams.slowRequestThreshold != null) {
+      configurator = new SlowRequestMonitor(null);
+    }
+    Tomcat tomcat = new TomcatFactory().createTomcatServer(commandLineParams, configurator, context);
+    timer.stop();
+
+    if (commandLineParams.startupReport) {
+      System.out.print(profiler.report());
+    }
+    if (commandLineParams.startupReportJson != null) {
+      profiler.writeJson(new File(commandLineParams.startupReportJson));
+    }
+
+    if (commandLineParams.cdsDump != null) {
+      ClassDataSharing.warmUp(tomcat, commandLineParams.contextPath, commandLineParams.cdsWarmUp);
+      tomcat.stop();
+      // the JVM writes the archive when it exits
+      System.exit(0);
+    }
+
+    // the JVM continues here when it is restored from the checkpoint
+    if (commandLineParams.checkpointAfterWarmUp) {
+      try {
+        Checkpoint.checkpointRestore();
+        System.out.println("Restored from checkpoint");
+      } catch (Exception e) {
+        System.out.println("WARNING: Checkpoint failed, continuing without: " + e);
+      }
+    }
 
     addShutdownHook(tomcat);
 
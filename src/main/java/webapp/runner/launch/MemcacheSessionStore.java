@@ -2,7 +2,10 @@ package webapp.runner.launch;
 
 import org.apache.catalina.Context;
 
-import de.javakaffee.web.msm.MemcachedBackupSessionManager;
+import webapp.runner.launch.jfr.FlightRecorderEvents;
+import webapp.runner.launch.session.SerializerTranscoderFactory;
+import webapp.runner.launch.session.SerializingMemcachedSessionManager;
+import webapp.runner.launch.session.SessionSerializer;
 
 class MemcacheSessionStore extends SessionStore {
 
@@ -14,7 +17,7 @@ class MemcacheSessionStore extends SessionStore {
      */
     @Override
     public void configureSessionStore(CommandLineParams commandLineParams, Context ctx){        
-        MemcachedBackupSessionManager manager = new MemcachedBackupSessionManager();
+        SerializingMemcachedSessionManager manager = new SerializingMemcachedSessionManager();
         
         if(System.getenv("MEMCACHE_SERVERS") != null) { //Using Memcache
             if(System.getenv("MEMCACHE_USERNAME") == null
@@ -51,12 +54,21 @@ class MemcacheSessionStore extends SessionStore {
         
         manager.setMemcachedProtocol("binary");
         manager.setSticky(false);
-        manager.setSessionBackupAsync(false);
+        manager.setSessionBackupAsync(commandLineParams.sessionStoreWriteBehind);
+        if(commandLineParams.sessionStoreWriteBehind && commandLineParams.sessionStoreBackupThreads != null) {
+            manager.setBackupThreadCount(commandLineParams.sessionStoreBackupThreads);
+        }
         manager.setEnabled(true);
         manager.setEnableStatistics(true);
         manager.setOperationTimeout(commandLineParams.sessionStoreOperationTimout);
         manager.setLockingMode(commandLineParams.sessionStoreLockingMode);
         manager.setRequestUriIgnorePattern(commandLineParams.sessionStoreIgnorePattern);
+        SessionSerializer serializer = createSessionSerializer(commandLineParams);
+        // the transcoder also records serialization as flight recorder events
+        if(serializer != null || FlightRecorderEvents.isEnabled()) {
+            manager.setSessionSerializer(serializer);
+            manager.setTranscoderFactoryClass(SerializerTranscoderFactory.class.getName());
+        }
         ctx.setManager(manager);
     }
     
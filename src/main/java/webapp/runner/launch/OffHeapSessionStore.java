@@ -0,0 +1,45 @@
+package webapp.runner.launch;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.session.PersistentManager;
+
+import webapp.runner.launch.session.OffHeapBlockStore;
+import webapp.runner.launch.session.OffHeapStore;
+
+class OffHeapSessionStore extends SessionStore {
+
+    /**
+     * Configures a persistent session manager that swaps idle sessions out of the heap
+     * into direct or memory mapped buffers
+     *
+     * @param commandLineParams Arguments map
+     * @param ctx Tomcat context
+     */
+    @Override
+    public void configureSessionStore(CommandLineParams commandLineParams, Context ctx) {
+        File file = null;
+        if (commandLineParams.sessionStoreOffHeapDir != null) {
+            String name = ctx.getName().length() == 0 ? "ROOT" : ctx.getName().replace('/', '#').substring(1);
+            file = new File(commandLineParams.sessionStoreOffHeapDir, "sessions-" + name + ".bin");
+        }
+
+        OffHeapBlockStore blocks;
+        try {
+            blocks = new OffHeapBlockStore(commandLineParams.sessionStoreOffHeapSize * 1024L * 1024L,
+                    OffHeapBlockStore.DEFAULT_BLOCK_SIZE, file);
+        } catch (IOException e) {
+            System.out.println("WARNING: offheap session store could not be created, using default: " + e.getMessage());
+            return;
+        }
+
+        PersistentManager manager = new PersistentManager();
+        manager.setStore(new OffHeapStore(blocks));
+        manager.setMaxIdleSwap(commandLineParams.sessionStoreOffHeapIdleSwap);
+        // the store does not outlive the JVM
+        manager.setSaveOnRestart(false);
+        ctx.setManager(manager);
+    }
+}
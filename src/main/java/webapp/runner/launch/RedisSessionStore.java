@@ -6,6 +6,12 @@ import org.apache.catalina.Context;
 import java.net.URI;
 
 import ru.zinin.redis.session.RedisManager;
+import webapp.runner.launch.jfr.FlightRecorderEvents;
+import webapp.runner.launch.session.RedisInvalidationChannel;
+import webapp.runner.launch.session.RemoteSessionFilter;
+import webapp.runner.launch.session.SessionNearCache;
+import webapp.runner.launch.session.SessionSerializer;
+import webapp.runner.launch.session.SessionWriteBehindQueue;
 
 class RedisSessionStore extends SessionStore {
 
@@ -20,6 +26,9 @@ class RedisSessionStore extends SessionStore {
         RedisManager redisManager = new RedisManager();
         redisManager.setDisableListeners(true);
 
+        String hostname = "localhost";
+        int port = 6379;
+        String password = null;
         if(System.getenv("REDIS_URL") == null && System.getenv("REDISTOGO_URL") == null){
             System.out.println("WARNING: redis session store being used, but the required environment variable isn't set.");
             System.out.println("Redis session store is configured with REDIS_URL or REDISTOGO_URL");
@@ -33,16 +42,19 @@ class RedisSessionStore extends SessionStore {
                 }
 
                 if(redisUri.getHost() != null) {
-                    redisManager.setRedisHostname(redisUri.getHost());
+                    hostname = redisUri.getHost();
+                    redisManager.setRedisHostname(hostname);
                 }
                 if(redisUri.getPort() != -1) {
-                    redisManager.setRedisPort(redisUri.getPort());
+                    port = redisUri.getPort();
+                    redisManager.setRedisPort(port);
                 }
                 if(redisUri.getPath() != null && redisUri.getPath().length() > 1) {
                     redisManager.setDbIndex(Integer.parseInt(redisUri.getPath().split("/")[1]));
                 }
                 if(redisUri.getUserInfo() != null) {
-                    redisManager.setRedisPassword(redisUri.getUserInfo().substring(redisUri.getUserInfo().indexOf(":")+1));
+                    password = redisUri.getUserInfo().substring(redisUri.getUserInfo().indexOf(":")+1);
+                    redisManager.setRedisPassword(password);
                 }
                 
             } catch (URISyntaxException e){
@@ -50,7 +62,37 @@ class RedisSessionStore extends SessionStore {
             }
         }
         ctx.setManager(redisManager);
+
+        SessionSerializer serializer = createSessionSerializer(commandLineParams);
+        if(commandLineParams.sessionStoreNearCache || commandLineParams.sessionStoreWriteBehind || serializer != null
+                || FlightRecorderEvents.isEnabled()) {
+            configureSessionFilter(commandLineParams, ctx, hostname, port, password, serializer);
+        }
+    }
+
+    /**
+     * Serves session attribute reads from a local cache, invalidated by changes announced
+     * by the other nodes and bounded by a time to live, writes changed attributes in the
+     * background, stores them with the selected serializer and/or records them as flight
+     * recorder events
+     */
+    private void configureSessionFilter(CommandLineParams commandLineParams, Context ctx,
+                                        String hostname, int port, String password,
+                                        SessionSerializer serializer) {
+        SessionNearCache cache = null;
+        RedisInvalidationChannel channel = null;
+        if(commandLineParams.sessionStoreNearCache) {
+            cache = new SessionNearCache(commandLineParams.sessionStoreNearCacheSize,
+                    commandLineParams.sessionStoreNearCacheTtl * 1000L);
+            channel = new RedisInvalidationChannel(hostname, port, password, cache);
+        }
+        SessionWriteBehindQueue writeBehind = null;
+        if(commandLineParams.sessionStoreWriteBehind) {
+            writeBehind = new SessionWriteBehindQueue(commandLineParams.sessionStoreFlushDelay,
+                    commandLineParams.sessionStoreMaxPending, serializer);
+        }
+        RemoteSessionFilter filter = new RemoteSessionFilter(cache, channel, writeBehind, serializer);
+        filter.setEventBackend("redis");
+        filter.addTo(ctx);
     }
-    
-    
-}
\ No newline at end of file
+}
@@ -1,6 +1,8 @@
 package webapp.runner.launch;
 
 import org.apache.catalina.Context;
+import webapp.runner.launch.session.SessionSerializer;
+import webapp.runner.launch.session.SessionSerializers;
 
 public class SessionStore {
     
@@ -21,6 +23,8 @@ public class SessionStore {
             return new MemcacheSessionStore();
         } else if ("redis".equals(sessionStore)){
             return new RedisSessionStore();
+        } else if ("offheap".equals(sessionStore)){
+            return new OffHeapSessionStore();
         } else {
             return new SessionStore();
         }
@@ -36,6 +40,23 @@ public class SessionStore {
         // do nothing, let tomcat use the default
         System.out.println("WARNING: session manager " + commandLineParams.sessionStore + " unsupported using default");
     }
-}
-
 
+    /**
+     * Creates the serializer for session attributes
+     *
+     * @param commandLineParams Arguments map
+     * @return the serializer, or null if the session manager's own serialization is used
+     */
+    protected SessionSerializer createSessionSerializer(CommandLineParams commandLineParams) {
+        if(SessionSerializers.JAVA.equals(commandLineParams.sessionSerializer)
+                && commandLineParams.sessionCompressionThreshold <= 0) {
+            return null;
+        }
+        SessionSerializer serializer = SessionSerializers.create(commandLineParams.sessionSerializer,
+                commandLineParams.sessionCompressionThreshold);
+        if(serializer == null) {
+            System.out.println("WARNING: session serializer " + commandLineParams.sessionSerializer + " unsupported using java");
+        }
+        return serializer;
+    }
+}
@@ -0,0 +1,177 @@
+package webapp.runner.launch.accesslog;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats access log records in the common or the combined log format and encodes them as
+ * UTF-8 on the request thread, so the writer only copies bytes. The timestamp is formatted
+ * once per second and shared by all threads.
+ */
+public class AccessLogFormat {
+
+  public static final String COMMON = "common";
+  public static final String COMBINED = "combined";
+
+  private static final int INITIAL_LINE_SIZE = 256;
+  // larger buffers are not kept by the request threads
+  private static final int MAX_RETAINED_LINE_SIZE = 16 * 1024;
+
+  private final boolean combined;
+  private volatile Timestamp timestamp = new Timestamp(-1, null);
+
+  private final ThreadLocal<StringBuilder> lines = new ThreadLocal<StringBuilder>() {
+    @Override
+    protected StringBuilder initialValue() {
+      return new StringBuilder(INITIAL_LINE_SIZE);
+    }
+  };
+  private final ThreadLocal<byte[]> encodeBuffers = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[INITIAL_LINE_SIZE * 3];
+    }
+  };
+
+  /**
+   * @throws IllegalArgumentException for a pattern other than {@link #COMMON} and {@link #COMBINED}
+   */
+  public AccessLogFormat(String pattern) {
+    if (COMBINED.equalsIgnoreCase(pattern)) {
+      combined = true;
+    } else if (COMMON.equalsIgnoreCase(pattern)) {
+      combined = false;
+    } else {
+      throw new IllegalArgumentException("Unknown access log pattern " + pattern + ", use common or combined");
+    }
+  }
+
+  public boolean isCombined() {
+    return combined;
+  }
+
+  /**
+   * @param requestLine method, URI with query string and protocol, or null if the request could not be parsed
+   * @param bytes       bytes of the response body, 0 is logged as '-'
+   * @param referer     only logged in the combined format
+   * @param userAgent   only logged in the combined format
+   * @return the line including its line separator
+   */
+  public byte[] format(String remoteHost, String remoteUser, long time, String requestLine, int status,
+                       long bytes, String referer, String userAgent) {
+    StringBuilder line = lines.get();
+    line.setLength(0);
+    appendValue(line, remoteHost).append(" - ");
+    appendValue(line, remoteUser).append(' ');
+    line.append(getTimestamp(time)).append(' ');
+    appendQuoted(line, requestLine).append(' ');
+    line.append(status).append(' ');
+    if (bytes > 0) {
+      line.append(bytes);
+    } else {
+      line.append('-');
+    }
+    if (combined) {
+      line.append(' ');
+      appendQuoted(line, referer).append(' ');
+      appendQuoted(line, userAgent);
+    }
+    line.append('\n');
+    byte[] record = encode(line);
+    if (line.capacity() > MAX_RETAINED_LINE_SIZE) {
+      lines.remove();
+      encodeBuffers.remove();
+    }
+    return record;
+  }
+
+  /**
+   * @return the timestamp in brackets, as in {@code [18/Oct/2026:09:30:00 +0200]}
+   */
+  String getTimestamp(long time) {
+    long second = time / 1000;
+    Timestamp current = timestamp;
+    if (current.second != second) {
+      SimpleDateFormat format = new SimpleDateFormat("[dd/MMM/yyyy:HH:mm:ss Z]", Locale.US);
+      format.setTimeZone(TimeZone.getDefault());
+      current = new Timestamp(second, format.format(new Date(second * 1000)));
+      timestamp = current;
+    }
+    return current.text;
+  }
+
+  private static StringBuilder appendValue(StringBuilder line, String value) {
+    if (value == null || value.length() == 0) {
+      return line.append('-');
+    }
+    return line.append(value);
+  }
+
+  private static StringBuilder appendQuoted(StringBuilder line, String value) {
+    if (value == null || value.length() == 0) {
+      return line.append("\"-\"");
+    }
+    line.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        line.append('\\').append(c);
+      } else if (c < 0x20 || c == 0x7f) {
+        // keeps one record per line
+        line.append("\\x").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+      } else {
+        line.append(c);
+      }
+    }
+    return line.append('"');
+  }
+
+  /**
+   * Encodes as UTF-8 into a buffer of the thread, so the record is the only allocation.
+   */
+  private byte[] encode(StringBuilder line) {
+    byte[] buffer = encodeBuffers.get();
+    int maxLength = line.length() * 3;
+    if (buffer.length < maxLength) {
+      buffer = new byte[maxLength];
+      encodeBuffers.set(buffer);
+    }
+    int length = 0;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c < 0x80) {
+        buffer[length++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[length++] = (byte) (0xc0 | (c >> 6));
+        buffer[length++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < line.length() &&
+              Character.isLowSurrogate(line.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, line.charAt(++i));
+        buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        buffer[length++] = '?';
+      } else {
+        buffer[length++] = (byte) (0xe0 | (c >> 12));
+        buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[length++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    return Arrays.copyOf(buffer, length);
+  }
+
+  private static class Timestamp {
+    final long second;
+    final String text;
+
+    Timestamp(long second, String text) {
+      this.second = second;
+      this.text = text;
+    }
+  }
+}
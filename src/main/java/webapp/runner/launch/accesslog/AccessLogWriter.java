@@ -0,0 +1,199 @@
+package webapp.runner.launch.accesslog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single thread that takes the records out of a {@link RecordRingBuffer} and appends them in
+ * batches to a log file through a {@link FileChannel}. A new file is started every day; the
+ * file name is the prefix, the date and the suffix. The thread sleeps while there is nothing
+ * to write, producers wake it with {@link #signal()} when the buffer fills up.
+ */
+public class AccessLogWriter {
+
+  private static final Logger logger = Logger.getLogger(AccessLogWriter.class.getName());
+
+  private static final int BATCH_SIZE = 64 * 1024;
+  private static final long DROP_REPORT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+  private final RecordRingBuffer buffer;
+  private final File directory;
+  private final String prefix;
+  private final String suffix;
+  private final long flushDelay;
+  private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+
+  private volatile boolean running;
+  private volatile Thread thread;
+  private FileChannel channel;
+  private String currentDate;
+  private long reportedDrops;
+  private long lastDropReport;
+
+  /**
+   * @param flushDelay milliseconds records may wait before they are written
+   */
+  public AccessLogWriter(RecordRingBuffer buffer, File directory, String prefix, String suffix, long flushDelay) {
+    this.buffer = buffer;
+    this.directory = directory;
+    this.prefix = prefix;
+    this.suffix = suffix;
+    this.flushDelay = Math.max(1, flushDelay);
+  }
+
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeLoop();
+      }
+    }, "access-log-writer");
+    writer.setDaemon(true);
+    thread = writer;
+    writer.start();
+  }
+
+  /**
+   * Writes what is left in the buffer and closes the file.
+   */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    Thread writer = thread;
+    LockSupport.unpark(writer);
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+  }
+
+  /**
+   * Wakes the writer up before its delay is over.
+   */
+  public void signal() {
+    Thread writer = thread;
+    if (writer != null) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  private void writeLoop() {
+    try {
+      while (running) {
+        if (!drain()) {
+          LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(flushDelay));
+        }
+        reportDrops();
+      }
+      // records published before the stop, later ones wait for the next start
+      drain();
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * @return true if records were written
+   */
+  boolean drain() {
+    boolean written = false;
+    byte[] record;
+    while ((record = buffer.poll()) != null) {
+      written = true;
+      if (record.length > batch.remaining()) {
+        flush();
+        if (record.length > batch.capacity()) {
+          write(ByteBuffer.wrap(record));
+          continue;
+        }
+      }
+      batch.put(record);
+    }
+    flush();
+    return written;
+  }
+
+  private void flush() {
+    if (batch.position() == 0) {
+      return;
+    }
+    batch.flip();
+    write(batch);
+    batch.clear();
+  }
+
+  private void write(ByteBuffer data) {
+    try {
+      FileChannel file = open();
+      while (data.hasRemaining()) {
+        file.write(data);
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Unable to write the access log, records are lost", e);
+      close();
+    }
+  }
+
+  private FileChannel open() throws IOException {
+    String date = formatDate(System.currentTimeMillis());
+    if (channel != null && date.equals(currentDate)) {
+      return channel;
+    }
+    close();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+    channel = new FileOutputStream(getFile(date), true).getChannel();
+    currentDate = date;
+    return channel;
+  }
+
+  private void close() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Unable to close the access log", e);
+      }
+      channel = null;
+    }
+  }
+
+  File getFile(String date) {
+    return new File(directory, prefix + date + suffix);
+  }
+
+  static String formatDate(long millis) {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+    format.setTimeZone(TimeZone.getDefault());
+    return format.format(new Date(millis));
+  }
+
+  private void reportDrops() {
+    long dropped = buffer.getDroppedCount();
+    long now = System.currentTimeMillis();
+    if (dropped > reportedDrops && now - lastDropReport >= DROP_REPORT_INTERVAL) {
+      logger.warning("Dropped " + (dropped - reportedDrops) + " access log records, the buffer was full");
+      reportedDrops = dropped;
+      lastDropReport = now;
+    }
+  }
+}
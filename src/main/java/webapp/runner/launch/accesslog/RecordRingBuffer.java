@@ -0,0 +1,80 @@
+package webapp.runner.launch.accesslog;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue of encoded records for many producers and a single consumer.
+ * Producers claim a slot with a compare-and-set on the tail and publish the record into it;
+ * a full buffer drops the record instead of blocking, so the producer never waits for the
+ * consumer.
+ */
+public class RecordRingBuffer {
+
+  private final AtomicReferenceArray<byte[]> slots;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  // only written by the consumer
+  private volatile long head;
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * @param capacity number of records held, rounded up to a power of two
+   */
+  public RecordRingBuffer(int capacity) {
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.slots = new AtomicReferenceArray<byte[]>(size);
+    this.mask = size - 1;
+  }
+
+  public int getCapacity() {
+    return mask + 1;
+  }
+
+  /**
+   * @return false if the buffer is full and the record was dropped
+   */
+  public boolean offer(byte[] record) {
+    long claimed;
+    do {
+      claimed = tail.get();
+      if (claimed - head > mask) {
+        dropped.incrementAndGet();
+        return false;
+      }
+    } while (!tail.compareAndSet(claimed, claimed + 1));
+    slots.lazySet((int) (claimed & mask), record);
+    return true;
+  }
+
+  /**
+   * Removes the next record; only to be called by the single consumer.
+   *
+   * @return the record, or null if there is none or it is not published yet
+   */
+  public byte[] poll() {
+    long current = head;
+    int index = (int) (current & mask);
+    byte[] record = slots.get(index);
+    if (record == null) {
+      return null;
+    }
+    slots.lazySet(index, null);
+    head = current + 1;
+    return record;
+  }
+
+  /**
+   * @return records claimed and not consumed yet
+   */
+  public int size() {
+    return (int) Math.max(0, tail.get() - head);
+  }
+
+  /**
+   * @return number of records dropped because the buffer was full
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+}
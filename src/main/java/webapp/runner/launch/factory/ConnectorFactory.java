@@ -1,29 +1,184 @@
 package webapp.runner.launch.factory;
 
+import org.apache.catalina.Executor;
 import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.AprLifecycleListener;
+import org.apache.coyote.AbstractProtocol;
 import webapp.runner.launch.CommandLineParams;
+import webapp.runner.launch.helper.Checkpoint;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
 
 public class ConnectorFactory {
 
+  public static final String PROTOCOL_NIO = "nio";
+  public static final String PROTOCOL_NIO2 = "nio2";
+  public static final String PROTOCOL_APR = "apr";
+  public static final String PROTOCOL_BIO = "bio";
+
+  private static final Map<String, String> PROTOCOL_CLASSES = new HashMap<String, String>();
+
+  static {
+    PROTOCOL_CLASSES.put(PROTOCOL_NIO, "org.apache.coyote.http11.Http11NioProtocol");
+    PROTOCOL_CLASSES.put(PROTOCOL_NIO2, "org.apache.coyote.http11.Http11Nio2Protocol");
+    PROTOCOL_CLASSES.put(PROTOCOL_APR, "org.apache.coyote.http11.Http11AprProtocol");
+    PROTOCOL_CLASSES.put(PROTOCOL_BIO, "org.apache.coyote.http11.Http11Protocol");
+  }
+
+  private Logger logger = Logger.getLogger(ConnectorFactory.class.getName());
+
   public Connector configureConnector(CommandLineParams commandLineParams) {
-    Connector nioConnector = new Connector("org.apache.coyote.http11.Http11NioProtocol");
+    return configureConnector(commandLineParams, null);
+  }
+
+  /**
+   * @param executor the shared executor of the service, or null to let the connector create its own thread pool
+   */
+  public Connector configureConnector(CommandLineParams commandLineParams, Executor executor) {
+    Connector nioConnector = createConnector(commandLineParams, executor);
     nioConnector.setPort(commandLineParams.port);
 
     if (commandLineParams.enableSSL) {
       configureSSL(commandLineParams, nioConnector);
     }
+    return nioConnector;
+  }
+
+  /**
+   * Creates a connector on an ephemeral loopback port, configured like the public connector and
+   * on the same executor, which carries the warm-up requests while the public connector is not
+   * started yet. The warm-up requests are plain HTTP, so SSL is not enabled.
+   *
+   * @param executor the shared executor of the service, or null to let the connector create its own thread pool
+   */
+  public Connector createWarmUpConnector(CommandLineParams commandLineParams, Executor executor) {
+    Connector connector = createConnector(commandLineParams, executor);
+    connector.setPort(0);
+    connector.setProperty("address", "127.0.0.1");
+    return connector;
+  }
+
+  private Connector createConnector(CommandLineParams commandLineParams, Executor executor) {
+    String protocol = resolveProtocol(commandLineParams.protocol);
+    Connector connector = new Connector(PROTOCOL_CLASSES.get(protocol));
+
+    configureThreadPool(commandLineParams, connector);
+    configureSendfile(commandLineParams, protocol, connector);
+    if (executor != null) {
+      configureExecutor(commandLineParams, connector, executor);
+    }
 
     if (commandLineParams.enableCompression) {
-      nioConnector.setProperty("compression", "on");
-      nioConnector.setProperty("compressableMimeType", commandLineParams.compressableMimeTypes);
+      connector.setProperty("compression", "on");
+      connector.setProperty("compressableMimeType", commandLineParams.compressableMimeTypes);
     }
 
     if (commandLineParams.uriEncoding != null) {
-      nioConnector.setURIEncoding(commandLineParams.uriEncoding);
+      connector.setURIEncoding(commandLineParams.uriEncoding);
+    }
+
+    // the server socket has to be closed while the connector is stopped for a checkpoint
+    if (Checkpoint.isSupported()) {
+      connector.setProperty("bindOnInit", "false");
+    }
+    return connector;
+  }
+
+  /**
+   * Maps the requested protocol to one that is available, falling back to NIO.
+   * The APR check requires an {@link AprLifecycleListener} on the server.
+   */
+  protected String resolveProtocol(String protocol) {
+    String name = protocol == null ? PROTOCOL_NIO : protocol.toLowerCase();
+    if (!PROTOCOL_CLASSES.containsKey(name)) {
+      logger.warning("Unknown protocol [" + protocol + "], using " + PROTOCOL_NIO);
+      return PROTOCOL_NIO;
+    }
+    if (PROTOCOL_APR.equals(name) && !AprLifecycleListener.isAprAvailable()) {
+      logger.warning("The APR/native library is not available, using " + PROTOCOL_NIO);
+      return PROTOCOL_NIO;
+    }
+    if (!isClassAvailable(PROTOCOL_CLASSES.get(name))) {
+      logger.warning("Protocol [" + name + "] is not supported by this Tomcat version, using " + PROTOCOL_NIO);
+      return PROTOCOL_NIO;
+    }
+    return name;
+  }
+
+  private boolean isClassAvailable(String className) {
+    try {
+      Class.forName(className, false, ConnectorFactory.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  protected void configureSendfile(CommandLineParams commandLineParams, String protocol, Connector connector) {
+    if (commandLineParams.sendfileThreshold == null) {
+      return;
+    }
+    boolean useSendfile = commandLineParams.sendfileThreshold > 0;
+    if (PROTOCOL_BIO.equals(protocol)) {
+      if (useSendfile) {
+        logger.warning("Sendfile is not supported by the " + PROTOCOL_BIO + " connector");
+      }
+      return;
+    }
+    connector.setProperty("useSendfile", String.valueOf(useSendfile));
+  }
+
+  protected void configureThreadPool(CommandLineParams commandLineParams, Connector connector) {
+    ConnectorTuning tuning = null;
+    if (commandLineParams.autoTuneConnector) {
+      tuning = createConnectorTuning();
+      logger.info("Auto-tuned connector: " + tuning);
+    }
+
+    setProperty(connector, "maxThreads", commandLineParams.maxThreads,
+            tuning == null ? null : tuning.getMaxThreads());
+    setProperty(connector, "minSpareThreads", commandLineParams.minSpareThreads,
+            tuning == null ? null : tuning.getMinSpareThreads());
+    setProperty(connector, "acceptCount", commandLineParams.acceptCount,
+            tuning == null ? null : tuning.getAcceptCount());
+    setProperty(connector, "maxConnections", commandLineParams.maxConnections,
+            tuning == null ? null : tuning.getMaxConnections());
+    setProperty(connector, "pollerThreadCount", commandLineParams.pollerThreadCount,
+            tuning == null ? null : tuning.getPollerThreadCount());
+    setProperty(connector, "connectionTimeout", commandLineParams.connectionTimeout, null);
+    setProperty(connector, "keepAliveTimeout", commandLineParams.keepAliveTimeout, null);
+    setProperty(connector, "maxKeepAliveRequests", commandLineParams.maxKeepAliveRequests, null);
+    setProperty(connector, "socket.rxBufSize", commandLineParams.socketReceiveBuffer, null);
+    setProperty(connector, "socket.txBufSize", commandLineParams.socketSendBuffer, null);
+  }
+
+  protected void configureExecutor(CommandLineParams commandLineParams, Connector connector, Executor executor) {
+    if (commandLineParams.maxThreads != null || commandLineParams.minSpareThreads != null) {
+      logger.warning("Connector thread settings are ignored, requests are processed by executor [" +
+              executor.getName() + "]");
+    }
+    if (connector.getProtocolHandler() instanceof AbstractProtocol) {
+      ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(executor);
+    } else {
+      logger.warning("Protocol " + connector.getProtocolHandlerClassName() + " does not accept an executor");
+    }
+  }
+
+  protected ConnectorTuning createConnectorTuning() {
+    return ConnectorTuning.forCurrentRuntime();
+  }
+
+  private void setProperty(Connector connector, String name, Integer value, Integer tunedValue) {
+    Integer effectiveValue = value != null ? value : tunedValue;
+    if (effectiveValue == null) {
+      return;
+    }
+    if (!connector.setProperty(name, String.valueOf(effectiveValue))) {
+      logger.warning("Connector property [" + name + "] is not supported by " + connector.getProtocolHandlerClassName());
     }
-    return nioConnector;
   }
 
   protected void configureSSL(CommandLineParams commandLineParams, Connector nioConnector) {
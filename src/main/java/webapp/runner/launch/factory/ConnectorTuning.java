@@ -0,0 +1,75 @@
+package webapp.runner.launch.factory;
+
+/**
+ * Derives connector sizing from the resources of the running JVM. The values are
+ * conservative starting points; anything given explicitly on the command line wins.
+ */
+public class ConnectorTuning {
+
+  private static final int THREADS_PER_CORE = 50;
+  private static final int MIN_THREADS = 25;
+  private static final int MAX_THREADS = 800;
+  // rough heap working set of a single in-flight request
+  private static final long HEAP_PER_THREAD = 2L * 1024 * 1024;
+  // application read and write buffers held by each open NIO connection
+  private static final long HEAP_PER_CONNECTION = 16L * 1024;
+  private static final int MIN_CONNECTIONS = 1000;
+  private static final int MAX_CONNECTIONS = 20000;
+
+  private final int maxThreads;
+  private final int minSpareThreads;
+  private final int acceptCount;
+  private final int maxConnections;
+  private final int pollerThreadCount;
+
+  public ConnectorTuning(int cores, long maxHeap) {
+    int threadsByCpu = Math.max(1, cores) * THREADS_PER_CORE;
+    int threadsByHeap = (int) Math.min(Integer.MAX_VALUE, maxHeap / HEAP_PER_THREAD);
+    this.maxThreads = clamp(Math.min(threadsByCpu, threadsByHeap), MIN_THREADS, MAX_THREADS);
+    this.minSpareThreads = Math.min(maxThreads, Math.max(10, cores * 2));
+    this.acceptCount = Math.max(100, maxThreads / 2);
+
+    // a tenth of the heap for connection buffers
+    int connectionsByHeap = (int) Math.min(Integer.MAX_VALUE, maxHeap / 10 / HEAP_PER_CONNECTION);
+    this.maxConnections = clamp(connectionsByHeap, Math.max(MIN_CONNECTIONS, maxThreads), MAX_CONNECTIONS);
+    this.pollerThreadCount = Math.max(1, Math.min(2, cores));
+  }
+
+  public static ConnectorTuning forCurrentRuntime() {
+    Runtime runtime = Runtime.getRuntime();
+    return new ConnectorTuning(runtime.availableProcessors(), runtime.maxMemory());
+  }
+
+  private static int clamp(int value, int min, int max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  public int getMinSpareThreads() {
+    return minSpareThreads;
+  }
+
+  public int getAcceptCount() {
+    return acceptCount;
+  }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public int getPollerThreadCount() {
+    return pollerThreadCount;
+  }
+
+  @Override
+  public String toString() {
+    return "maxThreads=" + maxThreads +
+            ", minSpareThreads=" + minSpareThreads +
+            ", acceptCount=" + acceptCount +
+            ", maxConnections=" + maxConnections +
+            ", pollerThreadCount=" + pollerThreadCount;
+  }
+}
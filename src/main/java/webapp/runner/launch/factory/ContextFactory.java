@@ -5,20 +5,31 @@ import org.apache.catalina.Host;
 import org.apache.catalina.LifecycleEvent;
 import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.LifecycleState;
+import org.apache.catalina.Lifecycle;
 import org.apache.catalina.Server;
+import org.apache.catalina.Wrapper;
 import org.apache.catalina.core.StandardServer;
 import org.apache.catalina.deploy.LoginConfig;
 import org.apache.catalina.deploy.SecurityCollection;
 import org.apache.catalina.deploy.SecurityConstraint;
 import org.apache.catalina.startup.ContextConfig;
-import org.apache.catalina.startup.ExpandWar;
 import org.apache.catalina.startup.Tomcat;
 import webapp.runner.launch.CommandLineParams;
 import webapp.runner.launch.SessionStore;
 import webapp.runner.launch.TomcatConfigurator;
 import webapp.runner.launch.helper.ContextDefinition;
+import webapp.runner.launch.helper.IncrementalWarExpander;
+import webapp.runner.launch.helper.MappedWarDirContext;
 import webapp.runner.launch.helper.OverrideContext;
 import webapp.runner.launch.helper.TomcatUtil;
+import webapp.runner.launch.jsp.JspPrecompiler;
+import webapp.runner.launch.profile.StartupProfiler;
+import webapp.runner.launch.profile.TimedJarScanner;
+import webapp.runner.launch.resource.CompressedResourceCache;
+import webapp.runner.launch.resource.StaticResourceFilter;
+import webapp.runner.launch.scan.CachingContextConfig;
+import webapp.runner.launch.scan.FilteringJarScanner;
+import webapp.runner.launch.scan.JarScanCache;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.ServletSecurity;
@@ -60,7 +71,14 @@ public class ContextFactory {
                                      CommandLineParams commandLineParams,
                                      Tomcat tomcat,
                                      ContextDefinition war) throws IOException, ServletException {
-    Context ctx = configureContext(commandLineParams, tomcat, war);
+    String profilerGroup = StartupProfiler.contextGroup(war.getContextPath());
+    StartupProfiler.Timer timer = StartupProfiler.getInstance().start(profilerGroup, "create context");
+    Context ctx;
+    try {
+      ctx = configureContext(commandLineParams, tomcat, war);
+    } finally {
+      timer.stop();
+    }
     configureShutdownHandler(commandLineParams, tomcat, ctx);
 
     Properties contextConfiguration = war.getContextConfiguration();
@@ -90,9 +108,65 @@ public class ContextFactory {
     if (commandLineParams.enableBasicAuth) {
       enableBasicAuth(ctx, commandLineParams.enableSSL);
     }
+
+    // files at or above the threshold are handed to the connector for sendfile
+    if (commandLineParams.sendfileThreshold != null && commandLineParams.sendfileThreshold > 0) {
+      ctx.addLifecycleListener(new DefaultServletParameterListener(
+              "sendfileSize", String.valueOf(commandLineParams.sendfileThreshold)));
+    }
+
+    if (commandLineParams.precompressStatic) {
+      // behind the authenticator and the webapp's filters, see StaticResourceFilter
+      createStaticResourceFilter(commandLineParams).addTo(ctx);
+    }
+
+    if (commandLineParams.scanInclude != null || commandLineParams.scanExclude != null ||
+            commandLineParams.scanCache) {
+      ctx.setJarScanner(new FilteringJarScanner(commandLineParams.scanInclude, commandLineParams.scanExclude,
+              findScanCache(ctx)));
+    }
+
+    if (commandLineParams.lazyInit) {
+      if (ctx instanceof OverrideContext) {
+        ((OverrideContext) ctx).setLazyInit(true);
+      } else {
+        logger.warning("Lazy initialization is not supported by " + ctx.getClass().getName());
+      }
+    }
+
+    if (commandLineParams.jspPrecompile || commandLineParams.jspCache) {
+      File cacheDirectory = null;
+      if (commandLineParams.jspCache) {
+        String baseDir = TomcatFactory.resolveBaseDirImpl(commandLineParams.baseDir, commandLineParams.port);
+        cacheDirectory = new File(baseDir, "jsp-cache/" + getContextFileName(ctx.getPath()));
+      }
+      ctx.addLifecycleListener(new JspPrecompiler(commandLineParams.jspPrecompileThreads, cacheDirectory));
+    }
+
+    ctx.setJarScanner(new TimedJarScanner(ctx.getJarScanner(), StartupProfiler.getInstance(), profilerGroup));
+
     if (configurator != null) {
-      configurator.configureContext(tomcat, commandLineParams, war, ctx);
+      // configurators don't have to be thread safe
+      synchronized (configurator) {
+        configurator.configureContext(tomcat, commandLineParams, war, ctx);
+      }
+    }
+  }
+
+  protected StaticResourceFilter createStaticResourceFilter(CommandLineParams commandLineParams) {
+    CompressedResourceCache cache = new CompressedResourceCache(commandLineParams.staticCacheSize * 1024L);
+    // the connector would gzip brotli encoded responses a second time
+    return new StaticResourceFilter(cache, commandLineParams.compressableMimeTypes,
+            commandLineParams.staticCompressionMinSize, !commandLineParams.enableCompression);
+  }
+
+  protected JarScanCache findScanCache(Context ctx) {
+    for (LifecycleListener listener : ctx.findLifecycleListeners()) {
+      if (listener instanceof CachingContextConfig) {
+        return ((CachingContextConfig) listener).getCache();
+      }
     }
+    return null;
   }
 
   protected URL computeContextXmlLocation(String contextXml,
@@ -112,25 +186,74 @@ public class ContextFactory {
 
     final String ctxName = context.getContextPath();
     final File war = context.getWar();
+    ContextConfig contextConfig = createContextConfig(commandLineParams, context);
     if (commandLineParams.expandWar && war.isFile()) {
-      File appBase = new File(commandLineParams.baseDir, tomcat.getHost().getAppBase());
-      if (appBase.exists()) {
-        appBase.delete();
+      File baseDir = new File(TomcatFactory.resolveBaseDirImpl(commandLineParams.baseDir, commandLineParams.port));
+      File appBase = new File(tomcat.getHost().getAppBase());
+      if (!appBase.isAbsolute()) {
+        appBase = new File(baseDir, tomcat.getHost().getAppBase());
       }
-      appBase.mkdir();
-      URL fileUrl = new URL("jar:" + war.toURI().toURL() + "!/");
-      String expandedDir = ExpandWar.expand(tomcat.getHost(), fileUrl, "/expanded");
+      IncrementalWarExpander expander = new IncrementalWarExpander(war,
+              new File(appBase, getExpandedPath(ctxName)),
+              new File(baseDir, "expand-manifest/" + getContextFileName(ctxName) + ".properties"));
+      String expandedDir = expander.expand().getAbsolutePath();
       logger.fine("Expanding " + war.getName() + " into " + expandedDir);
       logger.fine("Adding Context " + ctxName + " for " + expandedDir);
-      return addWebapp(tomcat, ctxName, expandedDir);
+      return addWebapp(tomcat, ctxName, expandedDir, contextConfig);
     }
     else {
       logger.fine("Adding Context " + ctxName + " for " + war.getPath());
-      return addWebapp(tomcat, ctxName, war.getAbsolutePath());
+      Context ctx = addWebapp(tomcat, ctxName, war.getAbsolutePath(), contextConfig);
+      if (commandLineParams.mmapWar && war.isFile()) {
+        ctx.setResources(new MappedWarDirContext());
+      }
+      return ctx;
     }
   }
 
+  /**
+   * @return the directory below the app base a WAR is expanded into, distinct for every context
+   */
+  protected String getExpandedPath(String ctxName) {
+    String name = getContextFileName(ctxName);
+    return "ROOT".equals(name) ? "/expanded" : "/expanded#" + name;
+  }
+
+  /**
+   * @return the name of files kept per context, in Tomcat's convention
+   */
+  protected String getContextFileName(String ctxName) {
+    String name = ctxName.replace('/', '#');
+    if (name.startsWith("#")) {
+      name = name.substring(1);
+    }
+    return name.length() == 0 ? "ROOT" : name;
+  }
+
+  /**
+   * Creates the context config, which caches scan results in the base directory if requested
+   */
+  protected ContextConfig createContextConfig(CommandLineParams commandLineParams, ContextDefinition context)
+          throws IOException {
+    if (!commandLineParams.scanCache) {
+      return new ContextConfig();
+    }
+    if (!commandLineParams.expandWar && context.getWar().isFile()) {
+      // the JARs of a packed WAR are not files the cache could recognize
+      logger.warning("--scan-cache requires an exploded webapp or --expand-war, not caching the scans of " +
+              context.getWar().getName());
+      return new ContextConfig();
+    }
+    String baseDir = TomcatFactory.resolveBaseDirImpl(commandLineParams.baseDir, commandLineParams.port);
+    String name = getContextFileName(context.getContextPath());
+    return new CachingContextConfig(new JarScanCache(new File(baseDir, "scan-cache/" + name + ".properties")));
+  }
+
   protected Context addWebapp(Tomcat tomcat, String url, String path) {
+    return addWebapp(tomcat, url, path, new ContextConfig());
+  }
+
+  protected Context addWebapp(Tomcat tomcat, String url, String path, ContextConfig ctxCfg) {
     Host host = tomcat.getHost();
     TomcatUtil.silence(host, url);
 
@@ -141,7 +264,6 @@ public class ContextFactory {
     ctx.addLifecycleListener(new Tomcat.DefaultWebXmlListener());
     ctx.setParentClassLoader(Thread.currentThread().getContextClassLoader());
 
-    ContextConfig ctxCfg = new ContextConfig();
     // prevent it from looking ( if it finds one - it'll have dup error )
     ctxCfg.setDefaultWebXml(tomcat.noDefaultWebXmlPath());
     ctx.addLifecycleListener(ctxCfg);
@@ -163,6 +285,31 @@ public class ContextFactory {
     }
   }
 
+  /**
+   * Adds an init parameter to the default servlet once the web.xml has been processed,
+   * unless the webapp configures the parameter itself.
+   */
+  protected static class DefaultServletParameterListener implements LifecycleListener {
+    private final String name;
+    private final String value;
+
+    public DefaultServletParameterListener(String name, String value) {
+      this.name = name;
+      this.value = value;
+    }
+
+    public void lifecycleEvent(LifecycleEvent event) {
+      if (!Lifecycle.CONFIGURE_START_EVENT.equals(event.getType())) {
+        return;
+      }
+      Context ctx = (Context) event.getLifecycle();
+      Wrapper defaultServlet = (Wrapper) ctx.findChild("default");
+      if (defaultServlet != null && defaultServlet.findInitParameter(name) == null) {
+        defaultServlet.addInitParameter(name, value);
+      }
+    }
+  }
+
   protected static class ContextShutdownListener implements LifecycleListener {
     private Logger logger = Logger.getLogger(ContextShutdownListener.class.getName());
 
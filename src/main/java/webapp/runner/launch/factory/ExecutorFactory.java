@@ -0,0 +1,43 @@
+package webapp.runner.launch.factory;
+
+import org.apache.catalina.Executor;
+import webapp.runner.launch.CommandLineParams;
+import webapp.runner.launch.helper.MonitoredThreadExecutor;
+import webapp.runner.launch.helper.VirtualThreadExecutor;
+
+import java.util.logging.Logger;
+
+public class ExecutorFactory {
+
+  private Logger logger = Logger.getLogger(ExecutorFactory.class.getName());
+
+  /**
+   * Creates the executor shared by the connectors of the service.
+   *
+   * @param commandLineParams Arguments map
+   * @return the executor, or null if every connector should manage its own thread pool
+   */
+  public Executor createExecutor(CommandLineParams commandLineParams) {
+    if (commandLineParams.virtualThreads) {
+      Executor executor = VirtualThreadExecutor.create(commandLineParams.executorName);
+      if (executor != null) {
+        return executor;
+      }
+      logger.warning("Virtual threads are not supported by this JVM, falling back to a platform thread pool");
+    }
+
+    if (!commandLineParams.sharedExecutor) {
+      return null;
+    }
+
+    MonitoredThreadExecutor executor = new MonitoredThreadExecutor();
+    executor.setName(commandLineParams.executorName);
+    executor.setNamePrefix(commandLineParams.executorName + "-exec-");
+    executor.setMinSpareThreads(commandLineParams.executorMinThreads);
+    executor.setMaxThreads(commandLineParams.executorMaxThreads);
+    executor.setMaxQueueSize(commandLineParams.executorQueueSize);
+    executor.setMaxIdleTime(commandLineParams.executorMaxIdleTime);
+    executor.setStatisticsInterval(commandLineParams.executorStatisticsInterval);
+    return executor;
+  }
+}
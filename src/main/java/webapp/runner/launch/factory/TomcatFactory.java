@@ -1,18 +1,46 @@
 package webapp.runner.launch.factory;
 
+import org.apache.catalina.Executor;
 import org.apache.catalina.Host;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
 import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.AprLifecycleListener;
 import org.apache.catalina.core.StandardHost;
 import org.apache.catalina.startup.Tomcat;
 import webapp.runner.launch.CommandLineParams;
 import webapp.runner.launch.helper.ContextDefinition;
 import webapp.runner.launch.TomcatConfigurator;
+import webapp.runner.launch.helper.Checkpoint;
+import webapp.runner.launch.helper.TomcatCheckpoint;
+import webapp.runner.launch.helper.WarmUpRunner;
+import webapp.runner.launch.jfr.FlightRecorderEvents;
+import webapp.runner.launch.metrics.MetricsCollector;
+import webapp.runner.launch.metrics.MetricsServer;
+import webapp.runner.launch.metrics.RequestMetrics;
+import webapp.runner.launch.profile.LifecycleTimer;
+import webapp.runner.launch.profile.StartupProfiler;
+import webapp.runner.launch.valve.AsyncAccessLogValve;
+import webapp.runner.launch.valve.ConcurrencyLimitValve;
+import webapp.runner.launch.valve.RequestEventValve;
+import webapp.runner.launch.valve.RequestMetricsValve;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class TomcatFactory {
 
+  // Tomcat's default maxThreads
+  private static final int DEFAULT_MAX_CONCURRENCY_LIMIT = 200;
+
   public TomcatFactory() {
   }
 
@@ -30,27 +58,107 @@ public class TomcatFactory {
 
     tomcat.setBaseDir(resolveTomcatBaseDir(commandLineParams.baseDir, commandLineParams.port));
 
-    // initialize the connector
-    Connector nioConnector = createConnectorFactory().configureConnector(commandLineParams);
+    // the native library has to be loaded by the server before an APR connector can be used
+    if (ConnectorFactory.PROTOCOL_APR.equalsIgnoreCase(commandLineParams.protocol)) {
+      tomcat.getServer().addLifecycleListener(new AprLifecycleListener());
+    }
+
+    // initialize the shared executor and the connector
+    Executor executor = createExecutorFactory().createExecutor(commandLineParams);
+    if (executor != null) {
+      tomcat.getService().addExecutor(executor);
+    }
+    ConnectorFactory connectorFactory = createConnectorFactory();
+    Connector nioConnector = connectorFactory.configureConnector(commandLineParams, executor);
     tomcat.setConnector(nioConnector);
-    tomcat.getService().addConnector(tomcat.getConnector());
+    // with a warm-up the public connector is only added once it is done
+    List<String> warmUpPaths = resolveWarmUpPaths(commandLineParams);
+    Connector warmUpConnector = null;
+    if (warmUpPaths.isEmpty()) {
+      tomcat.getService().addConnector(tomcat.getConnector());
+    } else {
+      warmUpConnector = connectorFactory.createWarmUpConnector(commandLineParams, executor);
+      tomcat.getService().addConnector(warmUpConnector);
+    }
     tomcat.setPort(commandLineParams.port);
     if (commandLineParams.enableBasicAuth || commandLineParams.enableNaming ||
             commandLineParams.tomcatUsersLocation != null) {
       tomcat.enableNaming();
     }
 
-    ContextFactory contextFactory = createContextFactory();
-    for (ContextDefinition war : warLocations) {
-      contextFactory.configureWarContext(configurator, commandLineParams, tomcat, war);
+    // independent contexts are configured and started concurrently
+    int startStopThreads = resolveStartStopThreads(commandLineParams.startStopThreads);
+    if (startStopThreads > 1) {
+      host.setStartStopThreads(startStopThreads);
     }
+    StartupProfiler profiler = StartupProfiler.getInstance();
+    StartupProfiler.Timer timer = profiler.start(StartupProfiler.PHASES, "configure contexts");
+    configureWarContexts(configurator, commandLineParams, tomcat, Math.min(startStopThreads, warLocations.length),
+            warLocations);
+    timer.stop();
 
     if (configurator != null) {
       configurator.configure(tomcat, commandLineParams, warLocations);
     }
 
+    LifecycleTimer lifecycleTimer = new LifecycleTimer(profiler);
+    lifecycleTimer.register(tomcat.getServer(), tomcat.getService(), tomcat.getEngine(), host);
+    lifecycleTimer.register(tomcat.getService().findConnectors());
+    lifecycleTimer.register(host.findChildren());
+
+    // on the engine, so requests to every context are measured
+    RequestMetrics requestMetrics = null;
+    if (commandLineParams.metricsPort != null) {
+      requestMetrics = new RequestMetrics();
+      tomcat.getEngine().getPipeline().addValve(new RequestMetricsValve(requestMetrics));
+    }
+    if (FlightRecorderEvents.isEnabled()) {
+      tomcat.getEngine().getPipeline().addValve(new RequestEventValve());
+    }
+    if (commandLineParams.accessLog != null) {
+      tomcat.getEngine().getPipeline().addValve(new AsyncAccessLogValve(new File(commandLineParams.accessLog),
+              commandLineParams.accessLogPattern, commandLineParams.accessLogBuffer));
+    }
+    // after the valves above, so rejected requests are measured and logged
+    if (commandLineParams.concurrencyLimit) {
+      tomcat.getEngine().getPipeline().addValve(createConcurrencyLimitValve(commandLineParams));
+    }
+
+    // contexts are closed for a checkpoint after the filters and connectors registered later
+    if (Checkpoint.isSupported()) {
+      Checkpoint.register(TomcatCheckpoint.contexts(host));
+    }
+
     //start the server
+    timer = profiler.start(StartupProfiler.PHASES, "start tomcat");
     tomcat.start();
+    timer.stop();
+
+    if (warmUpConnector != null) {
+      timer = profiler.start(StartupProfiler.PHASES, "warm-up");
+      warmUp(commandLineParams, warmUpPaths, warmUpConnector.getLocalPort());
+      timer.stop();
+      tomcat.getService().removeConnector(warmUpConnector);
+      // releases the loopback port
+      warmUpConnector.destroy();
+      lifecycleTimer.register(nioConnector);
+      timer = profiler.start(StartupProfiler.PHASES, "open public connector");
+      tomcat.getService().addConnector(nioConnector);
+      timer.stop();
+      if (!LifecycleState.STARTED.equals(nioConnector.getState())) {
+        throw new LifecycleException("Connector on port " + commandLineParams.port + " failed to start");
+      }
+    }
+    if (Checkpoint.isSupported()) {
+      Checkpoint.register(TomcatCheckpoint.connectors(tomcat.getService()));
+    }
+
+    if (requestMetrics != null) {
+      MetricsServer metricsServer = new MetricsServer(commandLineParams.metricsAddress, commandLineParams.metricsPort,
+              new MetricsCollector(tomcat.getService(), requestMetrics));
+      metricsServer.start();
+      Checkpoint.register(metricsServer);
+    }
 
         /*
          * NamingContextListener.lifecycleEvent(LifecycleEvent event)
@@ -60,11 +168,91 @@ public class TomcatFactory {
          * tomcat.enableNaming() to be called much earlier in the code.
          */
     if (commandLineParams.enableBasicAuth || commandLineParams.tomcatUsersLocation != null) {
+      timer = profiler.start(StartupProfiler.PHASES, "configure user store");
       createUserStoreFactory().configureUserStore(tomcat, commandLineParams);
+      timer.stop();
     }
     return tomcat;
   }
 
+  protected void configureWarContexts(final TomcatConfigurator configurator,
+                                     final CommandLineParams commandLineParams,
+                                     final Tomcat tomcat,
+                                     int threads,
+                                     ContextDefinition... warLocations) throws Exception {
+    final ContextFactory contextFactory = createContextFactory();
+    if (threads <= 1) {
+      for (ContextDefinition war : warLocations) {
+        contextFactory.configureWarContext(configurator, commandLineParams, tomcat, war);
+      }
+      return;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (final ContextDefinition war : warLocations) {
+        results.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            contextFactory.configureWarContext(configurator, commandLineParams, tomcat, war);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> result : results) {
+        try {
+          result.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof Exception) {
+            throw (Exception) e.getCause();
+          }
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  protected List<String> resolveWarmUpPaths(CommandLineParams commandLineParams) throws IOException {
+    List<String> paths = WarmUpRunner.parsePaths(commandLineParams.warmUpUrls);
+    if (commandLineParams.warmUpAccessLog != null) {
+      paths.addAll(WarmUpRunner.readAccessLog(new File(commandLineParams.warmUpAccessLog),
+              commandLineParams.warmUpMaxRequests));
+    }
+    return paths;
+  }
+
+  protected void warmUp(CommandLineParams commandLineParams, List<String> paths, int port) throws InterruptedException {
+    WarmUpRunner runner = new WarmUpRunner(paths);
+    runner.setThreads(commandLineParams.warmUpThreads);
+    runner.setPasses(commandLineParams.warmUpPasses);
+    runner.setLatencyTarget(commandLineParams.warmUpLatency);
+    runner.setTimeout(TimeUnit.SECONDS.toMillis(commandLineParams.warmUpTimeout));
+    runner.run(port);
+  }
+
+  /**
+   * Same rules as Tomcat's startStopThreads: values below 1 are added to the number of processors
+   */
+  protected static int resolveStartStopThreads(Integer startStopThreads) {
+    if (startStopThreads == null) {
+      return 1;
+    }
+    if (startStopThreads > 0) {
+      return startStopThreads;
+    }
+    return Math.max(1, Runtime.getRuntime().availableProcessors() + startStopThreads);
+  }
+
+  protected ConcurrencyLimitValve createConcurrencyLimitValve(CommandLineParams commandLineParams) {
+    int maxLimit = commandLineParams.concurrencyLimitMax != null ? commandLineParams.concurrencyLimitMax :
+            commandLineParams.maxThreads != null ? commandLineParams.maxThreads : DEFAULT_MAX_CONCURRENCY_LIMIT;
+    return new ConcurrencyLimitValve(commandLineParams.concurrencyLimitInitial, commandLineParams.concurrencyLimitMin,
+            maxLimit, commandLineParams.concurrencyLimitRetryAfter);
+  }
+
   protected ContextFactory createContextFactory() {
     return new ContextFactory();
   }
@@ -73,6 +261,10 @@ public class TomcatFactory {
     return new ConnectorFactory();
   }
 
+  protected ExecutorFactory createExecutorFactory() {
+    return new ExecutorFactory();
+  }
+
   protected UserStoreFactory createUserStoreFactory() {
     return new UserStoreFactory();
   }
@@ -0,0 +1,160 @@
+package webapp.runner.launch.helper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Takes part in checkpoints of JVMs with Coordinated Restore at Checkpoint (CRaC). Sockets
+ * and files cannot be part of a checkpoint, so registered participants close them before
+ * the checkpoint and open them again after the restore. Participants are notified of a
+ * checkpoint in the reverse order of their registration and of a restore in the order of
+ * their registration. The CRaC API is looked up reflectively, either {@code org.crac} if it
+ * is on the class path or the JDK's own {@code jdk.crac}, so the runner still compiles for
+ * and runs on JDKs without it.
+ */
+public class Checkpoint {
+
+  private static final Logger logger = Logger.getLogger(Checkpoint.class.getName());
+
+  private static final String[] API_PACKAGES = {"org.crac", "jdk.crac"};
+
+  private static final List<Participant> participants = new CopyOnWriteArrayList<Participant>();
+  // CRaC contexts may only keep weak references to their resources
+  private static Object resource;
+
+  private Checkpoint() {
+  }
+
+  /**
+   * Closes and reopens what cannot be part of a checkpoint.
+   */
+  public interface Participant {
+    void beforeCheckpoint() throws Exception;
+
+    void afterRestore() throws Exception;
+  }
+
+  /**
+   * @return true if the JVM supports CRaC; a checkpoint also needs {@code -XX:CRaCCheckpointTo}
+   */
+  public static boolean isSupported() {
+    return findApiPackage() != null;
+  }
+
+  public static void register(Participant participant) {
+    participants.add(participant);
+    registerResource();
+  }
+
+  public static void unregister(Participant participant) {
+    participants.remove(participant);
+  }
+
+  /**
+   * Checkpoints the JVM and returns once it has been restored from the checkpoint, or right
+   * away if the JVM continues after the checkpoint.
+   *
+   * @throws UnsupportedOperationException if the JVM does not support CRaC
+   * @throws Exception                     if the checkpoint or the restore failed
+   */
+  public static void checkpointRestore() throws Exception {
+    String api = findApiPackage();
+    if (api == null) {
+      throw new UnsupportedOperationException("The JVM does not support checkpoints, it needs CRaC");
+    }
+    registerResource();
+    try {
+      Class.forName(api + ".Core").getMethod("checkpointRestore").invoke(null);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  static void beforeCheckpoint() throws Exception {
+    List<Participant> reversed = new ArrayList<Participant>(participants);
+    Collections.reverse(reversed);
+    for (Participant participant : reversed) {
+      participant.beforeCheckpoint();
+    }
+  }
+
+  static void afterRestore() throws Exception {
+    Exception failure = null;
+    for (Participant participant : participants) {
+      try {
+        participant.afterRestore();
+      } catch (Exception e) {
+        // the others are still reopened
+        logger.log(Level.SEVERE, "Unable to restore " + participant, e);
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private static String findApiPackage() {
+    for (String api : API_PACKAGES) {
+      try {
+        Class.forName(api + ".Core");
+        return api;
+      } catch (ClassNotFoundException e) {
+        // try the next one
+      } catch (LinkageError e) {
+        // org.crac without a CRaC JDK
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Registers a single resource with the global CRaC context that notifies the participants.
+   */
+  private static synchronized void registerResource() {
+    String api = findApiPackage();
+    if (resource != null || api == null) {
+      return;
+    }
+    try {
+      Class<?> resourceClass = Class.forName(api + ".Resource");
+      Object proxy = Proxy.newProxyInstance(Checkpoint.class.getClassLoader(), new Class<?>[]{resourceClass},
+              new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                  String name = method.getName();
+                  if ("beforeCheckpoint".equals(name)) {
+                    beforeCheckpoint();
+                    return null;
+                  } else if ("afterRestore".equals(name)) {
+                    afterRestore();
+                    return null;
+                  } else if ("equals".equals(name)) {
+                    return proxy == args[0];
+                  } else if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                  }
+                  return "webapp-runner checkpoint participants";
+                }
+              });
+      Object context = Class.forName(api + ".Core").getMethod("getGlobalContext").invoke(null);
+      Class.forName(api + ".Context").getMethod("register", resourceClass).invoke(context, proxy);
+      resource = proxy;
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Unable to register for checkpoints", e);
+    }
+  }
+}
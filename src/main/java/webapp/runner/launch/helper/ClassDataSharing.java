@@ -0,0 +1,170 @@
+package webapp.runner.launch.helper;
+
+import org.apache.catalina.startup.Tomcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Creates and checks the class data sharing archive used to start the runner faster.
+ * <p>
+ * The archive is written by the JVM when it exits, which only happens if it was started
+ * with {@code -XX:ArchiveClassesAtExit}. A training run therefore starts a second JVM with
+ * that option and the same class path and arguments, which boots the webapp, sends the
+ * warm-up requests and exits. Dynamic archives require Java 13 or newer.
+ */
+public class ClassDataSharing {
+
+  private static final String ARCHIVE_AT_EXIT = "-XX:ArchiveClassesAtExit=";
+  private static final String SHARED_ARCHIVE = "-XX:SharedArchiveFile=";
+
+  private ClassDataSharing() {
+  }
+
+  /**
+   * @return true in the JVM of a training run
+   */
+  public static boolean isTraining() {
+    for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      if (argument.startsWith(ARCHIVE_AT_EXIT)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Runs the training run in a new JVM and waits for it to write the archive.
+   *
+   * @param archive the archive to write
+   * @param args    the arguments of this JVM, passed on unchanged
+   * @return exit code of the training run
+   */
+  public static int dump(String archive, String[] args) throws IOException, InterruptedException {
+    if (getJavaVersion() < 13) {
+      System.err.println("Creating a CDS archive requires Java 13 or newer, this is Java " +
+              System.getProperty("java.specification.version"));
+      return 1;
+    }
+    File archiveFile = new File(archive).getAbsoluteFile();
+    List<String> command = createCommand(ARCHIVE_AT_EXIT + archiveFile, args);
+    System.out.println("Creating CDS archive " + archiveFile);
+
+    ProcessBuilder builder = new ProcessBuilder(command);
+    builder.redirectErrorStream(true);
+    Process process = builder.start();
+    process.getOutputStream().close();
+    InputStream in = process.getInputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      System.out.write(buffer, 0, read);
+    }
+    System.out.flush();
+    int exitCode = process.waitFor();
+    if (exitCode == 0 && archiveFile.isFile()) {
+      System.out.println("Created CDS archive " + archiveFile + ", start with " + SHARED_ARCHIVE + archiveFile);
+    }
+    return exitCode;
+  }
+
+  /**
+   * @return the command line of a JVM like this one, with the given JVM option
+   */
+  static List<String> createCommand(String option, String[] args) {
+    List<String> command = new ArrayList<String>();
+    command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+    for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      // a dynamic archive is written on top of the default archive
+      if (!argument.startsWith(SHARED_ARCHIVE) && !argument.startsWith(ARCHIVE_AT_EXIT) &&
+              !argument.startsWith("-Xshare")) {
+        command.add(argument);
+      }
+    }
+    command.add(option);
+    command.add("-cp");
+    // the archive records the class path, which has to match when it is used
+    command.add(absoluteClassPath(System.getProperty("java.class.path")));
+    command.add("webapp.runner.launch.Main");
+    command.addAll(Arrays.asList(args));
+    return command;
+  }
+
+  /**
+   * @return the class path with every entry made absolute
+   */
+  static String absoluteClassPath(String classPath) {
+    StringBuilder absolute = new StringBuilder();
+    for (String entry : classPath.split(File.pathSeparator)) {
+      if (entry.length() == 0) {
+        continue;
+      }
+      if (absolute.length() > 0) {
+        absolute.append(File.pathSeparatorChar);
+      }
+      absolute.append(new File(entry).getAbsolutePath());
+    }
+    return absolute.toString();
+  }
+
+  /**
+   * Requests each of the paths once, so the classes serving them are loaded.
+   *
+   * @param paths comma separated paths relative to the context path
+   */
+  public static void warmUp(Tomcat tomcat, String contextPath, String paths) throws InterruptedException {
+    if (contextPath.length() > 0 && !contextPath.startsWith("/")) {
+      contextPath = "/" + contextPath;
+    }
+    List<String> requests = new ArrayList<String>();
+    for (String path : WarmUpRunner.parsePaths(paths)) {
+      requests.add(contextPath + path);
+    }
+    if (requests.isEmpty()) {
+      return;
+    }
+    WarmUpRunner runner = new WarmUpRunner(requests);
+    runner.setPasses(1);
+    runner.setThreads(1);
+    runner.run(tomcat.getConnector().getLocalPort());
+    if (!runner.isWarmedUp()) {
+      System.out.println("WARNING: Most warm-up requests failed, the CDS archive may miss classes");
+    }
+  }
+
+  /**
+   * Warns if this JVM was not started with the archive; it cannot be used later on.
+   */
+  public static void checkArchive(String archive) {
+    File archiveFile = new File(archive).getAbsoluteFile();
+    for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      if (argument.startsWith(SHARED_ARCHIVE) &&
+              new File(argument.substring(SHARED_ARCHIVE.length())).getAbsoluteFile().equals(archiveFile)) {
+        return;
+      }
+    }
+    if (!archiveFile.isFile()) {
+      System.out.println("WARNING: CDS archive " + archiveFile + " does not exist, create it with --cds-dump");
+    } else {
+      System.out.println("WARNING: CDS archive " + archiveFile + " is not used, start the JVM with " +
+              SHARED_ARCHIVE + archiveFile);
+    }
+  }
+
+  static int getJavaVersion() {
+    String version = System.getProperty("java.specification.version");
+    if (version.startsWith("1.")) {
+      version = version.substring(2);
+    }
+    try {
+      return Integer.parseInt(version);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,357 @@
+package webapp.runner.launch.helper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Expands a WAR into a directory, writing only the entries that changed since the last
+ * expansion. A manifest of the CRC and size of every entry is kept next to the expanded
+ * directory; when the WAR itself is unchanged nothing is read but its central directory.
+ * Files that are no longer in the WAR are deleted, files created by the application are
+ * left alone.
+ */
+public class IncrementalWarExpander {
+
+  private static final Logger logger = Logger.getLogger(IncrementalWarExpander.class.getName());
+
+  /**
+   * Stored entries from this size on are copied from channel to channel.
+   */
+  private static final long TRANSFER_THRESHOLD = 64 * 1024;
+
+  private static final String WAR_LENGTH = "war.length";
+  private static final String WAR_LAST_MODIFIED = "war.lastModified";
+  private static final String WAR_DIGEST = "war.digest";
+
+  private final File war;
+  private final File directory;
+  private final File manifest;
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  private final AtomicInteger written = new AtomicInteger();
+  private final AtomicInteger unchanged = new AtomicInteger();
+
+  /**
+   * @param war       the archive
+   * @param directory the directory it is expanded into
+   * @param manifest  properties file recording the expanded entries
+   */
+  public IncrementalWarExpander(File war, File directory, File manifest) {
+    this.war = war;
+    this.directory = directory;
+    this.manifest = manifest;
+  }
+
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * @return number of entries written by the last expansion
+   */
+  public int getWrittenCount() {
+    return written.get();
+  }
+
+  /**
+   * @return number of entries the last expansion found up to date
+   */
+  public int getUnchangedCount() {
+    return unchanged.get();
+  }
+
+  /**
+   * @return the expanded directory
+   */
+  public File expand() throws IOException {
+    written.set(0);
+    unchanged.set(0);
+    Properties previous = loadManifest();
+    long length = war.length();
+    long lastModified = war.lastModified();
+    if (directory.isDirectory() &&
+            String.valueOf(length).equals(previous.getProperty(WAR_LENGTH)) &&
+            String.valueOf(lastModified).equals(previous.getProperty(WAR_LAST_MODIFIED))) {
+      logger.fine(war + " is unchanged, using " + directory);
+      return directory;
+    }
+
+    ZipCentralDirectory central = ZipCentralDirectory.read(war);
+    String digest = central == null ? null : Long.toHexString(central.getChecksum());
+    Properties current = new Properties();
+    current.setProperty(WAR_LENGTH, String.valueOf(length));
+    current.setProperty(WAR_LAST_MODIFIED, String.valueOf(lastModified));
+    if (digest != null) {
+      current.setProperty(WAR_DIGEST, digest);
+    }
+    if (digest != null && directory.isDirectory() && digest.equals(previous.getProperty(WAR_DIGEST))) {
+      // e.g. rebuilt or copied with the same content
+      copyEntries(previous, current);
+      saveManifest(current);
+      logger.fine("Content of " + war + " is unchanged, using " + directory);
+      return directory;
+    }
+
+    // an interrupted expansion has to start from scratch
+    if (manifest.exists() && !manifest.delete()) {
+      throw new IOException("Could not delete " + manifest);
+    }
+    List<ZipCentralDirectory.Entry> entries = central != null ? central.getEntries() : listEntries();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+    extract(entries, previous);
+
+    Set<String> names = new HashSet<String>();
+    for (ZipCentralDirectory.Entry entry : entries) {
+      names.add(entry.getName());
+      if (!entry.isDirectory()) {
+        current.setProperty("/" + entry.getName(), describe(entry));
+      }
+    }
+    for (String key : previous.stringPropertyNames()) {
+      if (key.startsWith("/") && !names.contains(key.substring(1))) {
+        File removed = new File(directory, key.substring(1));
+        if (removed.isFile() && !removed.delete()) {
+          logger.warning("Could not delete " + removed);
+        }
+      }
+    }
+    saveManifest(current);
+    logger.fine("Expanded " + written + " and kept " + unchanged + " entries of " + war + " in " + directory);
+    return directory;
+  }
+
+  private void extract(List<ZipCentralDirectory.Entry> entries, final Properties previous) throws IOException {
+    final Queue<ZipCentralDirectory.Entry> queue = new ConcurrentLinkedQueue<ZipCentralDirectory.Entry>(entries);
+    int workers = Math.min(threads, Math.max(1, entries.size() / 16));
+    if (workers == 1) {
+      new Extractor(queue, previous).call();
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(workers);
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (int i = 0; i < workers; i++) {
+        results.add(pool.submit(new Extractor(queue, previous)));
+      }
+      for (Future<Void> result : results) {
+        try {
+          result.get();
+        } catch (ExecutionException e) {
+          queue.clear();
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException("Unable to expand " + war, e.getCause());
+        } catch (InterruptedException e) {
+          queue.clear();
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while expanding " + war);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Takes entries from the queue until it is empty, with its own handles on the WAR.
+   */
+  private class Extractor implements Callable<Void> {
+    private final Queue<ZipCentralDirectory.Entry> queue;
+    private final Properties previous;
+    private final byte[] buffer = new byte[8192];
+
+    Extractor(Queue<ZipCentralDirectory.Entry> queue, Properties previous) {
+      this.queue = queue;
+      this.previous = previous;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      ZipFile zip = new ZipFile(war);
+      try {
+        RandomAccessFile raw = new RandomAccessFile(war, "r");
+        try {
+          ZipCentralDirectory.Entry entry;
+          while ((entry = queue.poll()) != null) {
+            extract(zip, raw.getChannel(), entry);
+          }
+        } finally {
+          raw.close();
+        }
+      } finally {
+        zip.close();
+      }
+      return null;
+    }
+
+    private void extract(ZipFile zip, FileChannel channel, ZipCentralDirectory.Entry entry) throws IOException {
+      File file = resolve(entry.getName());
+      if (entry.isDirectory()) {
+        if (!file.isDirectory() && !file.mkdirs() && !file.isDirectory()) {
+          throw new IOException("Could not create directory " + file);
+        }
+        return;
+      }
+      if (describe(entry).equals(previous.getProperty("/" + entry.getName())) &&
+              file.isFile() && file.length() == entry.getSize()) {
+        unchanged.incrementAndGet();
+        return;
+      }
+      File parent = file.getParentFile();
+      if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+        throw new IOException("Could not create directory " + parent);
+      }
+      if (entry.getMethod() == ZipEntry.STORED && entry.getSize() >= TRANSFER_THRESHOLD &&
+              entry.getLocalHeaderOffset() >= 0) {
+        transfer(channel, entry, file);
+      } else {
+        copy(zip, entry, file);
+      }
+      written.incrementAndGet();
+    }
+
+    private void transfer(FileChannel channel, ZipCentralDirectory.Entry entry, File file) throws IOException {
+      long offset = ZipCentralDirectory.dataOffset(channel, entry);
+      FileOutputStream out = new FileOutputStream(file);
+      try {
+        FileChannel target = out.getChannel();
+        long position = 0;
+        while (position < entry.getSize()) {
+          long count = channel.transferTo(offset + position, entry.getSize() - position, target);
+          if (count <= 0) {
+            throw new IOException("Unexpected end of " + entry.getName());
+          }
+          position += count;
+        }
+      } finally {
+        out.close();
+      }
+    }
+
+    private void copy(ZipFile zip, ZipCentralDirectory.Entry entry, File file) throws IOException {
+      ZipEntry zipEntry = zip.getEntry(entry.getName());
+      if (zipEntry == null) {
+        throw new IOException("Missing entry " + entry.getName() + " in " + war);
+      }
+      InputStream in = zip.getInputStream(zipEntry);
+      try {
+        OutputStream out = new FileOutputStream(file);
+        try {
+          int read;
+          while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+          }
+        } finally {
+          out.close();
+        }
+      } finally {
+        in.close();
+      }
+    }
+  }
+
+  /**
+   * @return the file of an entry, which has to be inside the directory
+   */
+  File resolve(String name) throws IOException {
+    String normalized = name.replace('\\', '/');
+    if (normalized.startsWith("/") || new File(normalized).isAbsolute()) {
+      throw new IOException("Invalid entry " + name + " in " + war);
+    }
+    for (String segment : normalized.split("/")) {
+      if ("..".equals(segment)) {
+        throw new IOException("Invalid entry " + name + " in " + war);
+      }
+    }
+    return new File(directory, normalized);
+  }
+
+  /**
+   * Entries of archives whose central directory cannot be read, e.g. ZIP64 archives.
+   */
+  private List<ZipCentralDirectory.Entry> listEntries() throws IOException {
+    List<ZipCentralDirectory.Entry> entries = new ArrayList<ZipCentralDirectory.Entry>();
+    ZipFile zip = new ZipFile(war);
+    try {
+      Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+      while (zipEntries.hasMoreElements()) {
+        ZipEntry entry = zipEntries.nextElement();
+        entries.add(new ZipCentralDirectory.Entry(entry.getName(), entry.getMethod(), entry.getCrc(),
+                entry.getCompressedSize(), entry.getSize(), -1));
+      }
+    } finally {
+      zip.close();
+    }
+    return entries;
+  }
+
+  private static String describe(ZipCentralDirectory.Entry entry) {
+    return Long.toHexString(entry.getCrc()) + "," + entry.getSize();
+  }
+
+  private static void copyEntries(Properties from, Properties to) {
+    for (String key : from.stringPropertyNames()) {
+      if (key.startsWith("/")) {
+        to.setProperty(key, from.getProperty(key));
+      }
+    }
+  }
+
+  private Properties loadManifest() {
+    Properties properties = new Properties();
+    if (!manifest.isFile()) {
+      return properties;
+    }
+    try {
+      InputStream in = new FileInputStream(manifest);
+      try {
+        properties.load(in);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      logger.warning("Ignoring unreadable manifest " + manifest + ": " + e.getMessage());
+      properties.clear();
+    }
+    return properties;
+  }
+
+  private void saveManifest(Properties properties) throws IOException {
+    File parent = manifest.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Could not create directory " + parent);
+    }
+    OutputStream out = new FileOutputStream(manifest);
+    try {
+      properties.store(out, "webapp-runner expanded " + war.getName());
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package webapp.runner.launch.helper;
+
+import org.apache.catalina.core.StandardContext;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+
+/**
+ * Stands in for a filter declared by class name, which is only created and initialized
+ * when the first request passes it.
+ */
+public class LazyFilter implements Filter {
+
+  private final StandardContext context;
+  private final String filterClass;
+  private FilterConfig filterConfig;
+  private volatile Filter filter;
+
+  public LazyFilter(StandardContext context, String filterClass) {
+    this.context = context;
+    this.filterClass = filterClass;
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    this.filterConfig = filterConfig;
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+          throws IOException, ServletException {
+    Filter delegate = filter;
+    if (delegate == null) {
+      delegate = initialize();
+    }
+    delegate.doFilter(request, response, chain);
+  }
+
+  private synchronized Filter initialize() throws ServletException {
+    if (filter == null) {
+      Filter created;
+      try {
+        // the instance manager injects resources like for any other filter
+        created = (Filter) context.getInstanceManager().newInstance(filterClass);
+      } catch (Exception e) {
+        throw new ServletException("Unable to create filter " + filterConfig.getFilterName(), e);
+      }
+      created.init(filterConfig);
+      filter = created;
+    }
+    return filter;
+  }
+
+  @Override
+  public synchronized void destroy() {
+    if (filter != null) {
+      filter.destroy();
+      try {
+        context.getInstanceManager().destroyInstance(filter);
+      } catch (Exception e) {
+        context.getLogger().warn("Unable to destroy filter " + filterConfig.getFilterName(), e);
+      }
+      filter = null;
+    }
+  }
+}
@@ -0,0 +1,381 @@
+package webapp.runner.launch.helper;
+
+import org.apache.naming.resources.Resource;
+import org.apache.naming.resources.WARDirContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Serves the resources of a WAR that is not expanded from a memory mapping of the archive.
+ * Stored entries are read straight from the mapping, small compressed entries are inflated
+ * once and kept in a bounded cache of recently used entries. Everything else, and
+ * directories and attributes, is left to the {@link WARDirContext}.
+ * <p>
+ * The mapping is unmapped when the resources are released or closed; streams still open
+ * then fail with an {@link IOException}.
+ */
+public class MappedWarDirContext extends WARDirContext {
+
+  private static final Logger logger = Logger.getLogger(MappedWarDirContext.class.getName());
+
+  private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+  private final int maxCachedEntrySize;
+  private final long maxCacheSize;
+
+  private volatile ByteBuffer mapped;
+  /**
+   * Held for reading while the mapping is accessed, for writing while it is unmapped.
+   */
+  private final ReadWriteLock mappingLock = new ReentrantReadWriteLock();
+  private volatile Map<String, ZipCentralDirectory.Entry> index = new HashMap<String, ZipCentralDirectory.Entry>();
+  private final InflatedCache inflated = new InflatedCache();
+  private long cacheSize;
+
+  public MappedWarDirContext() {
+    this(64 * 1024, 16 * 1024 * 1024);
+  }
+
+  /**
+   * @param maxCachedEntrySize compressed entries up to this size are kept inflated
+   * @param maxCacheSize       total size of the inflated entries kept
+   */
+  public MappedWarDirContext(int maxCachedEntrySize, long maxCacheSize) {
+    this.maxCachedEntrySize = maxCachedEntrySize;
+    this.maxCacheSize = maxCacheSize;
+  }
+
+  @Override
+  public void setDocBase(String docBase) {
+    super.setDocBase(docBase);
+    map(new File(docBase));
+  }
+
+  /**
+   * Closes the archive and drops its mapping, e.g. for a checkpoint, until {@link #reopen()}.
+   * Unlike {@link #release()} this keeps the entries, so the context, its class loader and
+   * the mapper go on using these resources; reading an entry fails while closed.
+   */
+  public void close() {
+    unmapArchive();
+    if (base != null) {
+      try {
+        base.close();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unable to close " + getDocBase(), e);
+      }
+    }
+  }
+
+  /**
+   * Opens and maps the archive again after {@link #close()}.
+   */
+  public void reopen() throws IOException {
+    File war = new File(getDocBase());
+    base = new ZipFile(war);
+    map(war);
+  }
+
+  private void map(File war) {
+    try {
+      ZipCentralDirectory directory = ZipCentralDirectory.read(war);
+      if (directory == null || war.length() > Integer.MAX_VALUE) {
+        logger.info("Not mapping " + war + ", it is a ZIP64 archive");
+        return;
+      }
+      Map<String, ZipCentralDirectory.Entry> entries = new HashMap<String, ZipCentralDirectory.Entry>();
+      for (ZipCentralDirectory.Entry entry : directory.getEntries()) {
+        if (!entry.isDirectory()) {
+          entries.put(entry.getName(), entry);
+        }
+      }
+      RandomAccessFile file = new RandomAccessFile(war, "r");
+      try {
+        // the mapping stays valid after the channel is closed
+        MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        mappingLock.writeLock().lock();
+        try {
+          mapped = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+          mappingLock.writeLock().unlock();
+        }
+      } finally {
+        file.close();
+      }
+      index = entries;
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Unable to map " + war + ", resources are read from the archive", e);
+    }
+  }
+
+  @Override
+  public void release() {
+    unmapArchive();
+    index = new HashMap<String, ZipCentralDirectory.Entry>();
+    synchronized (inflated) {
+      inflated.clear();
+      cacheSize = 0;
+    }
+    super.release();
+  }
+
+  @Override
+  protected Object doLookup(String name) {
+    Object result = super.doLookup(name);
+    if (!(result instanceof Resource) || mapped == null) {
+      return result;
+    }
+    ZipCentralDirectory.Entry entry = index.get(name.startsWith("/") ? name.substring(1) : name);
+    if (entry == null) {
+      return result;
+    }
+    if (entry.getMethod() == ZipEntry.STORED ||
+            (entry.getMethod() == ZipEntry.DEFLATED && entry.getSize() <= maxCachedEntrySize)) {
+      return new MappedResource(entry, (Resource) result);
+    }
+    return result;
+  }
+
+  private void unmapArchive() {
+    ByteBuffer released;
+    mappingLock.writeLock().lock();
+    try {
+      released = mapped;
+      mapped = null;
+    } finally {
+      mappingLock.writeLock().unlock();
+    }
+    if (released != null) {
+      unmap(released);
+    }
+  }
+
+  /**
+   * Frees the mapping now instead of once it has been collected, which would keep the archive
+   * mapped across a checkpoint. Falls back to the collector where the JDK does not allow it.
+   */
+  private static void unmap(ByteBuffer buffer) {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner;
+      try {
+        invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      } catch (NoSuchMethodException e) {
+        // Java 8 and older
+        Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+        return;
+      }
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), buffer);
+    } catch (Exception e) {
+      logger.log(Level.FINE, "Unable to unmap the archive, it is unmapped once collected", e);
+    }
+  }
+
+  /**
+   * @return the compressed or stored bytes of an entry, sharing the mapping; only to be used
+   * while holding the read lock of the mapping
+   */
+  private ByteBuffer data(ZipCentralDirectory.Entry entry) throws IOException {
+    ByteBuffer buffer = mapped;
+    if (buffer == null) {
+      throw new IOException("Resources have been released");
+    }
+    int header = (int) entry.getLocalHeaderOffset();
+    if (header + 30 > buffer.limit() || buffer.getInt(header) != LOCAL_FILE_HEADER) {
+      throw new IOException("Corrupt local file header of " + entry.getName());
+    }
+    int offset = header + 30 + (buffer.getShort(header + 26) & 0xFFFF) + (buffer.getShort(header + 28) & 0xFFFF);
+    if (offset + entry.getCompressedSize() > buffer.limit()) {
+      throw new IOException("Unexpected end of archive reading " + entry.getName());
+    }
+    ByteBuffer data = buffer.duplicate();
+    data.position(offset);
+    data.limit(offset + (int) entry.getCompressedSize());
+    return data.slice();
+  }
+
+  private byte[] inflate(ZipCentralDirectory.Entry entry) throws IOException {
+    synchronized (inflated) {
+      byte[] content = inflated.get(entry.getName());
+      if (content != null) {
+        return content;
+      }
+    }
+    // raw deflate needs an extra byte after the input
+    byte[] compressed;
+    mappingLock.readLock().lock();
+    try {
+      ByteBuffer data = data(entry);
+      compressed = new byte[data.remaining() + 1];
+      data.get(compressed, 0, compressed.length - 1);
+    } finally {
+      mappingLock.readLock().unlock();
+    }
+    byte[] content = new byte[(int) entry.getSize()];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(compressed);
+      int length = 0;
+      while (length < content.length && !inflater.finished()) {
+        int count = inflater.inflate(content, length, content.length - length);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        length += count;
+      }
+      if (length != content.length) {
+        throw new IOException("Invalid compressed data of " + entry.getName());
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Invalid compressed data of " + entry.getName(), e);
+    } finally {
+      inflater.end();
+    }
+    synchronized (inflated) {
+      if (inflated.put(entry.getName(), content) == null) {
+        cacheSize += content.length;
+      }
+    }
+    return content;
+  }
+
+  /**
+   * Least recently used entries beyond the total size are dropped.
+   */
+  private class InflatedCache extends LinkedHashMap<String, byte[]> {
+    private static final long serialVersionUID = 1L;
+
+    InflatedCache() {
+      super(64, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+      if (cacheSize > maxCacheSize) {
+        cacheSize -= eldest.getValue().length;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private class MappedResource extends Resource {
+    private final ZipCentralDirectory.Entry entry;
+    private final Resource fallback;
+
+    MappedResource(ZipCentralDirectory.Entry entry, Resource fallback) {
+      this.entry = entry;
+      this.fallback = fallback;
+    }
+
+    @Override
+    public InputStream streamContent() throws IOException {
+      if (binaryContent != null) {
+        return super.streamContent();
+      }
+      try {
+        if (entry.getMethod() == ZipEntry.STORED) {
+          mappingLock.readLock().lock();
+          try {
+            return new MappedInputStream(mapped, data(entry));
+          } finally {
+            mappingLock.readLock().unlock();
+          }
+        }
+        return new ByteArrayInputStream(inflate(entry));
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Reading " + entry.getName() + " from the archive", e);
+        return fallback.streamContent();
+      }
+    }
+  }
+
+  /**
+   * Reads a part of the mapping, as long as it has not been unmapped.
+   */
+  private class MappedInputStream extends InputStream {
+    private final ByteBuffer mapping;
+    private final ByteBuffer buffer;
+
+    MappedInputStream(ByteBuffer mapping, ByteBuffer buffer) {
+      this.mapping = mapping;
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() throws IOException {
+      mappingLock.readLock().lock();
+      try {
+        checkMapped();
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+      } finally {
+        mappingLock.readLock().unlock();
+      }
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      mappingLock.readLock().lock();
+      try {
+        checkMapped();
+        if (!buffer.hasRemaining()) {
+          return -1;
+        }
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+      } finally {
+        mappingLock.readLock().unlock();
+      }
+    }
+
+    private void checkMapped() throws IOException {
+      if (mapped != mapping) {
+        throw new IOException("Resources have been released");
+      }
+    }
+
+    @Override
+    public long skip(long n) {
+      int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
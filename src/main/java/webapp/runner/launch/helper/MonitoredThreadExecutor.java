@@ -0,0 +1,100 @@
+package webapp.runner.launch.helper;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.core.StandardThreadExecutor;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A {@link StandardThreadExecutor} that counts rejected tasks and optionally logs its
+ * pool statistics in a fixed interval.
+ */
+public class MonitoredThreadExecutor extends StandardThreadExecutor {
+
+  private Logger logger = Logger.getLogger(MonitoredThreadExecutor.class.getName());
+
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private int statisticsInterval;
+  private ScheduledExecutorService statisticsReporter;
+
+  public MonitoredThreadExecutor() {
+  }
+
+  /**
+   * @param statisticsInterval seconds between two statistics log entries, 0 to disable
+   */
+  public void setStatisticsInterval(int statisticsInterval) {
+    this.statisticsInterval = statisticsInterval;
+  }
+
+  public int getStatisticsInterval() {
+    return statisticsInterval;
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    try {
+      super.execute(command);
+    } catch (RejectedExecutionException e) {
+      rejectedCount.incrementAndGet();
+      throw e;
+    }
+  }
+
+  @Override
+  public void execute(Runnable command, long timeout, TimeUnit unit) {
+    try {
+      super.execute(command, timeout, unit);
+    } catch (RejectedExecutionException e) {
+      rejectedCount.incrementAndGet();
+      throw e;
+    }
+  }
+
+  public String getStatistics() {
+    return String.format("Executor [%s]: active=%d, pool=%d, largest=%d, queued=%d, completed=%d, rejected=%d",
+            getName(), getActiveCount(), getPoolSize(), getLargestPoolSize(),
+            getQueueSize(), getCompletedTaskCount(), getRejectedCount());
+  }
+
+  @Override
+  protected void startInternal() throws LifecycleException {
+    super.startInternal();
+    if (statisticsInterval > 0) {
+      statisticsReporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, getName() + "-statistics");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      statisticsReporter.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          logger.info(getStatistics());
+        }
+      }, statisticsInterval, statisticsInterval, TimeUnit.SECONDS);
+    }
+  }
+
+  @Override
+  protected void stopInternal() throws LifecycleException {
+    if (statisticsReporter != null) {
+      statisticsReporter.shutdownNow();
+      statisticsReporter = null;
+      logger.info(getStatistics());
+    }
+    super.stopInternal();
+  }
+}
@@ -1,9 +1,18 @@
 package webapp.runner.launch.helper;
 
+import org.apache.catalina.Container;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.Wrapper;
 import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.deploy.FilterDef;
+import webapp.runner.launch.profile.StartupProfiler;
 
 public class OverrideContext extends StandardContext {
 
+  private boolean lazyInit;
+  private StartupProfiler profiler = StartupProfiler.getInstance();
+  private long filtersStarted;
+
   public OverrideContext() {
   }
 
@@ -13,4 +22,86 @@ public class OverrideContext extends StandardContext {
       super.addParameter(name, value);
     }
   }
+
+  /**
+   * @param lazyInit true to initialize servlets and filters on their first request instead of at startup
+   */
+  public void setLazyInit(boolean lazyInit) {
+    this.lazyInit = lazyInit;
+  }
+
+  public boolean isLazyInit() {
+    return lazyInit;
+  }
+
+  public void setStartupProfiler(StartupProfiler profiler) {
+    this.profiler = profiler;
+  }
+
+  private String getProfilerGroup() {
+    return StartupProfiler.contextGroup(getPath());
+  }
+
+  /**
+   * Records the time of the context configuration, which includes the JAR scans, and of the
+   * load-on-startup servlets, which end when the context reports it is started.
+   */
+  @Override
+  protected void fireLifecycleEvent(String type, Object data) {
+    if (Lifecycle.CONFIGURE_START_EVENT.equals(type)) {
+      StartupProfiler.Timer timer = profiler.start(getProfilerGroup(), "context config");
+      try {
+        super.fireLifecycleEvent(type, data);
+      } finally {
+        timer.stop();
+      }
+      return;
+    }
+    if (Lifecycle.START_EVENT.equals(type) && filtersStarted != 0) {
+      profiler.record(getProfilerGroup(), "load-on-startup servlets", filtersStarted, System.nanoTime());
+      filtersStarted = 0;
+    }
+    super.fireLifecycleEvent(type, data);
+  }
+
+  @Override
+  public boolean listenerStart() {
+    StartupProfiler.Timer timer = profiler.start(getProfilerGroup(), "listeners");
+    try {
+      return super.listenerStart();
+    } finally {
+      timer.stop();
+    }
+  }
+
+  /**
+   * Called after the web.xml, annotations and ServletContainerInitializers have registered
+   * everything, right before the load-on-startup servlets are loaded.
+   */
+  @Override
+  public boolean filterStart() {
+    StartupProfiler.Timer timer = profiler.start(getProfilerGroup(), "filters");
+    try {
+      return startFilters();
+    } finally {
+      timer.stop();
+      filtersStarted = System.nanoTime();
+    }
+  }
+
+  private boolean startFilters() {
+    if (lazyInit) {
+      for (Container child : findChildren()) {
+        if (child instanceof Wrapper) {
+          ((Wrapper) child).setLoadOnStartup(-1);
+        }
+      }
+      for (FilterDef filterDef : findFilterDefs()) {
+        if (filterDef.getFilter() == null && filterDef.getFilterClass() != null) {
+          filterDef.setFilter(new LazyFilter(this, filterDef.getFilterClass()));
+        }
+      }
+    }
+    return super.filterStart();
+  }
 }
@@ -0,0 +1,135 @@
+package webapp.runner.launch.helper;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.Manager;
+import org.apache.catalina.Service;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.loader.WebappClassLoader;
+import org.apache.naming.resources.ProxyDirContext;
+import org.apache.naming.resources.WARDirContext;
+
+import javax.naming.directory.DirContext;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * {@link Checkpoint.Participant}s for the parts of Tomcat holding sockets and files. The
+ * connectors are stopped first and started last, so register them after the contexts.
+ */
+public class TomcatCheckpoint {
+
+  private static final Logger logger = Logger.getLogger(TomcatCheckpoint.class.getName());
+
+  private TomcatCheckpoint() {
+  }
+
+  /**
+   * Stops the started connectors of the service, which closes their server sockets if they
+   * were created with {@code bindOnInit} set to false, and starts them again on restore.
+   */
+  public static Checkpoint.Participant connectors(final Service service) {
+    return new Checkpoint.Participant() {
+      private final List<Connector> stopped = new ArrayList<Connector>();
+
+      @Override
+      public void beforeCheckpoint() throws Exception {
+        for (Connector connector : service.findConnectors()) {
+          if (LifecycleState.STARTED.equals(connector.getState())) {
+            connector.stop();
+            stopped.add(connector);
+          }
+        }
+      }
+
+      @Override
+      public void afterRestore() throws Exception {
+        for (Connector connector : stopped) {
+          connector.start();
+          logger.info("Restored connector on port " + connector.getLocalPort());
+        }
+        stopped.clear();
+      }
+
+      @Override
+      public String toString() {
+        return "connectors of " + service.getName();
+      }
+    };
+  }
+
+  /**
+   * Stops session managers that connect to a session store, closes a WAR served with
+   * {@link MappedWarDirContext} and the JARs the class loaders of the contexts keep open.
+   * The WAR is reopened on restore, the JARs when the next class is loaded.
+   */
+  public static Checkpoint.Participant contexts(final Host host) {
+    return new Checkpoint.Participant() {
+      private final List<Manager> stopped = new ArrayList<Manager>();
+      private final List<MappedWarDirContext> closed = new ArrayList<MappedWarDirContext>();
+
+      @Override
+      public void beforeCheckpoint() throws Exception {
+        for (Container child : host.findChildren()) {
+          if (!(child instanceof Context) || !LifecycleState.STARTED.equals(child.getState())) {
+            continue;
+          }
+          Context context = (Context) child;
+          Manager manager = context.getManager();
+          if (isRemote(manager) && LifecycleState.STARTED.equals(((Lifecycle) manager).getState())) {
+            ((Lifecycle) manager).stop();
+            stopped.add(manager);
+          }
+          if (context.getLoader() != null && context.getLoader().getClassLoader() instanceof WebappClassLoader) {
+            ((WebappClassLoader) context.getLoader().getClassLoader()).closeJARs(true);
+          }
+          DirContext resources = context.getResources();
+          if (resources instanceof ProxyDirContext) {
+            resources = ((ProxyDirContext) resources).getDirContext();
+          }
+          if (resources instanceof MappedWarDirContext) {
+            // closed in place, the class loader and the mapper keep a reference to the resources
+            ((MappedWarDirContext) resources).close();
+            closed.add((MappedWarDirContext) resources);
+          } else if (resources instanceof WARDirContext) {
+            logger.warning("The WAR of " + context.getName() + " stays open, use --expand-war or --mmap-war");
+          }
+        }
+      }
+
+      @Override
+      public void afterRestore() throws Exception {
+        for (MappedWarDirContext resources : closed) {
+          try {
+            resources.reopen();
+          } catch (IOException e) {
+            logger.warning("Unable to reopen " + resources.getDocBase() + ": " + e.getMessage());
+          }
+        }
+        closed.clear();
+        for (Manager manager : stopped) {
+          ((Lifecycle) manager).start();
+        }
+        stopped.clear();
+      }
+
+      @Override
+      public String toString() {
+        return "contexts of " + host.getName();
+      }
+    };
+  }
+
+  /**
+   * @return true for managers other than Tomcat's own, which keep sessions in the JVM or in files
+   */
+  static boolean isRemote(Manager manager) {
+    return manager instanceof Lifecycle &&
+            !manager.getClass().getName().startsWith("org.apache.catalina.session.");
+  }
+}
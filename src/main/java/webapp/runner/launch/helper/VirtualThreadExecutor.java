@@ -0,0 +1,122 @@
+package webapp.runner.launch.helper;
+
+import org.apache.catalina.Executor;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.util.LifecycleBase;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs every task on a new virtual thread. Virtual threads are looked up reflectively, so
+ * the runner still compiles for and runs on JDKs without them; use {@link #create(String)}
+ * to find out whether the running JDK supports them.
+ */
+public class VirtualThreadExecutor extends LifecycleBase implements Executor {
+
+  private static final Logger logger = Logger.getLogger(VirtualThreadExecutor.class.getName());
+
+  private final String name;
+  private final ThreadFactory threadFactory;
+  private ExecutorService executor;
+
+  private VirtualThreadExecutor(String name, ThreadFactory threadFactory) {
+    this.name = name;
+    this.threadFactory = threadFactory;
+  }
+
+  /**
+   * @return the executor, or null if the running JDK has no (enabled) virtual threads
+   */
+  public static VirtualThreadExecutor create(String name) {
+    ThreadFactory threadFactory = createVirtualThreadFactory(name + "-virtual-");
+    if (threadFactory == null) {
+      return null;
+    }
+    return new VirtualThreadExecutor(name, threadFactory);
+  }
+
+  private static ThreadFactory createVirtualThreadFactory(String namePrefix) {
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ClassNotFoundException e) {
+      return null;
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (IllegalAccessException e) {
+      logger.log(Level.FINE, "Virtual threads are not accessible", e);
+      return null;
+    } catch (InvocationTargetException e) {
+      // preview releases throw UnsupportedOperationException unless preview features are enabled
+      logger.log(Level.FINE, "Virtual threads are not available", e.getCause());
+      return null;
+    }
+  }
+
+  private static ExecutorService newThreadPerTaskExecutor(ThreadFactory threadFactory) throws LifecycleException {
+    try {
+      Method factoryMethod = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      return (ExecutorService) factoryMethod.invoke(null, threadFactory);
+    } catch (Exception e) {
+      throw new LifecycleException("Unable to create a thread-per-task executor", e);
+    }
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    ExecutorService current = executor;
+    if (current == null) {
+      throw new IllegalStateException("VirtualThreadExecutor not started.");
+    }
+    current.execute(command);
+  }
+
+  @Override
+  public void execute(Runnable command, long timeout, TimeUnit unit) {
+    // a thread per task never queues, so there is nothing to time out on
+    execute(command);
+  }
+
+  @Override
+  protected void initInternal() throws LifecycleException {
+  }
+
+  @Override
+  protected void startInternal() throws LifecycleException {
+    executor = newThreadPerTaskExecutor(threadFactory);
+    setState(LifecycleState.STARTING);
+  }
+
+  @Override
+  protected void stopInternal() throws LifecycleException {
+    setState(LifecycleState.STOPPING);
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  @Override
+  protected void destroyInternal() throws LifecycleException {
+  }
+
+  @Override
+  public String toString() {
+    return "VirtualThreadExecutor[" + name + "]";
+  }
+}
@@ -0,0 +1,292 @@
+package webapp.runner.launch.helper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Sends requests to the application before it takes traffic, so the JIT has compiled the
+ * hot paths by then. The paths are requested in passes by several threads until the
+ * number of passes or the latency target is reached, or the time is up.
+ * <p>
+ * Requests without a response or with a 5xx status count as failed. Their latency is not
+ * part of the percentile, and a pass in which more than half of the requests failed does
+ * not end the warm-up, however fast it was.
+ */
+public class WarmUpRunner {
+
+  private static final Logger logger = Logger.getLogger(WarmUpRunner.class.getName());
+
+  private final List<String> paths;
+  private int threads = 4;
+  private int passes = 10;
+  private long latencyTarget;
+  private long timeout = TimeUnit.SECONDS.toMillis(120);
+
+  private int completedPasses;
+  private long lastPercentile;
+  private boolean warmedUp;
+
+  /**
+   * Latencies of the successful requests of a pass and the number of failed ones.
+   */
+  static class Pass {
+    private final long[] latencies;
+    private final int failures;
+
+    /**
+     * @param latencies nanoseconds, of the successful requests only
+     */
+    Pass(long[] latencies, int failures) {
+      this.latencies = latencies.clone();
+      Arrays.sort(this.latencies);
+      this.failures = failures;
+    }
+
+    int getRequests() {
+      return latencies.length + failures;
+    }
+
+    int getFailures() {
+      return failures;
+    }
+
+    /**
+     * @return 99th percentile latency of the successful requests in milliseconds, -1 if none succeeded
+     */
+    long getPercentile() {
+      if (latencies.length == 0) {
+        return -1;
+      }
+      return TimeUnit.NANOSECONDS.toMillis(latencies[(int) Math.ceil(latencies.length * 0.99) - 1]);
+    }
+
+    /**
+     * @return true if at most half of the requests failed
+     */
+    boolean isHealthy() {
+      return failures * 2 <= getRequests();
+    }
+  }
+
+  /**
+   * @param paths paths to request, including the context path and query
+   */
+  public WarmUpRunner(List<String> paths) {
+    this.paths = paths;
+  }
+
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  public void setPasses(int passes) {
+    this.passes = Math.max(1, passes);
+  }
+
+  /**
+   * @param latencyTarget 99th percentile of a pass in milliseconds that ends the warm-up, 0 for none
+   */
+  public void setLatencyTarget(long latencyTarget) {
+    this.latencyTarget = latencyTarget;
+  }
+
+  /**
+   * @param timeout milliseconds after which no further pass is started
+   */
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  public int getCompletedPasses() {
+    return completedPasses;
+  }
+
+  /**
+   * @return 99th percentile latency of the successful requests of the last pass in milliseconds,
+   * -1 if none succeeded
+   */
+  public long getLastPercentile() {
+    return lastPercentile;
+  }
+
+  /**
+   * @return true if at most half of the requests of the last pass failed
+   */
+  public boolean isWarmedUp() {
+    return warmedUp;
+  }
+
+  /**
+   * Runs the warm-up against a local port and returns when it is done.
+   */
+  public void run(int port) throws InterruptedException {
+    if (paths.isEmpty()) {
+      return;
+    }
+    long deadline = System.currentTimeMillis() + timeout;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      for (completedPasses = 0; completedPasses < passes; ) {
+        Pass pass = runPass(pool, port);
+        completedPasses++;
+        lastPercentile = pass.getPercentile();
+        warmedUp = pass.isHealthy();
+        logger.info("Warm-up pass " + completedPasses + ": " + pass.getRequests() + " requests, " +
+                pass.getFailures() + " failed, p99 " + lastPercentile + " ms");
+        if (isDone(pass)) {
+          break;
+        }
+        if (System.currentTimeMillis() >= deadline) {
+          logger.warning("Warm-up stopped after " + completedPasses + " passes, the time is up");
+          break;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    if (!warmedUp) {
+      logger.warning("Warm-up ended with most requests of the last pass failing, the application is not warmed up");
+    }
+  }
+
+  /**
+   * @return true if the pass reached the latency target without most of its requests failing
+   */
+  boolean isDone(Pass pass) {
+    long percentile = pass.getPercentile();
+    return latencyTarget > 0 && pass.isHealthy() && percentile >= 0 && percentile <= latencyTarget;
+  }
+
+  private Pass runPass(ExecutorService pool, final int port) throws InterruptedException {
+    final long[] latencies = new long[paths.size()];
+    final boolean[] failed = new boolean[paths.size()];
+    final AtomicInteger next = new AtomicInteger();
+    List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < threads; i++) {
+      workers.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          byte[] buffer = new byte[8192];
+          int index;
+          while ((index = next.getAndIncrement()) < latencies.length) {
+            long start = System.nanoTime();
+            failed[index] = !request(port, paths.get(index), buffer);
+            latencies[index] = System.nanoTime() - start;
+          }
+          return null;
+        }
+      });
+    }
+    for (Future<Void> result : pool.invokeAll(workers)) {
+      try {
+        result.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Warm-up request failed", e.getCause());
+      }
+    }
+    long[] succeeded = new long[latencies.length];
+    int count = 0;
+    for (int i = 0; i < latencies.length; i++) {
+      if (!failed[i]) {
+        succeeded[count++] = latencies[i];
+      }
+    }
+    return new Pass(Arrays.copyOf(succeeded, count), latencies.length - count);
+  }
+
+  /**
+   * @return false if there was no response or a server error
+   */
+  private static boolean request(int port, String path, byte[] buffer) {
+    try {
+      HttpURLConnection connection = (HttpURLConnection) new URL("http", "127.0.0.1", port, path).openConnection();
+      connection.setConnectTimeout(5000);
+      connection.setReadTimeout(30000);
+      int status = connection.getResponseCode();
+      // read the response to the end so the connection is kept alive
+      InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+      if (in != null) {
+        while (in.read(buffer) != -1) {
+          // discard
+        }
+        in.close();
+      }
+      return status < 500;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param paths comma separated paths
+   */
+  public static List<String> parsePaths(String paths) {
+    List<String> parsed = new ArrayList<String>();
+    if (paths == null) {
+      return parsed;
+    }
+    for (String path : paths.split(",")) {
+      path = path.trim();
+      if (path.length() > 0) {
+        parsed.add(path.startsWith("/") ? path : "/" + path);
+      }
+    }
+    return parsed;
+  }
+
+  /**
+   * Reads the GET and HEAD requests of an access log in common or combined log format.
+   *
+   * @param limit maximum number of requests read
+   */
+  public static List<String> readAccessLog(File accessLog, int limit) throws IOException {
+    List<String> paths = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(accessLog), "UTF-8"));
+    try {
+      String line;
+      while (paths.size() < limit && (line = reader.readLine()) != null) {
+        String path = parseRequestLine(line);
+        if (path != null) {
+          paths.add(path);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return paths;
+  }
+
+  /**
+   * @return the path of a GET or HEAD request in a log line, null for anything else
+   */
+  static String parseRequestLine(String line) {
+    int start = line.indexOf('"');
+    int end = start < 0 ? -1 : line.indexOf('"', start + 1);
+    if (end < 0) {
+      return null;
+    }
+    String[] request = line.substring(start + 1, end).split(" ");
+    if (request.length < 2 || !("GET".equals(request[0]) || "HEAD".equals(request[0])) ||
+            !request[1].startsWith("/")) {
+      return null;
+    }
+    return request[1];
+  }
+}
@@ -0,0 +1,197 @@
+package webapp.runner.launch.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The central directory of a ZIP archive, read from the end of the file. It lists every
+ * entry with its CRC, so a checksum of the directory identifies the content of the whole
+ * archive without reading it.
+ */
+public class ZipCentralDirectory {
+
+  private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+  private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+  private static final int LOCAL_FILE_HEADER = 0x04034b50;
+  private static final int MAX_END_RECORD = 22 + 65535;
+
+  public static class Entry {
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+
+    public Entry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+      this.name = name;
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    /**
+     * @return {@link java.util.zip.ZipEntry#STORED} or {@link java.util.zip.ZipEntry#DEFLATED}
+     */
+    public int getMethod() {
+      return method;
+    }
+
+    public long getCrc() {
+      return crc;
+    }
+
+    public long getCompressedSize() {
+      return compressedSize;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    /**
+     * @return offset of the local file header, or -1 if unknown
+     */
+    public long getLocalHeaderOffset() {
+      return localHeaderOffset;
+    }
+  }
+
+  private final long checksum;
+  private final List<Entry> entries;
+
+  private ZipCentralDirectory(long checksum, List<Entry> entries) {
+    this.checksum = checksum;
+    this.entries = Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * @return CRC32 of the raw central directory
+   */
+  public long getChecksum() {
+    return checksum;
+  }
+
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * @return the central directory, or null if the file is not a ZIP archive or a ZIP64 archive
+   * @throws IOException if the file cannot be read or the directory is corrupt
+   */
+  public static ZipCentralDirectory read(File zip) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(zip, "r");
+    try {
+      long length = in.length();
+      int tailLength = (int) Math.min(length, MAX_END_RECORD);
+      byte[] tail = new byte[tailLength];
+      in.seek(length - tailLength);
+      in.readFully(tail);
+      int end = -1;
+      for (int i = tailLength - 22; i >= 0; i--) {
+        if (readInt(tail, i) == END_OF_CENTRAL_DIRECTORY) {
+          end = i;
+          break;
+        }
+      }
+      if (end < 0) {
+        return null;
+      }
+      long directorySize = readUnsignedInt(tail, end + 12);
+      long directoryOffset = readUnsignedInt(tail, end + 16);
+      if (directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL ||
+              directoryOffset + directorySize > length || directorySize > Integer.MAX_VALUE) {
+        return null;
+      }
+      byte[] directory = new byte[(int) directorySize];
+      in.seek(directoryOffset);
+      in.readFully(directory);
+
+      List<Entry> entries = parse(directory);
+      if (entries == null) {
+        return null;
+      }
+      CRC32 crc = new CRC32();
+      crc.update(directory, 0, directory.length);
+      return new ZipCentralDirectory(crc.getValue(), entries);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static List<Entry> parse(byte[] directory) throws IOException {
+    List<Entry> entries = new ArrayList<Entry>();
+    int position = 0;
+    while (position + 46 <= directory.length) {
+      if (readInt(directory, position) != CENTRAL_DIRECTORY_ENTRY) {
+        throw new IOException("Corrupt central directory");
+      }
+      int nameLength = readShort(directory, position + 28);
+      int extraLength = readShort(directory, position + 30);
+      int commentLength = readShort(directory, position + 32);
+      if (position + 46 + nameLength > directory.length) {
+        throw new IOException("Corrupt central directory");
+      }
+      long compressedSize = readUnsignedInt(directory, position + 20);
+      long size = readUnsignedInt(directory, position + 24);
+      long offset = readUnsignedInt(directory, position + 42);
+      if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+        // ZIP64 entry
+        return null;
+      }
+      entries.add(new Entry(new String(directory, position + 46, nameLength, "UTF-8"),
+              readShort(directory, position + 10), readUnsignedInt(directory, position + 16),
+              compressedSize, size, offset));
+      position += 46 + nameLength + extraLength + commentLength;
+    }
+    return entries;
+  }
+
+  /**
+   * @return position of the data of an entry, after its local file header
+   */
+  public static long dataOffset(FileChannel channel, Entry entry) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+    long position = entry.getLocalHeaderOffset();
+    while (header.hasRemaining()) {
+      if (channel.read(header, position + header.position()) < 0) {
+        throw new IOException("Unexpected end of archive");
+      }
+    }
+    if (header.getInt(0) != LOCAL_FILE_HEADER) {
+      throw new IOException("Corrupt local file header of " + entry.getName());
+    }
+    return position + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+  }
+
+  private static int readShort(byte[] data, int offset) {
+    return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+  }
+
+  private static int readInt(byte[] data, int offset) {
+    return readShort(data, offset) | readShort(data, offset + 2) << 16;
+  }
+
+  private static long readUnsignedInt(byte[] data, int offset) {
+    return readInt(data, offset) & 0xFFFFFFFFL;
+  }
+}
@@ -0,0 +1,202 @@
+package webapp.runner.launch.jfr;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Java Flight Recorder events of the runner: requests, session store loads and saves,
+ * session serialization and startup phases. The event types are created with {@code jdk.jfr.EventFactory}, looked up
+ * reflectively so the runner still compiles for and runs on JDKs without JFR. Nothing is
+ * registered until {@link #enable()} is called; until then, and while no recording is
+ * running, {@link #begin(Type)} returns null without creating an event.
+ */
+public class FlightRecorderEvents {
+
+  private static final Logger logger = Logger.getLogger(FlightRecorderEvents.class.getName());
+
+  private static final String CATEGORY = "Webapp Runner";
+
+  /**
+   * The event types; the values passed to {@link Event#commit(Object...)} follow the order
+   * of the fields.
+   */
+  public enum Type {
+    REQUEST("webapp.runner.Request", "Request", "Request processed by the server",
+            new Field("context", "Context", String.class), new Field("pattern", "URL Pattern", String.class),
+            new Field("status", "Status", int.class)),
+    SESSION_STORE("webapp.runner.SessionStore", "Session Store Access",
+            "Session data loaded from or saved to a remote session store",
+            new Field("backend", "Backend", String.class), new Field("operation", "Operation", String.class),
+            new Field("bytes", "Size", long.class, "BYTES")),
+    SESSION_SERIALIZATION("webapp.runner.SessionSerialization", "Session Serialization",
+            "Session attributes serialized for or deserialized from the memcache session store",
+            new Field("operation", "Operation", String.class), new Field("bytes", "Size", long.class, "BYTES")),
+    STARTUP_PHASE("webapp.runner.StartupPhase", "Startup Phase", "Phase of the startup of the runner",
+            new Field("group", "Group", String.class), new Field("phase", "Phase", String.class));
+
+    private final String name;
+    private final String label;
+    private final String description;
+    private final List<Field> fields;
+
+    Type(String name, String label, String description, Field... fields) {
+      this.name = name;
+      this.label = label;
+      this.description = description;
+      this.fields = Arrays.asList(fields);
+    }
+
+    public String getName() {
+      return name;
+    }
+  }
+
+  private static class Field {
+    private final String name;
+    private final String label;
+    private final Class<?> type;
+    private final String dataAmount;
+
+    Field(String name, String label, Class<?> type) {
+      this(name, label, type, null);
+    }
+
+    Field(String name, String label, Class<?> type, String dataAmount) {
+      this.name = name;
+      this.label = label;
+      this.type = type;
+      this.dataAmount = dataAmount;
+    }
+  }
+
+  /**
+   * An event that has begun; committing it ends it.
+   */
+  public static class Event {
+    private final Object event;
+
+    private Event(Object event) {
+      this.event = event;
+    }
+
+    public void commit(Object... values) {
+      try {
+        for (int i = 0; i < values.length; i++) {
+          jfr.set.invoke(event, i, values[i]);
+        }
+        jfr.commit.invoke(event);
+      } catch (Exception e) {
+        logger.log(Level.FINE, "Unable to commit event", e);
+      }
+    }
+  }
+
+  private static volatile FlightRecorderEvents jfr;
+
+  private final Object[] factories = new Object[Type.values().length];
+  private final Object[] eventTypes = new Object[Type.values().length];
+  private final Method newEvent;
+  private final Method isEnabled;
+  private final Method begin;
+  private final Method set;
+  private final Method commit;
+
+  private FlightRecorderEvents() throws Exception {
+    Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+    Class<?> eventClass = Class.forName("jdk.jfr.Event");
+    Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+    Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+    Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+    Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+    Method create = factoryClass.getMethod("create", List.class, List.class);
+    Method getEventType = factoryClass.getMethod("getEventType");
+    Method register = factoryClass.getMethod("register");
+    newEvent = factoryClass.getMethod("newEvent");
+    isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+    begin = eventClass.getMethod("begin");
+    set = eventClass.getMethod("set", int.class, Object.class);
+    commit = eventClass.getMethod("commit");
+
+    for (Type type : Type.values()) {
+      List<Object> annotations = new ArrayList<Object>();
+      annotations.add(annotation.newInstance(annotationType("Name"), type.name));
+      annotations.add(annotation.newInstance(annotationType("Label"), type.label));
+      annotations.add(annotation.newInstance(annotationType("Description"), type.description));
+      annotations.add(annotation.newInstance(annotationType("Category"), new String[]{CATEGORY}));
+      // the stack of every request would cost more than the event
+      annotations.add(annotation.newInstance(annotationType("StackTrace"), false));
+      List<Object> fields = new ArrayList<Object>();
+      for (Field descriptor : type.fields) {
+        List<Object> fieldAnnotations = new ArrayList<Object>();
+        fieldAnnotations.add(annotation.newInstance(annotationType("Label"), descriptor.label));
+        if (descriptor.dataAmount != null) {
+          fieldAnnotations.add(annotation.newInstance(annotationType("DataAmount"), descriptor.dataAmount));
+        }
+        fields.add(field.newInstance(descriptor.type, descriptor.name, fieldAnnotations));
+      }
+      Object factory = create.invoke(null, annotations, fields);
+      register.invoke(factory);
+      factories[type.ordinal()] = factory;
+      eventTypes[type.ordinal()] = getEventType.invoke(factory);
+    }
+  }
+
+  private static Class<? extends Annotation> annotationType(String name) throws ClassNotFoundException {
+    return Class.forName("jdk.jfr." + name).asSubclass(Annotation.class);
+  }
+
+  /**
+   * Registers the event types with the flight recorder.
+   *
+   * @return false if the JVM has no flight recorder
+   */
+  public static synchronized boolean enable() {
+    if (jfr != null) {
+      return true;
+    }
+    try {
+      jfr = new FlightRecorderEvents();
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    } catch (InvocationTargetException e) {
+      logger.log(Level.WARNING, "Unable to register the flight recorder events", e.getCause());
+      return false;
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Unable to register the flight recorder events", e);
+      return false;
+    }
+  }
+
+  public static boolean isEnabled() {
+    return jfr != null;
+  }
+
+  /**
+   * @return the begun event, or null if the events are not enabled or not recorded
+   */
+  public static Event begin(Type type) {
+    FlightRecorderEvents events = jfr;
+    if (events == null) {
+      return null;
+    }
+    try {
+      if (!Boolean.TRUE.equals(events.isEnabled.invoke(events.eventTypes[type.ordinal()]))) {
+        return null;
+      }
+      Object event = events.newEvent.invoke(events.factories[type.ordinal()]);
+      events.begin.invoke(event);
+      return new Event(event);
+    } catch (Exception e) {
+      logger.log(Level.FINE, "Unable to create event " + type.name, e);
+      return null;
+    }
+  }
+}
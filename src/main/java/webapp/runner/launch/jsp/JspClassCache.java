@@ -0,0 +1,415 @@
+package webapp.runner.launch.jsp;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the classes Jasper generated for a JSP in a directory that survives restarts and
+ * redeploys, keyed by a hash of the JSP's content. The content hashes of the files the
+ * JSP depends on, i.e. includes, tag files and TLDs, are recorded too and have to match
+ * for an entry to be used.
+ * <p>
+ * Jasper compiles the modification times of these files into the generated class and
+ * recompiles when they differ, which they do after a redeploy. Those constants are
+ * rewritten to the current modification times when an entry is restored.
+ */
+public class JspClassCache {
+
+  private static final Logger logger = Logger.getLogger(JspClassCache.class.getName());
+
+  private static final String METADATA = "jsp.properties";
+  private static final String SOURCE = "servlet.java";
+  private static final Pattern DEPENDANT = Pattern.compile("_jspx_dependants\\.put\\(\"(.*)\", Long\\.valueOf\\((-?\\d+)L\\)\\);");
+
+  private final File directory;
+  private final String fingerprint;
+  // content hashes, computed once per startup
+  private final ConcurrentMap<String, ResourceState> states = new ConcurrentHashMap<String, ResourceState>();
+
+  /**
+   * Finds the resources of the context.
+   */
+  public interface ResourceResolver {
+    /**
+     * @return the URL of a path in the context or of an absolute jar or file URL, null if it does not exist
+     */
+    URL resolve(String path) throws IOException;
+  }
+
+  static class ResourceState {
+    final long lastModified;
+    final String hash;
+
+    ResourceState(long lastModified, String hash) {
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+  }
+
+  /**
+   * @param directory   where the entries are kept
+   * @param fingerprint identifies the JSP compiler and its options; entries of others are not used
+   */
+  public JspClassCache(File directory, String fingerprint) {
+    this.directory = directory;
+    this.fingerprint = fingerprint;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Copies the cached classes of a JSP into the work directory, if they are still valid.
+   *
+   * @param javaFile  the generated servlet source Jasper expects
+   * @param classFile the servlet class Jasper expects
+   * @return true if the classes were restored
+   */
+  public boolean restore(String jsp, ResourceResolver resolver, File javaFile, File classFile) throws IOException {
+    ResourceState jspState = state(jsp, resolver);
+    if (jspState == null) {
+      return false;
+    }
+    File entry = new File(directory, key(jsp, jspState));
+    Properties metadata = load(new File(entry, METADATA));
+    if (metadata == null || !jsp.equals(metadata.getProperty("jsp"))) {
+      return false;
+    }
+
+    // timestamps compiled into the class, by the current ones
+    Map<Long, Long> timestamps = new HashMap<Long, Long>();
+    for (String name : metadata.stringPropertyNames()) {
+      if (!name.startsWith("/") && !name.startsWith("jar:") && !name.startsWith("file:")) {
+        continue;
+      }
+      String[] recorded = metadata.getProperty(name).split(",");
+      ResourceState current = state(name, resolver);
+      if (current == null || recorded.length != 2 || !recorded[1].equals(current.hash)) {
+        logger.fine("Cached classes of " + jsp + " are outdated, " + name + " changed");
+        return false;
+      }
+      long compiled = Long.parseLong(recorded[0]);
+      if (compiled != current.lastModified) {
+        timestamps.put(compiled, current.lastModified);
+      }
+    }
+
+    File packageDir = classFile.getParentFile();
+    if (!packageDir.isDirectory() && !packageDir.mkdirs()) {
+      throw new IOException("Could not create directory " + packageDir);
+    }
+    String baseName = baseName(classFile);
+    File[] classes = entry.listFiles();
+    if (classes == null) {
+      return false;
+    }
+    // the servlet class last, as Jasper only checks its timestamp
+    for (File cached : classes) {
+      String name = cached.getName();
+      if (name.endsWith(".class") && !name.equals(baseName + ".class")) {
+        write(new File(packageDir, name), patchLongConstants(read(cached), timestamps), jspState.lastModified);
+      }
+    }
+    write(javaFile, read(new File(entry, SOURCE)), jspState.lastModified);
+    write(classFile, patchLongConstants(read(new File(entry, baseName + ".class")), timestamps), jspState.lastModified);
+    return true;
+  }
+
+  /**
+   * Adds the classes Jasper just generated for a JSP.
+   */
+  public void store(String jsp, ResourceResolver resolver, File javaFile, File classFile) throws IOException {
+    ResourceState jspState = state(jsp, resolver);
+    if (jspState == null || !javaFile.isFile() || !classFile.isFile()) {
+      return;
+    }
+    String key = key(jsp, jspState);
+    File entry = new File(directory, key);
+    if (new File(entry, METADATA).isFile()) {
+      return;
+    }
+
+    Properties metadata = new Properties();
+    metadata.setProperty("jsp", jsp);
+    for (Map.Entry<String, Long> dependant : readDependants(javaFile).entrySet()) {
+      if (dependant.getKey().endsWith(".tag") || dependant.getKey().endsWith(".tagx")) {
+        // the classes of tag files are loaded from the work directory too, but not restored
+        return;
+      }
+      ResourceState current = state(dependant.getKey(), resolver);
+      if (current == null) {
+        return;
+      }
+      metadata.setProperty(dependant.getKey(), dependant.getValue() + "," + current.hash);
+    }
+
+    File temp = new File(directory, key + ".tmp" + Thread.currentThread().getId());
+    if (!temp.isDirectory() && !temp.mkdirs()) {
+      throw new IOException("Could not create directory " + temp);
+    }
+    write(new File(temp, SOURCE), read(javaFile), 0);
+    String baseName = baseName(classFile);
+    File[] generated = classFile.getParentFile().listFiles();
+    if (generated != null) {
+      for (File file : generated) {
+        String name = file.getName();
+        if (name.equals(baseName + ".class") || (name.startsWith(baseName + "$") && name.endsWith(".class"))) {
+          write(new File(temp, name), read(file), 0);
+        }
+      }
+    }
+    // the metadata is written last, an entry without it is incomplete
+    OutputStream out = new FileOutputStream(new File(temp, METADATA));
+    try {
+      metadata.store(out, null);
+    } finally {
+      out.close();
+    }
+    if (!temp.renameTo(entry)) {
+      delete(temp);
+    }
+  }
+
+  private String key(String jsp, ResourceState state) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(fingerprint.getBytes("UTF-8"));
+      digest.update((byte) 0);
+      digest.update(jsp.getBytes("UTF-8"));
+      digest.update((byte) 0);
+      digest.update(state.hash.getBytes("UTF-8"));
+      return toHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Same lookup and modification time as Jasper's check of dependencies.
+   */
+  ResourceState state(String path, ResourceResolver resolver) throws IOException {
+    ResourceState state = states.get(path);
+    if (state != null) {
+      return state;
+    }
+    URL url = path.startsWith("jar:") || path.startsWith("file:") ? new URL(path) : resolver.resolve(path);
+    if (url == null) {
+      return null;
+    }
+    URLConnection connection;
+    InputStream in;
+    try {
+      connection = url.openConnection();
+      connection.setUseCaches(false);
+      in = connection.getInputStream();
+    } catch (IOException e) {
+      return null;
+    }
+    try {
+      long lastModified = connection instanceof JarURLConnection ?
+              ((JarURLConnection) connection).getJarEntry().getTime() : connection.getLastModified();
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+      state = new ResourceState(lastModified, toHex(digest.digest()));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      in.close();
+    }
+    ResourceState previous = states.putIfAbsent(path, state);
+    return previous != null ? previous : state;
+  }
+
+  /**
+   * @return the dependencies and their modification times recorded in a generated servlet
+   */
+  static Map<String, Long> readDependants(File javaFile) throws IOException {
+    Map<String, Long> dependants = new LinkedHashMap<String, Long>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(javaFile), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Matcher matcher = DEPENDANT.matcher(line.trim());
+        if (matcher.matches()) {
+          dependants.put(matcher.group(1), Long.valueOf(matcher.group(2)));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return dependants;
+  }
+
+  /**
+   * Replaces long constants in the constant pool of a class file.
+   */
+  static byte[] patchLongConstants(byte[] classFile, Map<Long, Long> replacements) throws IOException {
+    if (replacements.isEmpty()) {
+      return classFile;
+    }
+    if (classFile.length < 10 || readInt(classFile, 0) != 0xCAFEBABE) {
+      throw new IOException("Not a class file");
+    }
+    byte[] patched = classFile.clone();
+    int count = readShort(patched, 8);
+    int position = 10;
+    for (int i = 1; i < count; i++) {
+      int tag = patched[position] & 0xFF;
+      switch (tag) {
+        case 1: // Utf8
+          position += 3 + readShort(patched, position + 1);
+          break;
+        case 3: // Integer
+        case 4: // Float
+        case 9: // Fieldref
+        case 10: // Methodref
+        case 11: // InterfaceMethodref
+        case 12: // NameAndType
+        case 17: // Dynamic
+        case 18: // InvokeDynamic
+          position += 5;
+          break;
+        case 5: // Long
+          long value = ((long) readInt(patched, position + 1) << 32) | (readInt(patched, position + 5) & 0xFFFFFFFFL);
+          Long replacement = replacements.get(value);
+          if (replacement != null) {
+            writeInt(patched, position + 1, (int) (replacement >>> 32));
+            writeInt(patched, position + 5, (int) (long) replacement);
+          }
+          position += 9;
+          i++;
+          break;
+        case 6: // Double
+          position += 9;
+          i++;
+          break;
+        case 7: // Class
+        case 8: // String
+        case 16: // MethodType
+        case 19: // Module
+        case 20: // Package
+          position += 3;
+          break;
+        case 15: // MethodHandle
+          position += 4;
+          break;
+        default:
+          throw new IOException("Unknown constant pool tag " + tag);
+      }
+    }
+    return patched;
+  }
+
+  private static int readShort(byte[] data, int offset) {
+    return (data[offset] & 0xFF) << 8 | (data[offset + 1] & 0xFF);
+  }
+
+  private static int readInt(byte[] data, int offset) {
+    return readShort(data, offset) << 16 | readShort(data, offset + 2);
+  }
+
+  private static void writeInt(byte[] data, int offset, int value) {
+    data[offset] = (byte) (value >>> 24);
+    data[offset + 1] = (byte) (value >>> 16);
+    data[offset + 2] = (byte) (value >>> 8);
+    data[offset + 3] = (byte) value;
+  }
+
+  private static String baseName(File classFile) {
+    String name = classFile.getName();
+    return name.substring(0, name.length() - ".class".length());
+  }
+
+  private static Properties load(File file) {
+    if (!file.isFile()) {
+      return null;
+    }
+    Properties properties = new Properties();
+    try {
+      InputStream in = new FileInputStream(file);
+      try {
+        properties.load(in);
+      } finally {
+        in.close();
+      }
+      return properties;
+    } catch (IOException e) {
+      logger.log(Level.FINE, "Ignoring unreadable " + file, e);
+      return null;
+    }
+  }
+
+  private static byte[] read(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void write(File file, byte[] data, long lastModified) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+    if (lastModified > 0) {
+      file.setLastModified(lastModified);
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+}
@@ -0,0 +1,439 @@
+package webapp.runner.launch.jsp;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.deploy.FilterDef;
+import org.apache.catalina.deploy.FilterMap;
+import org.apache.catalina.util.ServerInfo;
+import org.apache.jasper.EmbeddedServletOptions;
+import org.apache.jasper.JspCompilationContext;
+import org.apache.jasper.Options;
+import org.apache.jasper.compiler.JspRuntimeContext;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compiles the JSPs of a context in the background once it has started, so the first request
+ * of a JSP does not wait for Jasper. The options of the context's JSP servlet are used. With a
+ * cache directory, JSPs whose classes are in the {@link JspClassCache} are restored instead of
+ * compiled, and newly compiled classes are added to it.
+ * <p>
+ * Each JSP is compiled into a directory of its own, and the generated files are renamed into
+ * the work directory of the JSP servlet afterwards, so the JSP servlet never sees partially
+ * written files. A request for a JSP whose compilation has not finished waits for it, or
+ * compiles the JSP itself if it was not started yet.
+ */
+public class JspPrecompiler implements LifecycleListener {
+
+  public static final String FILTER_NAME = "webappRunnerJspPrecompile";
+
+  private static final Logger logger = Logger.getLogger(JspPrecompiler.class.getName());
+
+  private static final String JSP_SERVLET = "jsp";
+  private static final String SCRATCH_DIR = "scratchdir";
+
+  private final int threads;
+  private final File cacheDirectory;
+  private final ConcurrentMap<String, FutureTask<Outcome>> pending = new ConcurrentHashMap<String, FutureTask<Outcome>>();
+  private final AtomicInteger taskCount = new AtomicInteger();
+  private ExecutorService pool;
+
+  public JspPrecompiler() {
+    this(1, null);
+  }
+
+  /**
+   * @param threads        number of JSPs compiled at the same time
+   * @param cacheDirectory where compiled classes are kept across restarts, null for no cache
+   */
+  public JspPrecompiler(int threads, File cacheDirectory) {
+    this.threads = Math.max(1, threads);
+    this.cacheDirectory = cacheDirectory;
+  }
+
+  @Override
+  public void lifecycleEvent(LifecycleEvent event) {
+    if (Lifecycle.CONFIGURE_START_EVENT.equals(event.getType())) {
+      addFilter((Context) event.getLifecycle());
+    } else if (Lifecycle.AFTER_START_EVENT.equals(event.getType())) {
+      start((Context) event.getLifecycle());
+    } else if (Lifecycle.BEFORE_STOP_EVENT.equals(event.getType())) {
+      stop();
+    }
+  }
+
+  /**
+   * Maps the filter that makes requests wait for the compilation of their JSP to the JSP servlet.
+   */
+  protected void addFilter(Context context) {
+    if (context.findFilterDef(FILTER_NAME) != null) {
+      return;
+    }
+    FilterDef filterDef = new FilterDef();
+    filterDef.setFilterName(FILTER_NAME);
+    filterDef.setFilterClass(AwaitCompilationFilter.class.getName());
+    filterDef.setFilter(new AwaitCompilationFilter());
+    filterDef.setAsyncSupported("true");
+    context.addFilterDef(filterDef);
+
+    FilterMap filterMap = new FilterMap();
+    filterMap.setFilterName(FILTER_NAME);
+    filterMap.addServletName(JSP_SERVLET);
+    filterMap.setDispatcher(DispatcherType.REQUEST.name());
+    filterMap.setDispatcher(DispatcherType.FORWARD.name());
+    filterMap.setDispatcher(DispatcherType.INCLUDE.name());
+    context.addFilterMap(filterMap);
+  }
+
+  protected synchronized void start(final Context context) {
+    final Wrapper jspServlet = (Wrapper) context.findChild(JSP_SERVLET);
+    if (jspServlet == null || !(jspServlet instanceof ServletConfig)) {
+      logger.fine("No JSP servlet in " + context.getName() + ", nothing to precompile");
+      return;
+    }
+    final ServletContext servletContext = context.getServletContext();
+    // the tasks are known before the connectors accept requests, so no request compiles a JSP
+    // at the same time as its task
+    List<FutureTask<Outcome>> tasks = createTasks(servletContext, (ServletConfig) jspServlet);
+    if (tasks.isEmpty()) {
+      return;
+    }
+
+    final ClassLoader classLoader = context.getLoader().getClassLoader();
+    final String name = "jsp-precompile" + context.getName().replace('/', '-');
+    pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        // Jasper uses the context class loader as parent of the JSP class loaders
+        thread.setContextClassLoader(classLoader);
+        return thread;
+      }
+    });
+    final ExecutorService executor = pool;
+    final List<FutureTask<Outcome>> coordinated = tasks;
+    Thread coordinator = new Thread(name) {
+      @Override
+      public void run() {
+        runAll(servletContext, coordinated, executor);
+      }
+    };
+    coordinator.setDaemon(true);
+    coordinator.start();
+  }
+
+  protected synchronized void stop() {
+    if (pool != null) {
+      pool.shutdownNow();
+      pool = null;
+    }
+    // requests compile the remaining JSPs through the JSP servlet
+    for (FutureTask<Outcome> task : pending.values()) {
+      task.cancel(false);
+    }
+    pending.clear();
+  }
+
+  List<FutureTask<Outcome>> createTasks(final ServletContext servletContext, final ServletConfig jspConfig) {
+    List<String> jsps = new ArrayList<String>();
+    findJsps(servletContext, "/", jsps);
+    List<FutureTask<Outcome>> tasks = new ArrayList<FutureTask<Outcome>>();
+    if (jsps.isEmpty()) {
+      return tasks;
+    }
+    final EmbeddedServletOptions options = new EmbeddedServletOptions(jspConfig, servletContext);
+    final JspClassCache cache = cacheDirectory == null ? null : new JspClassCache(cacheDirectory, fingerprint(options));
+    for (final String jsp : jsps) {
+      FutureTask<Outcome> task = new FutureTask<Outcome>(new Callable<Outcome>() {
+        @Override
+        public Outcome call() {
+          return compile(jsp, servletContext, jspConfig, options, cache);
+        }
+      }) {
+        @Override
+        protected void done() {
+          pending.remove(jsp, this);
+        }
+      };
+      pending.put(jsp, task);
+      tasks.add(task);
+    }
+    return tasks;
+  }
+
+  void runAll(ServletContext servletContext, List<FutureTask<Outcome>> tasks, ExecutorService executor) {
+    long start = System.currentTimeMillis();
+    int compiled = 0;
+    int restored = 0;
+    try {
+      for (FutureTask<Outcome> task : tasks) {
+        executor.execute(task);
+      }
+      executor.shutdown();
+      if (!executor.awaitTermination(1, TimeUnit.HOURS)) {
+        return;
+      }
+      for (FutureTask<Outcome> task : tasks) {
+        Outcome outcome = task.isCancelled() ? Outcome.FAILED : task.get();
+        if (outcome == Outcome.COMPILED) {
+          compiled++;
+        } else if (outcome == Outcome.RESTORED) {
+          restored++;
+        }
+      }
+    } catch (InterruptedException e) {
+      return;
+    } catch (ExecutionException e) {
+      return;
+    } catch (RuntimeException e) {
+      // rejected after the context stopped
+      return;
+    }
+    logger.info("Precompiled " + compiled + " and restored " + restored + " of " + tasks.size() + " JSPs of " +
+            servletContext.getContextPath() + " in " + (System.currentTimeMillis() - start) + " ms");
+  }
+
+  enum Outcome {
+    COMPILED, RESTORED, UP_TO_DATE, FAILED
+  }
+
+  /**
+   * Compiles or restores a JSP into a directory of its own and moves the generated files into
+   * the work directory of the JSP servlet.
+   *
+   * @param options the options of the JSP servlet
+   */
+  protected Outcome compile(String jsp, final ServletContext servletContext, final ServletConfig jspConfig,
+                            EmbeddedServletOptions options, JspClassCache cache) {
+    File scratchDir = options.getScratchDir();
+    final File taskDir = new File(scratchDir.getParentFile(),
+            scratchDir.getName() + "-precompile-" + taskCount.incrementAndGet());
+    JspRuntimeContext runtimeContext = null;
+    try {
+      if (!taskDir.isDirectory() && !taskDir.mkdirs()) {
+        throw new IOException("Could not create directory " + taskDir);
+      }
+      EmbeddedServletOptions taskOptions = new EmbeddedServletOptions(new ServletConfig() {
+        @Override
+        public String getServletName() {
+          return jspConfig.getServletName();
+        }
+
+        @Override
+        public ServletContext getServletContext() {
+          return servletContext;
+        }
+
+        @Override
+        public String getInitParameter(String name) {
+          return SCRATCH_DIR.equals(name) ? taskDir.getAbsolutePath() : jspConfig.getInitParameter(name);
+        }
+
+        @Override
+        public Enumeration<String> getInitParameterNames() {
+          Set<String> names = new LinkedHashSet<String>(Collections.list(jspConfig.getInitParameterNames()));
+          names.add(SCRATCH_DIR);
+          return Collections.enumeration(names);
+        }
+      }, servletContext);
+      runtimeContext = new JspRuntimeContext(servletContext, taskOptions);
+
+      JspCompilationContext liveContext = new JspCompilationContext(jsp, options, servletContext, null, runtimeContext);
+      if (!liveContext.createCompiler().isOutDated()) {
+        return Outcome.UP_TO_DATE;
+      }
+      JspCompilationContext compilationContext =
+              new JspCompilationContext(jsp, taskOptions, servletContext, null, runtimeContext);
+      File javaFile = new File(compilationContext.getServletJavaFileName());
+      File classFile = new File(compilationContext.getClassFileName());
+      JspClassCache.ResourceResolver resolver = new JspClassCache.ResourceResolver() {
+        @Override
+        public URL resolve(String path) throws IOException {
+          return servletContext.getResource(path);
+        }
+      };
+      Outcome outcome;
+      if (cache != null && cache.restore(jsp, resolver, javaFile, classFile)) {
+        outcome = Outcome.RESTORED;
+      } else {
+        compilationContext.createCompiler().compile(true);
+        if (cache != null) {
+          cache.store(jsp, resolver, javaFile, classFile);
+        }
+        outcome = Outcome.COMPILED;
+      }
+      // the servlet class last, as Jasper only checks its timestamp
+      moveFiles(taskDir, scratchDir, classFile);
+      rename(classFile, new File(liveContext.getClassFileName()));
+      return outcome;
+    } catch (Exception e) {
+      // the error is reported again when the JSP is requested
+      logger.log(Level.FINE, "Unable to precompile " + jsp, e);
+      return Outcome.FAILED;
+    } finally {
+      if (runtimeContext != null) {
+        runtimeContext.destroy();
+      }
+      delete(taskDir);
+    }
+  }
+
+  /**
+   * Renames the files below a directory to the same place below another one, except the
+   * given file. Files that exist with the same modification time, e.g. the classes of tag
+   * files compiled before, are left as they are.
+   */
+  static void moveFiles(File from, File to, File except) throws IOException {
+    File[] files = from.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      File target = new File(to, file.getName());
+      if (file.isDirectory()) {
+        moveFiles(file, target, except);
+      } else if (!file.equals(except) && (!target.isFile() || target.lastModified() != file.lastModified())) {
+        rename(file, target);
+      }
+    }
+  }
+
+  private static void rename(File from, File to) throws IOException {
+    File dir = to.getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Could not create directory " + dir);
+    }
+    // replaces the target at once, except on file systems that refuse to rename onto an existing file
+    if (!from.renameTo(to) && (!to.delete() || !from.renameTo(to))) {
+      throw new IOException("Could not move " + from + " to " + to);
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * Makes a request for a JSP whose task has not finished wait for it.
+   */
+  private class AwaitCompilationFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+      if (!pending.isEmpty() && request instanceof HttpServletRequest) {
+        FutureTask<Outcome> task = pending.get(jspUri((HttpServletRequest) request));
+        if (task != null) {
+          // runs the task in this thread unless it was started already
+          task.run();
+          try {
+            task.get();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } catch (ExecutionException e) {
+            // the JSP servlet reports the error
+          } catch (CancellationException e) {
+            // stopped
+          }
+        }
+      }
+      chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+    }
+  }
+
+  /**
+   * @return the JSP the JSP servlet serves, as it determines it
+   */
+  static String jspUri(HttpServletRequest request) {
+    String servletPath = (String) request.getAttribute(RequestDispatcher.INCLUDE_SERVLET_PATH);
+    String pathInfo;
+    if (servletPath != null) {
+      pathInfo = (String) request.getAttribute(RequestDispatcher.INCLUDE_PATH_INFO);
+    } else {
+      servletPath = request.getServletPath();
+      pathInfo = request.getPathInfo();
+    }
+    return pathInfo == null ? servletPath : servletPath + pathInfo;
+  }
+
+  /**
+   * @return identifies the JSP compiler and the options that change the generated classes
+   */
+  public static String fingerprint(Options options) {
+    return ServerInfo.getServerInfo() + "," + options.getCompiler() + "," + options.getCompilerSourceVM() + "," +
+            options.getCompilerTargetVM() + "," + options.getJavaEncoding() + "," + options.getTrimSpaces() + "," +
+            options.genStringAsCharArray() + "," + options.isPoolingEnabled() + "," + options.getMappedFile() + "," +
+            options.isXpoweredBy() + "," + options.isSmapSuppressed() + "," + options.getClassDebugInfo();
+  }
+
+  static void findJsps(ServletContext servletContext, String path, List<String> jsps) {
+    Set<String> paths = servletContext.getResourcePaths(path);
+    if (paths == null) {
+      return;
+    }
+    List<String> sorted = new ArrayList<String>(paths);
+    Collections.sort(sorted);
+    for (String child : sorted) {
+      if (child.endsWith("/")) {
+        if (!"/META-INF/".equals(child) && !"/WEB-INF/classes/".equals(child) && !"/WEB-INF/lib/".equals(child)) {
+          findJsps(servletContext, child, jsps);
+        }
+      } else if (child.endsWith(".jsp") || child.endsWith(".jspx")) {
+        jsps.add(child);
+      }
+    }
+  }
+}
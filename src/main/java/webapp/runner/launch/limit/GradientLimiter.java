@@ -0,0 +1,136 @@
+package webapp.runner.launch.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of requests processed at the same time, adapting the limit to the
+ * observed latency. The latencies are averaged over short windows and compared to their
+ * long-term average: while the latency of a window stays within a tolerance of the long-term
+ * average the limit grows by about its square root, when it rises above, the limit shrinks
+ * in proportion to their ratio. Each window moves the limit only part of the way, so single
+ * slow requests do not make it jump. The limit only grows while it is reached, so it does
+ * not drift upwards under light load.
+ */
+public class GradientLimiter {
+
+  private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final int MIN_WINDOW_SAMPLES = 10;
+  // latency increase accepted before the limit shrinks
+  private static final double TOLERANCE = 1.5;
+  private static final double MIN_GRADIENT = 0.5;
+  private static final double SMOOTHING = 0.2;
+  // weight of a window in the long-term average
+  private static final double LONG_TERM_WEIGHT = 0.05;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong rejected = new AtomicLong();
+  private volatile int limit;
+
+  // current window, updated without locking
+  private final AtomicLong windowSum = new AtomicLong();
+  private final AtomicInteger windowCount = new AtomicInteger();
+  private final AtomicInteger windowMaxInFlight = new AtomicInteger();
+  private volatile long windowStart = System.nanoTime();
+  private final AtomicBoolean updating = new AtomicBoolean();
+  // only used while updating
+  private double estimatedLimit;
+  private double longRtt;
+
+  public GradientLimiter(int initialLimit, int minLimit, int maxLimit) {
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.estimatedLimit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    this.limit = (int) estimatedLimit;
+  }
+
+  /**
+   * @return false if the limit is reached and the request has to be rejected
+   */
+  public boolean tryAcquire() {
+    int current;
+    do {
+      current = inFlight.get();
+      if (current >= limit) {
+        rejected.incrementAndGet();
+        return false;
+      }
+    } while (!inFlight.compareAndSet(current, current + 1));
+    int max;
+    do {
+      max = windowMaxInFlight.get();
+    } while (current + 1 > max && !windowMaxInFlight.compareAndSet(max, current + 1));
+    return true;
+  }
+
+  /**
+   * Ends a request admitted by {@link #tryAcquire()}.
+   *
+   * @param latency nanoseconds the request took
+   */
+  public void release(long latency) {
+    inFlight.decrementAndGet();
+    sample(latency, System.nanoTime());
+  }
+
+  void sample(long latency, long now) {
+    windowSum.addAndGet(latency);
+    int count = windowCount.incrementAndGet();
+    if (count < MIN_WINDOW_SAMPLES || now - windowStart < WINDOW || !updating.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      // samples added meanwhile count for the next window
+      int samples = windowCount.getAndSet(0);
+      long sum = windowSum.getAndSet(0);
+      int maxInFlight = windowMaxInFlight.getAndSet(inFlight.get());
+      windowStart = now;
+      if (samples > 0) {
+        update((double) sum / samples, maxInFlight);
+      }
+    } finally {
+      updating.set(false);
+    }
+  }
+
+  private void update(double shortRtt, int maxInFlight) {
+    shortRtt = Math.max(1, shortRtt);
+    if (longRtt == 0) {
+      longRtt = shortRtt;
+    } else {
+      longRtt = longRtt * (1 - LONG_TERM_WEIGHT) + shortRtt * LONG_TERM_WEIGHT;
+      // recovers faster once a period of high latency is over
+      if (longRtt / shortRtt > 2) {
+        longRtt *= 0.95;
+      }
+    }
+    double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+    if (gradient == 1.0 && maxInFlight < estimatedLimit / 2) {
+      // the limit was not the bottleneck, no reason to raise it
+      return;
+    }
+    double target = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+    estimatedLimit = estimatedLimit * (1 - SMOOTHING) + target * SMOOTHING;
+    estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit));
+    limit = (int) estimatedLimit;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * @return requests rejected because the limit was reached
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+}
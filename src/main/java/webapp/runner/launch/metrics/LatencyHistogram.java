@@ -0,0 +1,126 @@
+package webapp.runner.launch.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of latencies in microseconds with log-linear buckets in the manner of
+ * HdrHistogram: values below 64 are counted exactly, larger values in 32 buckets per power
+ * of two, so reported values are at most about 3% above the recorded ones. Recording only
+ * updates preallocated counters and never allocates.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // about 19 hours
+  private static final int MAX_VALUE_BITS = 36;
+  static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+  private static final int BUCKETS = SUB_BUCKETS + (MAX_VALUE_BITS - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * @param micros the latency in microseconds, larger values than about 19 hours are capped
+   */
+  public void record(long micros) {
+    long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+    counts.incrementAndGet(index(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long current;
+    while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+      // retry
+    }
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  /**
+   * @return the highest value counted in a bucket
+   */
+  static long highestValue(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+    long lowest = (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @return the sum of all recorded values in microseconds
+   */
+  public long getSum() {
+    return sum.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @return a consistent copy for reading percentiles
+   */
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+      total += copy[i];
+    }
+    return new Snapshot(copy, total, Math.max(max.get(), 0));
+  }
+
+  /**
+   * The counts of a histogram at one point in time.
+   */
+  public static class Snapshot {
+    private final long[] counts;
+    private final long total;
+    private final long max;
+
+    Snapshot(long[] counts, long total, long max) {
+      this.counts = counts;
+      this.total = total;
+      this.max = max;
+    }
+
+    public long getTotal() {
+      return total;
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the value in microseconds at or below which the given share of values lies
+     */
+    public long getValueAtQuantile(double quantile) {
+      if (total == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(quantile * total));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(highestValue(i), max);
+        }
+      }
+      return max;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package webapp.runner.launch.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Samples of one metric, written in the Prometheus text format or as JSON.
+ */
+public class MetricFamily {
+
+  public static final String COUNTER = "counter";
+  public static final String GAUGE = "gauge";
+  public static final String SUMMARY = "summary";
+
+  private final String name;
+  private final String type;
+  private final String help;
+  private final List<Sample> samples = new ArrayList<Sample>();
+
+  public MetricFamily(String name, String type, String help) {
+    this.name = name;
+    this.type = type;
+    this.help = help;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public List<Sample> getSamples() {
+    return samples;
+  }
+
+  /**
+   * One value, such as the count of a summary when the suffix is {@code _count}.
+   */
+  public static class Sample {
+    private final String suffix;
+    private final String[] labels;
+    private final double value;
+
+    Sample(String suffix, String[] labels, double value) {
+      this.suffix = suffix;
+      this.labels = labels;
+      this.value = value;
+    }
+
+    public String getSuffix() {
+      return suffix;
+    }
+
+    public double getValue() {
+      return value;
+    }
+
+    /**
+     * @return the value of a label, null if the sample has no such label
+     */
+    public String getLabel(String name) {
+      for (int i = 0; i + 1 < labels.length; i += 2) {
+        if (labels[i].equals(name)) {
+          return labels[i + 1];
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * @param labels label names and values, alternating
+   */
+  public MetricFamily add(double value, String... labels) {
+    return add("", value, labels);
+  }
+
+  public MetricFamily add(String suffix, double value, String... labels) {
+    samples.add(new Sample(suffix, labels, value));
+    return this;
+  }
+
+  /**
+   * Writes the families that have samples in the Prometheus text exposition format.
+   */
+  public static void writePrometheus(List<MetricFamily> families, Writer out) throws IOException {
+    for (MetricFamily family : families) {
+      if (family.samples.isEmpty()) {
+        continue;
+      }
+      out.write("# HELP " + family.name + " " + family.help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+      out.write("# TYPE " + family.name + " " + family.type + "\n");
+      for (Sample sample : family.samples) {
+        out.write(family.name + sample.suffix);
+        if (sample.labels.length > 0) {
+          out.write('{');
+          for (int i = 0; i + 1 < sample.labels.length; i += 2) {
+            if (i > 0) {
+              out.write(',');
+            }
+            out.write(sample.labels[i] + "=\"" + sample.labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")
+                    .replace("\n", "\\n") + "\"");
+          }
+          out.write('}');
+        }
+        out.write(" " + format(sample.value) + "\n");
+      }
+    }
+  }
+
+  /**
+   * Writes the families that have samples as a JSON document.
+   */
+  public static void writeJson(List<MetricFamily> families, Writer out) throws IOException {
+    out.write("{\"metrics\": [");
+    String separator = "\n";
+    for (MetricFamily family : families) {
+      if (family.samples.isEmpty()) {
+        continue;
+      }
+      out.write(separator + "  {\"name\": " + quote(family.name) + ", \"type\": " + quote(family.type) +
+              ", \"help\": " + quote(family.help) + ", \"samples\": [");
+      String sampleSeparator = "\n";
+      for (Sample sample : family.samples) {
+        out.write(sampleSeparator + "    {\"name\": " + quote(family.name + sample.suffix) + ", \"labels\": {");
+        for (int i = 0; i + 1 < sample.labels.length; i += 2) {
+          out.write((i > 0 ? ", " : "") + quote(sample.labels[i]) + ": " + quote(sample.labels[i + 1]));
+        }
+        double value = sample.value;
+        out.write("}, \"value\": " + (Double.isNaN(value) || Double.isInfinite(value) ? "null" : format(value)) + "}");
+        sampleSeparator = ",\n";
+      }
+      out.write("\n  ]}");
+      separator = ",\n";
+    }
+    out.write("\n]}\n");
+  }
+
+  static String format(double value) {
+    if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    if (Double.isNaN(value)) {
+      return "NaN";
+    }
+    if (Double.isInfinite(value)) {
+      return value > 0 ? "+Inf" : "-Inf";
+    }
+    return Double.toString(value);
+  }
+
+  static String quote(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
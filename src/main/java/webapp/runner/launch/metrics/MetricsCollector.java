@@ -0,0 +1,317 @@
+package webapp.runner.launch.metrics;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Executor;
+import org.apache.catalina.Manager;
+import org.apache.catalina.Service;
+import org.apache.catalina.Valve;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.StandardThreadExecutor;
+import org.apache.catalina.deploy.FilterDef;
+import webapp.runner.launch.helper.MonitoredThreadExecutor;
+import webapp.runner.launch.limit.GradientLimiter;
+import webapp.runner.launch.monitor.StackSampler;
+import webapp.runner.launch.session.RemoteSessionFilter;
+import webapp.runner.launch.session.SessionNearCache;
+import webapp.runner.launch.session.SessionWriteBehindQueue;
+import webapp.runner.launch.valve.AsyncAccessLogValve;
+import webapp.runner.launch.valve.ConcurrencyLimitValve;
+import webapp.runner.launch.valve.SlowRequestValve;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the request latencies, the thread pool gauges of the connectors and executors
+ * and the statistics of the session managers and session stores of a service.
+ */
+public class MetricsCollector {
+
+  private static final Logger logger = Logger.getLogger(MetricsCollector.class.getName());
+
+  private static final String PREFIX = "webapp_runner_";
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final String[] STATUS_CLASSES = {"other", "1xx", "2xx", "3xx", "4xx", "5xx"};
+  // statistics of the memcached session manager, enabled with setEnableStatistics
+  private static final String MEMCACHED_STATISTICS = "getMsmStat";
+
+  private final Service service;
+  private final RequestMetrics requestMetrics;
+
+  public MetricsCollector(Service service, RequestMetrics requestMetrics) {
+    this.service = service;
+    this.requestMetrics = requestMetrics;
+  }
+
+  public List<MetricFamily> collect() {
+    List<MetricFamily> families = new ArrayList<MetricFamily>();
+    collectRequests(families);
+    collectThreadPools(families);
+    collectSessions(families);
+    collectAccessLog(families);
+    collectSlowRequests(families);
+    collectConcurrencyLimits(families);
+    return families;
+  }
+
+  private void collectRequests(List<MetricFamily> families) {
+    MetricFamily duration = new MetricFamily(PREFIX + "request_duration_seconds", MetricFamily.SUMMARY,
+            "Request latency by context, URL pattern and status class");
+    MetricFamily max = new MetricFamily(PREFIX + "request_duration_max_seconds", MetricFamily.GAUGE,
+            "Highest request latency since the start");
+    for (RequestMetrics.Target target : requestMetrics.getTargets()) {
+      for (int statusClass = 0; statusClass < STATUS_CLASSES.length; statusClass++) {
+        LatencyHistogram histogram = target.getHistogram(statusClass);
+        if (histogram == null) {
+          continue;
+        }
+        String context = target.getContext().length() == 0 ? "/" : target.getContext();
+        String status = STATUS_CLASSES[statusClass];
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        for (double quantile : QUANTILES) {
+          duration.add(seconds(snapshot.getValueAtQuantile(quantile)), "context", context,
+                  "pattern", target.getPattern(), "status", status, "quantile", Double.toString(quantile));
+        }
+        duration.add("_sum", seconds(histogram.getSum()), "context", context, "pattern", target.getPattern(),
+                "status", status);
+        duration.add("_count", histogram.getCount(), "context", context, "pattern", target.getPattern(),
+                "status", status);
+        max.add(seconds(histogram.getMax()), "context", context, "pattern", target.getPattern(), "status", status);
+      }
+    }
+    families.add(duration);
+    families.add(max);
+  }
+
+  private static double seconds(long micros) {
+    return micros / 1000000.0;
+  }
+
+  private void collectThreadPools(List<MetricFamily> families) {
+    MetricFamily busy = new MetricFamily(PREFIX + "threads_busy", MetricFamily.GAUGE,
+            "Threads processing a request");
+    MetricFamily current = new MetricFamily(PREFIX + "threads_current", MetricFamily.GAUGE,
+            "Threads of the pool");
+    MetricFamily maxThreads = new MetricFamily(PREFIX + "threads_max", MetricFamily.GAUGE,
+            "Maximum number of threads of the pool");
+    MetricFamily queued = new MetricFamily(PREFIX + "threads_queued_tasks", MetricFamily.GAUGE,
+            "Tasks waiting for a thread");
+    MetricFamily rejected = new MetricFamily(PREFIX + "threads_rejected_total", MetricFamily.COUNTER,
+            "Tasks rejected by the shared executor");
+
+    for (Connector connector : service.findConnectors()) {
+      java.util.concurrent.Executor executor = connector.getProtocolHandler().getExecutor();
+      // connectors using a shared executor are reported with the executor
+      if (executor instanceof ThreadPoolExecutor && !(executor instanceof Executor)) {
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+        String name = "connector-" + connector.getPort();
+        busy.add(pool.getActiveCount(), "pool", name);
+        current.add(pool.getPoolSize(), "pool", name);
+        maxThreads.add(pool.getMaximumPoolSize(), "pool", name);
+        queued.add(pool.getQueue().size(), "pool", name);
+      }
+    }
+    for (Executor executor : service.findExecutors()) {
+      if (executor instanceof StandardThreadExecutor) {
+        StandardThreadExecutor pool = (StandardThreadExecutor) executor;
+        busy.add(pool.getActiveCount(), "pool", pool.getName());
+        current.add(pool.getPoolSize(), "pool", pool.getName());
+        maxThreads.add(pool.getMaxThreads(), "pool", pool.getName());
+        queued.add(pool.getQueueSize(), "pool", pool.getName());
+      }
+      if (executor instanceof MonitoredThreadExecutor) {
+        rejected.add(((MonitoredThreadExecutor) executor).getRejectedCount(), "pool", executor.getName());
+      }
+    }
+    families.add(busy);
+    families.add(current);
+    families.add(maxThreads);
+    families.add(queued);
+    families.add(rejected);
+  }
+
+  private void collectSessions(List<MetricFamily> families) {
+    MetricFamily active = new MetricFamily(PREFIX + "sessions_active", MetricFamily.GAUGE,
+            "Sessions of the context");
+    MetricFamily created = new MetricFamily(PREFIX + "sessions_created_total", MetricFamily.COUNTER,
+            "Sessions created");
+    MetricFamily expired = new MetricFamily(PREFIX + "sessions_expired_total", MetricFamily.COUNTER,
+            "Sessions expired");
+    MetricFamily rejectedSessions = new MetricFamily(PREFIX + "sessions_rejected_total", MetricFamily.COUNTER,
+            "Sessions not created because the maximum was reached");
+    MetricFamily cacheHits = new MetricFamily(PREFIX + "session_near_cache_hits_total", MetricFamily.COUNTER,
+            "Session reads served by the near-cache");
+    MetricFamily cacheMisses = new MetricFamily(PREFIX + "session_near_cache_misses_total", MetricFamily.COUNTER,
+            "Session reads passed on to the session store");
+    MetricFamily cacheInvalidations = new MetricFamily(PREFIX + "session_near_cache_invalidations_total",
+            MetricFamily.COUNTER, "Cached sessions dropped because they changed on another node");
+    MetricFamily pending = new MetricFamily(PREFIX + "session_write_behind_pending", MetricFamily.GAUGE,
+            "Sessions with changes not written to the session store yet");
+    MetricFamily writes = new MetricFamily(PREFIX + "session_write_behind_writes_total", MetricFamily.COUNTER,
+            "Session changes written to the session store");
+    MetricFamily failures = new MetricFamily(PREFIX + "session_write_behind_failures_total", MetricFamily.COUNTER,
+            "Session changes that could not be written");
+    List<MetricFamily> storeStatistics = new ArrayList<MetricFamily>();
+
+    for (Container host : service.getContainer().findChildren()) {
+      for (Container child : host.findChildren()) {
+        if (!(child instanceof Context)) {
+          continue;
+        }
+        Context context = (Context) child;
+        String name = context.getPath().length() == 0 ? "/" : context.getPath();
+        Manager manager = context.getManager();
+        if (manager != null) {
+          active.add(manager.getActiveSessions(), "context", name);
+          created.add(manager.getSessionCounter(), "context", name);
+          expired.add(manager.getExpiredSessions(), "context", name);
+          rejectedSessions.add(manager.getRejectedSessions(), "context", name);
+          collectStoreStatistics(manager, name, storeStatistics);
+        }
+        FilterDef filterDef = context.findFilterDef(RemoteSessionFilter.FILTER_NAME);
+        if (filterDef != null && filterDef.getFilter() instanceof RemoteSessionFilter) {
+          RemoteSessionFilter filter = (RemoteSessionFilter) filterDef.getFilter();
+          SessionNearCache cache = filter.getCache();
+          if (cache != null) {
+            cacheHits.add(cache.getHitCount(), "context", name);
+            cacheMisses.add(cache.getMissCount(), "context", name);
+            cacheInvalidations.add(cache.getInvalidationCount(), "context", name);
+          }
+          SessionWriteBehindQueue writeBehind = filter.getWriteBehind();
+          if (writeBehind != null) {
+            pending.add(writeBehind.getPendingSessionCount(), "context", name);
+            writes.add(writeBehind.getWriteCount(), "context", name);
+            failures.add(writeBehind.getFailureCount(), "context", name);
+          }
+        }
+      }
+    }
+    families.add(active);
+    families.add(created);
+    families.add(expired);
+    families.add(rejectedSessions);
+    families.add(cacheHits);
+    families.add(cacheMisses);
+    families.add(cacheInvalidations);
+    families.add(pending);
+    families.add(writes);
+    families.add(failures);
+    families.addAll(storeStatistics);
+  }
+
+  private void collectAccessLog(List<MetricFamily> families) {
+    MetricFamily dropped = new MetricFamily(PREFIX + "access_log_dropped_total", MetricFamily.COUNTER,
+            "Access log records dropped because the writer could not keep up");
+    MetricFamily queued = new MetricFamily(PREFIX + "access_log_queued", MetricFamily.GAUGE,
+            "Access log records waiting to be written");
+    for (Valve valve : service.getContainer().getPipeline().getValves()) {
+      if (valve instanceof AsyncAccessLogValve) {
+        dropped.add(((AsyncAccessLogValve) valve).getDroppedCount());
+        queued.add(((AsyncAccessLogValve) valve).getQueuedCount());
+      }
+    }
+    families.add(dropped);
+    families.add(queued);
+  }
+
+  private void collectSlowRequests(List<MetricFamily> families) {
+    MetricFamily slow = new MetricFamily(PREFIX + "slow_requests_total", MetricFamily.COUNTER,
+            "Requests that tied up a thread for longer than the slow request threshold");
+    MetricFamily stuck = new MetricFamily(PREFIX + "threads_stuck", MetricFamily.GAUGE,
+            "Threads processing a request for longer than the slow request threshold");
+    for (Valve valve : service.getContainer().getPipeline().getValves()) {
+      if (valve instanceof SlowRequestValve) {
+        StackSampler sampler = ((SlowRequestValve) valve).getSampler();
+        Map<String, Integer> stuckThreads = sampler.getStuckThreadCounts();
+        // contexts with stuck threads had a slow request
+        for (Map.Entry<String, Long> entry : sampler.getSlowRequestCounts().entrySet()) {
+          String name = entry.getKey().length() == 0 ? "/" : entry.getKey();
+          Integer count = stuckThreads.get(entry.getKey());
+          slow.add(entry.getValue(), "context", name);
+          stuck.add(count == null ? 0 : count, "context", name);
+        }
+      }
+    }
+    families.add(slow);
+    families.add(stuck);
+  }
+
+  private void collectConcurrencyLimits(List<MetricFamily> families) {
+    MetricFamily limit = new MetricFamily(PREFIX + "concurrency_limit", MetricFamily.GAUGE,
+            "Requests the context may process at the same time");
+    MetricFamily inFlight = new MetricFamily(PREFIX + "concurrency_in_flight", MetricFamily.GAUGE,
+            "Requests the context is processing");
+    MetricFamily rejected = new MetricFamily(PREFIX + "concurrency_rejected_total", MetricFamily.COUNTER,
+            "Requests rejected because the concurrency limit was reached");
+    for (Valve valve : service.getContainer().getPipeline().getValves()) {
+      if (valve instanceof ConcurrencyLimitValve) {
+        for (Map.Entry<String, GradientLimiter> entry : ((ConcurrencyLimitValve) valve).getLimiters().entrySet()) {
+          String name = entry.getKey().length() == 0 ? "/" : entry.getKey();
+          limit.add(entry.getValue().getLimit(), "context", name);
+          inFlight.add(entry.getValue().getInFlight(), "context", name);
+          rejected.add(entry.getValue().getRejectedCount(), "context", name);
+        }
+      }
+    }
+    families.add(limit);
+    families.add(inFlight);
+    families.add(rejected);
+  }
+
+  /**
+   * Adds the numeric statistics the memcached session manager exposes through its getters.
+   */
+  private static void collectStoreStatistics(Manager manager, String context, List<MetricFamily> families) {
+    for (Method method : manager.getClass().getMethods()) {
+      Class<?> type = method.getReturnType();
+      if (!method.getName().startsWith(MEMCACHED_STATISTICS) || method.getParameterTypes().length != 0 ||
+              !(type == long.class || type == int.class || type == Long.class || type == Integer.class)) {
+        continue;
+      }
+      String name = PREFIX + "session_store_" + toSnakeCase(method.getName().substring(MEMCACHED_STATISTICS.length()));
+      MetricFamily family = null;
+      for (MetricFamily existing : families) {
+        if (existing.getName().equals(name)) {
+          family = existing;
+        }
+      }
+      if (family == null) {
+        family = new MetricFamily(name, MetricFamily.GAUGE, "Session store statistic " +
+                method.getName().substring(MEMCACHED_STATISTICS.length()));
+        families.add(family);
+      }
+      try {
+        Object value = method.invoke(manager);
+        if (value != null) {
+          family.add(((Number) value).doubleValue(), "context", context);
+        }
+      } catch (Exception e) {
+        logger.log(Level.FINE, "Unable to read " + method.getName(), e);
+      }
+    }
+  }
+
+  static String toSnakeCase(String name) {
+    StringBuilder snake = new StringBuilder();
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (Character.isUpperCase(c)) {
+        if (snake.length() > 0) {
+          snake.append('_');
+        }
+        snake.append(Character.toLowerCase(c));
+      } else if (Character.isLetterOrDigit(c)) {
+        snake.append(c);
+      } else {
+        snake.append('_');
+      }
+    }
+    return snake.toString();
+  }
+}
@@ -0,0 +1,134 @@
+package webapp.runner.launch.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import webapp.runner.launch.helper.Checkpoint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the metrics on a management port of its own, so they are neither exposed with nor
+ * slowed down by the application: {@code /metrics} in the Prometheus text format and
+ * {@code /metrics.json} as JSON. The port is closed for a checkpoint.
+ */
+public class MetricsServer implements Checkpoint.Participant {
+
+  private static final Logger logger = Logger.getLogger(MetricsServer.class.getName());
+
+  private final String address;
+  private final int port;
+  private final MetricsCollector collector;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  /**
+   * @param address address to listen on, null for all addresses
+   */
+  public MetricsServer(String address, int port, MetricsCollector collector) {
+    this.address = address;
+    this.port = port;
+    this.collector = collector;
+  }
+
+  public synchronized void start() throws IOException {
+    if (server != null) {
+      return;
+    }
+    InetSocketAddress socketAddress = address == null ? new InetSocketAddress(port) : new InetSocketAddress(address, port);
+    server = HttpServer.create(socketAddress, 0);
+    server.createContext("/metrics", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        serve(exchange);
+      }
+    });
+    executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "metrics-server");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    server.setExecutor(executor);
+    server.start();
+    logger.info("Serving metrics on port " + getPort());
+  }
+
+  public synchronized void stop() {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdownNow();
+      server = null;
+      executor = null;
+    }
+  }
+
+  /**
+   * @return the port listened on, also if it was chosen by the system
+   */
+  public synchronized int getPort() {
+    return server == null ? port : server.getAddress().getPort();
+  }
+
+  @Override
+  public void beforeCheckpoint() {
+    stop();
+  }
+
+  @Override
+  public void afterRestore() throws IOException {
+    start();
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    try {
+      String path = exchange.getRequestURI().getPath();
+      boolean json = path.equals("/metrics.json");
+      if (!json && !path.equals("/metrics")) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      StringWriter text = new StringWriter();
+      try {
+        List<MetricFamily> families = collector.collect();
+        if (json) {
+          MetricFamily.writeJson(families, text);
+        } else {
+          MetricFamily.writePrometheus(families, text);
+        }
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Unable to collect metrics", e);
+        exchange.sendResponseHeaders(500, -1);
+        return;
+      }
+      byte[] body = text.toString().getBytes("UTF-8");
+      exchange.getResponseHeaders().set("Content-Type",
+              json ? "application/json; charset=utf-8" : "text/plain; version=0.0.4; charset=utf-8");
+      if ("HEAD".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(200, -1);
+        return;
+      }
+      exchange.sendResponseHeaders(200, body.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(body);
+      out.close();
+    } finally {
+      exchange.close();
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package webapp.runner.launch.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Request latencies by context, URL pattern and status class. Targets are looked up by the
+ * names of the context and the servlet, so recording a request to a known servlet does not
+ * allocate. Names rather than the servlets themselves are kept, so a redeployed context is
+ * not held on to and continues the numbers of its predecessor.
+ */
+public class RequestMetrics {
+
+  private final ConcurrentMap<String, ConcurrentMap<String, Target>> contexts =
+          new ConcurrentHashMap<String, ConcurrentMap<String, Target>>();
+
+  /**
+   * Latencies of requests to one target.
+   */
+  public static class Target {
+    private final String context;
+    private final String pattern;
+    // by status class, 0 for anything outside 1xx to 5xx
+    private final AtomicReferenceArray<LatencyHistogram> histograms = new AtomicReferenceArray<LatencyHistogram>(6);
+
+    Target(String context, String pattern) {
+      this.context = context;
+      this.pattern = pattern;
+    }
+
+    public String getContext() {
+      return context;
+    }
+
+    public String getPattern() {
+      return pattern;
+    }
+
+    public void record(int status, long nanos) {
+      int statusClass = status >= 100 && status < 600 ? status / 100 : 0;
+      LatencyHistogram histogram = histograms.get(statusClass);
+      if (histogram == null) {
+        histograms.compareAndSet(statusClass, null, new LatencyHistogram());
+        histogram = histograms.get(statusClass);
+      }
+      histogram.record(nanos / 1000);
+    }
+
+    /**
+     * @return the histogram of a status class such as 2 for 2xx, or null if there were no such responses
+     */
+    public LatencyHistogram getHistogram(int statusClass) {
+      return histograms.get(statusClass);
+    }
+  }
+
+  /**
+   * @return the target of a servlet, or null if there is none yet
+   */
+  public Target get(String context, String servlet) {
+    ConcurrentMap<String, Target> servlets = contexts.get(context);
+    return servlets == null ? null : servlets.get(servlet);
+  }
+
+  /**
+   * @param pattern the label of the target if it is created
+   * @return the target of a servlet, created if there is none yet
+   */
+  public Target getOrCreate(String context, String servlet, String pattern) {
+    ConcurrentMap<String, Target> servlets = contexts.get(context);
+    if (servlets == null) {
+      contexts.putIfAbsent(context, new ConcurrentHashMap<String, Target>());
+      servlets = contexts.get(context);
+    }
+    Target target = servlets.get(servlet);
+    if (target == null) {
+      servlets.putIfAbsent(servlet, new Target(context, pattern));
+      target = servlets.get(servlet);
+    }
+    return target;
+  }
+
+  public List<Target> getTargets() {
+    List<Target> targets = new ArrayList<Target>();
+    for (ConcurrentMap<String, Target> servlets : contexts.values()) {
+      targets.addAll(servlets.values());
+    }
+    return targets;
+  }
+}
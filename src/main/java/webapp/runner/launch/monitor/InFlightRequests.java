@@ -0,0 +1,99 @@
+package webapp.runner.launch.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Table of the requests being processed, with the thread processing each one and the time
+ * it started. A request takes a free slot with a single compare-and-set, starting at a slot
+ * derived from the thread, so entering and leaving allocates nothing and threads rarely
+ * touch the same slot. Requests that find no free slot are not tracked.
+ */
+public class InFlightRequests {
+
+  private static final int PROBES = 8;
+
+  private final AtomicReferenceArray<Thread> threads;
+  // 0 while the slot is free or being filled
+  private final AtomicLongArray starts;
+  private final AtomicReferenceArray<String> contexts;
+  private final AtomicReferenceArray<String> uris;
+  private final int mask;
+  private final AtomicLong untracked = new AtomicLong();
+
+  /**
+   * @param capacity number of slots, rounded up to a power of two; should exceed the number of
+   *                 request processing threads
+   */
+  public InFlightRequests(int capacity) {
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    threads = new AtomicReferenceArray<Thread>(size);
+    starts = new AtomicLongArray(size);
+    contexts = new AtomicReferenceArray<String>(size);
+    uris = new AtomicReferenceArray<String>(size);
+    mask = size - 1;
+  }
+
+  public int getCapacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Tracks a request processed by the current thread.
+   *
+   * @return the slot to pass to {@link #exit(int)}, or -1 if the table is full
+   */
+  public int enter(String context, String uri) {
+    Thread thread = Thread.currentThread();
+    int hint = (int) (thread.getId() * 0x9E3779B9L);
+    for (int probe = 0; probe < PROBES; probe++) {
+      int slot = (hint + probe) & mask;
+      if (threads.get(slot) == null && threads.compareAndSet(slot, null, thread)) {
+        contexts.lazySet(slot, context);
+        uris.lazySet(slot, uri);
+        // published last, readers check it first
+        starts.set(slot, Math.max(1, System.nanoTime()));
+        return slot;
+      }
+    }
+    untracked.incrementAndGet();
+    return -1;
+  }
+
+  public void exit(int slot) {
+    if (slot < 0) {
+      return;
+    }
+    starts.set(slot, 0);
+    contexts.lazySet(slot, null);
+    uris.lazySet(slot, null);
+    threads.set(slot, null);
+  }
+
+  /**
+   * @return start of the request in the slot in {@link System#nanoTime()}, or 0 if there is none
+   */
+  public long getStart(int slot) {
+    return starts.get(slot);
+  }
+
+  public Thread getThread(int slot) {
+    return threads.get(slot);
+  }
+
+  public String getContext(int slot) {
+    return contexts.get(slot);
+  }
+
+  public String getUri(int slot) {
+    return uris.get(slot);
+  }
+
+  /**
+   * @return requests not tracked because their slots were taken
+   */
+  public long getUntrackedCount() {
+    return untracked.get();
+  }
+}
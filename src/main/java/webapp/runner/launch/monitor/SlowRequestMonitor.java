@@ -0,0 +1,60 @@
+package webapp.runner.launch.monitor;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
+import org.apache.catalina.startup.Tomcat;
+import webapp.runner.launch.CommandLineParams;
+import webapp.runner.launch.TomcatConfigurator;
+import webapp.runner.launch.helper.ContextDefinition;
+import webapp.runner.launch.valve.SlowRequestValve;
+
+import java.io.File;
+
+/**
+ * Installs the {@link SlowRequestValve} on the engine of the server, with a sampler writing
+ * the stacks of slow requests to {@code --slow-request-report} or to
+ * {@code slow-requests.folded} in the base directory.
+ */
+public class SlowRequestMonitor implements TomcatConfigurator {
+
+  private static final String REPORT_FILE = "slow-requests.folded";
+  // more slots than threads, so a request rarely finds its slots taken
+  private static final int MIN_SLOTS = 1024;
+
+  private final TomcatConfigurator delegate;
+  private SlowRequestValve valve;
+
+  /**
+   * @param delegate configurator to call as well, or null
+   */
+  public SlowRequestMonitor(TomcatConfigurator delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void configure(Tomcat tomcat, CommandLineParams commandLineParams, ContextDefinition... warLocations) {
+    if (delegate != null) {
+      delegate.configure(tomcat, commandLineParams, warLocations);
+    }
+    File report = commandLineParams.slowRequestReport != null ? new File(commandLineParams.slowRequestReport) :
+            new File(System.getProperty(Globals.CATALINA_BASE_PROP), REPORT_FILE);
+    int threads = commandLineParams.maxThreads == null ? 0 : commandLineParams.maxThreads;
+    InFlightRequests requests = new InFlightRequests(Math.max(MIN_SLOTS, threads * 4));
+    StackSampler sampler = new StackSampler(requests, commandLineParams.slowRequestThreshold,
+            commandLineParams.slowRequestSampleInterval, report);
+    valve = new SlowRequestValve(requests, sampler);
+    tomcat.getEngine().getPipeline().addValve(valve);
+  }
+
+  @Override
+  public void configureContext(Tomcat tomcat, CommandLineParams commandLineParams, ContextDefinition warLocation,
+                               Context context) {
+    if (delegate != null) {
+      delegate.configureContext(tomcat, commandLineParams, warLocation, context);
+    }
+  }
+
+  public SlowRequestValve getValve() {
+    return valve;
+  }
+}
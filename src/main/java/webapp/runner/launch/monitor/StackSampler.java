@@ -0,0 +1,235 @@
+package webapp.runner.launch.monitor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically looks through the {@link InFlightRequests} for requests running longer than
+ * a threshold and samples the stacks of their threads. Each slow request is logged once with
+ * its stack and counted for its context; the samples are added up in the folded format of
+ * flame graph tools, one line per distinct stack with the context as the root frame.
+ */
+public class StackSampler {
+
+  private static final Logger logger = Logger.getLogger(StackSampler.class.getName());
+
+  private static final int MAX_STACKS = 10000;
+  private static final String TRUNCATED = "[more stacks]";
+  private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+  private final InFlightRequests requests;
+  private final long thresholdNanos;
+  private final long interval;
+  private final File reportFile;
+
+  // start of the slow request last counted per slot, only used by the sampling thread
+  private final long[] reported;
+  private final ConcurrentMap<String, AtomicLong> slowRequests = new ConcurrentHashMap<String, AtomicLong>();
+  private final ConcurrentMap<String, AtomicLong> stacks = new ConcurrentHashMap<String, AtomicLong>();
+  private volatile Map<String, Integer> stuckThreads = Collections.emptyMap();
+  private long lastReport;
+  private boolean changed;
+
+  private Thread thread;
+  private volatile boolean running;
+
+  /**
+   * @param threshold  milliseconds after which a request is slow
+   * @param interval   milliseconds between two samples
+   * @param reportFile file the folded stacks are written to, or null
+   */
+  public StackSampler(InFlightRequests requests, long threshold, long interval, File reportFile) {
+    this.requests = requests;
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+    this.interval = Math.max(1, interval);
+    this.reportFile = reportFile;
+    this.reported = new long[requests.getCapacity()];
+  }
+
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (running) {
+          try {
+            Thread.sleep(interval);
+          } catch (InterruptedException e) {
+            break;
+          }
+          sample();
+          if (System.currentTimeMillis() - lastReport >= REPORT_INTERVAL) {
+            writeReport();
+          }
+        }
+      }
+    }, "slow-request-sampler");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    thread.interrupt();
+    try {
+      thread.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+    writeReport();
+  }
+
+  /**
+   * Samples the stacks of the threads of all slow requests once.
+   */
+  void sample() {
+    long now = System.nanoTime();
+    Map<String, Integer> stuck = new HashMap<String, Integer>();
+    for (int slot = 0; slot < reported.length; slot++) {
+      long start = requests.getStart(slot);
+      if (start == 0 || now - start < thresholdNanos) {
+        continue;
+      }
+      Thread owner = requests.getThread(slot);
+      String context = requests.getContext(slot);
+      String uri = requests.getUri(slot);
+      if (owner == null) {
+        continue;
+      }
+      StackTraceElement[] stack = owner.getStackTrace();
+      // the request may have finished while the stack was taken
+      if (requests.getStart(slot) != start || requests.getThread(slot) != owner) {
+        continue;
+      }
+      context = context == null ? "" : context;
+      Integer count = stuck.get(context);
+      stuck.put(context, count == null ? 1 : count + 1);
+      if (reported[slot] != start) {
+        reported[slot] = start;
+        increment(slowRequests, context);
+        logger.warning("Request to " + uri + " has been running on " + owner.getName() + " for " +
+                TimeUnit.NANOSECONDS.toMillis(now - start) + "ms:" + format(stack));
+      }
+      addSample(context, stack);
+    }
+    stuckThreads = stuck;
+  }
+
+  private void addSample(String context, StackTraceElement[] stack) {
+    String folded = fold(context, stack);
+    if (!stacks.containsKey(folded) && stacks.size() >= MAX_STACKS) {
+      folded = fold(context, new StackTraceElement[0]) + ";" + TRUNCATED;
+    }
+    increment(stacks, folded);
+    changed = true;
+  }
+
+  private static void increment(ConcurrentMap<String, AtomicLong> counters, String key) {
+    AtomicLong counter = counters.get(key);
+    if (counter == null) {
+      AtomicLong created = new AtomicLong();
+      counter = counters.putIfAbsent(key, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    counter.incrementAndGet();
+  }
+
+  /**
+   * @return the frames from the outermost to the innermost, separated by semicolons
+   */
+  static String fold(String context, StackTraceElement[] stack) {
+    StringBuilder folded = new StringBuilder(context.length() == 0 ? "/" : context);
+    for (int i = stack.length - 1; i >= 0; i--) {
+      folded.append(';').append(stack[i].getClassName()).append('.').append(stack[i].getMethodName());
+    }
+    // separators of the folded format
+    for (int i = 0; i < folded.length(); i++) {
+      char c = folded.charAt(i);
+      if (c == ' ' || c == '\n' || c == '\r') {
+        folded.setCharAt(i, '_');
+      }
+    }
+    return folded.toString();
+  }
+
+  private static String format(StackTraceElement[] stack) {
+    StringBuilder text = new StringBuilder();
+    for (StackTraceElement element : stack) {
+      text.append("\n\tat ").append(element);
+    }
+    return text.toString();
+  }
+
+  /**
+   * @return number of requests that ran longer than the threshold, by context name
+   */
+  public Map<String, Long> getSlowRequestCounts() {
+    Map<String, Long> counts = new HashMap<String, Long>();
+    for (Map.Entry<String, AtomicLong> entry : slowRequests.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().get());
+    }
+    return counts;
+  }
+
+  /**
+   * @return threads processing a slow request at the last sample, by context name
+   */
+  public Map<String, Integer> getStuckThreadCounts() {
+    return stuckThreads;
+  }
+
+  /**
+   * Writes one line per sampled stack: the folded frames, a space and the number of samples.
+   */
+  public void writeFolded(Writer out) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    for (Map.Entry<String, AtomicLong> entry : stacks.entrySet()) {
+      lines.add(entry.getKey() + " " + entry.getValue().get() + "\n");
+    }
+    Collections.sort(lines);
+    for (String line : lines) {
+      out.write(line);
+    }
+  }
+
+  private void writeReport() {
+    lastReport = System.currentTimeMillis();
+    if (reportFile == null || !changed) {
+      return;
+    }
+    changed = false;
+    try {
+      Writer out = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+      try {
+        writeFolded(out);
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Unable to write the slow request report to " + reportFile, e);
+    }
+  }
+}
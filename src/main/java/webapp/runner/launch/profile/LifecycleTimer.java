@@ -0,0 +1,81 @@
+package webapp.runner.launch.profile;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.connector.Connector;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records how long the components it is added to take to initialize and to start.
+ * Nested components are started from within their parent, so their timings overlap.
+ */
+public class LifecycleTimer implements LifecycleListener {
+
+  private final StartupProfiler profiler;
+  private final Map<String, Long> started = new ConcurrentHashMap<String, Long>();
+
+  public LifecycleTimer(StartupProfiler profiler) {
+    this.profiler = profiler;
+  }
+
+  /**
+   * Adds the timer to the components, unless it was added before.
+   */
+  public void register(Lifecycle... components) {
+    for (Lifecycle component : components) {
+      boolean registered = false;
+      for (LifecycleListener listener : component.findLifecycleListeners()) {
+        registered |= listener == this;
+      }
+      if (!registered) {
+        component.addLifecycleListener(this);
+      }
+    }
+  }
+
+  @Override
+  public void lifecycleEvent(LifecycleEvent event) {
+    String type = event.getType();
+    if (Lifecycle.BEFORE_INIT_EVENT.equals(type)) {
+      begin("init", event.getLifecycle());
+    } else if (Lifecycle.AFTER_INIT_EVENT.equals(type)) {
+      end("init", event.getLifecycle());
+    } else if (Lifecycle.BEFORE_START_EVENT.equals(type)) {
+      begin("start", event.getLifecycle());
+    } else if (Lifecycle.AFTER_START_EVENT.equals(type)) {
+      end("start", event.getLifecycle());
+    }
+  }
+
+  private void begin(String step, Lifecycle component) {
+    started.put(step + " " + describe(component), System.nanoTime());
+  }
+
+  private void end(String step, Lifecycle component) {
+    String name = step + " " + describe(component);
+    Long start = started.remove(name);
+    if (start != null) {
+      profiler.record(StartupProfiler.LIFECYCLE, name, start, System.nanoTime());
+    }
+  }
+
+  static String describe(Lifecycle component) {
+    if (component instanceof Connector) {
+      Connector connector = (Connector) component;
+      return "connector " + connector.getProtocol() + " port " + connector.getPort();
+    }
+    if (component instanceof Context) {
+      return StartupProfiler.contextGroup(((Context) component).getPath());
+    }
+    if (component instanceof Container) {
+      String kind = component.getClass().getSimpleName().replaceFirst("^Standard", "").toLowerCase();
+      return kind + " " + ((Container) component).getName();
+    }
+    return component.getClass().getSimpleName().replaceFirst("^Standard", "").toLowerCase();
+  }
+}
@@ -0,0 +1,259 @@
+package webapp.runner.launch.profile;
+
+import webapp.runner.launch.jfr.FlightRecorderEvents;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the wall time spent in the phases of the startup, so regressions can be tracked.
+ * Timings belong to a group, such as the launcher phases, a context or the lifecycle of the
+ * Tomcat components, and are kept relative to the start of the JVM. Recording is cheap, the
+ * report is only printed or written when asked for.
+ */
+public class StartupProfiler {
+
+  public static final String PHASES = "phases";
+  public static final String LIFECYCLE = "lifecycle";
+
+  private static final StartupProfiler instance = new StartupProfiler(jvmUptime());
+
+  private final long originNanos;
+  private final long originMillis;
+  private final List<Timing> timings = new ArrayList<Timing>();
+
+  /**
+   * @param uptime milliseconds since the start of the JVM at the time of creation
+   */
+  StartupProfiler(long uptime) {
+    this.originNanos = System.nanoTime();
+    this.originMillis = uptime;
+    record(PHASES, "jvm", -uptime * 1000000L + originNanos, originNanos);
+  }
+
+  /**
+   * @return the group of the timings of a context
+   */
+  public static String contextGroup(String contextPath) {
+    if (contextPath == null || contextPath.length() == 0) {
+      return "context /";
+    }
+    return "context " + (contextPath.startsWith("/") ? contextPath : "/" + contextPath);
+  }
+
+  /**
+   * @return the profiler of this JVM's startup
+   */
+  public static StartupProfiler getInstance() {
+    return instance;
+  }
+
+  /**
+   * One recorded timing.
+   */
+  public static class Timing {
+    private final String group;
+    private final String name;
+    private final String thread;
+    private final long start;
+    private final long duration;
+
+    Timing(String group, String name, String thread, long start, long duration) {
+      this.group = group;
+      this.name = name;
+      this.thread = thread;
+      this.start = start;
+      this.duration = duration;
+    }
+
+    public String getGroup() {
+      return group;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getThread() {
+      return thread;
+    }
+
+    /**
+     * @return microseconds since the start of the JVM
+     */
+    public long getStart() {
+      return start;
+    }
+
+    /**
+     * @return duration in microseconds
+     */
+    public long getDuration() {
+      return duration;
+    }
+  }
+
+  /**
+   * A started timing, recorded when it is stopped, and as a flight recorder event if they
+   * are enabled.
+   */
+  public class Timer {
+    private final String group;
+    private final String name;
+    private final long start = System.nanoTime();
+    private final FlightRecorderEvents.Event event =
+            FlightRecorderEvents.begin(FlightRecorderEvents.Type.STARTUP_PHASE);
+    private boolean stopped;
+
+    Timer(String group, String name) {
+      this.group = group;
+      this.name = name;
+    }
+
+    public void stop() {
+      if (!stopped) {
+        stopped = true;
+        record(group, name, start, System.nanoTime());
+        if (event != null) {
+          event.commit(group, name);
+        }
+      }
+    }
+  }
+
+  public Timer start(String group, String name) {
+    return new Timer(group, name);
+  }
+
+  /**
+   * @param start {@link System#nanoTime()} at the start
+   * @param end   {@link System#nanoTime()} at the end
+   */
+  public void record(String group, String name, long start, long end) {
+    Timing timing = new Timing(group, name, Thread.currentThread().getName(),
+            originMillis * 1000L + TimeUnit.NANOSECONDS.toMicros(start - originNanos),
+            TimeUnit.NANOSECONDS.toMicros(end - start));
+    synchronized (timings) {
+      timings.add(timing);
+    }
+  }
+
+  /**
+   * @return the timings ordered by their start
+   */
+  public List<Timing> getTimings() {
+    List<Timing> sorted;
+    synchronized (timings) {
+      sorted = new ArrayList<Timing>(timings);
+    }
+    Collections.sort(sorted, new Comparator<Timing>() {
+      @Override
+      public int compare(Timing first, Timing second) {
+        return first.start < second.start ? -1 : (first.start == second.start ? 0 : 1);
+      }
+    });
+    return sorted;
+  }
+
+  /**
+   * @return the timings by group, the groups in the order they started
+   */
+  Map<String, List<Timing>> getGroups() {
+    Map<String, List<Timing>> groups = new LinkedHashMap<String, List<Timing>>();
+    for (Timing timing : getTimings()) {
+      List<Timing> group = groups.get(timing.group);
+      if (group == null) {
+        group = new ArrayList<Timing>();
+        groups.put(timing.group, group);
+      }
+      group.add(timing);
+    }
+    return groups;
+  }
+
+  /**
+   * @return milliseconds since the start of the JVM
+   */
+  public long getUptime() {
+    return originMillis + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - originNanos);
+  }
+
+  /**
+   * @return a human readable report; times are offsets from the start of the JVM and durations
+   */
+  public String report() {
+    StringBuilder report = new StringBuilder();
+    report.append("Startup report, ").append(getUptime()).append(" ms since the JVM started\n");
+    for (Map.Entry<String, List<Timing>> group : getGroups().entrySet()) {
+      report.append(group.getKey()).append(":\n");
+      for (Timing timing : group.getValue()) {
+        report.append(String.format("  at %7d ms %7d ms  %s%n", timing.start / 1000, timing.duration / 1000,
+                timing.name));
+      }
+    }
+    return report.toString();
+  }
+
+  /**
+   * Writes the timings as a JSON document with times in microseconds.
+   */
+  public void writeJson(Writer out) throws IOException {
+    out.write("{\n  \"uptime\": " + getUptime() * 1000L + ",\n  \"timings\": [");
+    String separator = "\n";
+    for (Timing timing : getTimings()) {
+      out.write(separator);
+      out.write("    {\"group\": " + quote(timing.group) + ", \"name\": " + quote(timing.name) +
+              ", \"thread\": " + quote(timing.thread) + ", \"start\": " + timing.start +
+              ", \"duration\": " + timing.duration + "}");
+      separator = ",\n";
+    }
+    out.write("\n  ]\n}\n");
+  }
+
+  public void writeJson(File file) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Could not create directory " + parent);
+    }
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writeJson(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  static String quote(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  private static long jvmUptime() {
+    try {
+      return ManagementFactory.getRuntimeMXBean().getUptime();
+    } catch (RuntimeException e) {
+      return 0;
+    }
+  }
+}
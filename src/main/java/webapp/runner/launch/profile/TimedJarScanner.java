@@ -0,0 +1,42 @@
+package webapp.runner.launch.profile;
+
+import org.apache.tomcat.JarScanner;
+import org.apache.tomcat.JarScannerCallback;
+
+import javax.servlet.ServletContext;
+import java.util.Set;
+
+/**
+ * {@link JarScanner} that records the time of every scan, such as the scans for web
+ * fragments and TLDs.
+ */
+public class TimedJarScanner implements JarScanner {
+
+  private final JarScanner delegate;
+  private final StartupProfiler profiler;
+  private final String group;
+
+  /**
+   * @param group the group the scans are recorded in
+   */
+  public TimedJarScanner(JarScanner delegate, StartupProfiler profiler, String group) {
+    this.delegate = delegate;
+    this.profiler = profiler;
+    this.group = group;
+  }
+
+  public JarScanner getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public void scan(ServletContext context, ClassLoader classloader, JarScannerCallback callback,
+                   Set<String> jarsToSkip) {
+    StartupProfiler.Timer timer = profiler.start(group, "jar scan (" + callback.getClass().getSimpleName() + ")");
+    try {
+      delegate.scan(context, classloader, callback, jarsToSkip);
+    } finally {
+      timer.stop();
+    }
+  }
+}
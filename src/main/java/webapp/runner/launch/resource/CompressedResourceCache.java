@@ -0,0 +1,92 @@
+package webapp.runner.launch.resource;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of compressed resource bodies, bounded by the total number
+ * of cached bytes. Entries are keyed by path and ETag, so a changed resource never
+ * matches a stale entry.
+ */
+public class CompressedResourceCache {
+
+  // bookkeeping overhead charged for every entry, including negative ones
+  private static final int ENTRY_OVERHEAD = 128;
+
+  private final long maxSize;
+  private final LinkedHashMap<String, Entry> entries;
+  private long size;
+
+  public CompressedResourceCache(long maxSize) {
+    this.maxSize = maxSize;
+    this.entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+  }
+
+  public static class Entry {
+    private final byte[] data;
+
+    Entry(byte[] data) {
+      this.data = data;
+    }
+
+    /**
+     * @return the compressed body, or null if compression did not make the resource smaller
+     */
+    public byte[] getData() {
+      return data;
+    }
+
+    int weight() {
+      return ENTRY_OVERHEAD + (data == null ? 0 : data.length);
+    }
+  }
+
+  public synchronized Entry get(String path, String etag) {
+    return entries.get(key(path, etag));
+  }
+
+  /**
+   * Stores a compressed body; null records that the resource does not compress.
+   *
+   * @return false if the entry is larger than the whole cache
+   */
+  public synchronized boolean put(String path, String etag, byte[] data) {
+    Entry entry = new Entry(data);
+    if (entry.weight() > maxSize) {
+      return false;
+    }
+    Entry previous = entries.put(key(path, etag), entry);
+    if (previous != null) {
+      size -= previous.weight();
+    }
+    size += entry.weight();
+
+    Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+    while (size > maxSize && eldest.hasNext()) {
+      size -= eldest.next().getValue().weight();
+      eldest.remove();
+    }
+    return true;
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  public synchronized boolean isFull() {
+    return size >= maxSize;
+  }
+
+  public synchronized long getSize() {
+    return size;
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  private static String key(String path, String etag) {
+    return path + '\n' + etag;
+  }
+}
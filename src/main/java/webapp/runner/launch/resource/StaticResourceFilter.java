@@ -0,0 +1,383 @@
+package webapp.runner.launch.resource;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.deploy.FilterDef;
+import org.apache.catalina.deploy.FilterMap;
+import org.apache.naming.resources.Resource;
+import org.apache.naming.resources.ResourceAttributes;
+
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves static resources compressed without compressing them on every request.
+ * Precompressed <code>.br</code> and <code>.gz</code> siblings are served when the client
+ * accepts them; other eligible resources are gzipped once, either in the background after
+ * the context started or on first use, and kept in a {@link CompressedResourceCache}.
+ * Everything else, including range requests, is left to the default servlet.
+ * <p>
+ * The filter is mapped to the default servlet after the webapp's own filters, so
+ * authentication, security constraints, the protection of <code>/WEB-INF</code> and
+ * <code>/META-INF</code> and the application's filters all apply before anything is served.
+ */
+public class StaticResourceFilter implements Filter {
+
+  public static final String FILTER_NAME = "webappRunnerStaticResource";
+
+  private static final Logger logger = Logger.getLogger(StaticResourceFilter.class.getName());
+
+  private static final String DEFAULT_SERVLET = "default";
+  private static final int BUFFER_SIZE = 8192;
+
+  private final CompressedResourceCache cache;
+  private final Set<String> compressableMimeTypes;
+  private final int minCompressionSize;
+  private final boolean serveBrotli;
+  private Context context;
+  private volatile Thread precompressor;
+
+  /**
+   * @param serveBrotli false if the connector compresses responses itself, as Tomcat only
+   *                    recognizes an existing gzip content encoding
+   */
+  public StaticResourceFilter(CompressedResourceCache cache, String compressableMimeTypes,
+                              int minCompressionSize, boolean serveBrotli) {
+    this.cache = cache;
+    this.compressableMimeTypes = new HashSet<String>();
+    for (String mimeType : compressableMimeTypes.split(",")) {
+      this.compressableMimeTypes.add(mimeType.trim());
+    }
+    this.minCompressionSize = minCompressionSize;
+    this.serveBrotli = serveBrotli;
+  }
+
+  public CompressedResourceCache getCache() {
+    return cache;
+  }
+
+  /**
+   * Maps the filter to the default servlet once the web.xml has been processed, so it
+   * comes after the filters of the webapp.
+   */
+  public void addTo(final Context ctx) {
+    this.context = ctx;
+    ctx.addLifecycleListener(new LifecycleListener() {
+      @Override
+      public void lifecycleEvent(LifecycleEvent event) {
+        if (!Lifecycle.CONFIGURE_START_EVENT.equals(event.getType()) ||
+                ctx.findFilterDef(FILTER_NAME) != null) {
+          return;
+        }
+        FilterDef filterDef = new FilterDef();
+        filterDef.setFilterName(FILTER_NAME);
+        filterDef.setFilterClass(StaticResourceFilter.class.getName());
+        filterDef.setFilter(StaticResourceFilter.this);
+        filterDef.setAsyncSupported("true");
+        ctx.addFilterDef(filterDef);
+
+        FilterMap filterMap = new FilterMap();
+        filterMap.setFilterName(FILTER_NAME);
+        filterMap.addServletName(DEFAULT_SERVLET);
+        filterMap.setDispatcher(DispatcherType.REQUEST.name());
+        ctx.addFilterMap(filterMap);
+      }
+    });
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    final ServletContext servletContext = filterConfig.getServletContext();
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        precompress(servletContext, "/");
+      }
+    }, "static-precompress-" + context.getName());
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    precompressor = thread;
+    thread.start();
+  }
+
+  @Override
+  public void destroy() {
+    precompressor = null;
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+          throws IOException, ServletException {
+    if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse) ||
+            !serveCompressed((HttpServletRequest) request, (HttpServletResponse) response)) {
+      chain.doFilter(request, response);
+    }
+  }
+
+  protected boolean serveCompressed(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String method = request.getMethod();
+    if (!"GET".equals(method) && !"HEAD".equals(method)) {
+      return false;
+    }
+    if (request.getHeader("Range") != null) {
+      return false;
+    }
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    boolean brotli = serveBrotli && accepts(acceptEncoding, "br");
+    boolean gzip = accepts(acceptEncoding, "gzip");
+    if (!brotli && !gzip) {
+      return false;
+    }
+
+    String path = request.getServletPath();
+    if (request.getPathInfo() != null) {
+      path += request.getPathInfo();
+    }
+    if (path.length() == 0 || path.endsWith("/") || isProtected(path)) {
+      return false;
+    }
+
+    DirContext resources = context.getResources();
+    ResourceAttributes attributes = lookupAttributes(resources, path);
+    if (attributes == null) {
+      return false;
+    }
+    String mimeType = context.getServletContext().getMimeType(path);
+
+    if (brotli && serveSibling(request, response, resources, path + ".br", "br", mimeType)) {
+      return true;
+    }
+    if (serveSibling(request, response, resources, path + ".gz", "gzip", mimeType)) {
+      return true;
+    }
+    if (!isCompressable(mimeType, attributes.getContentLength())) {
+      return false;
+    }
+
+    String etag = attributes.getETag();
+    CompressedResourceCache.Entry entry = cache.get(path, etag);
+    if (entry == null) {
+      cache.put(path, etag, compress(resources, path, attributes.getContentLength()));
+      entry = cache.get(path, etag);
+    }
+    if (entry == null || entry.getData() == null) {
+      return false;
+    }
+
+    String compressedEtag = encodingEtag(etag, "gzip");
+    if (!writeHeaders(request, response, mimeType, "gzip", compressedEtag, attributes.getLastModified())) {
+      return true;
+    }
+    response.setContentLength(entry.getData().length);
+    if (!"HEAD".equals(method)) {
+      response.getOutputStream().write(entry.getData());
+    }
+    return true;
+  }
+
+  private boolean serveSibling(HttpServletRequest request, HttpServletResponse response, DirContext resources,
+                               String siblingPath, String encoding, String mimeType) throws IOException {
+    ResourceAttributes attributes = lookupAttributes(resources, siblingPath);
+    if (attributes == null) {
+      return false;
+    }
+    Object sibling;
+    try {
+      sibling = resources.lookup(siblingPath);
+    } catch (NamingException e) {
+      return false;
+    }
+    if (!(sibling instanceof Resource)) {
+      return false;
+    }
+
+    if (!writeHeaders(request, response, mimeType, encoding,
+            encodingEtag(attributes.getETag(), encoding), attributes.getLastModified())) {
+      return true;
+    }
+    long length = attributes.getContentLength();
+    if (length >= 0 && length <= Integer.MAX_VALUE) {
+      response.setContentLength((int) length);
+    }
+    if (!"HEAD".equals(request.getMethod())) {
+      InputStream in = ((Resource) sibling).streamContent();
+      try {
+        copy(in, response.getOutputStream());
+      } finally {
+        in.close();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return false if the client copy is current and a 304 has been sent instead
+   */
+  private boolean writeHeaders(HttpServletRequest request, HttpServletResponse response, String mimeType, String encoding,
+                               String etag, long lastModified) {
+    response.setHeader("Vary", "Accept-Encoding");
+    response.setHeader("ETag", etag);
+    if (lastModified > 0) {
+      response.setDateHeader("Last-Modified", lastModified);
+    }
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null && (ifNoneMatch.equals("*") || ifNoneMatch.contains(etag))) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return false;
+    }
+    if (mimeType != null) {
+      response.setContentType(mimeType);
+    }
+    response.setHeader("Content-Encoding", encoding);
+    return true;
+  }
+
+  protected boolean isCompressable(String mimeType, long length) {
+    return mimeType != null && length >= minCompressionSize && length <= cache.getMaxSize() &&
+            compressableMimeTypes.contains(stripParameters(mimeType));
+  }
+
+  /**
+   * @return the gzipped body, or null if compression does not make the resource smaller
+   */
+  protected byte[] compress(DirContext resources, String path, long length) throws IOException {
+    Object resource;
+    try {
+      resource = resources.lookup(path);
+    } catch (NamingException e) {
+      return null;
+    }
+    if (!(resource instanceof Resource)) {
+      return null;
+    }
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) Math.max(64, length / 4));
+    InputStream in = ((Resource) resource).streamContent();
+    try {
+      GZIPOutputStream gzip = new GZIPOutputStream(compressed, BUFFER_SIZE);
+      copy(in, gzip);
+      gzip.close();
+    } finally {
+      in.close();
+    }
+    return compressed.size() < length ? compressed.toByteArray() : null;
+  }
+
+  private void precompress(ServletContext servletContext, String directory) {
+    Set<String> paths = servletContext.getResourcePaths(directory);
+    if (paths == null) {
+      return;
+    }
+    for (String path : paths) {
+      if (precompressor != Thread.currentThread() || cache.isFull()) {
+        return;
+      }
+      if (path.endsWith("/")) {
+        if (!isProtected(path)) {
+          precompress(servletContext, path);
+        }
+        continue;
+      }
+      try {
+        DirContext resources = context.getResources();
+        ResourceAttributes attributes = lookupAttributes(resources, path);
+        if (attributes == null || !isCompressable(servletContext.getMimeType(path), attributes.getContentLength())) {
+          continue;
+        }
+        String etag = attributes.getETag();
+        if (cache.get(path, etag) == null) {
+          cache.put(path, etag, compress(resources, path, attributes.getContentLength()));
+        }
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Unable to precompress " + path, e);
+      }
+    }
+  }
+
+  /**
+   * @return true for paths below <code>/WEB-INF</code> or <code>/META-INF</code>, in any case,
+   * which are never served
+   */
+  static boolean isProtected(String path) {
+    String upperCase = path.toUpperCase(Locale.ENGLISH);
+    return upperCase.startsWith("/WEB-INF/") || upperCase.equals("/WEB-INF") ||
+            upperCase.startsWith("/META-INF/") || upperCase.equals("/META-INF");
+  }
+
+  private static ResourceAttributes lookupAttributes(DirContext resources, String path) {
+    try {
+      Object attributes = resources.getAttributes(path);
+      if (attributes instanceof ResourceAttributes && !((ResourceAttributes) attributes).isCollection()) {
+        return (ResourceAttributes) attributes;
+      }
+    } catch (NamingException e) {
+      // not found
+    }
+    return null;
+  }
+
+  private static String encodingEtag(String etag, String encoding) {
+    if (etag.endsWith("\"")) {
+      return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    }
+    return etag + "-" + encoding;
+  }
+
+  private static String stripParameters(String mimeType) {
+    int separator = mimeType.indexOf(';');
+    return separator < 0 ? mimeType : mimeType.substring(0, separator).trim();
+  }
+
+  static boolean accepts(String acceptEncoding, String encoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      if (!parts[0].trim().equalsIgnoreCase(encoding)) {
+        continue;
+      }
+      for (int i = 1; i < parts.length; i++) {
+        String parameter = parts[i].trim();
+        if (parameter.startsWith("q=")) {
+          try {
+            return Double.parseDouble(parameter.substring(2)) > 0;
+          } catch (NumberFormatException e) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+  }
+}
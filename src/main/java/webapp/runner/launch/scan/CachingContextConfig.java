@@ -0,0 +1,120 @@
+package webapp.runner.launch.scan;
+
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.deploy.FilterDef;
+import org.apache.catalina.deploy.FilterMap;
+import org.apache.catalina.deploy.ServletDef;
+import org.apache.catalina.deploy.WebXml;
+import org.apache.catalina.startup.ContextConfig;
+
+import javax.servlet.ServletContainerInitializer;
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * {@link ContextConfig} that skips the annotation scan of JARs in which the same scan found
+ * nothing on an earlier start. What counts as found is any change the scan makes to the
+ * fragment of the JAR, including mappings and init parameters added to servlets and filters
+ * the fragment already declares, and classes matching a {@code @HandlesTypes} of a
+ * {@link ServletContainerInitializer}; the handled types are part of the cache key, so
+ * adding an initializer scans all JARs again.
+ */
+public class CachingContextConfig extends ContextConfig {
+
+  private final JarScanCache cache;
+  private String handledTypesKey;
+
+  public CachingContextConfig(JarScanCache cache) {
+    this.cache = cache;
+  }
+
+  public JarScanCache getCache() {
+    return cache;
+  }
+
+  @Override
+  public void lifecycleEvent(LifecycleEvent event) {
+    if (Lifecycle.BEFORE_START_EVENT.equals(event.getType())) {
+      cache.load();
+      handledTypesKey = null;
+    }
+    super.lifecycleEvent(event);
+    if (Lifecycle.AFTER_START_EVENT.equals(event.getType())) {
+      cache.save();
+    }
+  }
+
+  @Override
+  protected void processAnnotationsJar(URL url, WebXml fragment, boolean handlesTypesOnly) {
+    File jar = JarScanCache.toFile(url);
+    if (jar == null) {
+      super.processAnnotationsJar(url, fragment, handlesTypesOnly);
+      return;
+    }
+    String key = handledTypesKey() + (handlesTypesOnly ? ":types" : ":all");
+    if (cache.isWithoutAnnotations(jar, key)) {
+      return;
+    }
+    String before = snapshot(fragment) + handledClassCount();
+    super.processAnnotationsJar(url, fragment, handlesTypesOnly);
+    if (before.equals(snapshot(fragment) + handledClassCount())) {
+      cache.setWithoutAnnotations(jar, key);
+    }
+  }
+
+  /**
+   * @return a hash of the types handled by the initializers, known once the initializers
+   * have been processed, which happens before the annotation scan
+   */
+  private String handledTypesKey() {
+    if (handledTypesKey == null) {
+      Set<String> names = new TreeSet<String>();
+      for (Class<?> type : typeInitializerMap.keySet()) {
+        names.add(type.getName());
+      }
+      handledTypesKey = Integer.toHexString(names.toString().hashCode());
+    }
+    return handledTypesKey;
+  }
+
+  private int handledClassCount() {
+    int count = 0;
+    for (Set<Class<?>> classes : initializerClassMap.values()) {
+      count += classes.size();
+    }
+    return count;
+  }
+
+  /**
+   * @return the servlets, filters, listeners and their mappings and init parameters, in a
+   * form that changes whenever the annotation scan adds to any of them
+   */
+  static String snapshot(WebXml fragment) {
+    StringBuilder snapshot = new StringBuilder();
+    for (ServletDef servlet : new TreeMap<String, ServletDef>(fragment.getServlets()).values()) {
+      snapshot.append("servlet ").append(servlet.getServletName()).append(' ').append(servlet.getServletClass())
+              .append(' ').append(new TreeMap<String, String>(servlet.getParameterMap()))
+              .append(' ').append(servlet.getLoadOnStartup()).append(' ').append(servlet.getAsyncSupported())
+              .append('\n');
+    }
+    snapshot.append("mappings ").append(new TreeMap<String, String>(fragment.getServletMappings())).append('\n');
+    for (FilterDef filter : new TreeMap<String, FilterDef>(fragment.getFilters()).values()) {
+      snapshot.append("filter ").append(filter.getFilterName()).append(' ').append(filter.getFilterClass())
+              .append(' ').append(new TreeMap<String, String>(filter.getParameterMap()))
+              .append(' ').append(filter.getAsyncSupported()).append('\n');
+    }
+    Set<String> filterMappings = new TreeSet<String>();
+    for (FilterMap mapping : fragment.getFilterMappings()) {
+      filterMappings.add(mapping.getFilterName() + " " + Arrays.toString(mapping.getURLPatterns()) + " " +
+              Arrays.toString(mapping.getServletNames()) + " " + mapping.getDispatcherMapping());
+    }
+    snapshot.append("filter mappings ").append(filterMappings).append('\n');
+    snapshot.append("listeners ").append(new TreeSet<String>(fragment.getListeners())).append('\n');
+    return snapshot.toString();
+  }
+}
@@ -0,0 +1,137 @@
+package webapp.runner.launch.scan;
+
+import org.apache.catalina.startup.TldConfig;
+import org.apache.jasper.compiler.TldLocationsCache;
+import org.apache.tomcat.JarScanner;
+import org.apache.tomcat.JarScannerCallback;
+import org.apache.tomcat.util.scan.StandardJarScanner;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * {@link JarScanner} that only passes JARs matching the include patterns and none of the
+ * exclude patterns on to the scanners. Patterns are matched against the JAR file name and
+ * may contain {@code *} and {@code ?}. With a {@link JarScanCache}, JARs known to contain
+ * no TLDs are also hidden from the TLD scanners.
+ */
+public class FilteringJarScanner implements JarScanner {
+
+  private final JarScanner delegate;
+  private final List<Pattern> includes;
+  private final List<Pattern> excludes;
+  private final JarScanCache cache;
+
+  /**
+   * @param includes comma separated patterns, null or empty to include all JARs
+   * @param excludes comma separated patterns, may be null
+   * @param cache    results of earlier scans, may be null
+   */
+  public FilteringJarScanner(String includes, String excludes, JarScanCache cache) {
+    this(new StandardJarScanner(), includes, excludes, cache);
+  }
+
+  public FilteringJarScanner(JarScanner delegate, String includes, String excludes, JarScanCache cache) {
+    this.delegate = delegate;
+    this.includes = compile(includes);
+    this.excludes = compile(excludes);
+    this.cache = cache;
+  }
+
+  @Override
+  public void scan(ServletContext context, ClassLoader classloader, JarScannerCallback callback,
+                   Set<String> jarsToSkip) {
+    delegate.scan(context, classloader, new FilteringCallback(callback), jarsToSkip);
+  }
+
+  /**
+   * @return true if a JAR of this name is passed on to the scanners
+   */
+  public boolean isScanned(String jarName) {
+    if (!includes.isEmpty() && !matchesAny(includes, jarName)) {
+      return false;
+    }
+    return !matchesAny(excludes, jarName);
+  }
+
+  private static boolean matchesAny(List<Pattern> patterns, String name) {
+    for (Pattern pattern : patterns) {
+      if (pattern.matcher(name).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static List<Pattern> compile(String patterns) {
+    List<Pattern> compiled = new ArrayList<Pattern>();
+    if (patterns == null) {
+      return compiled;
+    }
+    for (String glob : patterns.split(",")) {
+      glob = glob.trim();
+      if (glob.length() == 0) {
+        continue;
+      }
+      StringBuilder regex = new StringBuilder();
+      for (String literal : glob.split("(?<=[*?])|(?=[*?])")) {
+        if ("*".equals(literal)) {
+          regex.append(".*");
+        } else if ("?".equals(literal)) {
+          regex.append('.');
+        } else if (literal.length() > 0) {
+          regex.append(Pattern.quote(literal));
+        }
+      }
+      compiled.add(Pattern.compile(regex.toString()));
+    }
+    return compiled;
+  }
+
+  /**
+   * @return true for the callbacks of the TLD scanners of Catalina and Jasper, which are
+   * private classes of the scanners
+   */
+  static boolean isTldScanner(JarScannerCallback callback) {
+    Class<?> scanner = callback.getClass().getEnclosingClass();
+    return scanner == TldConfig.class || scanner == TldLocationsCache.class;
+  }
+
+  private class FilteringCallback implements JarScannerCallback {
+    private final JarScannerCallback callback;
+    private final boolean tldScanner;
+
+    private FilteringCallback(JarScannerCallback callback) {
+      this.callback = callback;
+      this.tldScanner = isTldScanner(callback);
+    }
+
+    @Override
+    public void scan(JarURLConnection urlConn) throws IOException {
+      String path = urlConn.getJarFileURL().getPath();
+      if (!isScanned(path.substring(path.lastIndexOf('/') + 1))) {
+        return;
+      }
+      if (tldScanner && cache != null) {
+        File jar = JarScanCache.toFile(urlConn.getJarFileURL());
+        if (jar != null && !cache.mayContainTlds(jar)) {
+          return;
+        }
+      }
+      callback.scan(urlConn);
+    }
+
+    @Override
+    public void scan(File file) throws IOException {
+      if (isScanned(file.getName())) {
+        callback.scan(file);
+      }
+    }
+  }
+}
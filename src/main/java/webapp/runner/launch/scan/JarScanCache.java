@@ -0,0 +1,237 @@
+package webapp.runner.launch.scan;
+
+import webapp.runner.launch.helper.ZipCentralDirectory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers what the scans at startup found in each JAR, so that JARs without anything of
+ * interest are skipped on the next start. Results are keyed by a checksum of the JAR's
+ * central directory, which contains the CRC of every entry; only the end of a JAR has to
+ * be read to recognize it. The file size and modification time are recorded too, so
+ * unchanged files are not read at all.
+ * <p>
+ * Only JARs on the file system are cached, i.e. those of an exploded webapp or of a WAR
+ * expanded with {@code --expand-war}. The JARs of a packed WAR are always scanned.
+ */
+public class JarScanCache {
+
+  private static final Logger logger = Logger.getLogger(JarScanCache.class.getName());
+
+  private final File file;
+  private final Map<String, Entry> entries = new HashMap<String, Entry>();
+  private final Set<String> used = new HashSet<String>();
+
+  static class Entry {
+    final long length;
+    final long lastModified;
+    final long checksum;
+    final boolean containsTlds;
+    final Set<String> withoutAnnotations = new HashSet<String>();
+
+    Entry(long length, long lastModified, long checksum, boolean containsTlds) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.checksum = checksum;
+      this.containsTlds = containsTlds;
+    }
+  }
+
+  /**
+   * @param file properties file the results are kept in
+   */
+  public JarScanCache(File file) {
+    this.file = file;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public synchronized void load() {
+    entries.clear();
+    if (!file.isFile()) {
+      return;
+    }
+    Properties properties = new Properties();
+    try {
+      InputStream in = new FileInputStream(file);
+      try {
+        properties.load(in);
+      } finally {
+        in.close();
+      }
+      for (String path : properties.stringPropertyNames()) {
+        String[] fields = properties.getProperty(path).split(",", -1);
+        if (fields.length < 5) {
+          continue;
+        }
+        Entry entry = new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                Long.parseLong(fields[2], 16), Boolean.parseBoolean(fields[3]));
+        for (String key : fields[4].split("\\|")) {
+          if (key.length() > 0) {
+            entry.withoutAnnotations.add(key);
+          }
+        }
+        entries.put(path, entry);
+      }
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Ignoring unreadable JAR scan cache " + file, e);
+      entries.clear();
+    }
+  }
+
+  /**
+   * Writes the results of the JARs used since loading; JARs that are gone are dropped.
+   */
+  public synchronized void save() {
+    Properties properties = new Properties();
+    for (String path : used) {
+      Entry entry = entries.get(path);
+      if (entry == null) {
+        continue;
+      }
+      StringBuilder keys = new StringBuilder();
+      for (String key : entry.withoutAnnotations) {
+        if (keys.length() > 0) {
+          keys.append('|');
+        }
+        keys.append(key);
+      }
+      properties.setProperty(path, entry.length + "," + entry.lastModified + "," +
+              Long.toHexString(entry.checksum) + "," + entry.containsTlds + "," + keys);
+    }
+    try {
+      File parent = file.getAbsoluteFile().getParentFile();
+      if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Could not create directory " + parent);
+      }
+      OutputStream out = new FileOutputStream(file);
+      try {
+        properties.store(out, "webapp-runner JAR scan cache");
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Unable to write JAR scan cache " + file, e);
+    }
+  }
+
+  /**
+   * @return false only if the JAR is known to contain no TLD below META-INF
+   */
+  public boolean mayContainTlds(File jar) {
+    Entry entry = entry(jar);
+    return entry == null || entry.containsTlds;
+  }
+
+  /**
+   * @param key identifies what the annotation scan looked for
+   * @return true if an earlier scan for the same key found nothing in this JAR
+   */
+  public synchronized boolean isWithoutAnnotations(File jar, String key) {
+    Entry entry = entry(jar);
+    return entry != null && entry.withoutAnnotations.contains(key);
+  }
+
+  public synchronized void setWithoutAnnotations(File jar, String key) {
+    Entry entry = entry(jar);
+    if (entry != null) {
+      entry.withoutAnnotations.add(key);
+    }
+  }
+
+  /**
+   * @return the entry for the current content of the JAR, or null if it cannot be read
+   */
+  synchronized Entry entry(File jar) {
+    String path = jar.getAbsolutePath();
+    Entry entry = entries.get(path);
+    long length = jar.length();
+    long lastModified = jar.lastModified();
+    if (entry == null || entry.length != length || entry.lastModified != lastModified) {
+      Entry current = read(jar, length, lastModified);
+      if (current == null) {
+        entries.remove(path);
+        return null;
+      }
+      if (entry != null && entry.checksum == current.checksum) {
+        // e.g. a WAR expanded again, the content is the same
+        current.withoutAnnotations.addAll(entry.withoutAnnotations);
+      }
+      entry = current;
+      entries.put(path, entry);
+    }
+    used.add(path);
+    return entry;
+  }
+
+  /**
+   * Reads the central directory of the JAR.
+   */
+  private static Entry read(File jar, long length, long lastModified) {
+    try {
+      ZipCentralDirectory directory = ZipCentralDirectory.read(jar);
+      if (directory == null) {
+        // ZIP64 archives are not cached
+        return null;
+      }
+      return new Entry(length, lastModified, directory.getChecksum(), containsTlds(directory));
+    } catch (IOException e) {
+      logger.log(Level.FINE, "Unable to read " + jar, e);
+      return null;
+    }
+  }
+
+  private static boolean containsTlds(ZipCentralDirectory directory) {
+    for (ZipCentralDirectory.Entry entry : directory.getEntries()) {
+      String name = entry.getName();
+      if (name.startsWith("META-INF/") && name.endsWith(".tld")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the local JAR file of a file or jar URL, or null for anything else, including
+   * the JARs of a packed WAR
+   */
+  static File toFile(URL url) {
+    String spec = url.toString();
+    if (spec.startsWith("jar:")) {
+      int separator = spec.indexOf("!/");
+      if (separator < 0 || separator + 2 < spec.length()) {
+        // JARs nested in an unexpanded WAR
+        return null;
+      }
+      spec = spec.substring(4, separator);
+    }
+    if (!spec.startsWith("file:")) {
+      return null;
+    }
+    try {
+      File file = new File(new URI(spec));
+      return file.isFile() ? file : null;
+    } catch (URISyntaxException e) {
+      return null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,359 @@
+package webapp.runner.launch.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Type tagged binary encoding for the values most sessions consist of: strings, boxed
+ * primitives, dates, byte arrays and the standard collections of them, with variable
+ * length integers and without class descriptors.
+ * <p>
+ * Any other type, a collection or date referenced twice, or very deep nesting falls back
+ * to Java serialization of the whole value, so object identity within a value is always
+ * preserved.
+ */
+public class CompactSessionSerializer implements SessionSerializer {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int MAX_DEPTH = 32;
+
+  private static final int NULL = 0;
+  private static final int STRING = 1;
+  private static final int INTEGER = 2;
+  private static final int LONG = 3;
+  private static final int TRUE = 4;
+  private static final int FALSE = 5;
+  private static final int DOUBLE = 6;
+  private static final int FLOAT = 7;
+  private static final int SHORT = 8;
+  private static final int BYTE = 9;
+  private static final int CHARACTER = 10;
+  private static final int DATE = 11;
+  private static final int BYTES = 12;
+  private static final int BIG_DECIMAL = 13;
+  private static final int BIG_INTEGER = 14;
+  private static final int ARRAY_LIST = 15;
+  private static final int HASH_MAP = 16;
+  private static final int LINKED_HASH_MAP = 17;
+  private static final int HASH_SET = 18;
+  private static final int LINKED_HASH_SET = 19;
+  private static final int JAVA = 20;
+
+  private static final Field ACCESS_ORDER = accessOrderField();
+
+  private final JavaSessionSerializer java = new JavaSessionSerializer();
+
+  /**
+   * Thrown when the value has to be written with Java serialization.
+   */
+  private static class Unsupported extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
+  private static class Output extends ByteArrayOutputStream {
+    Output() {
+      super(256);
+    }
+
+    void writeVarLong(long value) {
+      while ((value & ~0x7FL) != 0) {
+        write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      write((int) value);
+    }
+
+    void writeSignedVarLong(long value) {
+      writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    void writeFixedLong(long value) {
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        write((int) (value >>> shift));
+      }
+    }
+
+    void writeLengthPrefixed(byte[] data) {
+      writeVarLong(data.length);
+      write(data, 0, data.length);
+    }
+  }
+
+  private static class Input {
+    private final byte[] data;
+    private int position;
+
+    Input(byte[] data) {
+      this.data = data;
+    }
+
+    int read() throws IOException {
+      if (position >= data.length) {
+        throw new IOException("Unexpected end of session data");
+      }
+      return data[position++] & 0xFF;
+    }
+
+    long readVarLong() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = read();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed variable length integer");
+    }
+
+    long readSignedVarLong() throws IOException {
+      long value = readVarLong();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    long readFixedLong() throws IOException {
+      long value = 0;
+      for (int i = 0; i < 8; i++) {
+        value = (value << 8) | read();
+      }
+      return value;
+    }
+
+    int readLength() throws IOException {
+      long length = readVarLong();
+      if (length < 0 || length > data.length - position) {
+        throw new IOException("Invalid length " + length);
+      }
+      return (int) length;
+    }
+
+    byte[] readBytes() throws IOException {
+      int length = readLength();
+      byte[] bytes = new byte[length];
+      System.arraycopy(data, position, bytes, 0, length);
+      position += length;
+      return bytes;
+    }
+
+    String readString() throws IOException {
+      int length = readLength();
+      String value = new String(data, position, length, UTF8);
+      position += length;
+      return value;
+    }
+  }
+
+  @Override
+  public byte[] serialize(Object value) throws IOException {
+    Output out = new Output();
+    try {
+      write(out, value, new IdentityHashMap<Object, Boolean>(), 0);
+    } catch (Unsupported e) {
+      out.reset();
+      out.write(JAVA);
+      out.write(java.serialize(value));
+    }
+    return out.toByteArray();
+  }
+
+  private void write(Output out, Object value, IdentityHashMap<Object, Boolean> seen, int depth)
+          throws Unsupported {
+    if (value == null) {
+      out.write(NULL);
+      return;
+    }
+    Class<?> type = value.getClass();
+    if (type == String.class) {
+      out.write(STRING);
+      out.writeLengthPrefixed(((String) value).getBytes(UTF8));
+    } else if (type == Integer.class) {
+      out.write(INTEGER);
+      out.writeSignedVarLong((Integer) value);
+    } else if (type == Long.class) {
+      out.write(LONG);
+      out.writeSignedVarLong((Long) value);
+    } else if (type == Boolean.class) {
+      out.write((Boolean) value ? TRUE : FALSE);
+    } else if (type == Double.class) {
+      out.write(DOUBLE);
+      out.writeFixedLong(Double.doubleToRawLongBits((Double) value));
+    } else if (type == Float.class) {
+      out.write(FLOAT);
+      out.writeVarLong(Float.floatToRawIntBits((Float) value) & 0xFFFFFFFFL);
+    } else if (type == Short.class) {
+      out.write(SHORT);
+      out.writeSignedVarLong((Short) value);
+    } else if (type == Byte.class) {
+      out.write(BYTE);
+      out.write((Byte) value);
+    } else if (type == Character.class) {
+      out.write(CHARACTER);
+      out.writeVarLong((Character) value);
+    } else if (type == BigDecimal.class) {
+      out.write(BIG_DECIMAL);
+      out.writeLengthPrefixed(value.toString().getBytes(UTF8));
+    } else if (type == BigInteger.class) {
+      out.write(BIG_INTEGER);
+      out.writeLengthPrefixed(((BigInteger) value).toByteArray());
+    } else {
+      // mutable values, their identity must be preserved
+      if (seen.put(value, Boolean.TRUE) != null || depth > MAX_DEPTH) {
+        throw new Unsupported();
+      }
+      if (type == Date.class) {
+        out.write(DATE);
+        out.writeSignedVarLong(((Date) value).getTime());
+      } else if (type == byte[].class) {
+        out.write(BYTES);
+        out.writeLengthPrefixed((byte[]) value);
+      } else if (type == ArrayList.class) {
+        writeCollection(out, ARRAY_LIST, (Collection<?>) value, seen, depth);
+      } else if (type == HashSet.class) {
+        writeCollection(out, HASH_SET, (Collection<?>) value, seen, depth);
+      } else if (type == LinkedHashSet.class) {
+        writeCollection(out, LINKED_HASH_SET, (Collection<?>) value, seen, depth);
+      } else if (type == HashMap.class) {
+        writeMap(out, HASH_MAP, (Map<?, ?>) value, seen, depth);
+      } else if (type == LinkedHashMap.class && !isAccessOrdered((LinkedHashMap<?, ?>) value)) {
+        writeMap(out, LINKED_HASH_MAP, (Map<?, ?>) value, seen, depth);
+      } else {
+        throw new Unsupported();
+      }
+    }
+  }
+
+  private void writeCollection(Output out, int tag, Collection<?> values, IdentityHashMap<Object, Boolean> seen,
+                               int depth) throws Unsupported {
+    out.write(tag);
+    out.writeVarLong(values.size());
+    for (Object element : values) {
+      write(out, element, seen, depth + 1);
+    }
+  }
+
+  private void writeMap(Output out, int tag, Map<?, ?> values, IdentityHashMap<Object, Boolean> seen, int depth)
+          throws Unsupported {
+    out.write(tag);
+    out.writeVarLong(values.size());
+    for (Map.Entry<?, ?> entry : values.entrySet()) {
+      write(out, entry.getKey(), seen, depth + 1);
+      write(out, entry.getValue(), seen, depth + 1);
+    }
+  }
+
+  /**
+   * Access order is not visible through the public API; maps whose order cannot be
+   * determined are left to Java serialization.
+   */
+  private static boolean isAccessOrdered(LinkedHashMap<?, ?> map) {
+    if (ACCESS_ORDER == null) {
+      return true;
+    }
+    try {
+      return ACCESS_ORDER.getBoolean(map);
+    } catch (IllegalAccessException e) {
+      return true;
+    }
+  }
+
+  private static Field accessOrderField() {
+    try {
+      Field field = LinkedHashMap.class.getDeclaredField("accessOrder");
+      field.setAccessible(true);
+      return field;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  @Override
+  public Object deserialize(byte[] data, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    if (data.length > 0 && data[0] == JAVA) {
+      return JavaSessionSerializer.readObject(new ByteArrayInputStream(data, 1, data.length - 1), classLoader);
+    }
+    return read(new Input(data));
+  }
+
+  private Object read(Input in) throws IOException {
+    int tag = in.read();
+    switch (tag) {
+      case NULL:
+        return null;
+      case STRING:
+        return in.readString();
+      case INTEGER:
+        return (int) in.readSignedVarLong();
+      case LONG:
+        return in.readSignedVarLong();
+      case TRUE:
+        return Boolean.TRUE;
+      case FALSE:
+        return Boolean.FALSE;
+      case DOUBLE:
+        return Double.longBitsToDouble(in.readFixedLong());
+      case FLOAT:
+        return Float.intBitsToFloat((int) in.readVarLong());
+      case SHORT:
+        return (short) in.readSignedVarLong();
+      case BYTE:
+        return (byte) in.read();
+      case CHARACTER:
+        return (char) in.readVarLong();
+      case DATE:
+        return new Date(in.readSignedVarLong());
+      case BYTES:
+        return in.readBytes();
+      case BIG_DECIMAL:
+        return new BigDecimal(in.readString());
+      case BIG_INTEGER:
+        return new BigInteger(in.readBytes());
+      case ARRAY_LIST:
+        int size = in.readLength();
+        return readCollection(in, size, new ArrayList<Object>(size));
+      case HASH_SET:
+        return readCollection(in, in.readLength(), new HashSet<Object>());
+      case LINKED_HASH_SET:
+        return readCollection(in, in.readLength(), new LinkedHashSet<Object>());
+      case HASH_MAP:
+        return readMap(in, in.readLength(), new HashMap<Object, Object>());
+      case LINKED_HASH_MAP:
+        return readMap(in, in.readLength(), new LinkedHashMap<Object, Object>());
+      default:
+        throw new IOException("Unknown type tag " + tag);
+    }
+  }
+
+  private Object readCollection(Input in, int size, Collection<Object> values) throws IOException {
+    for (int i = 0; i < size; i++) {
+      values.add(read(in));
+    }
+    return values;
+  }
+
+  private Object readMap(Input in, int size, Map<Object, Object> values) throws IOException {
+    for (int i = 0; i < size; i++) {
+      Object key = read(in);
+      values.put(key, read(in));
+    }
+    return values;
+  }
+}
@@ -0,0 +1,116 @@
+package webapp.runner.launch.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates the output of another serializer when it exceeds a threshold. The first byte
+ * tells whether the rest is compressed; compressed output that would not be smaller is
+ * stored as is.
+ */
+public class CompressingSessionSerializer implements SessionSerializer {
+
+  private static final int RAW = 0;
+  private static final int DEFLATED = 1;
+
+  private final SessionSerializer serializer;
+  private final int threshold;
+
+  /**
+   * @param threshold minimum serialized size in bytes that is compressed
+   */
+  public CompressingSessionSerializer(SessionSerializer serializer, int threshold) {
+    this.serializer = serializer;
+    this.threshold = threshold;
+  }
+
+  @Override
+  public byte[] serialize(Object value) throws IOException {
+    byte[] data = serializer.serialize(value);
+    if (data.length >= threshold) {
+      byte[] compressed = deflate(data);
+      if (compressed != null) {
+        return compressed;
+      }
+    }
+    byte[] raw = new byte[data.length + 1];
+    raw[0] = RAW;
+    System.arraycopy(data, 0, raw, 1, data.length);
+    return raw;
+  }
+
+  /**
+   * @return the flag byte, the uncompressed length and the deflated data, or null if that is not smaller
+   */
+  private static byte[] deflate(byte[] data) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+      out.write(DEFLATED);
+      writeInt(out, data.length);
+      byte[] buffer = new byte[Math.min(data.length, 8192) + 64];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+        if (out.size() > data.length) {
+          return null;
+        }
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  @Override
+  public Object deserialize(byte[] data, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    if (data.length == 0) {
+      throw new IOException("Empty session data");
+    }
+    if (data[0] == RAW) {
+      byte[] raw = new byte[data.length - 1];
+      System.arraycopy(data, 1, raw, 0, raw.length);
+      return serializer.deserialize(raw, classLoader);
+    }
+    if (data[0] != DEFLATED || data.length < 5) {
+      throw new IOException("Unknown session data format " + data[0]);
+    }
+    return serializer.deserialize(inflate(data), classLoader);
+  }
+
+  private static byte[] inflate(byte[] data) throws IOException {
+    int length = ((data[1] & 0xFF) << 24) | ((data[2] & 0xFF) << 16) | ((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+    if (length < 0) {
+      throw new IOException("Invalid uncompressed length " + length);
+    }
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data, 5, data.length - 5);
+      byte[] result = new byte[length];
+      int offset = 0;
+      while (offset < length) {
+        int count = inflater.inflate(result, offset, length - offset);
+        if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Truncated compressed session data");
+        }
+        offset += count;
+      }
+      return result;
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt compressed session data: " + e.getMessage());
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+}
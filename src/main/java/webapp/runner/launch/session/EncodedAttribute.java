@@ -0,0 +1,22 @@
+package webapp.runner.launch.session;
+
+import java.io.Serializable;
+
+/**
+ * Session attribute value encoded by a {@link SessionSerializer}. The session manager only
+ * Java serializes this holder and its byte array.
+ */
+public final class EncodedAttribute implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final byte[] data;
+
+  public EncodedAttribute(byte[] data) {
+    this.data = data;
+  }
+
+  public byte[] getData() {
+    return data;
+  }
+}
@@ -0,0 +1,50 @@
+package webapp.runner.launch.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+
+/**
+ * Standard Java serialization, as used by the session managers themselves.
+ */
+public class JavaSessionSerializer implements SessionSerializer {
+
+  @Override
+  public byte[] serialize(Object value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(value);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  @Override
+  public Object deserialize(byte[] data, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    return readObject(new ByteArrayInputStream(data), classLoader);
+  }
+
+  static Object readObject(InputStream in, final ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    ObjectInputStream objects = new ObjectInputStream(in) {
+      @Override
+      protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        if (classLoader == null) {
+          return super.resolveClass(desc);
+        }
+        try {
+          return Class.forName(desc.getName(), false, classLoader);
+        } catch (ClassNotFoundException e) {
+          return super.resolveClass(desc);
+        }
+      }
+    };
+    try {
+      return objects.readObject();
+    } finally {
+      objects.close();
+    }
+  }
+}
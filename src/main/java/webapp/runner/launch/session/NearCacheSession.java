@@ -0,0 +1,132 @@
+package webapp.runner.launch.session;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+import java.util.Enumeration;
+
+/**
+ * Reads session attributes through a {@link SessionNearCache} and writes them through to
+ * the remote session, announcing every change to the other nodes.
+ */
+@SuppressWarnings("deprecation")
+class NearCacheSession implements HttpSession {
+
+  private final HttpSession delegate;
+  private final SessionNearCache cache;
+  private final RedisInvalidationChannel channel;
+
+  NearCacheSession(HttpSession delegate, SessionNearCache cache, RedisInvalidationChannel channel) {
+    this.delegate = delegate;
+    this.cache = cache;
+    this.channel = channel;
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    String id = delegate.getId();
+    Object value = cache.get(id, name);
+    if (value == null) {
+      // taken before the read, so that an invalidation during the read drops the value
+      SessionNearCache.CachedSession session = cache.session(id);
+      value = delegate.getAttribute(name);
+      cache.put(session, name, value);
+      return value;
+    }
+    return value == SessionNearCache.ABSENT ? null : value;
+  }
+
+  @Override
+  public void setAttribute(String name, Object value) {
+    delegate.setAttribute(name, value);
+    cache.put(delegate.getId(), name, value);
+    changed();
+  }
+
+  @Override
+  public void removeAttribute(String name) {
+    delegate.removeAttribute(name);
+    cache.put(delegate.getId(), name, null);
+    changed();
+  }
+
+  @Override
+  public void invalidate() {
+    String id = delegate.getId();
+    cache.invalidate(id);
+    delegate.invalidate();
+    if (channel != null) {
+      channel.publish(id);
+    }
+  }
+
+  private void changed() {
+    if (channel != null) {
+      channel.publish(delegate.getId());
+    }
+  }
+
+  @Override
+  public Object getValue(String name) {
+    return getAttribute(name);
+  }
+
+  @Override
+  public void putValue(String name, Object value) {
+    setAttribute(name, value);
+  }
+
+  @Override
+  public void removeValue(String name) {
+    removeAttribute(name);
+  }
+
+  @Override
+  public Enumeration<String> getAttributeNames() {
+    return delegate.getAttributeNames();
+  }
+
+  @Override
+  public String[] getValueNames() {
+    return delegate.getValueNames();
+  }
+
+  @Override
+  public long getCreationTime() {
+    return delegate.getCreationTime();
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public long getLastAccessedTime() {
+    return delegate.getLastAccessedTime();
+  }
+
+  @Override
+  public ServletContext getServletContext() {
+    return delegate.getServletContext();
+  }
+
+  @Override
+  public void setMaxInactiveInterval(int interval) {
+    delegate.setMaxInactiveInterval(interval);
+  }
+
+  @Override
+  public int getMaxInactiveInterval() {
+    return delegate.getMaxInactiveInterval();
+  }
+
+  @Override
+  public javax.servlet.http.HttpSessionContext getSessionContext() {
+    return delegate.getSessionContext();
+  }
+
+  @Override
+  public boolean isNew() {
+    return delegate.isNew();
+  }
+}
@@ -0,0 +1,227 @@
+package webapp.runner.launch.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps byte arrays outside of the Java heap, either in direct buffers or in a memory
+ * mapped file. Memory is handed out in fixed size blocks from segments that are allocated
+ * on demand up to the configured capacity. When the capacity is exhausted the least
+ * recently used entries are evicted.
+ */
+public class OffHeapBlockStore {
+
+  public static final int DEFAULT_BLOCK_SIZE = 1024;
+  private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private final int blockSize;
+  private final int blocksPerSegment;
+  private final int totalBlocks;
+  private final long capacity;
+  private final RandomAccessFile mappedFile;
+  private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+
+  private int[] freeBlocks;
+  private int freeCount;
+  private int allocatedBlocks;
+  private long evictionCount;
+
+  private static class Entry {
+    private final int[] blocks;
+    private final int length;
+    private final long expiresAt;
+
+    private Entry(int[] blocks, int length, long expiresAt) {
+      this.blocks = blocks;
+      this.length = length;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * @param capacity  maximum number of bytes held outside of the heap
+   * @param blockSize allocation unit, entries use a multiple of it
+   * @param file      file to map the memory from, or null to use direct buffers
+   */
+  public OffHeapBlockStore(long capacity, int blockSize, File file) throws IOException {
+    if (blockSize <= 0 || blockSize > SEGMENT_SIZE) {
+      throw new IllegalArgumentException("Invalid block size " + blockSize);
+    }
+    this.blockSize = blockSize;
+    this.blocksPerSegment = SEGMENT_SIZE / blockSize;
+    this.totalBlocks = (int) Math.min(Integer.MAX_VALUE, capacity / blockSize);
+    this.capacity = (long) totalBlocks * blockSize;
+    this.freeBlocks = new int[Math.max(16, Math.min(totalBlocks, 1024))];
+    if (file != null) {
+      File parent = file.getAbsoluteFile().getParentFile();
+      if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Could not create directory " + parent);
+      }
+      this.mappedFile = new RandomAccessFile(file, "rw");
+      this.mappedFile.setLength(0);
+    } else {
+      this.mappedFile = null;
+    }
+  }
+
+  /**
+   * Stores the data, replacing an existing entry and evicting least recently used ones
+   * if necessary.
+   *
+   * @param expiresAt time in milliseconds after which the entry is reported by {@link #expiredKeys(long)}, 0 for never
+   * @return false if the data is larger than the whole store
+   */
+  public synchronized boolean put(String key, byte[] data, long expiresAt) throws IOException {
+    release(entries.remove(key));
+
+    int needed = (data.length + blockSize - 1) / blockSize;
+    if (needed > totalBlocks) {
+      return false;
+    }
+    while (availableBlocks() < needed) {
+      Iterator<Entry> eldest = entries.values().iterator();
+      release(eldest.next());
+      eldest.remove();
+      evictionCount++;
+    }
+
+    int[] blocks = new int[needed];
+    for (int i = 0; i < needed; i++) {
+      blocks[i] = allocateBlock();
+      int offset = i * blockSize;
+      buffer(blocks[i]).put(data, offset, Math.min(blockSize, data.length - offset));
+    }
+    entries.put(key, new Entry(blocks, data.length, expiresAt));
+    return true;
+  }
+
+  /**
+   * @return a copy of the stored data, or null if there is no entry for the key
+   */
+  public synchronized byte[] get(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    byte[] data = new byte[entry.length];
+    for (int i = 0; i < entry.blocks.length; i++) {
+      int offset = i * blockSize;
+      buffer(entry.blocks[i]).get(data, offset, Math.min(blockSize, data.length - offset));
+    }
+    return data;
+  }
+
+  public synchronized boolean remove(String key) {
+    Entry entry = entries.remove(key);
+    release(entry);
+    return entry != null;
+  }
+
+  public synchronized void clear() {
+    for (Entry entry : entries.values()) {
+      release(entry);
+    }
+    entries.clear();
+  }
+
+  public synchronized String[] keys() {
+    return entries.keySet().toArray(new String[entries.size()]);
+  }
+
+  public synchronized String[] expiredKeys(long now) {
+    List<String> expired = new ArrayList<String>();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      long expiresAt = entry.getValue().expiresAt;
+      if (expiresAt > 0 && expiresAt <= now) {
+        expired.add(entry.getKey());
+      }
+    }
+    return expired.toArray(new String[expired.size()]);
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  public synchronized long getUsedBytes() {
+    return (long) (allocatedBlocks - freeCount) * blockSize;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  public synchronized void close() throws IOException {
+    entries.clear();
+    segments.clear();
+    freeCount = 0;
+    allocatedBlocks = 0;
+    if (mappedFile != null) {
+      mappedFile.close();
+    }
+  }
+
+  private int availableBlocks() {
+    return freeCount + (totalBlocks - allocatedBlocks);
+  }
+
+  private int allocateBlock() throws IOException {
+    if (freeCount > 0) {
+      return freeBlocks[--freeCount];
+    }
+    int block = allocatedBlocks++;
+    if (block / blocksPerSegment >= segments.size()) {
+      segments.add(allocateSegment(segments.size()));
+    }
+    return block;
+  }
+
+  private ByteBuffer allocateSegment(int index) throws IOException {
+    int remainingBlocks = totalBlocks - index * blocksPerSegment;
+    int size = Math.min(blocksPerSegment, remainingBlocks) * blockSize;
+    if (mappedFile == null) {
+      return ByteBuffer.allocateDirect(size);
+    }
+    return mappedFile.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) index * blocksPerSegment * blockSize, size);
+  }
+
+  private void release(Entry entry) {
+    if (entry == null) {
+      return;
+    }
+    if (freeCount + entry.blocks.length > freeBlocks.length) {
+      int size = freeBlocks.length;
+      while (size < freeCount + entry.blocks.length) {
+        size *= 2;
+      }
+      int[] grown = new int[size];
+      System.arraycopy(freeBlocks, 0, grown, 0, freeCount);
+      freeBlocks = grown;
+    }
+    for (int block : entry.blocks) {
+      freeBlocks[freeCount++] = block;
+    }
+  }
+
+  /**
+   * @return a view positioned at the start of the block; only used while holding the lock
+   */
+  private ByteBuffer buffer(int block) {
+    ByteBuffer view = segments.get(block / blocksPerSegment).duplicate();
+    view.position((block % blocksPerSegment) * blockSize);
+    return view;
+  }
+}
@@ -0,0 +1,164 @@
+package webapp.runner.launch.session;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Loader;
+import org.apache.catalina.Session;
+import org.apache.catalina.session.PersistentManagerBase;
+import org.apache.catalina.session.StandardSession;
+import org.apache.catalina.session.StoreBase;
+import org.apache.catalina.util.CustomObjectInputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Session {@link org.apache.catalina.Store} that keeps serialized sessions in an
+ * {@link OffHeapBlockStore}. Used with a {@link org.apache.catalina.session.PersistentManager},
+ * idle sessions are swapped out of the heap and loaded again on their next request.
+ */
+public class OffHeapStore extends StoreBase {
+
+  private static final Logger logger = Logger.getLogger(OffHeapStore.class.getName());
+
+  protected static final String info = "OffHeapStore/1.0";
+  protected static final String storeName = "offHeapStore";
+
+  private final OffHeapBlockStore blocks;
+
+  public OffHeapStore(OffHeapBlockStore blocks) {
+    this.blocks = blocks;
+  }
+
+  public OffHeapBlockStore getBlocks() {
+    return blocks;
+  }
+
+  @Override
+  public String getInfo() {
+    return info;
+  }
+
+  @Override
+  public String getStoreName() {
+    return storeName;
+  }
+
+  @Override
+  public int getSize() throws IOException {
+    return blocks.getEntryCount();
+  }
+
+  @Override
+  public String[] keys() throws IOException {
+    return blocks.keys();
+  }
+
+  @Override
+  public Session load(String id) throws ClassNotFoundException, IOException {
+    byte[] data = blocks.get(id);
+    if (data == null) {
+      return null;
+    }
+
+    ClassLoader classLoader = null;
+    Container container = manager.getContainer();
+    if (container != null) {
+      Loader loader = container.getLoader();
+      if (loader != null) {
+        classLoader = loader.getClassLoader();
+      }
+    }
+    ByteArrayInputStream bis = new ByteArrayInputStream(data);
+    ObjectInputStream ois = classLoader != null ? new CustomObjectInputStream(bis, classLoader) : new ObjectInputStream(bis);
+    try {
+      StandardSession session = (StandardSession) manager.createEmptySession();
+      session.readObjectData(ois);
+      session.setManager(manager);
+      return session;
+    } finally {
+      ois.close();
+    }
+  }
+
+  @Override
+  public void remove(String id) throws IOException {
+    blocks.remove(id);
+  }
+
+  @Override
+  public void clear() throws IOException {
+    blocks.clear();
+  }
+
+  @Override
+  public void save(Session session) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(bos));
+    try {
+      ((StandardSession) session).writeObjectData(oos);
+    } finally {
+      oos.close();
+    }
+
+    long expiresAt = 0;
+    if (session.getMaxInactiveInterval() > 0) {
+      expiresAt = session.getThisAccessedTimeInternal() + session.getMaxInactiveInterval() * 1000L;
+    }
+    if (!blocks.put(session.getIdInternal(), bos.toByteArray(), expiresAt)) {
+      logger.warning("Session " + session.getIdInternal() + " of " + bos.size() +
+              " bytes exceeds the off-heap session store capacity and was not stored");
+    }
+  }
+
+  /**
+   * Expires sessions without deserializing the ones that are still valid; only sessions
+   * whose recorded expiry has passed are loaded to notify their listeners.
+   */
+  @Override
+  public void processExpires() {
+    if (!getState().isAvailable()) {
+      return;
+    }
+    for (String id : blocks.expiredKeys(System.currentTimeMillis())) {
+      try {
+        StandardSession session = (StandardSession) load(id);
+        if (session == null || session.isValid()) {
+          continue;
+        }
+        if (((PersistentManagerBase) manager).isLoaded(id)) {
+          // recycle old backup session
+          session.recycle();
+        } else {
+          // expire swapped out session
+          session.expire();
+        }
+        remove(id);
+      } catch (Exception e) {
+        logger.log(Level.WARNING, "Unable to expire off-heap session " + id, e);
+        blocks.remove(id);
+      }
+    }
+  }
+
+  @Override
+  protected synchronized void stopInternal() throws LifecycleException {
+    super.stopInternal();
+    blocks.clear();
+  }
+
+  @Override
+  protected void destroyInternal() {
+    try {
+      blocks.close();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Unable to close the off-heap session store", e);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package webapp.runner.launch.session;
+
+import webapp.runner.launch.jfr.FlightRecorderEvents;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+import java.util.Enumeration;
+
+/**
+ * Emits a flight recorder event for every attribute read from and written to the remote
+ * session. The size is known for values encoded by a {@link SessionSerializer}, others are
+ * recorded with a size of -1.
+ */
+@SuppressWarnings("deprecation")
+class RecordingSession implements HttpSession {
+
+  private final HttpSession delegate;
+  private final String backend;
+
+  RecordingSession(HttpSession delegate, String backend) {
+    this.delegate = delegate;
+    this.backend = backend;
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    FlightRecorderEvents.Event event = FlightRecorderEvents.begin(FlightRecorderEvents.Type.SESSION_STORE);
+    Object value = delegate.getAttribute(name);
+    if (event != null) {
+      event.commit(backend, "load", size(value));
+    }
+    return value;
+  }
+
+  @Override
+  public void setAttribute(String name, Object value) {
+    FlightRecorderEvents.Event event = FlightRecorderEvents.begin(FlightRecorderEvents.Type.SESSION_STORE);
+    delegate.setAttribute(name, value);
+    if (event != null) {
+      event.commit(backend, "save", size(value));
+    }
+  }
+
+  @Override
+  public void removeAttribute(String name) {
+    FlightRecorderEvents.Event event = FlightRecorderEvents.begin(FlightRecorderEvents.Type.SESSION_STORE);
+    delegate.removeAttribute(name);
+    if (event != null) {
+      event.commit(backend, "save", 0L);
+    }
+  }
+
+  private static long size(Object value) {
+    if (value == null) {
+      return 0;
+    }
+    return value instanceof EncodedAttribute ? ((EncodedAttribute) value).getData().length : -1;
+  }
+
+  @Override
+  public void invalidate() {
+    delegate.invalidate();
+  }
+
+  @Override
+  public Object getValue(String name) {
+    return getAttribute(name);
+  }
+
+  @Override
+  public void putValue(String name, Object value) {
+    setAttribute(name, value);
+  }
+
+  @Override
+  public void removeValue(String name) {
+    removeAttribute(name);
+  }
+
+  @Override
+  public Enumeration<String> getAttributeNames() {
+    return delegate.getAttributeNames();
+  }
+
+  @Override
+  public String[] getValueNames() {
+    return delegate.getValueNames();
+  }
+
+  @Override
+  public long getCreationTime() {
+    return delegate.getCreationTime();
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public long getLastAccessedTime() {
+    return delegate.getLastAccessedTime();
+  }
+
+  @Override
+  public ServletContext getServletContext() {
+    return delegate.getServletContext();
+  }
+
+  @Override
+  public void setMaxInactiveInterval(int interval) {
+    delegate.setMaxInactiveInterval(interval);
+  }
+
+  @Override
+  public int getMaxInactiveInterval() {
+    return delegate.getMaxInactiveInterval();
+  }
+
+  @Override
+  public javax.servlet.http.HttpSessionContext getSessionContext() {
+    return delegate.getSessionContext();
+  }
+
+  @Override
+  public boolean isNew() {
+    return delegate.isNew();
+  }
+}
@@ -0,0 +1,214 @@
+package webapp.runner.launch.session;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Announces session changes to the other nodes through a Redis pub/sub channel and drops
+ * cached sessions changed elsewhere. Keyspace notifications are not used because the
+ * session manager updates bookkeeping keys such as the last access time on every request,
+ * which would invalidate every cached session all the time.
+ * <p>
+ * Announcements are published by a background thread, so request threads never wait on
+ * Redis. While the subscription is down, changes may be missed, so the whole cache is
+ * cleared whenever it is (re)established.
+ */
+public class RedisInvalidationChannel {
+
+  private static final Logger logger = Logger.getLogger(RedisInvalidationChannel.class.getName());
+
+  public static final String CHANNEL = "webapp-runner:session-invalidation";
+  private static final long RECONNECT_DELAY = 5000;
+  private static final int MAX_PENDING = 10000;
+
+  private final String host;
+  private final int port;
+  private final String password;
+  private final SessionNearCache cache;
+  private final String nodeId = UUID.randomUUID().toString();
+  private final BlockingQueue<String> pending = new LinkedBlockingQueue<String>(MAX_PENDING);
+  private volatile boolean running;
+  private volatile Subscriber subscriber;
+  private Thread subscriberThread;
+  private Thread publisherThread;
+
+  public RedisInvalidationChannel(String host, int port, String password, SessionNearCache cache) {
+    this.host = host;
+    this.port = port;
+    this.password = password;
+    this.cache = cache;
+  }
+
+  /**
+   * Queues an announcement that the session changed on this node.
+   */
+  public void publish(String sessionId) {
+    if (running && !pending.offer(sessionId)) {
+      logger.fine("Invalidation queue full, other nodes rely on the near-cache time to live for " + sessionId);
+    }
+  }
+
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    subscriberThread = startThread("redis-session-invalidation-subscriber", new Runnable() {
+      @Override
+      public void run() {
+        subscribe();
+      }
+    });
+    publisherThread = startThread("redis-session-invalidation-publisher", new Runnable() {
+      @Override
+      public void run() {
+        publishPending();
+      }
+    });
+  }
+
+  public synchronized void stop() {
+    running = false;
+    Subscriber current = subscriber;
+    if (current != null && current.isSubscribed()) {
+      current.unsubscribe();
+    }
+    if (subscriberThread != null) {
+      subscriberThread.interrupt();
+      subscriberThread = null;
+    }
+    if (publisherThread != null) {
+      publisherThread.interrupt();
+      publisherThread = null;
+    }
+    pending.clear();
+  }
+
+  private Thread startThread(String name, Runnable runnable) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  private Jedis connect() {
+    Jedis jedis = new Jedis(host, port);
+    if (password != null) {
+      jedis.auth(password);
+    }
+    return jedis;
+  }
+
+  private void subscribe() {
+    while (running) {
+      Jedis jedis = null;
+      try {
+        jedis = connect();
+        subscriber = new Subscriber();
+        cache.clear();
+        jedis.subscribe(subscriber, CHANNEL);
+      } catch (Exception e) {
+        if (running) {
+          logger.log(Level.WARNING, "Redis session invalidation subscription failed, retrying in " +
+                  RECONNECT_DELAY + "ms", e);
+        }
+      } finally {
+        subscriber = null;
+        cache.clear();
+        disconnect(jedis);
+      }
+      if (!pause()) {
+        return;
+      }
+    }
+  }
+
+  private void publishPending() {
+    while (running) {
+      Jedis jedis = null;
+      try {
+        jedis = connect();
+        while (running) {
+          String sessionId = pending.poll(1, TimeUnit.SECONDS);
+          if (sessionId != null) {
+            jedis.publish(CHANNEL, nodeId + ' ' + sessionId);
+          }
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception e) {
+        if (running) {
+          logger.log(Level.WARNING, "Publishing session invalidations failed, retrying in " +
+                  RECONNECT_DELAY + "ms", e);
+        }
+      } finally {
+        disconnect(jedis);
+      }
+      if (!pause()) {
+        return;
+      }
+    }
+  }
+
+  private boolean pause() {
+    if (!running) {
+      return false;
+    }
+    try {
+      Thread.sleep(RECONNECT_DELAY);
+      return true;
+    } catch (InterruptedException e) {
+      return false;
+    }
+  }
+
+  private void disconnect(Jedis jedis) {
+    if (jedis == null) {
+      return;
+    }
+    try {
+      jedis.disconnect();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
+  private class Subscriber extends JedisPubSub {
+
+    @Override
+    public void onMessage(String channel, String message) {
+      int separator = message.indexOf(' ');
+      boolean ownChange = separator == nodeId.length() && message.startsWith(nodeId);
+      if (separator > 0 && !ownChange) {
+        cache.invalidate(message.substring(separator + 1));
+      }
+    }
+
+    @Override
+    public void onPMessage(String pattern, String channel, String message) {
+    }
+
+    @Override
+    public void onSubscribe(String channel, int subscribedChannels) {
+    }
+
+    @Override
+    public void onUnsubscribe(String channel, int subscribedChannels) {
+    }
+
+    @Override
+    public void onPUnsubscribe(String pattern, int subscribedChannels) {
+    }
+
+    @Override
+    public void onPSubscribe(String pattern, int subscribedChannels) {
+    }
+  }
+}
@@ -0,0 +1,201 @@
+package webapp.runner.launch.session;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.deploy.FilterDef;
+import org.apache.catalina.deploy.FilterMap;
+import webapp.runner.launch.helper.Checkpoint;
+import webapp.runner.launch.jfr.FlightRecorderEvents;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+
+/**
+ * Wraps each request so that the application sees its session through a
+ * {@link SessionNearCache}, a {@link SessionWriteBehindQueue} and/or a
+ * {@link SessionSerializer}. Installed as the first filter of the context, so it works
+ * with any remote session manager. Its connections to Redis are closed for a checkpoint.
+ */
+public class RemoteSessionFilter implements Filter, Checkpoint.Participant {
+
+  public static final String FILTER_NAME = "webappRunnerRemoteSession";
+
+  private final SessionNearCache cache;
+  private final RedisInvalidationChannel channel;
+  private final SessionWriteBehindQueue writeBehind;
+  private final SessionSerializer serializer;
+  private String eventBackend;
+
+  /**
+   * @param cache       caches attribute reads, may be null
+   * @param channel     exchanges invalidations with the other nodes, may be null to rely on the time to live only
+   * @param writeBehind delays and coalesces attribute writes, may be null to write through
+   * @param serializer  encodes attribute values for the session manager, may be null to store them as they are
+   */
+  public RemoteSessionFilter(SessionNearCache cache, RedisInvalidationChannel channel,
+                             SessionWriteBehindQueue writeBehind, SessionSerializer serializer) {
+    this.cache = cache;
+    this.channel = channel;
+    this.writeBehind = writeBehind;
+    this.serializer = serializer;
+    if (writeBehind != null && channel != null) {
+      // other nodes must not reload the session before the change reached the backend
+      writeBehind.setListener(new SessionWriteBehindQueue.WriteListener() {
+        @Override
+        public void written(String sessionId) {
+          RemoteSessionFilter.this.channel.publish(sessionId);
+        }
+      });
+    }
+  }
+
+  public SessionNearCache getCache() {
+    return cache;
+  }
+
+  public SessionWriteBehindQueue getWriteBehind() {
+    return writeBehind;
+  }
+
+  /**
+   * Emits the attribute reads and writes reaching the session manager as flight recorder
+   * events, if they are enabled.
+   *
+   * @param backend name of the session store in the events
+   */
+  public void setEventBackend(String backend) {
+    this.eventBackend = backend;
+  }
+
+  /**
+   * Adds the filter in front of all filters of the context.
+   */
+  public void addTo(Context ctx) {
+    FilterDef filterDef = new FilterDef();
+    filterDef.setFilterName(FILTER_NAME);
+    filterDef.setFilterClass(getClass().getName());
+    filterDef.setFilter(this);
+    filterDef.setAsyncSupported("true");
+    ctx.addFilterDef(filterDef);
+
+    FilterMap filterMap = new FilterMap();
+    filterMap.setFilterName(FILTER_NAME);
+    filterMap.addURLPattern("/*");
+    filterMap.setDispatcher(DispatcherType.REQUEST.name());
+    filterMap.setDispatcher(DispatcherType.ASYNC.name());
+    ctx.addFilterMapBefore(filterMap);
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) throws ServletException {
+    start();
+    Checkpoint.register(this);
+  }
+
+  private void start() {
+    if (channel != null) {
+      channel.start();
+    }
+    if (writeBehind != null) {
+      writeBehind.start();
+    }
+  }
+
+  private void stop() {
+    // pending writes go out while the session manager is still running
+    if (writeBehind != null) {
+      writeBehind.stop();
+    }
+    if (channel != null) {
+      channel.stop();
+    }
+  }
+
+  @Override
+  public void beforeCheckpoint() {
+    stop();
+  }
+
+  @Override
+  public void afterRestore() {
+    start();
+  }
+
+  /**
+   * Wraps the session of the session manager, starting with the layer next to it. Events are
+   * recorded next to the session manager, so they cover what actually reaches the session
+   * store: near-cache hits and writes handed to the write-behind queue are not recorded, the
+   * writes of the queue are, on the thread that flushes them.
+   */
+  HttpSession wrap(HttpSession container) {
+    HttpSession session = container;
+    if (eventBackend != null && FlightRecorderEvents.isEnabled()) {
+      session = new RecordingSession(session, eventBackend);
+    }
+    if (serializer != null) {
+      session = new SerializingSession(session, serializer);
+    }
+    if (writeBehind != null) {
+      // the queue writes to the layers below it
+      session = new WriteBehindSession(session, writeBehind);
+    }
+    if (cache != null) {
+      session = new NearCacheSession(session, cache, writeBehind == null ? channel : null);
+    }
+    return session;
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+          throws IOException, ServletException {
+    if (request instanceof HttpServletRequest) {
+      chain.doFilter(new RemoteSessionRequest((HttpServletRequest) request), response);
+    } else {
+      chain.doFilter(request, response);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    Checkpoint.unregister(this);
+    stop();
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  private class RemoteSessionRequest extends HttpServletRequestWrapper {
+    private HttpSession current;
+    private HttpSession session;
+
+    private RemoteSessionRequest(HttpServletRequest request) {
+      super(request);
+    }
+
+    @Override
+    public HttpSession getSession() {
+      return getSession(true);
+    }
+
+    @Override
+    public HttpSession getSession(boolean create) {
+      HttpSession container = super.getSession(create);
+      if (container == null) {
+        return null;
+      }
+      if (session == null || current != container) {
+        current = container;
+        session = wrap(container);
+      }
+      return session;
+    }
+  }
+}
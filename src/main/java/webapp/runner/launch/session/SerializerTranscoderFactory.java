@@ -0,0 +1,116 @@
+package webapp.runner.launch.session;
+
+import de.javakaffee.web.msm.JavaSerializationTranscoderFactory;
+import de.javakaffee.web.msm.MemcachedBackupSession;
+import de.javakaffee.web.msm.MemcachedSessionService.SessionManager;
+import de.javakaffee.web.msm.SessionAttributesTranscoder;
+import de.javakaffee.web.msm.TranscoderFactory;
+import org.apache.catalina.Container;
+import org.apache.catalina.Loader;
+import webapp.runner.launch.jfr.FlightRecorderEvents;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lets the memcached session manager serialize session attributes with the
+ * {@link SessionSerializer} of a {@link SerializingMemcachedSessionManager}. The manager
+ * instantiates this class by name, so the serializer is taken from the manager passed to
+ * {@link #createTranscoder(SessionManager)}. Serialization and deserialization are emitted
+ * as flight recorder events if they are enabled; the memcache access itself is not part
+ * of them.
+ */
+public class SerializerTranscoderFactory implements TranscoderFactory {
+
+  @Override
+  public SessionAttributesTranscoder createTranscoder(SessionManager manager) {
+    SessionSerializer serializer = manager instanceof SerializingMemcachedSessionManager ?
+            ((SerializingMemcachedSessionManager) manager).getSessionSerializer() : null;
+    SessionAttributesTranscoder transcoder = serializer == null ?
+            new JavaSerializationTranscoderFactory().createTranscoder(manager) : new Transcoder(serializer, manager);
+    return FlightRecorderEvents.isEnabled() ? new RecordingTranscoder(transcoder) : transcoder;
+  }
+
+  @Override
+  public void setCopyCollectionsForSerialization(boolean copyCollectionsForSerialization) {
+    // attributes are always copied into a new map before they are serialized
+  }
+
+  @Override
+  public void setCustomConverterClassNames(String[] customConverterClassNames) {
+    // not supported
+  }
+
+  private static class Transcoder implements SessionAttributesTranscoder {
+    private final SessionSerializer serializer;
+    private final SessionManager manager;
+
+    private Transcoder(SessionSerializer serializer, SessionManager manager) {
+      this.serializer = serializer;
+      this.manager = manager;
+    }
+
+    @Override
+    public byte[] serializeAttributes(MemcachedBackupSession session, Map<String, Object> attributes) {
+      try {
+        return serializer.serialize(new HashMap<String, Object>(attributes));
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Unable to serialize attributes of session " + session.getIdInternal(), e);
+      }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> deserializeAttributes(byte[] data) {
+      try {
+        Map<String, Object> attributes = (Map<String, Object>) serializer.deserialize(data, classLoader());
+        return new ConcurrentHashMap<String, Object>(attributes);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to deserialize session attributes", e);
+      } catch (ClassNotFoundException e) {
+        throw new IllegalStateException("Unable to deserialize session attributes", e);
+      }
+    }
+
+    private ClassLoader classLoader() {
+      Container container = manager.getContainer();
+      if (container != null) {
+        Loader loader = container.getLoader();
+        if (loader != null) {
+          return loader.getClassLoader();
+        }
+      }
+      return Thread.currentThread().getContextClassLoader();
+    }
+  }
+
+  private static class RecordingTranscoder implements SessionAttributesTranscoder {
+    private final SessionAttributesTranscoder transcoder;
+
+    private RecordingTranscoder(SessionAttributesTranscoder transcoder) {
+      this.transcoder = transcoder;
+    }
+
+    @Override
+    public byte[] serializeAttributes(MemcachedBackupSession session, Map<String, Object> attributes) {
+      FlightRecorderEvents.Event event = FlightRecorderEvents.begin(FlightRecorderEvents.Type.SESSION_SERIALIZATION);
+      byte[] data = transcoder.serializeAttributes(session, attributes);
+      if (event != null) {
+        event.commit("serialize", (long) data.length);
+      }
+      return data;
+    }
+
+    @Override
+    public Map<String, Object> deserializeAttributes(byte[] data) {
+      FlightRecorderEvents.Event event = FlightRecorderEvents.begin(FlightRecorderEvents.Type.SESSION_SERIALIZATION);
+      Map<String, Object> attributes = transcoder.deserializeAttributes(data);
+      if (event != null) {
+        event.commit("deserialize", (long) data.length);
+      }
+      return attributes;
+    }
+  }
+}
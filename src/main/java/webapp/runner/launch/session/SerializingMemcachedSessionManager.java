@@ -0,0 +1,24 @@
+package webapp.runner.launch.session;
+
+import de.javakaffee.web.msm.MemcachedBackupSessionManager;
+
+/**
+ * Memcached session manager that carries the {@link SessionSerializer} of its context. The
+ * manager creates its {@link SerializerTranscoderFactory} by class name, so the factory
+ * looks the serializer up on the manager it creates a transcoder for.
+ */
+public class SerializingMemcachedSessionManager extends MemcachedBackupSessionManager {
+
+  private volatile SessionSerializer sessionSerializer;
+
+  public SessionSerializer getSessionSerializer() {
+    return sessionSerializer;
+  }
+
+  /**
+   * @param sessionSerializer the serializer, or null for the manager's own Java serialization
+   */
+  public void setSessionSerializer(SessionSerializer sessionSerializer) {
+    this.sessionSerializer = sessionSerializer;
+  }
+}
@@ -0,0 +1,132 @@
+package webapp.runner.launch.session;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.util.Enumeration;
+
+/**
+ * Stores attribute values in the remote session as {@link EncodedAttribute}s produced by a
+ * {@link SessionSerializer}. Values written before the serializer was enabled are read as they are.
+ */
+@SuppressWarnings("deprecation")
+class SerializingSession implements HttpSession {
+
+  private final HttpSession delegate;
+  private final SessionSerializer serializer;
+
+  SerializingSession(HttpSession delegate, SessionSerializer serializer) {
+    this.delegate = delegate;
+    this.serializer = serializer;
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    Object value = delegate.getAttribute(name);
+    if (!(value instanceof EncodedAttribute)) {
+      return value;
+    }
+    try {
+      return serializer.deserialize(((EncodedAttribute) value).getData(),
+              Thread.currentThread().getContextClassLoader());
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read session attribute " + name, e);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException("Unable to read session attribute " + name, e);
+    }
+  }
+
+  @Override
+  public void setAttribute(String name, Object value) {
+    delegate.setAttribute(name, encode(serializer, name, value));
+  }
+
+  /**
+   * @return the encoded value; null and already encoded values are returned as they are
+   */
+  static Object encode(SessionSerializer serializer, String name, Object value) {
+    if (value == null || value instanceof EncodedAttribute) {
+      return value;
+    }
+    try {
+      return new EncodedAttribute(serializer.serialize(value));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to write session attribute " + name, e);
+    }
+  }
+
+  @Override
+  public void removeAttribute(String name) {
+    delegate.removeAttribute(name);
+  }
+
+  @Override
+  public void invalidate() {
+    delegate.invalidate();
+  }
+
+  @Override
+  public Object getValue(String name) {
+    return getAttribute(name);
+  }
+
+  @Override
+  public void putValue(String name, Object value) {
+    setAttribute(name, value);
+  }
+
+  @Override
+  public void removeValue(String name) {
+    removeAttribute(name);
+  }
+
+  @Override
+  public Enumeration<String> getAttributeNames() {
+    return delegate.getAttributeNames();
+  }
+
+  @Override
+  public String[] getValueNames() {
+    return delegate.getValueNames();
+  }
+
+  @Override
+  public long getCreationTime() {
+    return delegate.getCreationTime();
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public long getLastAccessedTime() {
+    return delegate.getLastAccessedTime();
+  }
+
+  @Override
+  public ServletContext getServletContext() {
+    return delegate.getServletContext();
+  }
+
+  @Override
+  public void setMaxInactiveInterval(int interval) {
+    delegate.setMaxInactiveInterval(interval);
+  }
+
+  @Override
+  public int getMaxInactiveInterval() {
+    return delegate.getMaxInactiveInterval();
+  }
+
+  @Override
+  public javax.servlet.http.HttpSessionContext getSessionContext() {
+    return delegate.getSessionContext();
+  }
+
+  @Override
+  public boolean isNew() {
+    return delegate.isNew();
+  }
+}
@@ -0,0 +1,168 @@
+package webapp.runner.launch.session;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-JVM cache of recently read session attributes of a remote session store. Entries
+ * live at most for the configured time to live and are dropped early when the backend
+ * reports a change. The cache holds at most the configured number of sessions; beyond
+ * that the least recently used ones are removed.
+ */
+public class SessionNearCache {
+
+  /**
+   * Marks attributes known to be absent from the remote session.
+   */
+  static final Object ABSENT = new Object();
+
+  private final int maxSessions;
+  private final long timeToLive;
+  private final ConcurrentMap<String, CachedSession> sessions = new ConcurrentHashMap<String, CachedSession>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  static class CachedSession {
+    final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+    final long loadedAt;
+    volatile long lastAccessed;
+
+    CachedSession(long now) {
+      this.loadedAt = now;
+      this.lastAccessed = now;
+    }
+  }
+
+  /**
+   * @param maxSessions maximum number of sessions held
+   * @param timeToLive  milliseconds after which a cached session is read from the backend again
+   */
+  public SessionNearCache(int maxSessions, long timeToLive) {
+    this.maxSessions = maxSessions;
+    this.timeToLive = timeToLive;
+  }
+
+  /**
+   * @return the cached value, {@link #ABSENT} if the attribute is known to be missing, or null on a miss
+   */
+  Object get(String sessionId, String name) {
+    CachedSession session = current(sessionId);
+    Object value = session == null ? null : session.attributes.get(name);
+    if (value == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return value;
+  }
+
+  void put(String sessionId, String name, Object value) {
+    put(session(sessionId), name, value);
+  }
+
+  /**
+   * Stores a value read from the backend in the session returned by {@link #session(String)}
+   * before the read. If the session was invalidated in between, that entry is no longer
+   * cached and the possibly stale value is dropped with it.
+   */
+  void put(CachedSession session, String name, Object value) {
+    session.attributes.put(name, value == null ? ABSENT : value);
+  }
+
+  /**
+   * @return the cached session, registered empty if it was not cached yet
+   */
+  CachedSession session(String sessionId) {
+    CachedSession session = current(sessionId);
+    if (session == null) {
+      long now = System.currentTimeMillis();
+      session = new CachedSession(now);
+      CachedSession existing = sessions.putIfAbsent(sessionId, session);
+      if (existing != null) {
+        session = existing;
+      } else if (sessions.size() > maxSessions) {
+        trim(now);
+      }
+    }
+    return session;
+  }
+
+  /**
+   * Drops everything cached for the session, e.g. after a change notification.
+   */
+  public void invalidate(String sessionId) {
+    if (sessions.remove(sessionId) != null) {
+      invalidations.incrementAndGet();
+    }
+  }
+
+  public void clear() {
+    sessions.clear();
+  }
+
+  private CachedSession current(String sessionId) {
+    CachedSession session = sessions.get(sessionId);
+    if (session == null) {
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    if (now - session.loadedAt > timeToLive) {
+      sessions.remove(sessionId, session);
+      return null;
+    }
+    session.lastAccessed = now;
+    return session;
+  }
+
+  /**
+   * Removes expired sessions and, if still too large, the least recently used tenth.
+   */
+  private synchronized void trim(long now) {
+    if (sessions.size() <= maxSessions) {
+      return;
+    }
+    long oldestAllowed = Long.MIN_VALUE;
+    int excess = sessions.size() - maxSessions + maxSessions / 10;
+    if (excess > 0) {
+      long[] accessTimes = new long[sessions.size()];
+      int count = 0;
+      for (CachedSession session : sessions.values()) {
+        if (count == accessTimes.length) {
+          break;
+        }
+        accessTimes[count++] = session.lastAccessed;
+      }
+      if (count > 0) {
+        Arrays.sort(accessTimes, 0, count);
+        oldestAllowed = accessTimes[Math.min(count, excess) - 1];
+      }
+    }
+    for (Iterator<Map.Entry<String, CachedSession>> it = sessions.entrySet().iterator(); it.hasNext(); ) {
+      CachedSession session = it.next().getValue();
+      if (now - session.loadedAt > timeToLive || session.lastAccessed <= oldestAllowed) {
+        it.remove();
+      }
+    }
+  }
+
+  public int getSize() {
+    return sessions.size();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getInvalidationCount() {
+    return invalidations.get();
+  }
+}
@@ -0,0 +1,16 @@
+package webapp.runner.launch.session;
+
+import java.io.IOException;
+
+/**
+ * Turns session attribute values into bytes for a remote session store and back.
+ */
+public interface SessionSerializer {
+
+  byte[] serialize(Object value) throws IOException;
+
+  /**
+   * @param classLoader loader for application classes, may be null
+   */
+  Object deserialize(byte[] data, ClassLoader classLoader) throws IOException, ClassNotFoundException;
+}
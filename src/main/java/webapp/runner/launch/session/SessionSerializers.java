@@ -0,0 +1,33 @@
+package webapp.runner.launch.session;
+
+/**
+ * Creates the {@link SessionSerializer} selected on the command line.
+ */
+public final class SessionSerializers {
+
+  public static final String JAVA = "java";
+  public static final String COMPACT = "compact";
+
+  private SessionSerializers() {
+  }
+
+  /**
+   * @param name                 {@link #JAVA} or {@link #COMPACT}
+   * @param compressionThreshold minimum size in bytes that is compressed, 0 to never compress
+   * @return the serializer, or null if the name is unknown
+   */
+  public static SessionSerializer create(String name, int compressionThreshold) {
+    SessionSerializer serializer;
+    if (JAVA.equals(name)) {
+      serializer = new JavaSessionSerializer();
+    } else if (COMPACT.equals(name)) {
+      serializer = new CompactSessionSerializer();
+    } else {
+      return null;
+    }
+    if (compressionThreshold > 0) {
+      serializer = new CompressingSessionSerializer(serializer, compressionThreshold);
+    }
+    return serializer;
+  }
+}
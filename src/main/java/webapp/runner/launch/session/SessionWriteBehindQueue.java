@@ -0,0 +1,412 @@
+package webapp.runner.launch.session;
+
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Collects attribute changes of remote sessions and writes them to the session manager
+ * from a background thread, at most the flush delay after the first change. Repeated
+ * changes of an attribute are coalesced, and values whose serialized form equals the value
+ * the same request read from the remote session are skipped, unless this node wrote the
+ * session in the meantime. Values are only compared to what was read in the current request,
+ * as other nodes may have changed the session since this node last wrote it.
+ * <p>
+ * If more sessions are pending than allowed, the request thread writes its own session
+ * immediately, so memory stays bounded under overload.
+ */
+public class SessionWriteBehindQueue {
+
+  private static final Logger logger = Logger.getLogger(SessionWriteBehindQueue.class.getName());
+
+  /**
+   * Marks attributes removed from the session.
+   */
+  static final Object REMOVED = new Object();
+
+  private static final int MAX_TRACKED_SESSIONS = 100000;
+
+  private final long flushDelay;
+  private final int maxPendingSessions;
+  private final SessionSerializer serializer;
+  private final JavaSessionSerializer javaSerializer = new JavaSessionSerializer();
+  private final ConcurrentMap<String, PendingSession> pending = new ConcurrentHashMap<String, PendingSession>();
+  private final AtomicLong writeSequence = new AtomicLong();
+  private final Map<String, Long> lastWrites = new LinkedHashMap<String, Long>(256, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+      if (size() <= MAX_TRACKED_SESSIONS) {
+        return false;
+      }
+      forgottenWrites = Math.max(forgottenWrites, eldest.getValue());
+      return true;
+    }
+  };
+  private long forgottenWrites;
+  private final AtomicLong writeCount = new AtomicLong();
+  private final AtomicLong skipCount = new AtomicLong();
+  private final AtomicLong failureCount = new AtomicLong();
+  private volatile WriteListener listener;
+  private volatile boolean running;
+  private Thread flusher;
+
+  /**
+   * Notified after changes of a session reached the session manager.
+   */
+  public interface WriteListener {
+    void written(String sessionId);
+  }
+
+  /**
+   * Checksum of a value as read from the remote session, and the write sequence before it was read.
+   */
+  static final class Loaded {
+    final long checksum;
+    final long sequence;
+
+    Loaded(long checksum, long sequence) {
+      this.checksum = checksum;
+      this.sequence = sequence;
+    }
+  }
+
+  private static final class Change {
+    final Object value;
+    final Loaded loaded;
+
+    Change(Object value, Loaded loaded) {
+      this.value = value;
+      this.loaded = loaded;
+    }
+  }
+
+  private static class PendingSession {
+    final ConcurrentMap<String, Change> attributes = new ConcurrentHashMap<String, Change>();
+    final long firstChange;
+    /**
+     * Held while the changes are written, so that the flusher and a request writing
+     * synchronously cannot overwrite a newer value with an older one.
+     */
+    final Object flushLock = new Object();
+    volatile HttpSession target;
+    boolean closed;
+
+    PendingSession(HttpSession target, long firstChange) {
+      this.target = target;
+      this.firstChange = firstChange;
+    }
+  }
+
+  /**
+   * @param flushDelay         maximum milliseconds between a change and its write
+   * @param maxPendingSessions sessions with unwritten changes above which requests write synchronously
+   * @param serializer         encodes values before they are compared and written, may be null
+   */
+  public SessionWriteBehindQueue(long flushDelay, int maxPendingSessions, SessionSerializer serializer) {
+    this.flushDelay = flushDelay;
+    this.maxPendingSessions = maxPendingSessions;
+    this.serializer = serializer;
+  }
+
+  public void setListener(WriteListener listener) {
+    this.listener = listener;
+  }
+
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    flusher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        long delay = flushDelay;
+        while (running) {
+          try {
+            // until the oldest change is due, a fixed tick would make writes late by up to a tick
+            Thread.sleep(Math.max(1, delay));
+          } catch (InterruptedException e) {
+            break;
+          }
+          delay = flush(false);
+        }
+      }
+    }, "session-write-behind");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /**
+   * Stops the background thread and writes everything still pending.
+   */
+  public synchronized void stop() {
+    running = false;
+    if (flusher != null) {
+      flusher.interrupt();
+      flusher = null;
+    }
+    flush(true);
+  }
+
+  /**
+   * @return the unwritten value, {@link #REMOVED} for an unwritten removal, or null if nothing is pending
+   */
+  Object pendingValue(String sessionId, String name) {
+    PendingSession session = pending.get(sessionId);
+    if (session == null) {
+      return null;
+    }
+    Change change = session.attributes.get(name);
+    return change == null ? null : change.value;
+  }
+
+  Map<String, Object> pendingValues(String sessionId) {
+    PendingSession session = pending.get(sessionId);
+    if (session == null) {
+      return null;
+    }
+    Map<String, Object> values = new HashMap<String, Object>();
+    for (Map.Entry<String, Change> entry : session.attributes.entrySet()) {
+      values.put(entry.getKey(), entry.getValue().value);
+    }
+    return values;
+  }
+
+  /**
+   * @return the write sequence, to be taken before a value is read from the remote session
+   */
+  long currentSequence() {
+    return writeSequence.get();
+  }
+
+  /**
+   * @param sequence {@link #currentSequence()} before the value was read
+   * @return what a later write of the attribute is compared to, or null if the value cannot be serialized
+   */
+  Loaded loaded(String name, Object value, long sequence) {
+    Object encoded;
+    try {
+      encoded = serializer == null ? value : SerializingSession.encode(serializer, name, value);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    Long checksum = checksum(encoded);
+    return checksum == null ? null : new Loaded(checksum, sequence);
+  }
+
+  /**
+   * Records a change; {@link #REMOVED} records a removal.
+   *
+   * @param loaded the value read from the remote session in the same request, null if unknown
+   */
+  void write(HttpSession target, String name, Object value, Loaded loaded) {
+    String sessionId = target.getId();
+    while (true) {
+      PendingSession session = pending.get(sessionId);
+      if (session == null) {
+        session = new PendingSession(target, System.currentTimeMillis());
+        PendingSession existing = pending.putIfAbsent(sessionId, session);
+        if (existing != null) {
+          session = existing;
+        }
+      }
+      synchronized (session) {
+        if (!session.closed) {
+          session.target = target;
+          session.attributes.put(name, new Change(value, loaded));
+          break;
+        }
+      }
+    }
+    if (!running || pending.size() > maxPendingSessions) {
+      flushSession(sessionId);
+    }
+  }
+
+  /**
+   * Drops unwritten changes of a session invalidated by the application.
+   */
+  void invalidated(String sessionId) {
+    discard(sessionId);
+    WriteListener current = listener;
+    if (current != null) {
+      current.written(sessionId);
+    }
+  }
+
+  private void discard(String sessionId) {
+    PendingSession session = pending.remove(sessionId);
+    if (session != null) {
+      synchronized (session) {
+        session.closed = true;
+      }
+    }
+  }
+
+  /**
+   * @return milliseconds until the next pending session is due
+   */
+  private long flush(boolean all) {
+    long now = System.currentTimeMillis();
+    long next = flushDelay;
+    for (Map.Entry<String, PendingSession> entry : pending.entrySet()) {
+      long due = entry.getValue().firstChange + flushDelay - now;
+      if (all || due <= 0) {
+        flushSession(entry.getKey());
+      } else {
+        next = Math.min(next, due);
+      }
+    }
+    return next;
+  }
+
+  private void flushSession(String sessionId) {
+    PendingSession session = pending.get(sessionId);
+    if (session == null) {
+      return;
+    }
+    synchronized (session.flushLock) {
+      flushSession(sessionId, session);
+    }
+  }
+
+  private void flushSession(String sessionId, PendingSession session) {
+    HttpSession target = session.target;
+    boolean written = false;
+    try {
+      for (Iterator<Map.Entry<String, Change>> it = session.attributes.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<String, Change> attribute = it.next();
+        String name = attribute.getKey();
+        Change change = attribute.getValue();
+        if (change.value == REMOVED) {
+          target.removeAttribute(name);
+          wrote(sessionId);
+          writeCount.incrementAndGet();
+          written = true;
+        } else {
+          Object encoded = encode(name, change.value);
+          if (encoded == null) {
+            failureCount.incrementAndGet();
+          } else if (!unchanged(sessionId, encoded, change.loaded)) {
+            target.setAttribute(name, encoded);
+            wrote(sessionId);
+            writeCount.incrementAndGet();
+            written = true;
+          } else {
+            skipCount.incrementAndGet();
+          }
+        }
+        // keeps the entry if it was changed again in the meantime
+        session.attributes.remove(name, change);
+      }
+    } catch (IllegalStateException e) {
+      // the session has been invalidated
+      discard(sessionId);
+      return;
+    } catch (RuntimeException e) {
+      // the remaining changes are retried with the next flush, without skipping any of them,
+      // as the failed write may have reached the remote session
+      wrote(sessionId);
+      failureCount.incrementAndGet();
+      logger.log(Level.WARNING, "Unable to write session " + sessionId, e);
+    }
+    synchronized (session) {
+      if (session.attributes.isEmpty()) {
+        session.closed = true;
+        pending.remove(sessionId, session);
+      }
+    }
+    WriteListener current = listener;
+    if (written && current != null) {
+      current.written(sessionId);
+    }
+  }
+
+  /**
+   * @return the value to write, or null if it cannot be serialized and is dropped
+   */
+  private Object encode(String name, Object value) {
+    if (serializer == null) {
+      return value;
+    }
+    try {
+      return SerializingSession.encode(serializer, name, value);
+    } catch (IllegalArgumentException e) {
+      logger.log(Level.WARNING, "Dropping session attribute " + name, e);
+      return null;
+    }
+  }
+
+  /**
+   * @return true if the serialized value equals the value read in the request that changed it,
+   * and this node did not write the session since
+   */
+  private boolean unchanged(String sessionId, Object value, Loaded loaded) {
+    if (loaded == null) {
+      return false;
+    }
+    Long checksum = checksum(value);
+    if (checksum == null || checksum != loaded.checksum) {
+      return false;
+    }
+    synchronized (lastWrites) {
+      Long lastWrite = lastWrites.get(sessionId);
+      return (lastWrite == null ? forgottenWrites : lastWrite) <= loaded.sequence;
+    }
+  }
+
+  /**
+   * Invalidates what requests read from the session before; called after the remote session was written.
+   */
+  private void wrote(String sessionId) {
+    synchronized (lastWrites) {
+      lastWrites.put(sessionId, writeSequence.incrementAndGet());
+    }
+  }
+
+  /**
+   * @return CRC and length of the serialized value, or null if it cannot be serialized
+   */
+  protected Long checksum(Object value) {
+    byte[] data;
+    if (value instanceof EncodedAttribute) {
+      data = ((EncodedAttribute) value).getData();
+    } else {
+      try {
+        data = javaSerializer.serialize(value);
+      } catch (IOException e) {
+        return null;
+      }
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, data.length);
+    return (crc.getValue() << 32) | data.length;
+  }
+
+  public int getPendingSessionCount() {
+    return pending.size();
+  }
+
+  public long getWriteCount() {
+    return writeCount.get();
+  }
+
+  public long getSkipCount() {
+    return skipCount.get();
+  }
+
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+}
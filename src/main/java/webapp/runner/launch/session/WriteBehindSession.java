@@ -0,0 +1,149 @@
+package webapp.runner.launch.session;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hands attribute changes to a {@link SessionWriteBehindQueue} instead of writing them to
+ * the remote session. Reads see changes that have not been written yet.
+ * <p>
+ * Created for each request; values read from the remote session are remembered, so the queue
+ * can skip writing them back unchanged.
+ */
+@SuppressWarnings("deprecation")
+class WriteBehindSession implements HttpSession {
+
+  private final HttpSession delegate;
+  private final SessionWriteBehindQueue queue;
+  private final ConcurrentMap<String, SessionWriteBehindQueue.Loaded> loaded =
+          new ConcurrentHashMap<String, SessionWriteBehindQueue.Loaded>();
+
+  WriteBehindSession(HttpSession delegate, SessionWriteBehindQueue queue) {
+    this.delegate = delegate;
+    this.queue = queue;
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    Object value = queue.pendingValue(delegate.getId(), name);
+    if (value == null) {
+      long sequence = queue.currentSequence();
+      value = delegate.getAttribute(name);
+      if (value != null && !loaded.containsKey(name)) {
+        SessionWriteBehindQueue.Loaded checksum = queue.loaded(name, value, sequence);
+        if (checksum != null) {
+          loaded.putIfAbsent(name, checksum);
+        }
+      }
+      return value;
+    }
+    return value == SessionWriteBehindQueue.REMOVED ? null : value;
+  }
+
+  @Override
+  public void setAttribute(String name, Object value) {
+    if (value == null) {
+      removeAttribute(name);
+      return;
+    }
+    // once written, the value read before no longer is what the remote session holds
+    queue.write(delegate, name, value, loaded.remove(name));
+  }
+
+  @Override
+  public void removeAttribute(String name) {
+    loaded.remove(name);
+    queue.write(delegate, name, SessionWriteBehindQueue.REMOVED, null);
+  }
+
+  @Override
+  public void invalidate() {
+    String id = delegate.getId();
+    delegate.invalidate();
+    queue.invalidated(id);
+  }
+
+  @Override
+  public Enumeration<String> getAttributeNames() {
+    Map<String, Object> pending = queue.pendingValues(delegate.getId());
+    if (pending == null) {
+      return delegate.getAttributeNames();
+    }
+    Set<String> names = new LinkedHashSet<String>(Collections.list(delegate.getAttributeNames()));
+    for (Map.Entry<String, Object> entry : pending.entrySet()) {
+      if (entry.getValue() == SessionWriteBehindQueue.REMOVED) {
+        names.remove(entry.getKey());
+      } else {
+        names.add(entry.getKey());
+      }
+    }
+    return Collections.enumeration(names);
+  }
+
+  @Override
+  public String[] getValueNames() {
+    return Collections.list(getAttributeNames()).toArray(new String[0]);
+  }
+
+  @Override
+  public Object getValue(String name) {
+    return getAttribute(name);
+  }
+
+  @Override
+  public void putValue(String name, Object value) {
+    setAttribute(name, value);
+  }
+
+  @Override
+  public void removeValue(String name) {
+    removeAttribute(name);
+  }
+
+  @Override
+  public long getCreationTime() {
+    return delegate.getCreationTime();
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public long getLastAccessedTime() {
+    return delegate.getLastAccessedTime();
+  }
+
+  @Override
+  public ServletContext getServletContext() {
+    return delegate.getServletContext();
+  }
+
+  @Override
+  public void setMaxInactiveInterval(int interval) {
+    delegate.setMaxInactiveInterval(interval);
+  }
+
+  @Override
+  public int getMaxInactiveInterval() {
+    return delegate.getMaxInactiveInterval();
+  }
+
+  @Override
+  public javax.servlet.http.HttpSessionContext getSessionContext() {
+    return delegate.getSessionContext();
+  }
+
+  @Override
+  public boolean isNew() {
+    return delegate.isNew();
+  }
+}
@@ -0,0 +1,152 @@
+package webapp.runner.launch.valve;
+
+import org.apache.catalina.AccessLog;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import webapp.runner.launch.accesslog.AccessLogFormat;
+import webapp.runner.launch.accesslog.AccessLogWriter;
+import webapp.runner.launch.accesslog.RecordRingBuffer;
+import webapp.runner.launch.helper.Checkpoint;
+
+import javax.servlet.ServletException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Access log that never blocks the request threads. Each record is formatted and encoded on
+ * the request thread and handed to a lock-free ring buffer, a single thread writes the
+ * buffer to the log file in batches. When the writer falls behind and the buffer is full,
+ * records are dropped and counted instead of slowing down the requests.
+ */
+public class AsyncAccessLogValve extends ValveBase implements AccessLog, Checkpoint.Participant {
+
+  private static final String PREFIX = "access_log.";
+  private static final String SUFFIX = ".txt";
+  private static final long FLUSH_DELAY = 100;
+
+  private final File directory;
+  private final AccessLogFormat format;
+  private final int bufferSize;
+  private boolean requestAttributesEnabled;
+  private volatile RecordRingBuffer buffer;
+  private volatile AccessLogWriter writer;
+
+  /**
+   * @param pattern    {@link AccessLogFormat#COMMON} or {@link AccessLogFormat#COMBINED}
+   * @param bufferSize records held before new ones are dropped
+   */
+  public AsyncAccessLogValve(File directory, String pattern, int bufferSize) {
+    super(true);
+    this.directory = directory;
+    this.format = new AccessLogFormat(pattern);
+    this.bufferSize = bufferSize;
+  }
+
+  @Override
+  public void invoke(Request request, Response response) throws IOException, ServletException {
+    getNext().invoke(request, response);
+  }
+
+  @Override
+  public void log(Request request, Response response, long time) {
+    RecordRingBuffer records = buffer;
+    if (records == null || !getState().isAvailable()) {
+      return;
+    }
+    String remoteHost = null;
+    if (requestAttributesEnabled) {
+      Object host = request.getAttribute(REMOTE_HOST_ATTRIBUTE);
+      remoteHost = host == null ? null : host.toString();
+    }
+    if (remoteHost == null) {
+      remoteHost = request.getRemoteHost();
+    }
+    String referer = null;
+    String userAgent = null;
+    if (format.isCombined()) {
+      referer = request.getHeader("Referer");
+      userAgent = request.getHeader("User-Agent");
+    }
+    byte[] record = format.format(remoteHost, request.getRemoteUser(), System.currentTimeMillis() - time,
+            requestLine(request), response.getStatus(), response.getBytesWritten(false), referer, userAgent);
+    if (records.offer(record) && records.size() > records.getCapacity() / 2) {
+      writer.signal();
+    }
+  }
+
+  private static String requestLine(Request request) {
+    String method = request.getMethod();
+    if (method == null) {
+      return null;
+    }
+    StringBuilder line = new StringBuilder(method).append(' ').append(request.getRequestURI());
+    if (request.getQueryString() != null) {
+      line.append('?').append(request.getQueryString());
+    }
+    return line.append(' ').append(request.getProtocol()).toString();
+  }
+
+  @Override
+  public void setRequestAttributesEnabled(boolean requestAttributesEnabled) {
+    this.requestAttributesEnabled = requestAttributesEnabled;
+  }
+
+  @Override
+  public boolean getRequestAttributesEnabled() {
+    return requestAttributesEnabled;
+  }
+
+  /**
+   * @return records dropped because the buffer was full
+   */
+  public long getDroppedCount() {
+    RecordRingBuffer records = buffer;
+    return records == null ? 0 : records.getDroppedCount();
+  }
+
+  /**
+   * @return records waiting to be written
+   */
+  public int getQueuedCount() {
+    RecordRingBuffer records = buffer;
+    return records == null ? 0 : records.size();
+  }
+
+  @Override
+  protected synchronized void startInternal() throws LifecycleException {
+    buffer = new RecordRingBuffer(bufferSize);
+    writer = new AccessLogWriter(buffer, directory, PREFIX, SUFFIX, FLUSH_DELAY);
+    writer.start();
+    Checkpoint.register(this);
+    setState(LifecycleState.STARTING);
+  }
+
+  @Override
+  protected synchronized void stopInternal() throws LifecycleException {
+    setState(LifecycleState.STOPPING);
+    Checkpoint.unregister(this);
+    writer.stop();
+  }
+
+  /**
+   * Writes the buffered records and closes the log file; records logged meanwhile stay in
+   * the buffer.
+   */
+  @Override
+  public synchronized void beforeCheckpoint() {
+    writer.stop();
+  }
+
+  @Override
+  public synchronized void afterRestore() {
+    writer.start();
+  }
+
+  @Override
+  public String toString() {
+    return "access log in " + directory;
+  }
+}
@@ -0,0 +1,123 @@
+package webapp.runner.launch.valve;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import webapp.runner.launch.limit.GradientLimiter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Limits the requests each context processes at the same time with a {@link GradientLimiter}.
+ * Requests over the limit are answered right away with 503 and a Retry-After header, before
+ * they reach the context, so overload does not queue up requests until all of them are slow.
+ * Asynchronous requests count until they complete.
+ */
+public class ConcurrencyLimitValve extends ValveBase {
+
+  private final int initialLimit;
+  private final int minLimit;
+  private final int maxLimit;
+  private final String retryAfter;
+  private final ConcurrentMap<String, GradientLimiter> limiters = new ConcurrentHashMap<String, GradientLimiter>();
+
+  /**
+   * @param retryAfter seconds clients are asked to wait before they retry a rejected request
+   */
+  public ConcurrencyLimitValve(int initialLimit, int minLimit, int maxLimit, int retryAfter) {
+    super(true);
+    this.initialLimit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.retryAfter = Integer.toString(retryAfter);
+  }
+
+  @Override
+  public void invoke(Request request, Response response) throws IOException, ServletException {
+    Context context = request.getContext();
+    if (context == null || DispatcherType.ASYNC.equals(request.getDispatcherType())) {
+      // the request is still counted from its first dispatch
+      getNext().invoke(request, response);
+      return;
+    }
+    GradientLimiter limiter = getLimiter(context.getName());
+    if (!limiter.tryAcquire()) {
+      response.setHeader("Retry-After", retryAfter);
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    }
+    long start = System.nanoTime();
+    boolean async = false;
+    try {
+      getNext().invoke(request, response);
+      async = request.isAsync();
+    } finally {
+      if (async) {
+        request.getAsyncContext().addListener(new CompletionListener(limiter, start));
+      } else {
+        limiter.release(System.nanoTime() - start);
+      }
+    }
+  }
+
+  private GradientLimiter getLimiter(String context) {
+    GradientLimiter limiter = limiters.get(context);
+    if (limiter == null) {
+      GradientLimiter created = new GradientLimiter(initialLimit, minLimit, maxLimit);
+      limiter = limiters.putIfAbsent(context, created);
+      if (limiter == null) {
+        limiter = created;
+      }
+    }
+    return limiter;
+  }
+
+  /**
+   * @return the limiters by context name
+   */
+  public Map<String, GradientLimiter> getLimiters() {
+    return Collections.unmodifiableMap(new HashMap<String, GradientLimiter>(limiters));
+  }
+
+  private static class CompletionListener implements AsyncListener {
+    private final GradientLimiter limiter;
+    private final long start;
+
+    CompletionListener(GradientLimiter limiter, long start) {
+      this.limiter = limiter;
+      this.start = start;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      limiter.release(System.nanoTime() - start);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      // completed with an error response afterwards
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      // completed afterwards
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      // started again by a dispatch, keep listening
+      event.getAsyncContext().addListener(this);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package webapp.runner.launch.valve;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import webapp.runner.launch.jfr.FlightRecorderEvents;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Emits a flight recorder event for every request while a recording is running, with the
+ * context, the URL patterns of the servlet and the status. Asynchronous requests are
+ * committed when they complete.
+ */
+public class RequestEventValve extends ValveBase {
+
+  public RequestEventValve() {
+    super(true);
+  }
+
+  @Override
+  public void invoke(Request request, Response response) throws IOException, ServletException {
+    FlightRecorderEvents.Event event = null;
+    if (!DispatcherType.ASYNC.equals(request.getDispatcherType())) {
+      event = FlightRecorderEvents.begin(FlightRecorderEvents.Type.REQUEST);
+    }
+    if (event == null) {
+      getNext().invoke(request, response);
+      return;
+    }
+    try {
+      getNext().invoke(request, response);
+    } finally {
+      Context context = request.getContext();
+      String contextName = context == null ? "" : context.getName();
+      String pattern = RequestMetricsValve.pattern(context, request.getWrapper());
+      if (request.isAsync()) {
+        request.getAsyncContext().addListener(new CompletionListener(event, contextName, pattern));
+      } else {
+        event.commit(contextName, pattern, response.getStatus());
+      }
+    }
+  }
+
+  private static class CompletionListener implements AsyncListener {
+    private final FlightRecorderEvents.Event event;
+    private final String context;
+    private final String pattern;
+
+    CompletionListener(FlightRecorderEvents.Event event, String context, String pattern) {
+      this.event = event;
+      this.context = context;
+      this.pattern = pattern;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent asyncEvent) {
+      int status = asyncEvent.getSuppliedResponse() instanceof HttpServletResponse ?
+              ((HttpServletResponse) asyncEvent.getSuppliedResponse()).getStatus() : 0;
+      event.commit(context, pattern, status);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent asyncEvent) {
+      // completed with an error response afterwards
+    }
+
+    @Override
+    public void onError(AsyncEvent asyncEvent) {
+      // completed afterwards
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent asyncEvent) {
+      // started again by a dispatch, keep listening
+      asyncEvent.getAsyncContext().addListener(this);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package webapp.runner.launch.valve;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import webapp.runner.launch.metrics.RequestMetrics;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Records the latency of every request in {@link RequestMetrics}, by context, the URL
+ * patterns of the servlet that served it and status class. Installed on the engine, so it
+ * also sees requests no context was found for. Asynchronous requests are recorded when
+ * they complete.
+ */
+public class RequestMetricsValve extends ValveBase {
+
+  private static final String NO_CONTEXT = "";
+  private static final String NO_SERVLET = "";
+
+  private final RequestMetrics metrics;
+
+  public RequestMetricsValve(RequestMetrics metrics) {
+    super(true);
+    this.metrics = metrics;
+  }
+
+  public RequestMetrics getMetrics() {
+    return metrics;
+  }
+
+  @Override
+  public void invoke(Request request, Response response) throws IOException, ServletException {
+    if (DispatcherType.ASYNC.equals(request.getDispatcherType())) {
+      // the listener added when the request went async records it
+      getNext().invoke(request, response);
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      getNext().invoke(request, response);
+    } finally {
+      if (request.isAsync()) {
+        request.getAsyncContext().addListener(new CompletionListener(target(request), start));
+      } else {
+        target(request).record(response.getStatus(), System.nanoTime() - start);
+      }
+    }
+  }
+
+  private RequestMetrics.Target target(Request request) {
+    Context context = request.getContext();
+    Wrapper wrapper = request.getWrapper();
+    String contextName = context == null ? NO_CONTEXT : context.getName();
+    String servletName = wrapper == null ? NO_SERVLET : wrapper.getName();
+    RequestMetrics.Target target = metrics.get(contextName, servletName);
+    if (target == null) {
+      target = metrics.getOrCreate(contextName, servletName, pattern(context, wrapper));
+    }
+    return target;
+  }
+
+  static String pattern(Context context, Wrapper wrapper) {
+    if (context == null) {
+      return "unmapped";
+    }
+    String[] mappings = wrapper == null ? new String[0] : wrapper.findMappings();
+    if (mappings.length == 0) {
+      return wrapper == null ? "unmapped" : "servlet:" + wrapper.getName();
+    }
+    StringBuilder pattern = new StringBuilder();
+    for (String mapping : mappings) {
+      if (pattern.length() > 0) {
+        pattern.append(',');
+      }
+      pattern.append(mapping);
+    }
+    return pattern.toString();
+  }
+
+  private static class CompletionListener implements AsyncListener {
+    private final RequestMetrics.Target target;
+    private final long start;
+
+    CompletionListener(RequestMetrics.Target target, long start) {
+      this.target = target;
+      this.start = start;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      int status = event.getSuppliedResponse() instanceof HttpServletResponse ?
+              ((HttpServletResponse) event.getSuppliedResponse()).getStatus() : 0;
+      target.record(status, System.nanoTime() - start);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      // completed with an error response afterwards
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      // completed afterwards
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      // started again by a dispatch, keep listening
+      event.getAsyncContext().addListener(this);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package webapp.runner.launch.valve;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import webapp.runner.launch.monitor.InFlightRequests;
+import webapp.runner.launch.monitor.StackSampler;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+
+/**
+ * Tracks the requests while a thread processes them, so the {@link StackSampler} finds those
+ * that tie up a thread for too long. Asynchronous requests are only tracked while they are
+ * on a thread.
+ */
+public class SlowRequestValve extends ValveBase {
+
+  private final InFlightRequests requests;
+  private final StackSampler sampler;
+
+  public SlowRequestValve(InFlightRequests requests, StackSampler sampler) {
+    super(true);
+    this.requests = requests;
+    this.sampler = sampler;
+  }
+
+  public StackSampler getSampler() {
+    return sampler;
+  }
+
+  public InFlightRequests getRequests() {
+    return requests;
+  }
+
+  @Override
+  public void invoke(Request request, Response response) throws IOException, ServletException {
+    Context context = request.getContext();
+    int slot = requests.enter(context == null ? null : context.getName(), request.getDecodedRequestURI());
+    try {
+      getNext().invoke(request, response);
+    } finally {
+      requests.exit(slot);
+    }
+  }
+
+  @Override
+  protected void startInternal() throws LifecycleException {
+    super.startInternal();
+    sampler.start();
+  }
+
+  @Override
+  protected void stopInternal() throws LifecycleException {
+    sampler.stop();
+    super.stopInternal();
+  }
+}
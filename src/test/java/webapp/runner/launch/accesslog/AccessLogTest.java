@@ -0,0 +1,140 @@
+package webapp.runner.launch.accesslog;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AccessLogTest {
+
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = File.createTempFile("access-log", "");
+    directory.delete();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testCapacityIsRoundedUpToPowerOfTwo() {
+    Assert.assertEquals(2, new RecordRingBuffer(1).getCapacity());
+    Assert.assertEquals(2, new RecordRingBuffer(2).getCapacity());
+    Assert.assertEquals(8, new RecordRingBuffer(5).getCapacity());
+    Assert.assertEquals(8192, new RecordRingBuffer(8192).getCapacity());
+  }
+
+  @Test
+  public void testFullBufferDropsRecords() {
+    RecordRingBuffer buffer = new RecordRingBuffer(4);
+    for (int i = 0; i < 4; i++) {
+      Assert.assertTrue(buffer.offer(new byte[]{(byte) i}));
+    }
+    Assert.assertFalse(buffer.offer(new byte[]{4}));
+    Assert.assertEquals(1, buffer.getDroppedCount());
+    Assert.assertEquals(4, buffer.size());
+    for (int i = 0; i < 4; i++) {
+      Assert.assertEquals(i, buffer.poll()[0]);
+    }
+    Assert.assertNull(buffer.poll());
+    Assert.assertTrue(buffer.offer(new byte[]{5}));
+    Assert.assertEquals(5, buffer.poll()[0]);
+  }
+
+  @Test
+  public void testConcurrentProducersLoseNoAcceptedRecord() throws Exception {
+    final RecordRingBuffer buffer = new RecordRingBuffer(64);
+    final int producers = 4;
+    final int records = 20000;
+    final AtomicInteger accepted = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(producers);
+    for (int p = 0; p < producers; p++) {
+      new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < records; i++) {
+            if (buffer.offer(new byte[1])) {
+              accepted.incrementAndGet();
+            }
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+    int consumed = 0;
+    while (done.getCount() > 0 || buffer.size() > 0) {
+      if (buffer.poll() != null) {
+        consumed++;
+      }
+    }
+    Assert.assertEquals(accepted.get(), consumed);
+    Assert.assertEquals(producers * records, consumed + buffer.getDroppedCount());
+  }
+
+  @Test
+  public void testCommonAndCombinedFormat() throws Exception {
+    AccessLogFormat common = new AccessLogFormat("common");
+    String line = new String(common.format("10.0.0.1", null, 0, "GET /a?b=c HTTP/1.1", 200, 1234, "r", "u"), "UTF-8");
+    Assert.assertTrue(line, line.startsWith("10.0.0.1 - - ["));
+    Assert.assertTrue(line, line.endsWith("] \"GET /a?b=c HTTP/1.1\" 200 1234\n"));
+
+    AccessLogFormat combined = new AccessLogFormat("combined");
+    line = new String(combined.format("::1", "joe", 0, null, 400, 0, null, "agent \"x\"\n\u00e9"), "UTF-8");
+    Assert.assertTrue(line, line.startsWith("::1 - joe ["));
+    Assert.assertTrue(line, line.endsWith("] \"-\" 400 - \"-\" \"agent \\\"x\\\"\\x0a\u00e9\"\n"));
+    try {
+      new AccessLogFormat("custom");
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testWriterAppendsRecordsToDailyFile() throws Exception {
+    RecordRingBuffer buffer = new RecordRingBuffer(16);
+    AccessLogWriter writer = new AccessLogWriter(buffer, directory, "access_log.", ".txt", 10);
+    writer.start();
+    buffer.offer("first\n".getBytes("UTF-8"));
+    buffer.offer("second\n".getBytes("UTF-8"));
+    writer.stop();
+    // written on the next start
+    buffer.offer("third\n".getBytes("UTF-8"));
+    writer.start();
+    writer.stop();
+
+    File file = writer.getFile(AccessLogWriter.formatDate(System.currentTimeMillis()));
+    List<String> lines = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+    Assert.assertEquals(3, lines.size());
+    Assert.assertEquals("first", lines.get(0));
+    Assert.assertEquals("third", lines.get(2));
+  }
+}
@@ -0,0 +1,76 @@
+package webapp.runner.launch.helper;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CheckpointTest {
+
+  private final List<String> events = new ArrayList<String>();
+  private final List<Checkpoint.Participant> registered = new ArrayList<Checkpoint.Participant>();
+
+  @After
+  public void tearDown() {
+    for (Checkpoint.Participant participant : registered) {
+      Checkpoint.unregister(participant);
+    }
+  }
+
+  private void register(final String name, final boolean failRestore) {
+    Checkpoint.Participant participant = new Checkpoint.Participant() {
+      @Override
+      public void beforeCheckpoint() {
+        events.add("close " + name);
+      }
+
+      @Override
+      public void afterRestore() throws Exception {
+        events.add("open " + name);
+        if (failRestore) {
+          throw new IllegalStateException(name);
+        }
+      }
+    };
+    registered.add(participant);
+    Checkpoint.register(participant);
+  }
+
+  @Test
+  public void testParticipantsAreClosedInReverseOrder() throws Exception {
+    register("contexts", false);
+    register("connectors", false);
+
+    Checkpoint.beforeCheckpoint();
+    Checkpoint.afterRestore();
+
+    Assert.assertEquals(Arrays.asList("close connectors", "close contexts", "open contexts", "open connectors"),
+            events);
+  }
+
+  @Test
+  public void testRestoreContinuesAfterFailure() throws Exception {
+    register("contexts", true);
+    register("connectors", false);
+
+    try {
+      Checkpoint.afterRestore();
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("contexts", e.getMessage());
+    }
+    Assert.assertEquals(Arrays.asList("open contexts", "open connectors"), events);
+  }
+
+  @Test
+  public void testUnregistered() throws Exception {
+    register("contexts", false);
+    Checkpoint.unregister(registered.get(0));
+
+    Checkpoint.beforeCheckpoint();
+    Assert.assertTrue(events.isEmpty());
+  }
+}
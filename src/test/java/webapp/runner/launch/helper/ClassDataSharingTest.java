@@ -0,0 +1,21 @@
+package webapp.runner.launch.helper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+public class ClassDataSharingTest {
+
+  @Test
+  public void testClassPathOfTrainingRunIsAbsolute() {
+    String classPath = "lib/webapp-runner.jar" + File.pathSeparator + File.pathSeparator + "classes";
+
+    String[] absolute = ClassDataSharing.absoluteClassPath(classPath).split(File.pathSeparator);
+
+    Assert.assertEquals(2, absolute.length);
+    Assert.assertEquals(new File("lib/webapp-runner.jar").getAbsolutePath(), absolute[0]);
+    Assert.assertEquals(new File("classes").getAbsolutePath(), absolute[1]);
+    Assert.assertTrue(new File(absolute[1]).isAbsolute());
+  }
+}
@@ -0,0 +1,154 @@
+package webapp.runner.launch.helper;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class IncrementalWarExpanderTest {
+
+  private File dir;
+  private File war;
+  private File expanded;
+  private File manifest;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = File.createTempFile("war-expander", "");
+    dir.delete();
+    dir.mkdirs();
+    war = new File(dir, "app.war");
+    expanded = new File(dir, "expanded");
+    manifest = new File(dir, "manifest.properties");
+  }
+
+  @After
+  public void tearDown() {
+    delete(dir);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private void war(String... namesAndContents) throws Exception {
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(war));
+    for (int i = 0; i < namesAndContents.length; i += 2) {
+      out.putNextEntry(new ZipEntry(namesAndContents[i]));
+      out.write(namesAndContents[i + 1].getBytes("UTF-8"));
+      out.closeEntry();
+    }
+    // a JAR, as the WAR plugin adds them uncompressed
+    byte[] lib = new byte[200 * 1024];
+    Arrays.fill(lib, (byte) 7);
+    CRC32 crc = new CRC32();
+    crc.update(lib);
+    ZipEntry stored = new ZipEntry("WEB-INF/lib/lib.jar");
+    stored.setMethod(ZipEntry.STORED);
+    stored.setSize(lib.length);
+    stored.setCrc(crc.getValue());
+    out.putNextEntry(stored);
+    out.write(lib);
+    out.closeEntry();
+    out.close();
+  }
+
+  private static String read(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] data = new byte[(int) file.length()];
+      int position = 0;
+      while (position < data.length) {
+        position += in.read(data, position, data.length - position);
+      }
+      return new String(data, "UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testExpandsAllEntries() throws Exception {
+    war("index.jsp", "hello", "WEB-INF/", "", "WEB-INF/web.xml", "<web-app/>");
+
+    IncrementalWarExpander expander = new IncrementalWarExpander(war, expanded, manifest);
+    expander.expand();
+
+    Assert.assertEquals("hello", read(new File(expanded, "index.jsp")));
+    Assert.assertEquals("<web-app/>", read(new File(expanded, "WEB-INF/web.xml")));
+    File lib = new File(expanded, "WEB-INF/lib/lib.jar");
+    Assert.assertEquals(200 * 1024, lib.length());
+    Assert.assertEquals(7, new FileInputStream(lib).read());
+    Assert.assertEquals(3, expander.getWrittenCount());
+    Assert.assertTrue(manifest.isFile());
+  }
+
+  @Test
+  public void testUnchangedWarIsNotExpandedAgain() throws Exception {
+    war("index.jsp", "hello");
+    new IncrementalWarExpander(war, expanded, manifest).expand();
+
+    war("index.jsp", "hello");
+    war.setLastModified(war.lastModified() + 10000);
+    IncrementalWarExpander expander = new IncrementalWarExpander(war, expanded, manifest);
+    expander.expand();
+
+    Assert.assertEquals(0, expander.getWrittenCount());
+    Assert.assertEquals(0, expander.getUnchangedCount());
+  }
+
+  @Test
+  public void testOnlyChangedEntriesAreWritten() throws Exception {
+    war("index.jsp", "hello", "old.jsp", "old");
+    new IncrementalWarExpander(war, expanded, manifest).expand();
+    File generated = new File(expanded, "upload.txt");
+    new FileOutputStream(generated).close();
+
+    war("index.jsp", "hello again", "new.jsp", "new");
+    war.setLastModified(war.lastModified() + 10000);
+    IncrementalWarExpander expander = new IncrementalWarExpander(war, expanded, manifest);
+    expander.expand();
+
+    Assert.assertEquals(2, expander.getWrittenCount());
+    Assert.assertEquals(1, expander.getUnchangedCount());
+    Assert.assertEquals("hello again", read(new File(expanded, "index.jsp")));
+    Assert.assertEquals("new", read(new File(expanded, "new.jsp")));
+    Assert.assertFalse(new File(expanded, "old.jsp").exists());
+    Assert.assertTrue(generated.exists());
+  }
+
+  @Test
+  public void testDeletedFilesAreRestored() throws Exception {
+    war("index.jsp", "hello", "other.jsp", "other");
+    new IncrementalWarExpander(war, expanded, manifest).expand();
+    new File(expanded, "index.jsp").delete();
+
+    war("index.jsp", "hello", "other.jsp", "changed");
+    war.setLastModified(war.lastModified() + 10000);
+    new IncrementalWarExpander(war, expanded, manifest).expand();
+
+    Assert.assertEquals("hello", read(new File(expanded, "index.jsp")));
+  }
+
+  @Test(expected = IOException.class)
+  public void testEntriesOutsideTheDirectoryAreRejected() throws Exception {
+    war("../escape.jsp", "boom");
+    new IncrementalWarExpander(war, expanded, manifest).expand();
+  }
+}
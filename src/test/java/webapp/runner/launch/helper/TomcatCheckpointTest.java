@@ -0,0 +1,149 @@
+package webapp.runner.launch.helper;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.naming.resources.Resource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class TomcatCheckpointTest {
+
+  private static final String CONTENT = "<html><body>packed</body></html>";
+
+  private File baseDir;
+  private File war;
+  private Tomcat tomcat;
+  private Context context;
+
+  @Before
+  public void startTomcat() throws Exception {
+    baseDir = File.createTempFile("checkpoint", "");
+    baseDir.delete();
+    baseDir.mkdirs();
+    war = new File(baseDir, "app.war");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(war));
+    try {
+      out.putNextEntry(new ZipEntry("index.html"));
+      out.write(CONTENT.getBytes("UTF-8"));
+      out.closeEntry();
+    } finally {
+      out.close();
+    }
+
+    tomcat = new Tomcat();
+    tomcat.setBaseDir(baseDir.getAbsolutePath());
+    tomcat.setPort(0);
+    context = tomcat.addContext("", war.getAbsolutePath());
+    context.setResources(new MappedWarDirContext());
+    tomcat.start();
+  }
+
+  @After
+  public void stopTomcat() throws Exception {
+    tomcat.stop();
+    tomcat.destroy();
+    delete(baseDir);
+  }
+
+  @Test
+  public void testPackedWarIsClosedForCheckpoint() throws Exception {
+    // open files and mappings are only known on Linux
+    Assume.assumeTrue(new File("/proc/self/maps").isFile());
+    Checkpoint.Participant contexts = TomcatCheckpoint.contexts(tomcat.getHost());
+    Assert.assertEquals(CONTENT, read("/index.html"));
+    Assert.assertTrue(isOpen(war));
+    Object resources = context.getResources();
+
+    contexts.beforeCheckpoint();
+    Assert.assertFalse(isOpen(war));
+
+    contexts.afterRestore();
+    Assert.assertTrue(isOpen(war));
+    // the class loader and the mapper hold on to the same resources
+    Assert.assertSame(resources, context.getResources());
+    Assert.assertEquals(CONTENT, read("/index.html"));
+  }
+
+  private String read(String path) throws Exception {
+    InputStream in = ((Resource) context.getResources().lookup(path)).streamContent();
+    try {
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        content.write(buffer, 0, count);
+      }
+      return content.toString("UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @return true if the file is open or mapped by this process
+   */
+  private static boolean isOpen(File file) throws Exception {
+    File[] links = new File("/proc/self/fd").listFiles();
+    if (links == null) {
+      links = new File[0];
+    }
+    String path = file.getCanonicalPath();
+    for (File link : links) {
+      // not File.getCanonicalPath, which caches the target of a descriptor number on older JDKs
+      if (path.equals(readLink(link))) {
+        return true;
+      }
+    }
+    BufferedReader maps = new BufferedReader(new FileReader("/proc/self/maps"));
+    try {
+      String line;
+      while ((line = maps.readLine()) != null) {
+        if (line.endsWith(path)) {
+          return true;
+        }
+      }
+    } finally {
+      maps.close();
+    }
+    return false;
+  }
+
+  /**
+   * @return the target of the link, or null if it is gone
+   */
+  private static String readLink(File link) throws Exception {
+    // java.nio.file is not available when compiling for Java 6
+    Class<?> files = Class.forName("java.nio.file.Files");
+    Class<?> pathClass = Class.forName("java.nio.file.Path");
+    try {
+      Object path = File.class.getMethod("toPath").invoke(link);
+      return files.getMethod("readSymbolicLink", pathClass).invoke(null, path).toString();
+    } catch (InvocationTargetException e) {
+      // closed in the meantime
+      return null;
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,111 @@
+package webapp.runner.launch.helper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+public class WarmUpRunnerTest {
+
+  @Test
+  public void testRequestLinesOfCombinedLogFormat() {
+    Assert.assertEquals("/products?page=2", WarmUpRunner.parseRequestLine(
+            "10.0.0.1 - - [18/Oct/2026:10:00:00 +0000] \"GET /products?page=2 HTTP/1.1\" 200 5120 \"-\" \"curl/8.0\""));
+    Assert.assertEquals("/", WarmUpRunner.parseRequestLine(
+            "10.0.0.1 - - [18/Oct/2026:10:00:00 +0000] \"HEAD / HTTP/1.1\" 200 -"));
+  }
+
+  @Test
+  public void testRequestsWithSideEffectsAreNotReplayed() {
+    Assert.assertNull(WarmUpRunner.parseRequestLine(
+            "10.0.0.1 - - [18/Oct/2026:10:00:00 +0000] \"POST /cart HTTP/1.1\" 302 -"));
+    Assert.assertNull(WarmUpRunner.parseRequestLine("garbage"));
+    Assert.assertNull(WarmUpRunner.parseRequestLine("\"GET http://example.com/ HTTP/1.1\""));
+  }
+
+  @Test
+  public void testPathsAreAbsolute() {
+    Assert.assertEquals(Arrays.asList("/", "/app/index.jsp"), WarmUpRunner.parsePaths(" /, app/index.jsp,"));
+  }
+
+  @Test
+  public void testFailedRequestsAreNotPartOfThePercentile() {
+    WarmUpRunner.Pass pass = new WarmUpRunner.Pass(new long[]{millis(20), millis(10)}, 1);
+
+    Assert.assertEquals(3, pass.getRequests());
+    Assert.assertEquals(20, pass.getPercentile());
+    Assert.assertTrue(pass.isHealthy());
+    Assert.assertEquals(-1, new WarmUpRunner.Pass(new long[0], 2).getPercentile());
+  }
+
+  @Test
+  public void testPassWithMostRequestsFailingDoesNotEndWarmUp() {
+    WarmUpRunner runner = new WarmUpRunner(Collections.singletonList("/"));
+    runner.setLatencyTarget(50);
+
+    Assert.assertTrue(runner.isDone(new WarmUpRunner.Pass(new long[]{millis(5), millis(6)}, 2)));
+    Assert.assertFalse(runner.isDone(new WarmUpRunner.Pass(new long[]{millis(5)}, 2)));
+    Assert.assertFalse(runner.isDone(new WarmUpRunner.Pass(new long[0], 3)));
+    Assert.assertFalse(runner.isDone(new WarmUpRunner.Pass(new long[]{millis(60)}, 0)));
+
+    runner.setLatencyTarget(0);
+    Assert.assertFalse(runner.isDone(new WarmUpRunner.Pass(new long[]{millis(5)}, 0)));
+  }
+
+  @Test
+  public void testWarmUpEndsOnceTheTargetIsReached() throws Exception {
+    HttpServer server = startServer(200);
+    try {
+      WarmUpRunner runner = new WarmUpRunner(Arrays.asList("/", "/a", "/b"));
+      runner.setPasses(5);
+      runner.setLatencyTarget(10000);
+      runner.run(server.getAddress().getPort());
+
+      Assert.assertEquals(1, runner.getCompletedPasses());
+      Assert.assertTrue(runner.isWarmedUp());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testServerErrorsDoNotEndWarmUp() throws Exception {
+    HttpServer server = startServer(500);
+    try {
+      WarmUpRunner runner = new WarmUpRunner(Arrays.asList("/", "/a", "/b"));
+      runner.setPasses(3);
+      runner.setLatencyTarget(10000);
+      runner.run(server.getAddress().getPort());
+
+      Assert.assertEquals(3, runner.getCompletedPasses());
+      Assert.assertFalse(runner.isWarmedUp());
+      Assert.assertEquals(-1, runner.getLastPercentile());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private static HttpServer startServer(final int status) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+      }
+    });
+    server.start();
+    return server;
+  }
+
+  private static long millis(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
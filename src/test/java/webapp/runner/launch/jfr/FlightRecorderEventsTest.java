@@ -0,0 +1,59 @@
+package webapp.runner.launch.jfr;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.List;
+
+public class FlightRecorderEventsTest {
+
+  @Test
+  public void testEventsAreOnlyCreatedWhileRecording() throws Exception {
+    Assert.assertFalse(FlightRecorderEvents.isEnabled());
+    Assert.assertNull(FlightRecorderEvents.begin(FlightRecorderEvents.Type.REQUEST));
+    if (!FlightRecorderEvents.enable()) {
+      // no flight recorder in this JVM
+      return;
+    }
+    Assert.assertTrue(FlightRecorderEvents.isEnabled());
+    Assert.assertTrue(FlightRecorderEvents.enable());
+    Assert.assertNull(FlightRecorderEvents.begin(FlightRecorderEvents.Type.REQUEST));
+
+    // the recording API is not available when compiling for Java 6
+    Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+    Object recording = recordingClass.newInstance();
+    recordingClass.getMethod("enable", String.class).invoke(recording,
+            FlightRecorderEvents.Type.SESSION_STORE.getName());
+    File file = File.createTempFile("events", ".jfr");
+    recordingClass.getMethod("start").invoke(recording);
+    try {
+      FlightRecorderEvents.Event event = FlightRecorderEvents.begin(FlightRecorderEvents.Type.SESSION_STORE);
+      Assert.assertNotNull(event);
+      event.commit("redis", "load", 123L);
+      recordingClass.getMethod("stop").invoke(recording);
+      Class<?> pathClass = Class.forName("java.nio.file.Path");
+      Object path = File.class.getMethod("toPath").invoke(file);
+      recordingClass.getMethod("dump", pathClass).invoke(recording, path);
+
+      List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+              .getMethod("readAllEvents", pathClass).invoke(null, path);
+      int found = 0;
+      for (Object recorded : events) {
+        Object type = recorded.getClass().getMethod("getEventType").invoke(recorded);
+        if (FlightRecorderEvents.Type.SESSION_STORE.getName().equals(type.getClass().getMethod("getName").invoke(type))) {
+          Method getValue = recorded.getClass().getMethod("getValue", String.class);
+          Assert.assertEquals("redis", getValue.invoke(recorded, "backend"));
+          Assert.assertEquals("load", getValue.invoke(recorded, "operation"));
+          Assert.assertEquals(123L, getValue.invoke(recorded, "bytes"));
+          found++;
+        }
+      }
+      Assert.assertEquals(1, found);
+    } finally {
+      recordingClass.getMethod("close").invoke(recording);
+      file.delete();
+    }
+  }
+}
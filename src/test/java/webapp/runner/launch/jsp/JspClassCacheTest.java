@@ -0,0 +1,193 @@
+package webapp.runner.launch.jsp;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+public class JspClassCacheTest {
+
+  private static final long COMPILED_TIME = 1234567890000L;
+
+  private File dir;
+  private File webapp;
+  private File work;
+  private JspClassCache.ResourceResolver resolver;
+
+  public static class Holder {
+    public static Long value() {
+      return Long.valueOf(1234567890000L);
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    dir = File.createTempFile("jsp-cache", "");
+    dir.delete();
+    dir.mkdirs();
+    webapp = new File(dir, "webapp");
+    work = new File(dir, "work");
+    resolver = new JspClassCache.ResourceResolver() {
+      @Override
+      public URL resolve(String path) throws IOException {
+        File file = new File(webapp, path);
+        return file.isFile() ? file.toURI().toURL() : null;
+      }
+    };
+    write(new File(webapp, "index.jsp"), "<%@ include file=\"/WEB-INF/header.jspf\" %>".getBytes("UTF-8"), COMPILED_TIME);
+    write(new File(webapp, "WEB-INF/header.jspf"), "<h1>Header</h1>".getBytes("UTF-8"), COMPILED_TIME);
+  }
+
+  @After
+  public void tearDown() {
+    delete(dir);
+  }
+
+  @Test
+  public void testReadDependants() throws Exception {
+    File javaFile = writeServlet();
+    Map<String, Long> dependants = JspClassCache.readDependants(javaFile);
+    Assert.assertEquals(Collections.singletonMap("/WEB-INF/header.jspf", COMPILED_TIME), dependants);
+  }
+
+  @Test
+  public void testPatchLongConstants() throws Exception {
+    byte[] patched = JspClassCache.patchLongConstants(holderClass(),
+            Collections.singletonMap(COMPILED_TIME, 42L));
+    Assert.assertEquals(Long.valueOf(42L), invokeHolder(patched));
+  }
+
+  @Test
+  public void testRestoreWithNewTimestamps() throws Exception {
+    File javaFile = writeServlet();
+    File classFile = new File(work, "org/apache/jsp/index_jsp.class");
+    write(classFile, holderClass(), COMPILED_TIME);
+    new JspClassCache(new File(dir, "cache"), "jasper").store("/index.jsp", resolver, javaFile, classFile);
+    delete(work);
+
+    // same content, checked out again
+    long checkout = COMPILED_TIME + 60000;
+    new File(webapp, "index.jsp").setLastModified(checkout);
+    new File(webapp, "WEB-INF/header.jspf").setLastModified(checkout);
+
+    JspClassCache cache = new JspClassCache(new File(dir, "cache"), "jasper");
+    Assert.assertTrue(cache.restore("/index.jsp", resolver, javaFile, classFile));
+    Assert.assertEquals(checkout, classFile.lastModified());
+    Assert.assertEquals(Long.valueOf(checkout), invokeHolder(read(classFile)));
+  }
+
+  @Test
+  public void testChangedIncludeIsNotRestored() throws Exception {
+    File javaFile = writeServlet();
+    File classFile = new File(work, "org/apache/jsp/index_jsp.class");
+    write(classFile, holderClass(), COMPILED_TIME);
+    new JspClassCache(new File(dir, "cache"), "jasper").store("/index.jsp", resolver, javaFile, classFile);
+    delete(work);
+
+    write(new File(webapp, "WEB-INF/header.jspf"), "<h1>Changed</h1>".getBytes("UTF-8"), COMPILED_TIME);
+
+    JspClassCache cache = new JspClassCache(new File(dir, "cache"), "jasper");
+    Assert.assertFalse(cache.restore("/index.jsp", resolver, javaFile, classFile));
+    Assert.assertFalse(classFile.exists());
+  }
+
+  @Test
+  public void testOtherFingerprintIsNotRestored() throws Exception {
+    File javaFile = writeServlet();
+    File classFile = new File(work, "org/apache/jsp/index_jsp.class");
+    write(classFile, holderClass(), COMPILED_TIME);
+    new JspClassCache(new File(dir, "cache"), "jasper").store("/index.jsp", resolver, javaFile, classFile);
+    delete(work);
+
+    JspClassCache cache = new JspClassCache(new File(dir, "cache"), "jasper,trimSpaces");
+    Assert.assertFalse(cache.restore("/index.jsp", resolver, javaFile, classFile));
+  }
+
+  private File writeServlet() throws IOException {
+    File javaFile = new File(work, "org/apache/jsp/index_jsp.java");
+    String source = "public final class index_jsp {\n" +
+            "  static {\n" +
+            "    _jspx_dependants = new java.util.HashMap<java.lang.String,java.lang.Long>(1);\n" +
+            "    _jspx_dependants.put(\"/WEB-INF/header.jspf\", Long.valueOf(" + COMPILED_TIME + "L));\n" +
+            "  }\n" +
+            "}\n";
+    write(javaFile, source.getBytes("UTF-8"), COMPILED_TIME);
+    return javaFile;
+  }
+
+  private static byte[] holderClass() throws IOException {
+    InputStream in = Holder.class.getResourceAsStream("JspClassCacheTest$Holder.class");
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static Object invokeHolder(final byte[] classFile) throws Exception {
+    ClassLoader loader = new ClassLoader(JspClassCacheTest.class.getClassLoader()) {
+      @Override
+      protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (name.equals(Holder.class.getName())) {
+          synchronized (this) {
+            Class<?> loaded = findLoadedClass(name);
+            return loaded != null ? loaded : defineClass(name, classFile, 0, classFile.length);
+          }
+        }
+        return super.loadClass(name, resolve);
+      }
+    };
+    return loader.loadClass(Holder.class.getName()).getMethod("value").invoke(null);
+  }
+
+  private static byte[] read(File file) throws IOException {
+    InputStream in = file.toURI().toURL().openStream();
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void write(File file, byte[] content, long lastModified) throws IOException {
+    file.getParentFile().mkdirs();
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content);
+    } finally {
+      out.close();
+    }
+    file.setLastModified(lastModified);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
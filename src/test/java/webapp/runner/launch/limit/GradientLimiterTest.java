@@ -0,0 +1,84 @@
+package webapp.runner.launch.limit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class GradientLimiterTest {
+
+  private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void testRejectsOverLimit() {
+    GradientLimiter limiter = new GradientLimiter(2, 1, 10);
+    Assert.assertTrue(limiter.tryAcquire());
+    Assert.assertTrue(limiter.tryAcquire());
+    Assert.assertFalse(limiter.tryAcquire());
+    Assert.assertEquals(1, limiter.getRejectedCount());
+    limiter.release(MILLIS);
+    Assert.assertEquals(1, limiter.getInFlight());
+    Assert.assertTrue(limiter.tryAcquire());
+  }
+
+  @Test
+  public void testGrowsWhileLatencyIsStableAndLimitIsReached() {
+    GradientLimiter limiter = new GradientLimiter(10, 1, 100);
+    long now = System.nanoTime();
+    for (int window = 1; window <= 50; window++) {
+      saturate(limiter);
+      now = runWindow(limiter, now, 10 * MILLIS);
+    }
+    Assert.assertTrue("limit " + limiter.getLimit(), limiter.getLimit() > 40);
+  }
+
+  @Test
+  public void testDoesNotGrowUnderLightLoad() {
+    GradientLimiter limiter = new GradientLimiter(10, 1, 100);
+    long now = System.nanoTime();
+    for (int window = 1; window <= 50; window++) {
+      now = runWindow(limiter, now, 10 * MILLIS);
+    }
+    Assert.assertEquals(10, limiter.getLimit());
+  }
+
+  @Test
+  public void testShrinksWhenLatencyRises() {
+    GradientLimiter limiter = new GradientLimiter(50, 5, 100);
+    long now = System.nanoTime();
+    for (int window = 1; window <= 20; window++) {
+      saturate(limiter);
+      now = runWindow(limiter, now, 10 * MILLIS);
+    }
+    int stable = limiter.getLimit();
+    // within a second
+    for (int window = 1; window <= 10; window++) {
+      saturate(limiter);
+      now = runWindow(limiter, now, 100 * MILLIS);
+    }
+    Assert.assertTrue(limiter.getLimit() + " < " + stable, limiter.getLimit() < stable * 2 / 3);
+    Assert.assertTrue(limiter.getLimit() >= 5);
+  }
+
+  private static void saturate(GradientLimiter limiter) {
+    while (limiter.tryAcquire()) {
+      // fill up to the limit
+    }
+  }
+
+  /**
+   * Completes the admitted requests and enough others for a window with the given latency.
+   */
+  private static long runWindow(GradientLimiter limiter, long now, long latency) {
+    now += WINDOW;
+    int inFlight = limiter.getInFlight();
+    for (int i = 0; i < inFlight; i++) {
+      limiter.release(latency);
+    }
+    for (int i = 0; i < 10; i++) {
+      limiter.sample(latency, now);
+    }
+    return now;
+  }
+}
@@ -0,0 +1,52 @@
+package webapp.runner.launch.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBucketsCoverValuesWithBoundedError() {
+    long[] values = {0, 1, 31, 63, 64, 65, 100, 1000, 12345, 999999, 123456789L, LatencyHistogram.MAX_VALUE};
+    for (long value : values) {
+      int index = LatencyHistogram.index(value);
+      long highest = LatencyHistogram.highestValue(index);
+      Assert.assertTrue(value + " <= " + highest, value <= highest);
+      Assert.assertTrue(value + " error", highest - value <= Math.max(0, value / 32));
+      if (index > 0) {
+        Assert.assertTrue(value + " > bucket below", value > LatencyHistogram.highestValue(index - 1));
+      }
+    }
+    Assert.assertEquals(1023, LatencyHistogram.index(LatencyHistogram.MAX_VALUE));
+  }
+
+  @Test
+  public void testQuantiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    Assert.assertEquals(1000, snapshot.getTotal());
+    assertWithin(500000, snapshot.getValueAtQuantile(0.5));
+    assertWithin(990000, snapshot.getValueAtQuantile(0.99));
+    Assert.assertEquals(1000000, snapshot.getValueAtQuantile(1.0));
+    Assert.assertEquals(1000000, histogram.getMax());
+    Assert.assertEquals(500500000L, histogram.getSum());
+  }
+
+  @Test
+  public void testOutOfRangeValues() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+    Assert.assertEquals(2, histogram.getCount());
+    Assert.assertEquals(0, histogram.snapshot().getValueAtQuantile(0.5));
+    Assert.assertEquals(LatencyHistogram.MAX_VALUE, histogram.snapshot().getValueAtQuantile(1.0));
+    Assert.assertEquals(0, new LatencyHistogram().snapshot().getValueAtQuantile(0.99));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    Assert.assertTrue(expected + " ~ " + actual, actual >= expected && actual <= expected + expected / 32);
+  }
+}
@@ -0,0 +1,60 @@
+package webapp.runner.launch.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+public class MetricFamilyTest {
+
+  @Test
+  public void testPrometheusFormat() throws Exception {
+    MetricFamily duration = new MetricFamily("request_duration_seconds", MetricFamily.SUMMARY, "Latency")
+            .add(0.25, "context", "/", "pattern", "/api/*", "quantile", "0.5")
+            .add("_count", 3, "context", "/", "pattern", "/api/*");
+    MetricFamily empty = new MetricFamily("unused", MetricFamily.GAUGE, "Nothing");
+    MetricFamily threads = new MetricFamily("threads_busy", MetricFamily.GAUGE, "Busy")
+            .add(2, "pool", "say \"hi\"");
+
+    StringWriter out = new StringWriter();
+    MetricFamily.writePrometheus(Arrays.asList(duration, empty, threads), out);
+    Assert.assertEquals("# HELP request_duration_seconds Latency\n" +
+            "# TYPE request_duration_seconds summary\n" +
+            "request_duration_seconds{context=\"/\",pattern=\"/api/*\",quantile=\"0.5\"} 0.25\n" +
+            "request_duration_seconds_count{context=\"/\",pattern=\"/api/*\"} 3\n" +
+            "# HELP threads_busy Busy\n" +
+            "# TYPE threads_busy gauge\n" +
+            "threads_busy{pool=\"say \\\"hi\\\"\"} 2\n", out.toString());
+  }
+
+  @Test
+  public void testJson() throws Exception {
+    List<MetricFamily> families = Arrays.asList(new MetricFamily("sessions_active", MetricFamily.GAUGE, "Active")
+            .add(4, "context", "/shop"));
+    StringWriter out = new StringWriter();
+    MetricFamily.writeJson(families, out);
+    Assert.assertEquals("{\"metrics\": [\n" +
+            "  {\"name\": \"sessions_active\", \"type\": \"gauge\", \"help\": \"Active\", \"samples\": [\n" +
+            "    {\"name\": \"sessions_active\", \"labels\": {\"context\": \"/shop\"}, \"value\": 4}\n" +
+            "  ]}\n" +
+            "]}\n", out.toString());
+  }
+
+  @Test
+  public void testRequestMetricsShareTargetsByName() {
+    RequestMetrics metrics = new RequestMetrics();
+    Assert.assertNull(metrics.get("/shop", "jsp"));
+    RequestMetrics.Target target = metrics.getOrCreate("/shop", "jsp", "*.jsp");
+    Assert.assertSame(target, metrics.getOrCreate("/shop", "jsp", "ignored"));
+    Assert.assertSame(target, metrics.get("/shop", "jsp"));
+    target.record(404, 2000000);
+    target.record(999, 1000);
+    Assert.assertEquals(1, target.getHistogram(4).getCount());
+    Assert.assertEquals(2000, target.getHistogram(4).getMax());
+    Assert.assertEquals(1, target.getHistogram(0).getCount());
+    Assert.assertNull(target.getHistogram(2));
+    Assert.assertEquals(1, metrics.getTargets().size());
+  }
+}
@@ -0,0 +1,88 @@
+package webapp.runner.launch.monitor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+
+public class StackSamplerTest {
+
+  @Test
+  public void testSlotsAreReused() {
+    InFlightRequests requests = new InFlightRequests(4);
+    int slot = requests.enter("/app", "/a");
+    Assert.assertTrue(slot >= 0);
+    Assert.assertTrue(requests.getStart(slot) != 0);
+    Assert.assertSame(Thread.currentThread(), requests.getThread(slot));
+    Assert.assertEquals("/a", requests.getUri(slot));
+    requests.exit(slot);
+    Assert.assertEquals(0, requests.getStart(slot));
+    Assert.assertNull(requests.getThread(slot));
+    Assert.assertEquals(slot, requests.enter("/app", "/b"));
+  }
+
+  @Test
+  public void testFullTableDoesNotTrack() {
+    InFlightRequests requests = new InFlightRequests(2);
+    Assert.assertTrue(requests.enter("", "/1") >= 0);
+    Assert.assertTrue(requests.enter("", "/2") >= 0);
+    Assert.assertEquals(-1, requests.enter("", "/3"));
+    Assert.assertEquals(1, requests.getUntrackedCount());
+    requests.exit(-1);
+  }
+
+  @Test
+  public void testFold() {
+    StackTraceElement[] stack = {
+            new StackTraceElement("com.example.Dao", "query", "Dao.java", 10),
+            new StackTraceElement("com.example.Servlet", "doGet", "Servlet.java", 20),
+            new StackTraceElement("java.lang.Thread", "run", "Thread.java", 30)};
+    Assert.assertEquals("/shop;java.lang.Thread.run;com.example.Servlet.doGet;com.example.Dao.query",
+            StackSampler.fold("/shop", stack));
+    Assert.assertEquals("/", StackSampler.fold("", new StackTraceElement[0]));
+  }
+
+  @Test
+  public void testSamplesSlowRequests() throws Exception {
+    final InFlightRequests requests = new InFlightRequests(16);
+    StackSampler sampler = new StackSampler(requests, 50, 1000, null);
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Thread worker = new Thread() {
+      @Override
+      public void run() {
+        int slot = requests.enter("/app", "/slow");
+        try {
+          entered.countDown();
+          release.await();
+        } catch (InterruptedException e) {
+          // finish
+        } finally {
+          requests.exit(slot);
+        }
+      }
+    };
+    worker.start();
+    entered.await();
+    Thread.sleep(100);
+    try {
+      sampler.sample();
+      sampler.sample();
+    } finally {
+      release.countDown();
+      worker.join();
+    }
+    Assert.assertEquals(Long.valueOf(1), sampler.getSlowRequestCounts().get("/app"));
+    Assert.assertEquals(Integer.valueOf(1), sampler.getStuckThreadCounts().get("/app"));
+
+    StringWriter folded = new StringWriter();
+    sampler.writeFolded(folded);
+    Assert.assertTrue(folded.toString(), folded.toString().startsWith("/app;"));
+    Assert.assertTrue(folded.toString(), folded.toString().contains(";java.util.concurrent.CountDownLatch.await;"));
+    Assert.assertTrue(folded.toString(), folded.toString().endsWith(" 2\n"));
+
+    sampler.sample();
+    Assert.assertTrue(sampler.getStuckThreadCounts().isEmpty());
+  }
+}
@@ -0,0 +1,57 @@
+package webapp.runner.launch.profile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+
+public class StartupProfilerTest {
+
+  @Test
+  public void testTimingsAreRelativeToJvmStart() throws Exception {
+    StartupProfiler profiler = new StartupProfiler(500);
+    StartupProfiler.Timer timer = profiler.start(StartupProfiler.PHASES, "create server");
+    Thread.sleep(20);
+    timer.stop();
+    timer.stop();
+
+    List<StartupProfiler.Timing> timings = profiler.getTimings();
+    Assert.assertEquals(2, timings.size());
+    Assert.assertEquals("jvm", timings.get(0).getName());
+    Assert.assertEquals(0, timings.get(0).getStart());
+    Assert.assertEquals(500000, timings.get(0).getDuration());
+    Assert.assertEquals("create server", timings.get(1).getName());
+    Assert.assertTrue(timings.get(1).getStart() >= 500000);
+    Assert.assertTrue(timings.get(1).getDuration() >= 20000);
+    Assert.assertTrue(profiler.getUptime() >= 520);
+  }
+
+  @Test
+  public void testReportGroupsTimings() throws Exception {
+    StartupProfiler profiler = new StartupProfiler(0);
+    long now = System.nanoTime();
+    profiler.record(StartupProfiler.contextGroup("app"), "listeners", now, now + 2000000);
+    profiler.record(StartupProfiler.PHASES, "start tomcat", now, now + 5000000);
+    profiler.record(StartupProfiler.contextGroup(""), "filters", now + 1000000, now + 3000000);
+
+    String report = profiler.report();
+    Assert.assertTrue(report, report.indexOf("phases:") < report.indexOf("context /app:"));
+    Assert.assertTrue(report, report.indexOf("context /app:") < report.indexOf("context /:"));
+    Assert.assertTrue(report, report.contains("      5 ms  start tomcat"));
+  }
+
+  @Test
+  public void testJson() throws Exception {
+    StartupProfiler profiler = new StartupProfiler(0);
+    long now = System.nanoTime();
+    profiler.record("context /\"quoted\"", "jar scan", now, now + 1000);
+
+    StringWriter json = new StringWriter();
+    profiler.writeJson(json);
+    Assert.assertTrue(json.toString(), json.toString().contains(
+            "\"group\": \"context /\\\"quoted\\\"\", \"name\": \"jar scan\""));
+    Assert.assertTrue(json.toString(), json.toString().contains("\"duration\": 1}"));
+    Assert.assertEquals("\"a\\u000ab\"", StartupProfiler.quote("a\nb"));
+  }
+}
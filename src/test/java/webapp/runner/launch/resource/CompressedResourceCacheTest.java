@@ -0,0 +1,50 @@
+package webapp.runner.launch.resource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompressedResourceCacheTest {
+
+  @Test
+  public void testEntriesAreKeyedByEtag() {
+    CompressedResourceCache cache = new CompressedResourceCache(4096);
+    cache.put("/app.js", "W/\"10-1\"", new byte[10]);
+
+    Assert.assertNotNull(cache.get("/app.js", "W/\"10-1\""));
+    Assert.assertNull(cache.get("/app.js", "W/\"10-2\""));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntryIsEvicted() {
+    CompressedResourceCache cache = new CompressedResourceCache(3 * (128 + 100));
+    cache.put("/a.css", "a", new byte[100]);
+    cache.put("/b.css", "b", new byte[100]);
+    cache.put("/c.css", "c", new byte[100]);
+    cache.get("/a.css", "a");
+
+    cache.put("/d.css", "d", new byte[100]);
+
+    Assert.assertNotNull(cache.get("/a.css", "a"));
+    Assert.assertNull(cache.get("/b.css", "b"));
+    Assert.assertEquals(3, cache.getEntryCount());
+    Assert.assertTrue(cache.getSize() <= cache.getMaxSize());
+  }
+
+  @Test
+  public void testOversizedEntryIsRejected() {
+    CompressedResourceCache cache = new CompressedResourceCache(1024);
+
+    Assert.assertFalse(cache.put("/huge.js", "h", new byte[2048]));
+    Assert.assertEquals(0, cache.getEntryCount());
+  }
+
+  @Test
+  public void testIncompressibleResourceIsRemembered() {
+    CompressedResourceCache cache = new CompressedResourceCache(1024);
+    cache.put("/image.svg", "s", null);
+
+    CompressedResourceCache.Entry entry = cache.get("/image.svg", "s");
+    Assert.assertNotNull(entry);
+    Assert.assertNull(entry.getData());
+  }
+}
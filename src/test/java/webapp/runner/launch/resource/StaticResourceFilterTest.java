@@ -0,0 +1,160 @@
+package webapp.runner.launch.resource;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.deploy.FilterDef;
+import org.apache.catalina.deploy.FilterMap;
+import org.apache.catalina.servlets.DefaultServlet;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+public class StaticResourceFilterTest {
+
+  private File baseDir;
+  private Tomcat tomcat;
+  private int port;
+
+  @Before
+  public void startTomcat() throws Exception {
+    baseDir = File.createTempFile("static-resource", "");
+    baseDir.delete();
+    File docBase = new File(baseDir, "webapp");
+    writeCss(new File(docBase, "WEB-INF/web.xml"));
+    writeCss(new File(docBase, "META-INF/app.css"));
+    writeCss(new File(docBase, "private/app.css"));
+    writeCss(new File(docBase, "public/app.css"));
+
+    tomcat = new Tomcat();
+    tomcat.setBaseDir(baseDir.getAbsolutePath());
+    tomcat.setPort(0);
+    Context ctx = tomcat.addContext("", docBase.getAbsolutePath());
+    ctx.addMimeMapping("css", "text/css");
+    ctx.addMimeMapping("xml", "text/css");
+    Tomcat.addServlet(ctx, "default", new DefaultServlet());
+    ctx.addServletMapping("/", "default");
+
+    FilterDef forbidden = new FilterDef();
+    forbidden.setFilterName("forbidden");
+    forbidden.setFilterClass(ForbiddenFilter.class.getName());
+    forbidden.setFilter(new ForbiddenFilter());
+    ctx.addFilterDef(forbidden);
+    FilterMap forbiddenMap = new FilterMap();
+    forbiddenMap.setFilterName("forbidden");
+    forbiddenMap.addURLPattern("/private/*");
+    ctx.addFilterMap(forbiddenMap);
+
+    new StaticResourceFilter(new CompressedResourceCache(1024 * 1024), "text/css", 1, false).addTo(ctx);
+
+    tomcat.start();
+    port = tomcat.getConnector().getLocalPort();
+  }
+
+  @After
+  public void stopTomcat() throws Exception {
+    tomcat.stop();
+    tomcat.destroy();
+    delete(baseDir);
+  }
+
+  @Test
+  public void testPublicResourceIsServedCompressed() throws IOException {
+    HttpURLConnection connection = get("/public/app.css");
+    Assert.assertEquals(200, connection.getResponseCode());
+    Assert.assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+  }
+
+  @Test
+  public void testProtectedResourcesAreNotServed() throws IOException {
+    Assert.assertEquals(404, get("/WEB-INF/web.xml").getResponseCode());
+    Assert.assertEquals(404, get("/web-inf/web.xml").getResponseCode());
+    Assert.assertEquals(404, get("/META-INF/app.css").getResponseCode());
+  }
+
+  @Test
+  public void testFiltersOfTheWebappApplyFirst() throws IOException {
+    HttpURLConnection connection = get("/private/app.css");
+    Assert.assertEquals(403, connection.getResponseCode());
+    Assert.assertNull(connection.getHeaderField("Content-Encoding"));
+  }
+
+  @Test
+  public void testProtectedPathsAreCaseInsensitive() {
+    Assert.assertTrue(StaticResourceFilter.isProtected("/WEB-INF/web.xml"));
+    Assert.assertTrue(StaticResourceFilter.isProtected("/web-inf/web.xml"));
+    Assert.assertTrue(StaticResourceFilter.isProtected("/Meta-Inf/MANIFEST.MF"));
+    Assert.assertTrue(StaticResourceFilter.isProtected("/WEB-INF"));
+    Assert.assertFalse(StaticResourceFilter.isProtected("/WEB-INFO/app.css"));
+    Assert.assertFalse(StaticResourceFilter.isProtected("/public/app.css"));
+  }
+
+  private HttpURLConnection get(String path) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+    connection.setRequestProperty("Accept-Encoding", "gzip");
+    InputStream in = connection.getResponseCode() >= 400 ? connection.getErrorStream() : connection.getInputStream();
+    if (in == null) {
+      return connection;
+    }
+    try {
+      while (in.read() != -1) {
+        // drain
+      }
+    } finally {
+      in.close();
+    }
+    return connection;
+  }
+
+  private static void writeCss(File file) throws IOException {
+    file.getParentFile().mkdirs();
+    OutputStream out = new FileOutputStream(file);
+    try {
+      for (int i = 0; i < 200; i++) {
+        out.write("body { margin: 0; padding: 0; }\n".getBytes("UTF-8"));
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  public static class ForbiddenFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException {
+      ((HttpServletResponse) response).sendError(HttpServletResponse.SC_FORBIDDEN);
+    }
+
+    @Override
+    public void destroy() {
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package webapp.runner.launch.scan;
+
+import org.apache.catalina.deploy.FilterDef;
+import org.apache.catalina.deploy.FilterMap;
+import org.apache.catalina.deploy.ServletDef;
+import org.apache.catalina.deploy.WebXml;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingContextConfigTest {
+
+  private WebXml fragment;
+
+  @Before
+  public void setUp() {
+    // as declared in web-fragment.xml
+    fragment = new WebXml();
+    ServletDef servlet = new ServletDef();
+    servlet.setServletName("api");
+    servlet.setServletClass("com.example.ApiServlet");
+    fragment.addServlet(servlet);
+    FilterDef filter = new FilterDef();
+    filter.setFilterName("auth");
+    filter.setFilterClass("com.example.AuthFilter");
+    fragment.addFilter(filter);
+  }
+
+  @Test
+  public void testServletMappingAddedToDeclaredServletIsFound() {
+    String before = CachingContextConfig.snapshot(fragment);
+    fragment.addServletMapping("/api/*", "api");
+
+    Assert.assertFalse(before.equals(CachingContextConfig.snapshot(fragment)));
+  }
+
+  @Test
+  public void testInitParameterAddedToDeclaredServletIsFound() {
+    String before = CachingContextConfig.snapshot(fragment);
+    fragment.getServlets().get("api").addInitParameter("version", "2");
+
+    Assert.assertFalse(before.equals(CachingContextConfig.snapshot(fragment)));
+  }
+
+  @Test
+  public void testFilterMappingAddedToDeclaredFilterIsFound() {
+    String before = CachingContextConfig.snapshot(fragment);
+    FilterMap mapping = new FilterMap();
+    mapping.setFilterName("auth");
+    mapping.addURLPattern("/api/*");
+    fragment.addFilterMapping(mapping);
+
+    Assert.assertFalse(before.equals(CachingContextConfig.snapshot(fragment)));
+  }
+
+  @Test
+  public void testInitParameterAddedToDeclaredFilterIsFound() {
+    String before = CachingContextConfig.snapshot(fragment);
+    fragment.getFilters().get("auth").addInitParameter("realm", "api");
+
+    Assert.assertFalse(before.equals(CachingContextConfig.snapshot(fragment)));
+  }
+
+  @Test
+  public void testUnchangedFragmentIsNotFound() {
+    Assert.assertEquals(CachingContextConfig.snapshot(fragment), CachingContextConfig.snapshot(fragment));
+  }
+}
@@ -0,0 +1,88 @@
+package webapp.runner.launch.scan;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class JarScanCacheTest {
+
+  private File dir;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = File.createTempFile("jar-scan-cache", "");
+    dir.delete();
+    dir.mkdirs();
+  }
+
+  @After
+  public void tearDown() {
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  private File jar(String name, String... entries) throws Exception {
+    File jar = new File(dir, name);
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    for (String entry : entries) {
+      out.putNextEntry(new ZipEntry(entry));
+      out.write(entry.getBytes("UTF-8"));
+      out.closeEntry();
+    }
+    out.close();
+    return jar;
+  }
+
+  @Test
+  public void testTldsAreFoundInTheCentralDirectory() throws Exception {
+    JarScanCache cache = new JarScanCache(new File(dir, "cache.properties"));
+
+    Assert.assertTrue(cache.mayContainTlds(jar("taglib.jar", "META-INF/", "META-INF/tags/c.tld")));
+    Assert.assertFalse(cache.mayContainTlds(jar("plain.jar", "META-INF/MANIFEST.MF", "a/B.class")));
+  }
+
+  @Test
+  public void testResultsSurviveARestart() throws Exception {
+    File jar = jar("lib.jar", "a/B.class");
+    JarScanCache cache = new JarScanCache(new File(dir, "cache.properties"));
+    cache.setWithoutAnnotations(jar, "1234:all");
+    cache.save();
+
+    JarScanCache restarted = new JarScanCache(new File(dir, "cache.properties"));
+    restarted.load();
+
+    Assert.assertTrue(restarted.isWithoutAnnotations(jar, "1234:all"));
+    Assert.assertFalse(restarted.isWithoutAnnotations(jar, "5678:all"));
+  }
+
+  @Test
+  public void testSameContentWithNewTimestampKeepsResults() throws Exception {
+    File jar = jar("lib.jar", "a/B.class");
+    JarScanCache cache = new JarScanCache(new File(dir, "cache.properties"));
+    cache.setWithoutAnnotations(jar, "key");
+
+    jar.setLastModified(jar.lastModified() - 60000);
+
+    Assert.assertTrue(cache.isWithoutAnnotations(jar, "key"));
+  }
+
+  @Test
+  public void testChangedContentIsScannedAgain() throws Exception {
+    File jar = jar("lib.jar", "a/B.class");
+    JarScanCache cache = new JarScanCache(new File(dir, "cache.properties"));
+    cache.setWithoutAnnotations(jar, "key");
+
+    jar("lib.jar", "a/B.class", "a/C.class");
+    jar.setLastModified(jar.lastModified() - 60000);
+
+    Assert.assertFalse(cache.isWithoutAnnotations(jar, "key"));
+  }
+}
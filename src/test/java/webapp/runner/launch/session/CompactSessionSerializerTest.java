@@ -0,0 +1,98 @@
+package webapp.runner.launch.session;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CompactSessionSerializerTest {
+
+  private final CompactSessionSerializer serializer = new CompactSessionSerializer();
+
+  private Object roundTrip(SessionSerializer serializer, Object value) throws Exception {
+    return serializer.deserialize(serializer.serialize(value), getClass().getClassLoader());
+  }
+
+  static class Bean implements Serializable {
+    String name;
+  }
+
+  @Test
+  public void testSimpleValues() throws Exception {
+    Object[] values = {null, "caf\u00e9", -42, Long.MAX_VALUE, true, 3.25d, 1.5f, (short) -7, (byte) 3, 'x',
+            new Date(1234567890L), new BigDecimal("12.340")};
+    for (Object value : values) {
+      Assert.assertEquals(value, roundTrip(serializer, value));
+    }
+    Assert.assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) roundTrip(serializer, new byte[]{1, 2, 3}));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testCollectionsKeepTheirTypeAndOrder() throws Exception {
+    Map<String, Object> map = new LinkedHashMap<String, Object>();
+    map.put("z", 1);
+    map.put("a", new ArrayList<Object>(Arrays.asList("x", 2L, null)));
+    map.put("m", new HashMap<String, Object>());
+
+    Object copy = roundTrip(serializer, map);
+
+    Assert.assertEquals(LinkedHashMap.class, copy.getClass());
+    Assert.assertEquals(map, copy);
+    Assert.assertEquals(Arrays.asList("z", "a", "m"), new ArrayList<String>(((Map<String, Object>) copy).keySet()));
+  }
+
+  @Test
+  public void testSmallerThanJavaSerialization() throws Exception {
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("userId", 12345L);
+    map.put("locale", "en_US");
+    map.put("roles", new ArrayList<Object>(Arrays.asList("user", "admin")));
+
+    Assert.assertTrue(serializer.serialize(map).length * 3 < new JavaSessionSerializer().serialize(map).length);
+  }
+
+  @Test
+  public void testSharedReferencesFallBackToJavaSerialization() throws Exception {
+    List<Object> shared = new ArrayList<Object>();
+    List<Object> list = new ArrayList<Object>(Arrays.asList(shared, shared));
+
+    List<?> copy = (List<?>) roundTrip(serializer, list);
+
+    Assert.assertSame(copy.get(0), copy.get(1));
+  }
+
+  @Test
+  public void testOtherTypesFallBackToJavaSerialization() throws Exception {
+    Bean bean = new Bean();
+    bean.name = "bean";
+
+    Map<?, ?> copy = (Map<?, ?>) roundTrip(serializer, new HashMap<String, Object>(Collections.singletonMap("b", bean)));
+
+    Assert.assertEquals("bean", ((Bean) copy.get("b")).name);
+  }
+
+  @Test
+  public void testCompression() throws Exception {
+    CompressingSessionSerializer compressing = new CompressingSessionSerializer(serializer, 100);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      text.append("repeated session content ");
+    }
+
+    byte[] data = compressing.serialize(text.toString());
+
+    Assert.assertTrue(data.length < text.length() / 4);
+    Assert.assertEquals(text.toString(), compressing.deserialize(data, null));
+    Assert.assertEquals("short", roundTrip(compressing, "short"));
+  }
+}
@@ -0,0 +1,87 @@
+package webapp.runner.launch.session;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class OffHeapBlockStoreTest {
+
+  private static byte[] data(int length, int seed) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (i * 31 + seed);
+    }
+    return data;
+  }
+
+  @Test
+  public void testRoundTripAcrossBlocks() throws Exception {
+    OffHeapBlockStore store = new OffHeapBlockStore(64 * 1024, 1024, null);
+    byte[] session = data(3500, 7);
+
+    Assert.assertTrue(store.put("a", session, 0));
+
+    Assert.assertArrayEquals(session, store.get("a"));
+    Assert.assertEquals(4 * 1024, store.getUsedBytes());
+  }
+
+  @Test
+  public void testReplaceReleasesBlocks() throws Exception {
+    OffHeapBlockStore store = new OffHeapBlockStore(8 * 1024, 1024, null);
+    store.put("a", data(4000, 1), 0);
+    store.put("a", data(100, 2), 0);
+
+    Assert.assertArrayEquals(data(100, 2), store.get("a"));
+    Assert.assertEquals(1024, store.getUsedBytes());
+    Assert.assertEquals(1, store.getEntryCount());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvictedAtCapacity() throws Exception {
+    OffHeapBlockStore store = new OffHeapBlockStore(4 * 1024, 1024, null);
+    store.put("a", data(2000, 1), 0);
+    store.put("b", data(2000, 2), 0);
+    store.get("a");
+
+    store.put("c", data(2000, 3), 0);
+
+    Assert.assertNull(store.get("b"));
+    Assert.assertArrayEquals(data(2000, 1), store.get("a"));
+    Assert.assertArrayEquals(data(2000, 3), store.get("c"));
+    Assert.assertEquals(1, store.getEvictionCount());
+  }
+
+  @Test
+  public void testEntryLargerThanCapacityIsRejected() throws Exception {
+    OffHeapBlockStore store = new OffHeapBlockStore(2 * 1024, 1024, null);
+
+    Assert.assertFalse(store.put("a", data(3000, 1), 0));
+    Assert.assertEquals(0, store.getEntryCount());
+  }
+
+  @Test
+  public void testExpiredKeys() throws Exception {
+    OffHeapBlockStore store = new OffHeapBlockStore(8 * 1024, 1024, null);
+    store.put("expired", data(10, 1), 1000);
+    store.put("valid", data(10, 2), 5000);
+    store.put("eternal", data(10, 3), 0);
+
+    Assert.assertEquals(Arrays.asList("expired"), Arrays.asList(store.expiredKeys(2000)));
+  }
+
+  @Test
+  public void testMappedFile() throws Exception {
+    File file = File.createTempFile("sessions", ".bin");
+    try {
+      OffHeapBlockStore store = new OffHeapBlockStore(16 * 1024, 1024, file);
+      store.put("a", data(5000, 4), 0);
+
+      Assert.assertArrayEquals(data(5000, 4), store.get("a"));
+      store.close();
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package webapp.runner.launch.session;
+
+import org.junit.Assert;
+import org.junit.Test;
+import webapp.runner.launch.jfr.FlightRecorderEvents;
+
+import javax.servlet.http.HttpSession;
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class RemoteSessionFilterTest {
+
+  private final Map<String, Object> store = new ConcurrentHashMap<String, Object>();
+
+  @Test
+  public void testEventsOnlyCoverWhatReachesTheSessionStore() throws Exception {
+    if (!FlightRecorderEvents.enable()) {
+      // no flight recorder in this JVM
+      return;
+    }
+    store.put("cart", "a");
+    SessionWriteBehindQueue writeBehind = new SessionWriteBehindQueue(10, 100, null);
+    RemoteSessionFilter filter = new RemoteSessionFilter(new SessionNearCache(100, 60000), null, writeBehind, null);
+    filter.setEventBackend("redis");
+    writeBehind.start();
+
+    // the recording API is not available when compiling for Java 6
+    Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+    Object recording = recordingClass.newInstance();
+    recordingClass.getMethod("enable", String.class).invoke(recording,
+            FlightRecorderEvents.Type.SESSION_STORE.getName());
+    File file = File.createTempFile("events", ".jfr");
+    recordingClass.getMethod("start").invoke(recording);
+    try {
+      HttpSession session = filter.wrap(remoteSession());
+      Assert.assertEquals("a", session.getAttribute("cart"));
+      // served by the near cache
+      Assert.assertEquals("a", session.getAttribute("cart"));
+      session.setAttribute("cart", "b");
+      long deadline = System.currentTimeMillis() + 5000;
+      while (!"b".equals(store.get("cart")) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      writeBehind.stop();
+
+      recordingClass.getMethod("stop").invoke(recording);
+      Class<?> pathClass = Class.forName("java.nio.file.Path");
+      Object path = File.class.getMethod("toPath").invoke(file);
+      recordingClass.getMethod("dump", pathClass).invoke(recording, path);
+
+      List<String> operations = new ArrayList<String>();
+      for (Object recorded : (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+              .getMethod("readAllEvents", pathClass).invoke(null, path)) {
+        Object type = recorded.getClass().getMethod("getEventType").invoke(recorded);
+        if (!FlightRecorderEvents.Type.SESSION_STORE.getName().equals(type.getClass().getMethod("getName").invoke(type))) {
+          continue;
+        }
+        String operation = (String) recorded.getClass().getMethod("getValue", String.class).invoke(recorded, "operation");
+        Object thread = recorded.getClass().getMethod("getThread").invoke(recorded);
+        operations.add(operation + "@" + thread.getClass().getMethod("getJavaName").invoke(thread));
+      }
+      Assert.assertEquals(2, operations.size());
+      Assert.assertTrue(operations.contains("load@" + Thread.currentThread().getName()));
+      Assert.assertTrue(operations.contains("save@session-write-behind"));
+    } finally {
+      recordingClass.getMethod("close").invoke(recording);
+      file.delete();
+    }
+  }
+
+  private HttpSession remoteSession() {
+    return (HttpSession) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{HttpSession.class},
+            new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getId")) {
+                  return "session";
+                } else if (name.equals("getAttribute")) {
+                  return store.get(args[0]);
+                } else if (name.equals("setAttribute")) {
+                  store.put((String) args[0], args[1]);
+                }
+                return null;
+              }
+            });
+  }
+}
@@ -0,0 +1,78 @@
+package webapp.runner.launch.session;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.servlet.http.HttpSession;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+public class SessionNearCacheTest {
+
+  /**
+   * The remote session, shared by all nodes.
+   */
+  private final Map<String, Object> store = new HashMap<String, Object>();
+  private final SessionNearCache cache = new SessionNearCache(100, 60000);
+  private boolean changeDuringRead;
+
+  @Test
+  public void testValueIsServedFromCache() {
+    store.put("cart", "a");
+    HttpSession session = new NearCacheSession(remoteSession(), cache, null);
+    Assert.assertEquals("a", session.getAttribute("cart"));
+    store.put("cart", "b");
+
+    Assert.assertEquals("a", session.getAttribute("cart"));
+    Assert.assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void testValueReadBeforeInvalidationIsNotCached() {
+    store.put("cart", "a");
+    changeDuringRead = true;
+    HttpSession session = new NearCacheSession(remoteSession(), cache, null);
+    // another node changes the session after the value was read, but before it is cached
+    Assert.assertEquals("a", session.getAttribute("cart"));
+    changeDuringRead = false;
+
+    Assert.assertEquals("b", session.getAttribute("cart"));
+    Assert.assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void testInvalidationDropsCachedValues() {
+    store.put("cart", "a");
+    HttpSession session = new NearCacheSession(remoteSession(), cache, null);
+    session.getAttribute("cart");
+    store.put("cart", "b");
+    cache.invalidate("session");
+
+    Assert.assertEquals("b", session.getAttribute("cart"));
+    Assert.assertEquals(1, cache.getInvalidationCount());
+  }
+
+  private HttpSession remoteSession() {
+    return (HttpSession) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{HttpSession.class},
+            new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getId")) {
+                  return "session";
+                } else if (name.equals("getAttribute")) {
+                  Object value = store.get(args[0]);
+                  if (changeDuringRead) {
+                    store.put((String) args[0], "b");
+                    cache.invalidate("session");
+                  }
+                  return value;
+                }
+                return null;
+              }
+            });
+  }
+}
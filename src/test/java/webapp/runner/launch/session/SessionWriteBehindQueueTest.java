@@ -0,0 +1,157 @@
+package webapp.runner.launch.session;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.servlet.http.HttpSession;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SessionWriteBehindQueueTest {
+
+  /**
+   * The remote session, shared by all nodes.
+   */
+  private final Map<String, Object> store = new ConcurrentHashMap<String, Object>();
+  private volatile int setCount;
+  /**
+   * Counted down when a write of the value {@link #BLOCKED_VALUE} starts, which then waits for {@link #unblock}.
+   */
+  private final CountDownLatch blocked = new CountDownLatch(1);
+  private final CountDownLatch unblock = new CountDownLatch(1);
+  private static final String BLOCKED_VALUE = "blocked";
+
+  @Test
+  public void testValueReadAndWrittenBackUnchangedIsSkipped() {
+    SessionWriteBehindQueue queue = new SessionWriteBehindQueue(100, 100, null);
+    store.put("cart", "a");
+
+    HttpSession session = new WriteBehindSession(remoteSession(), queue);
+    session.setAttribute("cart", session.getAttribute("cart"));
+
+    Assert.assertEquals(0, setCount);
+    Assert.assertEquals(1, queue.getSkipCount());
+  }
+
+  @Test
+  public void testChangeOfAnotherNodeIsNotAssumed() {
+    SessionWriteBehindQueue queue = new SessionWriteBehindQueue(100, 100, null);
+    new WriteBehindSession(remoteSession(), queue).setAttribute("cart", "a");
+    // another node writes the session
+    store.put("cart", "b");
+
+    new WriteBehindSession(remoteSession(), queue).setAttribute("cart", "a");
+
+    Assert.assertEquals("a", store.get("cart"));
+    Assert.assertEquals(2, setCount);
+  }
+
+  @Test
+  public void testValueReadBeforeWriteOfThisNodeIsStale() {
+    SessionWriteBehindQueue queue = new SessionWriteBehindQueue(100, 100, null);
+    store.put("cart", "a");
+    HttpSession first = new WriteBehindSession(remoteSession(), queue);
+    Assert.assertEquals("a", first.getAttribute("cart"));
+
+    new WriteBehindSession(remoteSession(), queue).setAttribute("cart", "b");
+    first.setAttribute("cart", "a");
+
+    Assert.assertEquals("a", store.get("cart"));
+    Assert.assertEquals(0, queue.getSkipCount());
+  }
+
+  @Test
+  public void testSecondWriteInRequestIsNotComparedToValueRead() {
+    SessionWriteBehindQueue queue = new SessionWriteBehindQueue(100, 100, null);
+    store.put("cart", "a");
+
+    HttpSession session = new WriteBehindSession(remoteSession(), queue);
+    session.getAttribute("cart");
+    session.setAttribute("cart", "b");
+    session.setAttribute("cart", "a");
+
+    Assert.assertEquals("a", store.get("cart"));
+    Assert.assertEquals(0, queue.getSkipCount());
+  }
+
+  @Test
+  public void testChangeIsWrittenWhenFlushDelayHasPassed() throws InterruptedException {
+    SessionWriteBehindQueue queue = new SessionWriteBehindQueue(400, 100, null);
+    queue.start();
+    try {
+      Thread.sleep(5);
+      long changed = System.currentTimeMillis();
+      new WriteBehindSession(remoteSession(), queue).setAttribute("cart", "a");
+      while (!store.containsKey("cart") && System.currentTimeMillis() - changed < 5000) {
+        Thread.sleep(1);
+      }
+      long delay = System.currentTimeMillis() - changed;
+
+      Assert.assertTrue("written after " + delay + " ms", delay >= 400 && delay < 550);
+    } finally {
+      queue.stop();
+    }
+  }
+
+  @Test
+  public void testOlderChangeDoesNotOverwriteNewerOne() throws Exception {
+    // not started, so every change is written by the request
+    final SessionWriteBehindQueue queue = new SessionWriteBehindQueue(100, 100, null);
+    Thread first = new Thread() {
+      @Override
+      public void run() {
+        new WriteBehindSession(remoteSession(), queue).setAttribute("cart", BLOCKED_VALUE);
+      }
+    };
+    first.start();
+    Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+    // the second change is recorded while the first one is being written
+    Thread second = new Thread() {
+      @Override
+      public void run() {
+        new WriteBehindSession(remoteSession(), queue).setAttribute("cart", "b");
+      }
+    };
+    second.start();
+    second.join(200);
+    unblock.countDown();
+    first.join(5000);
+    second.join(5000);
+
+    Assert.assertEquals("b", store.get("cart"));
+  }
+
+  private HttpSession remoteSession() {
+    return (HttpSession) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{HttpSession.class},
+            new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getId")) {
+                  return "session";
+                } else if (name.equals("getAttribute")) {
+                  return store.get(args[0]);
+                } else if (name.equals("setAttribute")) {
+                  if (BLOCKED_VALUE.equals(args[1])) {
+                    blocked.countDown();
+                    try {
+                      unblock.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                    }
+                  }
+                  setCount++;
+                  store.put((String) args[0], args[1]);
+                } else if (name.equals("removeAttribute")) {
+                  store.remove(args[0]);
+                }
+                return null;
+              }
+            });
+  }
+}